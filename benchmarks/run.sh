@@ -0,0 +1,12 @@
+#!/usr/bin/env bash
+# Builds the application and the benchmarks and runs them with the GC profiler, storing the results in results/ under
+# the current date and commit. Extra arguments are passed to JMH, e.g. ./run.sh ActivityDecodingBenchmark -p activities=200
+set -euo pipefail
+
+cd "$(dirname "$0")"
+(cd .. && mvn -B -q install -DskipTests)
+mvn -B -q package
+
+result="results/$(date +%Y-%m-%d)-$(git rev-parse --short HEAD).json"
+java -jar target/benchmarks.jar -prof gc -rf json -rff "$result" "$@"
+echo "Results stored in $result"
@@ -0,0 +1,85 @@
+package nl.thomas.stravaclient.benchmarks;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.thomas.strava.model.DetailedActivity;
+import nl.thomas.stravaclient.client.ActivitySummary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning Strava activity lists into the generated model, for a small response, a full page of 200 and the
+ * equivalent of a large history. The ObjectMapper is configured the same way as the one the WebClient uses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ActivityDecodingBenchmark {
+
+    private static final TypeReference<List<DetailedActivity>> ACTIVITY_LIST = new TypeReference<>() {
+    };
+    private static final TypeReference<List<ActivitySummary>> ACTIVITY_SUMMARY_LIST = new TypeReference<>() {
+    };
+    private static final ResolvableType ACTIVITY_LIST_TYPE = ResolvableType.forClassWithGenerics(List.class, DetailedActivity.class);
+
+    @Param({"10", "200", "10000"})
+    int activities;
+
+    private byte[] payload;
+    private ObjectMapper objectMapper;
+    private Jackson2JsonDecoder decoder;
+
+    @Setup
+    public void setUp() throws IOException {
+        payload = Payloads.activities(activities);
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        decoder = new Jackson2JsonDecoder(objectMapper);
+        decoder.setMaxInMemorySize(-1);
+        // Fails fast when the generated model no longer matches the fixtures
+        objectMapper.readValue(Payloads.activitiesSample(), ACTIVITY_LIST);
+    }
+
+    @Benchmark
+    public List<DetailedActivity> objectMapper() throws IOException {
+        return objectMapper.readValue(payload, ACTIVITY_LIST);
+    }
+
+    /**
+     * The projection used for {@code fields=}: everything but the summary fields is skipped while parsing.
+     */
+    @Benchmark
+    public List<ActivitySummary> summaries() throws IOException {
+        return objectMapper.readValue(payload, ACTIVITY_SUMMARY_LIST);
+    }
+
+    /**
+     * The path a page of activities takes in StravaClient: the body is joined into one buffer and decoded as a whole.
+     */
+    @Benchmark
+    public Object webClientDecoder() {
+        DataBuffer dataBuffer = DefaultDataBufferFactory.sharedInstance.wrap(payload);
+        return decoder.decode(dataBuffer, ACTIVITY_LIST_TYPE, MediaType.APPLICATION_JSON, null);
+    }
+}
@@ -0,0 +1,49 @@
+package nl.thomas.stravaclient.benchmarks;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Response time of the simulated Strava, parsed from {@code fixed:<ms>}, {@code uniform:<min ms>:<max ms>} or
+ * {@code lognormal:<median ms>:<p99 ms>}. Real response times are closest to the log-normal one: most responses are
+ * quick, with a long tail of slow ones.
+ */
+interface LatencyDistribution {
+
+    /**
+     * The z-score of the 99th percentile of the standard normal distribution.
+     */
+    double Z_99 = 2.3263;
+
+    Duration next();
+
+    static LatencyDistribution parse(String specification) {
+        String[] parts = specification.split(":");
+        try {
+            return switch (parts[0]) {
+                case "fixed" -> {
+                    Duration latency = Duration.ofMillis(Long.parseLong(parts[1]));
+                    yield () -> latency;
+                }
+                case "uniform" -> {
+                    long min = Long.parseLong(parts[1]);
+                    long max = Long.parseLong(parts[2]);
+                    yield () -> Duration.ofMillis(ThreadLocalRandom.current().nextLong(min, max + 1));
+                }
+                case "lognormal" -> {
+                    double median = Double.parseDouble(parts[1]);
+                    double p99 = Double.parseDouble(parts[2]);
+                    if (median <= 0 || p99 < median) {
+                        throw new IllegalArgumentException("The median must be positive and at most the 99th percentile");
+                    }
+                    double mu = Math.log(median);
+                    double sigma = Math.log(p99 / median) / Z_99;
+                    yield () -> Duration.ofNanos((long) (Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian()) * 1_000_000));
+                }
+                default -> throw new IllegalArgumentException("Unknown distribution " + parts[0]);
+            };
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("Expected fixed:<ms>, uniform:<min>:<max> or lognormal:<median>:<p99> but got \"%s\"".formatted(specification), e);
+        }
+    }
+}
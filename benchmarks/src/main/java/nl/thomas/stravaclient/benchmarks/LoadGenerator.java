@@ -0,0 +1,232 @@
+package nl.thomas.stravaclient.benchmarks;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.http.client.HttpClient;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives the application at a fixed rate, regardless of how quickly it answers: request n is due at n / rps seconds
+ * after the start and its latency is measured from that moment, not from when it could be sent. A slow application
+ * therefore shows up as high latencies instead of as a lower request rate (coordinated omission). Requests are spread
+ * over the athletes and, by weight, over the endpoints of the mix, and every athlete is passed as the X-Athlete header.
+ */
+final class LoadGenerator {
+
+    static final String ATHLETE_HEADER = "X-Athlete";
+    private static final long HIGHEST_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(10);
+    private static final Duration TICK = Duration.ofMillis(1);
+
+    enum Endpoint {
+        ATHLETE, ACTIVITIES, RENAME;
+
+        String getKey() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final HttpClient httpClient;
+    private final SimulatedStrava strava;
+    private final List<Long> athleteIds;
+    private final Endpoint[] mix;
+    private final int activitiesPerAthlete;
+    private final AtomicLong renames = new AtomicLong();
+
+    /**
+     * @param mix weight per endpoint, e.g. {@code athlete=2,activities=7,rename=1}
+     */
+    LoadGenerator(HttpClient httpClient, SimulatedStrava strava, int activitiesPerAthlete, String mix) {
+        this.httpClient = httpClient;
+        this.strava = strava;
+        this.athleteIds = strava.athleteIds();
+        this.activitiesPerAthlete = activitiesPerAthlete;
+        this.mix = parseMix(mix);
+    }
+
+    Report run(double rps, Duration duration) {
+        long requests = (long) (rps * duration.toNanos() / 1e9);
+        double intervalNanos = 1e9 / rps;
+        Map<Endpoint, Result> results = new EnumMap<>(Endpoint.class);
+        for (Endpoint endpoint : Endpoint.values()) {
+            results.put(endpoint, new Result());
+        }
+        long start = System.nanoTime();
+        AtomicLong sent = new AtomicLong();
+        Flux.interval(TICK)
+                .onBackpressureDrop()
+                .concatMapIterable(tick -> {
+                    long due = Math.min(requests, (long) ((System.nanoTime() - start) / intervalNanos) + 1);
+                    List<Long> intendedStarts = new ArrayList<>();
+                    for (long n = sent.get(); n < due; n++) {
+                        intendedStarts.add(start + (long) (n * intervalNanos));
+                    }
+                    sent.set(due);
+                    return intendedStarts;
+                })
+                .take(requests)
+                .flatMap(intendedStart -> {
+                    Endpoint endpoint = mix[ThreadLocalRandom.current().nextInt(mix.length)];
+                    Result result = results.get(endpoint);
+                    return send(endpoint)
+                            .onErrorResume(e -> Mono.just(e.getClass().getSimpleName()))
+                            .doOnNext(outcome -> result.record(outcome, intendedStart));
+                }, Integer.MAX_VALUE)
+                .blockLast();
+        return new Report(rps, Duration.ofNanos(System.nanoTime() - start), results);
+    }
+
+    /**
+     * Sends one request and returns the status code as outcome.
+     */
+    private Mono<String> send(Endpoint endpoint) {
+        long athleteId = athleteIds.get(ThreadLocalRandom.current().nextInt(athleteIds.size()));
+        HttpClient client = httpClient.headers(headers -> headers
+                .set(ATHLETE_HEADER, athleteId)
+                // GET /athlete logs the session cookie and rejects requests without one
+                .set("Cookie", "JSESSIONID=load-test-" + athleteId)
+                .set("Accept", "application/json")
+                .set("Content-Type", "application/json"));
+        HttpClient.ResponseReceiver<?> request = switch (endpoint) {
+            case ATHLETE -> client.get().uri("/athlete");
+            case ACTIVITIES -> client.get().uri(activitiesWindow());
+            case RENAME -> {
+                long activityId = strava.activityId(athleteId, ThreadLocalRandom.current().nextInt(activitiesPerAthlete));
+                String body = "{\"activityId\":\"%d\",\"newName\":\"Load test %d\"}".formatted(activityId, renames.incrementAndGet());
+                yield client.put().uri("/activity/name").send(ByteBufFlux.fromString(Mono.just(body)));
+            }
+        };
+        return request.responseSingle((response, body) -> body.asByteArray()
+                .then(Mono.just(String.valueOf(response.status().code()))));
+    }
+
+    /**
+     * A window of one week up to three months somewhere in the history of the athletes.
+     */
+    private String activitiesWindow() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long days = random.nextLong(7, 91);
+        Instant oldest = strava.oldestStart();
+        long historyDays = Math.max(1, activitiesPerAthlete - days);
+        LocalDateTime after = LocalDateTime.ofInstant(oldest, ZoneOffset.UTC).plusDays(random.nextLong(historyDays)).minusHours(12);
+        return "/athlete/activities?after=%s&before=%s&timeZone=UTC".formatted(after, after.plusDays(days));
+    }
+
+    private static Endpoint[] parseMix(String mix) {
+        List<Endpoint> weighted = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] keyAndWeight = entry.trim().split("=");
+            Endpoint endpoint = Arrays.stream(Endpoint.values())
+                    .filter(candidate -> candidate.getKey().equals(keyAndWeight[0]))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown endpoint %s in mix %s".formatted(keyAndWeight[0], mix)));
+            int weight = keyAndWeight.length > 1 ? Integer.parseInt(keyAndWeight[1]) : 1;
+            for (int i = 0; i < weight; i++) {
+                weighted.add(endpoint);
+            }
+        }
+        if (weighted.isEmpty()) {
+            throw new IllegalArgumentException("The mix %s has no endpoints".formatted(mix));
+        }
+        return weighted.toArray(Endpoint[]::new);
+    }
+
+    /**
+     * Latencies and outcomes of the requests to one endpoint. Anything but a 2xx counts as an error.
+     */
+    static final class Result {
+
+        private final Histogram latencies = new ConcurrentHistogram(HIGHEST_LATENCY_MICROS, 3);
+        private final LongAdder errors = new LongAdder();
+        private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+        void record(String outcome, long intendedStart) {
+            latencies.recordValue(Math.clamp(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedStart), 1, HIGHEST_LATENCY_MICROS));
+            if (!outcome.startsWith("2")) {
+                errors.increment();
+            }
+            outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+        }
+
+        long requests() {
+            return latencies.getTotalCount();
+        }
+
+        long errors() {
+            return errors.sum();
+        }
+
+        Histogram latencies() {
+            return latencies;
+        }
+
+        Map<String, Long> outcomes() {
+            Map<String, Long> sorted = new TreeMap<>();
+            outcomes.forEach((outcome, count) -> sorted.put(outcome, count.sum()));
+            return sorted;
+        }
+    }
+
+    record Report(double targetRps, Duration elapsed, Map<Endpoint, Result> results) {
+
+        long requests() {
+            return results.values().stream().mapToLong(Result::requests).sum();
+        }
+
+        double errorRate() {
+            long requests = requests();
+            return requests == 0 ? 0 : (double) results.values().stream().mapToLong(Result::errors).sum() / requests;
+        }
+
+        /**
+         * The latency at the percentile over all endpoints, in milliseconds.
+         */
+        double percentile(double percentile) {
+            Histogram all = new Histogram(HIGHEST_LATENCY_MICROS, 3);
+            results.values().forEach(result -> all.add(result.latencies()));
+            return all.getValueAtPercentile(percentile) / 1000.0;
+        }
+
+        void print(PrintStream out) {
+            double seconds = elapsed.toNanos() / 1e9;
+            out.printf("%nTarget %.1f requests/s, %d requests in %.1f s: %.1f requests/s%n", targetRps, requests(), seconds, requests() / seconds);
+            out.printf("%-12s %9s %9s %8s %10s %10s %10s %10s %10s  %s%n",
+                    "endpoint", "requests", "req/s", "errors", "error %", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "outcomes");
+            results.forEach((endpoint, result) -> {
+                Histogram latencies = result.latencies();
+                out.printf("%-12s %9d %9.1f %8d %10.2f %10.1f %10.1f %10.1f %10.1f  %s%n",
+                        endpoint.getKey(),
+                        result.requests(),
+                        result.requests() / seconds,
+                        result.errors(),
+                        result.requests() == 0 ? 0 : 100.0 * result.errors() / result.requests(),
+                        latencies.getValueAtPercentile(50) / 1000.0,
+                        latencies.getValueAtPercentile(99) / 1000.0,
+                        latencies.getValueAtPercentile(99.9) / 1000.0,
+                        latencies.getMaxValue() / 1000.0,
+                        result.outcomes());
+            });
+            out.printf("%-12s %9d %9.1f %8s %10.2f %10.1f %10.1f %10.1f%n",
+                    "all", requests(), requests() / seconds, "", 100 * errorRate(), percentile(50), percentile(99), percentile(99.9));
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package nl.thomas.stravaclient.benchmarks;
+
+import jakarta.servlet.http.HttpServletRequest;
+import nl.thomas.stravaclient.StravaClientApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
+import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.AnonymousAuthenticationFilter;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.context.ServerSecurityContextRepository;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Capacity test of the whole application against a {@link SimulatedStrava}: starts both, lets the
+ * {@link LoadGenerator} warm up the application and then drive it at the target rate, and prints throughput, latency
+ * percentiles and errors per endpoint. Run it with {@code mvn -P load-test verify} in this directory, passing options
+ * as {@code -Dload.<option>=<value>}, or directly with {@code --<option>=<value>}:
+ * <ul>
+ *     <li>{@code mode}: servlet (default), virtual-threads or reactive</li>
+ *     <li>{@code rps}, {@code duration} and {@code warmup}: target rate and how long to keep it up (50, 60s and 10s)</li>
+ *     <li>{@code mix}: weight per endpoint (athlete=2,activities=7,rename=1)</li>
+ *     <li>{@code latency}: response time of Strava, see {@link LatencyDistribution} (lognormal:80:400)</li>
+ *     <li>{@code rate-limit}: requests Strava allows per 15 minutes and per day (100000,1000000)</li>
+ *     <li>{@code error-rate} and {@code throttle-rate}: share of Strava responses that are a 5xx or a 429 (0.01 and 0)</li>
+ *     <li>{@code athletes} and {@code activities}: number of athletes and activities per athlete (20 and 2000)</li>
+ *     <li>{@code max-error-rate} and {@code max-p99}: when given, the test fails if the error rate or the p99 latency
+ *     over all endpoints is higher</li>
+ * </ul>
+ * Any other argument, e.g. {@code --strava.http.max-connections=50}, is passed to the application.
+ */
+public final class LoadTest {
+
+    private static final Map<String, String> DEFAULTS = Map.ofEntries(
+            Map.entry("mode", "servlet"),
+            Map.entry("rps", "50"),
+            Map.entry("duration", "60s"),
+            Map.entry("warmup", "10s"),
+            Map.entry("mix", "athlete=2,activities=7,rename=1"),
+            Map.entry("latency", "lognormal:80:400"),
+            Map.entry("rate-limit", "100000,1000000"),
+            Map.entry("error-rate", "0.01"),
+            Map.entry("throttle-rate", "0"),
+            Map.entry("athletes", "20"),
+            Map.entry("activities", "2000"),
+            Map.entry("max-error-rate", ""),
+            Map.entry("max-p99", ""));
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        Map<String, String> applicationArguments = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --<option>=<value> but got \"%s\"".formatted(arg));
+            }
+            String key = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            (DEFAULTS.containsKey(key) ? options : applicationArguments).put(key, value);
+        }
+        String[] rateLimit = options.get("rate-limit").split(",");
+        SimulatedStrava.Settings settings = new SimulatedStrava.Settings(
+                LatencyDistribution.parse(options.get("latency")),
+                new int[]{Integer.parseInt(rateLimit[0].trim()), Integer.parseInt(rateLimit[1].trim())},
+                Double.parseDouble(options.get("error-rate")),
+                Double.parseDouble(options.get("throttle-rate")),
+                Integer.parseInt(options.get("athletes")),
+                Integer.parseInt(options.get("activities")));
+        double rps = Double.parseDouble(options.get("rps"));
+
+        LoadGenerator.Report report;
+        long stravaRequests;
+        try (SimulatedStrava strava = new SimulatedStrava(settings);
+             ConfigurableApplicationContext application = start(options, applicationArguments, strava)) {
+            saveAuthorizedClients(application, strava.athleteIds());
+            int port = ((WebServerApplicationContext) application).getWebServer().getPort();
+            ConnectionProvider connectionProvider = ConnectionProvider.builder("load")
+                    .maxConnections(10_000)
+                    .pendingAcquireMaxCount(-1)
+                    .build();
+            try {
+                HttpClient httpClient = HttpClient.create(connectionProvider)
+                        .baseUrl("http://localhost:%d".formatted(port))
+                        .responseTimeout(Duration.ofMinutes(1));
+                LoadGenerator loadGenerator = new LoadGenerator(httpClient, strava, settings.activitiesPerAthlete(), options.get("mix"));
+                Duration warmup = DurationStyle.detectAndParse(options.get("warmup"));
+                if (!warmup.isZero()) {
+                    System.out.printf("Warming up %s for %s at %.1f requests/s%n", options.get("mode"), warmup, rps);
+                    loadGenerator.run(rps, warmup);
+                }
+                long stravaRequestsBefore = strava.getRequestCount();
+                System.out.printf("Running %s for %s at %.1f requests/s%n", options.get("mode"), options.get("duration"), rps);
+                report = loadGenerator.run(rps, DurationStyle.detectAndParse(options.get("duration")));
+                stravaRequests = strava.getRequestCount() - stravaRequestsBefore;
+            } finally {
+                connectionProvider.disposeLater().block();
+            }
+            report.print(System.out);
+            System.out.printf("Simulated Strava: %d requests during the run; since the start %d injected 5xx, %d injected 429 and %d beyond the rate limit%n",
+                    stravaRequests, strava.getInjectedErrorCount(), strava.getInjectedThrottleCount(), strava.getRateLimitedCount());
+        }
+
+        boolean passed = true;
+        if (!options.get("max-error-rate").isEmpty() && report.errorRate() > Double.parseDouble(options.get("max-error-rate"))) {
+            System.out.printf("FAILED: error rate %.4f is above %s%n", report.errorRate(), options.get("max-error-rate"));
+            passed = false;
+        }
+        if (!options.get("max-p99").isEmpty() && report.percentile(99) > DurationStyle.detectAndParse(options.get("max-p99")).toMillis()) {
+            System.out.printf("FAILED: p99 latency %.1f ms is above %s%n", report.percentile(99), options.get("max-p99"));
+            passed = false;
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static ConfigurableApplicationContext start(Map<String, String> options, Map<String, String> applicationArguments, SimulatedStrava strava) throws Exception {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("server.port", "0");
+        properties.put("strava.baseurl", "http://localhost:%d/".formatted(strava.port()));
+        properties.put("strava.rate-limit.default-limits", options.get("rate-limit"));
+        properties.put("strava.store.directory", Files.createTempDirectory("load-test").toString());
+        properties.put("strava.auth.store", "memory");
+        properties.put("strava.session.store", "server");
+        properties.put("spring.security.oauth2.client.registration.strava.client-id", "load-test");
+        properties.put("spring.security.oauth2.client.registration.strava.client-secret", "load-test");
+        properties.put("logging.level.root", "warn");
+        // As arguments, because default properties would lose from application.yaml
+        properties.putAll(applicationArguments);
+        String mode = options.get("mode");
+        return new SpringApplicationBuilder(StravaClientApplication.class, AthleteFromHeader.class)
+                .profiles(mode.equals("servlet") ? new String[0] : new String[]{mode})
+                .run(properties.entrySet().stream().map(property -> "--%s=%s".formatted(property.getKey(), property.getValue())).toArray(String[]::new));
+    }
+
+    private static void saveAuthorizedClients(ConfigurableApplicationContext application, List<Long> athleteIds) {
+        ClientRegistrationRepository registrations = application.getBean(ClientRegistrationRepository.class);
+        OAuth2AuthorizedClientService authorizedClientService = application.getBean(OAuth2AuthorizedClientService.class);
+        for (long athleteId : athleteIds) {
+            OAuth2AccessToken accessToken = new OAuth2AccessToken(
+                    OAuth2AccessToken.TokenType.BEARER, SimulatedStrava.token(athleteId), Instant.now(), Instant.now().plus(Duration.ofDays(1)));
+            authorizedClientService.saveAuthorizedClient(
+                    new OAuth2AuthorizedClient(registrations.findByRegistrationId("strava"), String.valueOf(athleteId), accessToken),
+                    new TestingAuthenticationToken(String.valueOf(athleteId), null));
+        }
+    }
+
+    /**
+     * Takes the place of the OAuth2 login: every request is let through as the athlete in the X-Athlete header. Like
+     * the one of {@link ServerModeBenchmark}, only registered as a source of the application.
+     */
+    static class AthleteFromHeader {
+
+        @Bean
+        @Order(Ordered.HIGHEST_PRECEDENCE)
+        @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+        SecurityFilterChain athleteFromHeaderFilterChain(HttpSecurity http) throws Exception {
+            return http
+                    .securityMatcher("/**")
+                    .csrf(csrf -> csrf.disable())
+                    .addFilterBefore((request, response, chain) -> {
+                        OAuth2AuthenticationToken authentication = authentication(((HttpServletRequest) request).getHeader(LoadGenerator.ATHLETE_HEADER));
+                        if (authentication != null) {
+                            SecurityContextHolder.getContext().setAuthentication(authentication);
+                        }
+                        chain.doFilter(request, response);
+                    }, AnonymousAuthenticationFilter.class)
+                    .authorizeHttpRequests(authorize -> authorize.anyRequest().authenticated())
+                    .build();
+        }
+
+        @Bean
+        @Order(Ordered.HIGHEST_PRECEDENCE)
+        @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+        SecurityWebFilterChain athleteFromHeaderWebFilterChain(ServerHttpSecurity http) {
+            return http
+                    .csrf(ServerHttpSecurity.CsrfSpec::disable)
+                    .securityContextRepository(new ServerSecurityContextRepository() {
+                        @Override
+                        public Mono<Void> save(ServerWebExchange exchange, SecurityContext context) {
+                            return Mono.empty();
+                        }
+
+                        @Override
+                        public Mono<SecurityContext> load(ServerWebExchange exchange) {
+                            return Mono.justOrEmpty(authentication(exchange.getRequest().getHeaders().getFirst(LoadGenerator.ATHLETE_HEADER)))
+                                    .map(SecurityContextImpl::new);
+                        }
+                    })
+                    .authorizeExchange(authorize -> authorize.anyExchange().authenticated())
+                    .build();
+        }
+
+        private static OAuth2AuthenticationToken authentication(String athleteId) {
+            if (athleteId == null) {
+                return null;
+            }
+            DefaultOAuth2User athlete = new DefaultOAuth2User(List.of(), Map.of("id", athleteId), "id");
+            return new OAuth2AuthenticationToken(athlete, List.of(), "strava");
+        }
+    }
+}
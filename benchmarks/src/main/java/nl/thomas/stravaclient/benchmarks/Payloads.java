@@ -0,0 +1,44 @@
+package nl.thomas.stravaclient.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+/**
+ * Builds Strava responses from the fixtures of the application tests.
+ */
+final class Payloads {
+
+    private static final String ACTIVITY = read("activity-sample.json");
+
+    private Payloads() {
+    }
+
+    /**
+     * A JSON array with {@code count} copies of the sample activity.
+     */
+    static byte[] activities(int count) {
+        return ("[" + String.join(",", Collections.nCopies(count, ACTIVITY)) + "]").getBytes(StandardCharsets.UTF_8);
+    }
+
+    static byte[] activity() {
+        return ACTIVITY.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static byte[] activitiesSample() {
+        return read("activities-sample.json").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String read(String resource) {
+        try (InputStream inputStream = Payloads.class.getClassLoader().getResourceAsStream(resource)) {
+            if (inputStream == null) {
+                throw new IllegalStateException("Fixture %s is missing from the classpath".formatted(resource));
+            }
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8).strip();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read fixture %s".formatted(resource), e);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package nl.thomas.stravaclient.benchmarks;
+
+import nl.thomas.stravaclient.StravaClientApplication;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.config.annotation.web.builders.HttpSecurity;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bursts of concurrent /athlete/activities requests against the whole application, started in the servlet, virtual
+ * threads or reactive profile, while every Strava call takes {@code upstreamLatency} milliseconds. One operation is a
+ * burst of {@code concurrency} requests that all have to complete. Every request asks for another window, so that none
+ * is coalesced, and the store is disabled, so that every request goes to the stub. The heap in use and the number of
+ * live threads after each iteration are printed, run with -prof gc for the allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgs = {"-Xmx1g"})
+public class ServerModeBenchmark {
+
+    private static final String ATHLETE_ID = "2523456";
+    private static final LocalDateTime AFTER = LocalDateTime.parse("2024-01-01T00:00:00");
+
+    @Param({"servlet", "virtual-threads", "reactive"})
+    String mode;
+
+    @Param({"1000"})
+    int concurrency;
+
+    @Param({"200"})
+    int upstreamLatency;
+
+    private DisposableServer strava;
+    private ConfigurableApplicationContext application;
+    private ConnectionProvider connectionProvider;
+    private HttpClient httpClient;
+    private int burst;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // Less than a full page, so every request is a single Strava call
+        byte[] page = Payloads.activities(10);
+        strava = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .route(routes -> routes.get("/athlete/activities", (request, response) -> response
+                        .header("Content-Type", "application/json")
+                        .header("X-RateLimit-Limit", "1000000000,1000000000")
+                        .header("X-RateLimit-Usage", "0,0")
+                        .sendByteArray(Mono.delay(Duration.ofMillis(upstreamLatency))
+                                .thenReturn(page))))
+                .bindNow();
+        // As arguments, because default properties would lose from application.yaml
+        application = new SpringApplicationBuilder(StravaClientApplication.class, AnonymousAthlete.class)
+                .profiles(mode.equals("servlet") ? new String[0] : new String[]{mode})
+                .run("--server.port=0",
+                        "--strava.baseurl=http://localhost:%d/".formatted(strava.port()),
+                        "--strava.http.max-connections=" + concurrency,
+                        "--strava.http.pending-acquire-max-count=-1",
+                        // A burst must not run into the timeouts on a small machine, as failures would end the benchmark
+                        "--strava.http.pending-acquire-timeout=1m",
+                        "--strava.http.response-timeout=1m",
+                        "--strava.http.read-timeout=1m",
+                        "--strava.rate-limit.default-limits=1000000000,1000000000",
+                        "--strava.store.enabled=false",
+                        "--strava.store.directory=" + Files.createTempDirectory("benchmark"),
+                        "--spring.security.oauth2.client.registration.strava.client-id=benchmark",
+                        "--spring.security.oauth2.client.registration.strava.client-secret=benchmark",
+                        "--logging.level.root=warn");
+        saveAuthorizedClient(application);
+        int port = ((WebServerApplicationContext) application).getWebServer().getPort();
+        connectionProvider = ConnectionProvider.builder("load").maxConnections(concurrency).pendingAcquireMaxCount(-1).build();
+        httpClient = HttpClient.create(connectionProvider).baseUrl("http://localhost:%d".formatted(port));
+    }
+
+    @TearDown(Level.Iteration)
+    public void footprint() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.out.printf("%n%s: %d MB heap in use, %d live threads%n",
+                mode,
+                memory.getHeapMemoryUsage().getUsed() / (1024 * 1024),
+                ManagementFactory.getThreadMXBean().getThreadCount());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        application.close();
+        connectionProvider.disposeLater().block();
+        strava.disposeNow();
+    }
+
+    @Benchmark
+    public long burst() {
+        int offset = burst++ * concurrency;
+        return Flux.range(offset, concurrency)
+                .flatMap(window -> httpClient.get()
+                        .uri("/athlete/activities?after=%s&before=%s&timeZone=UTC".formatted(AFTER.plusSeconds(window), AFTER.plusYears(1)))
+                        .responseSingle((response, body) -> {
+                            if (response.status().code() != 200) {
+                                return Mono.error(new IllegalStateException("Unexpected status " + response.status()));
+                            }
+                            return body.asByteArray().map(bytes -> bytes.length);
+                        }), concurrency)
+                .count()
+                .block();
+    }
+
+    private static void saveAuthorizedClient(ConfigurableApplicationContext application) {
+        ClientRegistrationRepository registrations = application.getBean(ClientRegistrationRepository.class);
+        OAuth2AccessToken accessToken = new OAuth2AccessToken(
+                OAuth2AccessToken.TokenType.BEARER, "benchmark", Instant.now(), Instant.now().plus(Duration.ofDays(1)));
+        application.getBean(OAuth2AuthorizedClientService.class).saveAuthorizedClient(
+                new OAuth2AuthorizedClient(registrations.findByRegistrationId("strava"), ATHLETE_ID, accessToken),
+                new TestingAuthenticationToken(ATHLETE_ID, null));
+    }
+
+    /**
+     * Takes the place of the OAuth2 login: every request is let through as the same athlete. Registered as a source of
+     * the application rather than annotated as configuration, which the component scan of the application would find.
+     */
+    static class AnonymousAthlete {
+
+        private static final OAuth2User ATHLETE = new DefaultOAuth2User(List.of(), Map.of("id", ATHLETE_ID), "id");
+
+        @Bean
+        @Order(Ordered.HIGHEST_PRECEDENCE)
+        @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+        SecurityFilterChain anonymousAthleteFilterChain(HttpSecurity http) throws Exception {
+            return http
+                    .securityMatcher("/**")
+                    .csrf(csrf -> csrf.disable())
+                    .anonymous(anonymous -> anonymous.principal(ATHLETE))
+                    .authorizeHttpRequests(authorize -> authorize.anyRequest().permitAll())
+                    .build();
+        }
+
+        @Bean
+        @Order(Ordered.HIGHEST_PRECEDENCE)
+        @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+        SecurityWebFilterChain anonymousAthleteWebFilterChain(ServerHttpSecurity http) {
+            return http
+                    .csrf(ServerHttpSecurity.CsrfSpec::disable)
+                    .anonymous(anonymous -> anonymous.principal(ATHLETE))
+                    .authorizeExchange(authorize -> authorize.anyExchange().permitAll())
+                    .build();
+        }
+    }
+}
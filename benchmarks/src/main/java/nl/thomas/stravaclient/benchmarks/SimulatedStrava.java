@@ -0,0 +1,335 @@
+package nl.thomas.stravaclient.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.LongStream;
+
+/**
+ * A stand-in for the Strava API with synthetic athletes, each with an activity a day going back
+ * {@code activitiesPerAthlete} days. It answers GET /athlete, GET /athlete/activities, GET /activities/{id} and
+ * PUT /activities/{id} after a delay drawn from the latency distribution, counts every request against a 15-minute and
+ * a daily limit as Strava does, reporting both in the rate limit headers, and answers a share of the requests with a
+ * 429 or a 5xx regardless of the limits. The access token of an athlete is {@code athlete-<id>}, see {@link #token}.
+ */
+final class SimulatedStrava implements AutoCloseable {
+
+    static final long FIRST_ATHLETE_ID = 1000;
+    private static final long ACTIVITY_IDS_PER_ATHLETE = 1_000_000;
+    private static final long ACTIVITY_SPACING = Duration.ofDays(1).toSeconds();
+    private static final int[] SERVER_ERRORS = {500, 502, 503, 504};
+    private static final String TOKEN_PREFIX = "athlete-";
+
+    /**
+     * @param latency              response time of every request
+     * @param rateLimits           requests allowed per 15 minutes and per day
+     * @param errorRate            share of requests answered with a random 5xx
+     * @param throttleRate         share of requests answered with a 429 while within the limits
+     * @param athletes             number of synthetic athletes
+     * @param activitiesPerAthlete length of the activity history of every athlete
+     */
+    record Settings(
+            LatencyDistribution latency,
+            int[] rateLimits,
+            double errorRate,
+            double throttleRate,
+            int athletes,
+            int activitiesPerAthlete) {
+    }
+
+    private final Settings settings;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ActivityTemplate template;
+    private final long oldestStart;
+    private final Map<Long, String> renamed = new ConcurrentHashMap<>();
+    private final int[] usages = new int[2];
+    private long currentQuarter;
+    private long currentDay;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong injectedErrorCount = new AtomicLong();
+    private final AtomicLong injectedThrottleCount = new AtomicLong();
+    private final AtomicLong rateLimitedCount = new AtomicLong();
+    private final DisposableServer server;
+
+    SimulatedStrava(Settings settings) {
+        this.settings = settings;
+        this.template = new ActivityTemplate(objectMapper, Payloads.activity());
+        Instant newestStart = Instant.now().truncatedTo(ChronoUnit.DAYS).plus(Duration.ofHours(7));
+        this.oldestStart = newestStart.getEpochSecond() - (settings.activitiesPerAthlete() - 1) * ACTIVITY_SPACING;
+        this.server = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .route(routes -> routes
+                        .get("/athlete", (request, response) -> respond(request, response, athleteId -> Mono.just(athlete(athleteId))))
+                        .get("/athlete/activities", (request, response) -> respond(request, response, athleteId -> Mono.just(activities(athleteId, request))))
+                        .get("/activities/{id}", (request, response) -> respond(request, response, athleteId -> Mono.just(activity(athleteId, request.param("id")))))
+                        .put("/activities/{id}", (request, response) -> respond(request, response, athleteId -> request.receive()
+                                .aggregate()
+                                .asString(StandardCharsets.UTF_8)
+                                .map(body -> rename(athleteId, request.param("id"), body)))))
+                .bindNow();
+    }
+
+    static String token(long athleteId) {
+        return TOKEN_PREFIX + athleteId;
+    }
+
+    List<Long> athleteIds() {
+        return LongStream.range(FIRST_ATHLETE_ID, FIRST_ATHLETE_ID + settings.athletes()).boxed().toList();
+    }
+
+    long activityId(long athleteId, int index) {
+        return athleteId * ACTIVITY_IDS_PER_ATHLETE + index;
+    }
+
+    Instant oldestStart() {
+        return Instant.ofEpochSecond(oldestStart);
+    }
+
+    int port() {
+        return server.port();
+    }
+
+    long getRequestCount() {
+        return requestCount.get();
+    }
+
+    long getInjectedErrorCount() {
+        return injectedErrorCount.get();
+    }
+
+    long getInjectedThrottleCount() {
+        return injectedThrottleCount.get();
+    }
+
+    long getRateLimitedCount() {
+        return rateLimitedCount.get();
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+    }
+
+    private Mono<Void> respond(HttpServerRequest request, HttpServerResponse response, Function<Long, Mono<Reply>> handler) {
+        requestCount.incrementAndGet();
+        int[] usage = countRequest();
+        response.header("X-RateLimit-Limit", settings.rateLimits()[0] + "," + settings.rateLimits()[1]);
+        response.header("X-RateLimit-Usage", usage[0] + "," + usage[1]);
+        Long athleteId = athleteId(request.requestHeaders().get(HttpHeaders.AUTHORIZATION));
+        Mono<Reply> reply;
+        double draw = ThreadLocalRandom.current().nextDouble();
+        if (athleteId == null) {
+            reply = Mono.just(Reply.error(401, "Authorization Error"));
+        } else if (usage[0] > settings.rateLimits()[0] || usage[1] > settings.rateLimits()[1]) {
+            rateLimitedCount.incrementAndGet();
+            reply = Mono.just(Reply.error(429, "Rate Limit Exceeded"));
+        } else if (draw < settings.throttleRate()) {
+            injectedThrottleCount.incrementAndGet();
+            reply = Mono.just(Reply.error(429, "Rate Limit Exceeded"));
+        } else if (draw < settings.throttleRate() + settings.errorRate()) {
+            injectedErrorCount.incrementAndGet();
+            reply = Mono.just(Reply.error(SERVER_ERRORS[ThreadLocalRandom.current().nextInt(SERVER_ERRORS.length)], "Server Error"));
+        } else {
+            reply = handler.apply(athleteId);
+        }
+        return Mono.delay(settings.latency().next())
+                .then(reply)
+                .flatMap(r -> response.status(HttpResponseStatus.valueOf(r.status()))
+                        .header("Content-Type", "application/json")
+                        .sendByteArray(Mono.just(r.body()))
+                        .then());
+    }
+
+    private synchronized int[] countRequest() {
+        long now = Instant.now().getEpochSecond();
+        long quarter = now / Duration.ofMinutes(15).toSeconds();
+        long day = now / Duration.ofDays(1).toSeconds();
+        if (quarter != currentQuarter) {
+            currentQuarter = quarter;
+            usages[0] = 0;
+        }
+        if (day != currentDay) {
+            currentDay = day;
+            usages[1] = 0;
+        }
+        usages[0]++;
+        usages[1]++;
+        return usages.clone();
+    }
+
+    private Long athleteId(String authorization) {
+        if (authorization == null || !authorization.startsWith("Bearer " + TOKEN_PREFIX)) {
+            return null;
+        }
+        try {
+            long athleteId = Long.parseLong(authorization.substring(("Bearer " + TOKEN_PREFIX).length()));
+            return athleteId >= FIRST_ATHLETE_ID && athleteId < FIRST_ATHLETE_ID + settings.athletes() ? athleteId : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private Reply athlete(long athleteId) {
+        String athlete = "{\"id\":%d,\"resource_state\":2,\"firstname\":\"Athlete\",\"lastname\":\"%d\",\"city\":\"Utrecht\"}"
+                .formatted(athleteId, athleteId);
+        return new Reply(200, athlete.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The activities that started after and before the given epoch seconds, oldest first, as Strava returns them when
+     * asked for a window.
+     */
+    private Reply activities(long athleteId, HttpServerRequest request) {
+        MultiValueMap<String, String> query = UriComponentsBuilder.fromUriString(request.uri()).build().getQueryParams();
+        long after = Long.parseLong(query.getFirst("after"));
+        long before = Long.parseLong(query.getFirst("before"));
+        int page = Integer.parseInt(query.getFirst("page"));
+        int perPage = Integer.parseInt(query.getFirst("per_page"));
+        long first = Math.max(0, Math.floorDiv(after - oldestStart, ACTIVITY_SPACING) + 1) + (long) (page - 1) * perPage;
+        long last = Math.min(settings.activitiesPerAthlete() - 1, Math.min(
+                Math.ceilDiv(before - oldestStart, ACTIVITY_SPACING) - 1,
+                first + perPage - 1));
+        StringBuilder body = new StringBuilder("[");
+        for (long index = first; index <= last; index++) {
+            if (index > first) {
+                body.append(',');
+            }
+            body.append(render(athleteId, (int) index));
+        }
+        return new Reply(200, body.append(']').toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Reply activity(long athleteId, String id) {
+        Integer index = index(athleteId, id);
+        return index == null
+                ? Reply.error(404, "Record Not Found")
+                : new Reply(200, render(athleteId, index).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Reply rename(long athleteId, String id, String body) {
+        Integer index = index(athleteId, id);
+        if (index == null) {
+            return Reply.error(404, "Record Not Found");
+        }
+        try {
+            JsonNode name = objectMapper.readTree(body).get("name");
+            if (name != null && name.isTextual()) {
+                renamed.put(activityId(athleteId, index), name.asText());
+            }
+        } catch (JsonProcessingException e) {
+            return Reply.error(400, "Bad Request");
+        }
+        return new Reply(200, render(athleteId, index).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The index of an activity in the history of the athlete, or null when the activity belongs to someone else.
+     */
+    private Integer index(long athleteId, String id) {
+        try {
+            long activityId = Long.parseLong(id);
+            long index = activityId - athleteId * ACTIVITY_IDS_PER_ATHLETE;
+            return index >= 0 && index < settings.activitiesPerAthlete() ? (int) index : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private String render(long athleteId, int index) {
+        long activityId = activityId(athleteId, index);
+        Instant start = Instant.ofEpochSecond(oldestStart + index * ACTIVITY_SPACING);
+        return template.render(activityId, athleteId, renamed.getOrDefault(activityId, "Activity " + index), start);
+    }
+
+    private record Reply(int status, byte[] body) {
+
+        static Reply error(int status, String message) {
+            return new Reply(status, "{\"message\":\"%s\",\"errors\":[]}".formatted(message).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * The sample activity cut into literal parts around the values that differ per activity, so that rendering an
+     * activity is a matter of appending strings rather than building and writing a tree.
+     */
+    private static final class ActivityTemplate {
+
+        private static final Pattern PLACEHOLDER = Pattern.compile("\"\\{\\{(\\w+)}}\"");
+
+        private final ObjectMapper objectMapper;
+        private final List<String> literals = new ArrayList<>();
+        private final List<String> placeholders = new ArrayList<>();
+
+        ActivityTemplate(ObjectMapper objectMapper, byte[] sample) {
+            this.objectMapper = objectMapper;
+            try {
+                ObjectNode activity = (ObjectNode) objectMapper.readTree(sample);
+                activity.put("id", "{{id}}");
+                activity.put("name", "{{name}}");
+                activity.put("start_date", "{{start}}");
+                activity.put("start_date_local", "{{start}}");
+                ((ObjectNode) activity.get("athlete")).put("id", "{{athlete}}");
+                String json = objectMapper.writeValueAsString(activity);
+                Matcher matcher = PLACEHOLDER.matcher(json);
+                int end = 0;
+                while (matcher.find()) {
+                    literals.add(json.substring(end, matcher.start()));
+                    placeholders.add(matcher.group(1));
+                    end = matcher.end();
+                }
+                literals.add(json.substring(end));
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not build the activity template", e);
+            }
+        }
+
+        String render(long activityId, long athleteId, String name, Instant start) {
+            StringBuilder activity = new StringBuilder(literals.getFirst());
+            for (int i = 0; i < placeholders.size(); i++) {
+                activity.append(switch (placeholders.get(i)) {
+                    case "id" -> String.valueOf(activityId);
+                    case "athlete" -> String.valueOf(athleteId);
+                    case "name" -> quote(name);
+                    case "start" -> quote(start.toString());
+                    default -> throw new IllegalStateException("Unknown placeholder " + placeholders.get(i));
+                });
+                activity.append(literals.get(i + 1));
+            }
+            return activity.toString();
+        }
+
+        private String quote(String value) {
+            try {
+                return objectMapper.writeValueAsString(value);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package nl.thomas.stravaclient.benchmarks;
+
+import nl.thomas.strava.model.DetailedActivity;
+import nl.thomas.stravaclient.client.RateLimitBudget;
+import nl.thomas.stravaclient.client.RequestCoalescer;
+import nl.thomas.stravaclient.client.StravaClient;
+import nl.thomas.stravaclient.client.StravaResilience;
+import nl.thomas.stravaclient.client.StravaResilienceProperties;
+import nl.thomas.stravaclient.client.TokenService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.oauth2.client.AuthorizedClientServiceOAuth2AuthorizedClientManager;
+import org.springframework.security.oauth2.client.InMemoryOAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests per second StravaClient handles end to end against an in-process stub of the Strava API on localhost,
+ * including paging, coalescing, HTTP and decoding. The rate limit scheduler is left out, as it would throttle the
+ * benchmark to the Strava budget.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StravaClientThroughputBenchmark {
+
+    private static final ZonedDateTime AFTER = ZonedDateTime.parse("2024-01-01T00:00:00Z");
+    private static final ZonedDateTime BEFORE = ZonedDateTime.parse("2025-01-01T00:00:00Z");
+
+    /**
+     * Activities in the requested window, served in pages of 200 like Strava does.
+     */
+    @Param({"10", "200", "1000"})
+    int activities;
+
+    private DisposableServer server;
+    private StravaClient stravaClient;
+    private OAuth2User oAuth2User;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        byte[] activity = Payloads.activity();
+        server = HttpServer.create()
+                .host("localhost")
+                .port(0)
+                .route(routes -> routes
+                        .get("/athlete/activities", (request, response) -> {
+                            MultiValueMap<String, String> query = UriComponentsBuilder.fromUriString(request.uri()).build().getQueryParams();
+                            int page = Integer.parseInt(query.getFirst("page"));
+                            int perPage = Integer.parseInt(query.getFirst("per_page"));
+                            int count = Math.clamp(activities - (long) (page - 1) * perPage, 0, perPage);
+                            return response.header("Content-Type", "application/json")
+                                    .sendByteArray(Mono.just(Payloads.activities(count)));
+                        })
+                        .get("/activities/{id}", (request, response) -> response.header("Content-Type", "application/json")
+                                .sendByteArray(Mono.just(activity))))
+                .bindNow();
+        WebClient webClient = WebClient.builder()
+                .baseUrl("http://localhost:%d/".formatted(server.port()))
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(4 * 1024 * 1024))
+                .build();
+        stravaClient = new StravaClient(webClient, tokenService(), new RequestCoalescer(), resilience());
+        oAuth2User = new DefaultOAuth2User(List.of(), Map.of("id", "2523456"), "id");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.disposeNow();
+    }
+
+    @Benchmark
+    public List<DetailedActivity> activitiesWindow() {
+        return stravaClient.getDetailedActivities(oAuth2User, AFTER, BEFORE).collectList().block();
+    }
+
+    @Benchmark
+    public DetailedActivity singleActivity() {
+        return stravaClient.getDetailedActivity(oAuth2User, 1155632529L).block();
+    }
+
+    /**
+     * The default policy, so that the overhead of timeouts and retries is part of the measurement.
+     */
+    private static StravaResilience resilience() {
+        StravaResilienceProperties properties = new StravaResilienceProperties(
+                null, Map.of(), 0.5, new StravaResilienceProperties.CircuitBreaker(true, 20, 10, 0.5, Duration.ofSeconds(30)));
+        return new StravaResilience(properties, new RateLimitBudget("200,2000", 0.2));
+    }
+
+    private static TokenService tokenService() {
+        ClientRegistration registration = ClientRegistration.withRegistrationId("strava")
+                .clientId("benchmark")
+                .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+                .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")
+                .authorizationUri("http://localhost/oauth/authorize")
+                .tokenUri("http://localhost/oauth/token")
+                .build();
+        InMemoryClientRegistrationRepository registrations = new InMemoryClientRegistrationRepository(registration);
+        InMemoryOAuth2AuthorizedClientService authorizedClientService = new InMemoryOAuth2AuthorizedClientService(registrations);
+        OAuth2AccessToken accessToken = new OAuth2AccessToken(
+                OAuth2AccessToken.TokenType.BEARER, "benchmark", Instant.now(), Instant.now().plus(Duration.ofDays(1)));
+        authorizedClientService.saveAuthorizedClient(
+                new OAuth2AuthorizedClient(registration, "2523456", accessToken),
+                new TestingAuthenticationToken("2523456", null));
+        return new TokenService(
+                authorizedClientService,
+                new AuthorizedClientServiceOAuth2AuthorizedClientManager(registrations, authorizedClientService),
+                Duration.ofMinutes(5));
+    }
+}
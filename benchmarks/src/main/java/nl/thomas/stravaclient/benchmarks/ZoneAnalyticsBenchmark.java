@@ -0,0 +1,92 @@
+package nl.thomas.stravaclient.benchmarks;
+
+import nl.thomas.stravaclient.client.ActivityStreams;
+import nl.thomas.stravaclient.client.AthleteZones;
+import nl.thomas.stravaclient.zones.ActivityLoad;
+import nl.thomas.stravaclient.zones.ZoneAnalytics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Time in zone, normalized power and training impulse of a season of rides of three hours each, recorded every
+ * second, one point at a time and a vector of points at a time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ZoneAnalyticsBenchmark {
+
+    private static final int POINTS = 3 * 60 * 60;
+    private static final AthleteZones ZONES = new AthleteZones(
+            new AthleteZones.ZoneRanges(false, List.of(
+                    new AthleteZones.ZoneRange(0, 123),
+                    new AthleteZones.ZoneRange(123, 153),
+                    new AthleteZones.ZoneRange(153, 169),
+                    new AthleteZones.ZoneRange(169, 184),
+                    new AthleteZones.ZoneRange(184, -1))),
+            new AthleteZones.ZoneRanges(null, List.of(
+                    new AthleteZones.ZoneRange(0, 138),
+                    new AthleteZones.ZoneRange(138, 188),
+                    new AthleteZones.ZoneRange(188, 225),
+                    new AthleteZones.ZoneRange(225, 263),
+                    new AthleteZones.ZoneRange(263, 300),
+                    new AthleteZones.ZoneRange(300, 375),
+                    new AthleteZones.ZoneRange(375, -1))));
+
+    @Param({"1", "200"})
+    int activities;
+    @Param({"false", "true"})
+    boolean vectorized;
+
+    private List<ActivityStreams> rides;
+    private ZoneAnalytics zoneAnalytics;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        rides = IntStream.range(0, activities)
+                .mapToObj(activity -> ride(activity, random))
+                .toList();
+        zoneAnalytics = new ZoneAnalytics(null, 1, activities, vectorized);
+        if (zoneAnalytics.isVectorized() != vectorized) {
+            throw new IllegalStateException("The Vector API is not available");
+        }
+    }
+
+    private static ActivityStreams ride(long activityId, SplittableRandom random) {
+        int[] time = IntStream.range(0, POINTS).toArray();
+        int[] heartrate = new int[POINTS];
+        int[] watts = new int[POINTS];
+        boolean[] moving = new boolean[POINTS];
+        int effort = 200;
+        for (int i = 0; i < POINTS; i++) {
+            effort = Math.clamp(effort + random.nextInt(-15, 16), 0, 450);
+            watts[i] = effort;
+            heartrate[i] = 100 + effort / 4 + random.nextInt(-3, 4);
+            moving[i] = random.nextInt(100) != 0;
+        }
+        return new ActivityStreams(activityId, POINTS, POINTS, time, null, null, null, null, null, heartrate, null, watts, null, moving, null);
+    }
+
+    @Benchmark
+    public List<ActivityLoad> analyze() {
+        return zoneAnalytics.analyze(rides, ZONES);
+    }
+}
@@ -0,0 +1,85 @@
+#!/usr/bin/env bash
+# Measures the startup time and resident memory of the application in three modes: the executable jar as is (jar), the
+# extracted jar with a class data sharing archive (cds), and the same built with the aot profile (aot-cds). Every mode
+# is started RUNS (5) times on a random port in an empty directory, and stopped as soon as it has logged that it
+# started. The time is the "process running for" of that log line, so it includes the start of the JVM. Extra arguments
+# are passed to the Maven build, e.g. ./startup.sh -Ptrimmed-model. Results are stored in results/ under the current
+# date and commit, and the median per mode is printed. Reads /proc, so Linux only.
+set -euo pipefail
+
+cd "$(dirname "$0")"
+runs="${RUNS:-5}"
+jar=stravaclient-0.0.1-SNAPSHOT.jar
+work="$(mktemp -d)"
+trap 'rm -rf "$work"' EXIT
+# Only needed to start; nobody logs in
+export STRAVA_CLIENT_ID="${STRAVA_CLIENT_ID:-startup}" STRAVA_CLIENT_SECRET="${STRAVA_CLIENT_SECRET:-startup}"
+
+# extract <name>: the executable jar of the last build, as is and extracted, in $work/<name>
+extract() {
+  mkdir -p "$work/$1"
+  cp "../target/$jar" "$work/$1/"
+  java -Djarmode=tools -jar "../target/$jar" extract --destination "$work/$1/app" > /dev/null
+}
+
+# train <name> <jvm options>: starts once up to the refresh of the context and archives the classes loaded until then
+train() {
+  local name="$1"
+  shift
+  (cd "$work/$name" && java -XX:ArchiveClassesAtExit=app.jsa -Dspring.context.exit=onRefresh "$@" -jar "app/$jar" > train.log 2>&1)
+}
+
+# start <name> <jar> <jvm options>: prints the seconds until started and the resident memory in MB at that moment
+start() {
+  local name="$1" path="$2"
+  shift 2
+  local log="$work/$name/run.log"
+  (cd "$work/$name" && rm -rf data && exec java "$@" -jar "$path" --server.port=0 > "$log" 2>&1) &
+  local pid=$!
+  for _ in $(seq 1200); do
+    if grep -q "Started StravaClientApplication" "$log"; then
+      local rss seconds
+      rss=$(awk '/^VmRSS:/ {printf "%.0f", $2 / 1024}' "/proc/$pid/status")
+      seconds=$(sed -n 's/.*process running for \([0-9.]*\)).*/\1/p' "$log")
+      kill "$pid"
+      wait "$pid" || true
+      echo "$seconds,$rss"
+      return
+    fi
+    if ! kill -0 "$pid" 2> /dev/null; then
+      cat "$log" >&2
+      return 1
+    fi
+    sleep 0.1
+  done
+  kill "$pid"
+  echo "$name did not start within two minutes" >&2
+  return 1
+}
+
+(cd .. && mvn -B -q package -DskipTests "$@")
+extract plain
+train plain
+(cd .. && mvn -B -q package -DskipTests -Paot "$@")
+extract aot
+train aot -Dspring.aot.enabled=true
+
+mkdir -p results
+result="results/startup-$(date +%Y-%m-%d)-$(git rev-parse --short HEAD).csv"
+echo "mode,run,seconds,rss_mb" > "$result"
+for run in $(seq "$runs"); do
+  echo "jar,$run,$(start plain "$jar")" >> "$result"
+  echo "cds,$run,$(start plain "app/$jar" -XX:SharedArchiveFile=app.jsa)" >> "$result"
+  echo "aot-cds,$run,$(start aot "app/$jar" -XX:SharedArchiveFile=app.jsa -Dspring.aot.enabled=true)" >> "$result"
+done
+
+median() {
+  sort -n | awk '{ values[NR] = $1 } END { print (NR % 2 ? values[(NR + 1) / 2] : (values[NR / 2] + values[NR / 2 + 1]) / 2) }'
+}
+printf "%-8s %10s %10s\n" mode seconds rss_mb
+for mode in jar cds aot-cds; do
+  printf "%-8s %10s %10s\n" "$mode" \
+    "$(awk -F, -v mode="$mode" '$1 == mode { print $3 }' "$result" | median)" \
+    "$(awk -F, -v mode="$mode" '$1 == mode { print $4 }' "$result" | median)"
+done
+echo "Results stored in $result"
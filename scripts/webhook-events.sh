@@ -0,0 +1,35 @@
+#!/usr/bin/env bash
+# Stands in for Strava against a locally running application: validates the webhook callback the way Strava does when
+# a subscription is created, and then posts a burst of synthetic events for one activity. The burst should end up as a
+# single request to Strava for that activity.
+# Usage: ./webhook-events.sh [owner id] [activity id], with STRAVA_WEBHOOK_VERIFY_TOKEN and STRAVA_WEBHOOK_SUBSCRIPTION_ID
+# set as for the application.
+set -euo pipefail
+
+base_url="${BASE_URL:-http://localhost:8080}"
+owner_id="${1:-2523456}"
+activity_id="${2:-1155632529}"
+subscription_id="${STRAVA_WEBHOOK_SUBSCRIPTION_ID:?}"
+
+curl -sf -G "$base_url/webhook" \
+  --data-urlencode "hub.mode=subscribe" \
+  --data-urlencode "hub.challenge=$(date +%s)" \
+  --data-urlencode "hub.verify_token=${STRAVA_WEBHOOK_VERIFY_TOKEN:?}"
+echo
+
+post() {
+  curl -sf -o /dev/null -w "%{http_code} $1 $2\n" -X POST "$base_url/webhook" -H "Content-Type: application/json" -d "{
+    \"aspect_type\": \"$1\",
+    \"event_time\": $(date +%s),
+    \"object_id\": $activity_id,
+    \"object_type\": \"activity\",
+    \"owner_id\": $owner_id,
+    \"subscription_id\": $subscription_id,
+    \"updates\": $2
+  }"
+}
+
+post create '{}'
+post update '{"title": "Ochtendloop"}'
+post update '{"type": "Run"}'
+post update '{"private": "false"}'
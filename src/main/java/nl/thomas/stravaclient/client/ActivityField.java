@@ -0,0 +1,33 @@
+package nl.thomas.stravaclient.client;
+
+import java.util.Arrays;
+
+/**
+ * Fields of an activity that can be selected for an {@link ActivitySummary}, by their name in the Strava API.
+ */
+public enum ActivityField {
+    ID("id"),
+    NAME("name"),
+    START_DATE("start_date"),
+    DISTANCE("distance"),
+    MOVING_TIME("moving_time"),
+    TYPE("type");
+
+    private final String key;
+
+    ActivityField(String key) {
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public static ActivityField fromKey(String key) {
+        return Arrays.stream(values())
+                .filter(field -> field.key.equals(key))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown activity field %s, expected one of %s".formatted(
+                        key, Arrays.stream(values()).map(ActivityField::getKey).toList())));
+    }
+}
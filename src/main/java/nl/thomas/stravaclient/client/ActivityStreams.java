@@ -0,0 +1,91 @@
+package nl.thomas.stravaclient.client;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Streams of one activity as primitive columns that share the same index: the values at index i of every column
+ * belong to the same moment. Streams that were not requested or not recorded are null.
+ *
+ * @param originalSize number of points Strava recorded
+ * @param size         number of points in every column
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ActivityStreams(
+        long activityId,
+        int originalSize,
+        int size,
+        int[] time,
+        double[] distance,
+        double[] latitude,
+        double[] longitude,
+        double[] altitude,
+        double[] velocitySmooth,
+        int[] heartrate,
+        int[] cadence,
+        int[] watts,
+        int[] temp,
+        boolean[] moving,
+        double[] gradeSmooth) {
+
+    /**
+     * Keeps at most {@code maxPoints} evenly spread points of every column, always including the first and the last.
+     */
+    public ActivityStreams downsample(int maxPoints) {
+        if (size <= maxPoints) {
+            return this;
+        }
+        int[] indices = new int[Math.max(1, maxPoints)];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = indices.length == 1 ? 0 : (int) Math.round((double) i * (size - 1) / (indices.length - 1));
+        }
+        return new ActivityStreams(
+                activityId,
+                originalSize,
+                indices.length,
+                sample(time, indices),
+                sample(distance, indices),
+                sample(latitude, indices),
+                sample(longitude, indices),
+                sample(altitude, indices),
+                sample(velocitySmooth, indices),
+                sample(heartrate, indices),
+                sample(cadence, indices),
+                sample(watts, indices),
+                sample(temp, indices),
+                sample(moving, indices),
+                sample(gradeSmooth, indices));
+    }
+
+    private static int[] sample(int[] values, int[] indices) {
+        if (values == null) {
+            return null;
+        }
+        int[] sampled = new int[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            sampled[i] = values[indices[i]];
+        }
+        return sampled;
+    }
+
+    private static double[] sample(double[] values, int[] indices) {
+        if (values == null) {
+            return null;
+        }
+        double[] sampled = new double[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            sampled[i] = values[indices[i]];
+        }
+        return sampled;
+    }
+
+    private static boolean[] sample(boolean[] values, int[] indices) {
+        if (values == null) {
+            return null;
+        }
+        boolean[] sampled = new boolean[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            sampled[i] = values[indices[i]];
+        }
+        return sampled;
+    }
+}
@@ -0,0 +1,230 @@
+package nl.thomas.stravaclient.client;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decodes the streams of an activity, requested with key_by_type=true, as the response arrives. Every buffer is fed to
+ * a non-blocking Jackson parser and the values are appended to primitive columns straight away, so neither the whole
+ * response nor boxed values are held in memory:
+ * <pre>
+ * {"time": {"data": [0, 1, ...], "original_size": 3600, ...}, "latlng": {"data": [[52.07, 5.15], ...], ...}}
+ * </pre>
+ * Streams that were not asked for are skipped.
+ */
+class ActivityStreamsDecoder {
+
+    private static final int STREAM_DEPTH = 1;
+    private static final int FIELD_DEPTH = 2;
+    private static final int LATLNG_PAIR_DEPTH = 4;
+
+    private final JsonParser parser;
+    private final ByteBufferFeeder feeder;
+    private final Set<StreamType> keys;
+    private final Map<StreamType, Column> columns = new EnumMap<>(StreamType.class);
+    private int originalSize;
+    private int depth;
+    @Nullable
+    private Column current;
+    @Nullable
+    private String field;
+    private int pairIndex;
+
+    ActivityStreamsDecoder(JsonFactory jsonFactory, Set<StreamType> keys) {
+        try {
+            this.parser = jsonFactory.createNonBlockingByteBufferParser();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not create a non-blocking JSON parser", e);
+        }
+        this.feeder = (ByteBufferFeeder) parser.getNonBlockingInputFeeder();
+        this.keys = keys;
+    }
+
+    void feed(DataBuffer dataBuffer) {
+        try (DataBuffer.ByteBufferIterator byteBuffers = dataBuffer.readableByteBuffers()) {
+            while (byteBuffers.hasNext()) {
+                feeder.feedInput(byteBuffers.next());
+                parseAvailable();
+            }
+        } catch (IOException e) {
+            throw new DecodingException("Could not decode activity streams", e);
+        }
+    }
+
+    ActivityStreams finish(long activityId) {
+        try {
+            feeder.endOfInput();
+            parseAvailable();
+            parser.close();
+        } catch (IOException e) {
+            throw new DecodingException("Could not decode activity streams", e);
+        }
+        int size = columns.values().stream().mapToInt(column -> column.size).max().orElse(0);
+        Column latlng = columns.get(StreamType.LATLNG);
+        return new ActivityStreams(
+                activityId,
+                Math.max(originalSize, size),
+                size,
+                ints(StreamType.TIME, size),
+                doubles(StreamType.DISTANCE, size),
+                latlng == null ? null : trim(latlng.doubles, latlng.size, size),
+                latlng == null ? null : trim(latlng.longitudes, latlng.size, size),
+                doubles(StreamType.ALTITUDE, size),
+                doubles(StreamType.VELOCITY_SMOOTH, size),
+                ints(StreamType.HEARTRATE, size),
+                ints(StreamType.CADENCE, size),
+                ints(StreamType.WATTS, size),
+                ints(StreamType.TEMP, size),
+                booleans(size),
+                doubles(StreamType.GRADE_SMOOTH, size));
+    }
+
+    private void parseAvailable() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            switch (token) {
+                case START_OBJECT, START_ARRAY -> {
+                    depth++;
+                    pairIndex = 0;
+                }
+                case END_OBJECT, END_ARRAY -> {
+                    depth--;
+                    if (depth == STREAM_DEPTH) {
+                        current = null;
+                    }
+                }
+                case FIELD_NAME -> {
+                    if (depth == STREAM_DEPTH) {
+                        current = column(parser.currentName());
+                    } else if (depth == FIELD_DEPTH) {
+                        field = parser.currentName();
+                    }
+                }
+                case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT, VALUE_NULL, VALUE_TRUE, VALUE_FALSE -> value(token);
+                default -> {
+                    // Strings such as series_type and resolution are not needed
+                }
+            }
+        }
+    }
+
+    private void value(JsonToken token) throws IOException {
+        if (depth == FIELD_DEPTH && "original_size".equals(field) && token == JsonToken.VALUE_NUMBER_INT) {
+            originalSize = Math.max(originalSize, parser.getIntValue());
+        } else if (current != null && depth > FIELD_DEPTH && "data".equals(field)) {
+            current.add(parser, token, depth == LATLNG_PAIR_DEPTH ? pairIndex++ : 0);
+        }
+    }
+
+    @Nullable
+    private Column column(String key) {
+        return StreamType.find(key)
+                .filter(keys::contains)
+                .map(streamType -> columns.computeIfAbsent(streamType, type -> new Column(type.getColumn())))
+                .orElse(null);
+    }
+
+    private int[] ints(StreamType streamType, int size) {
+        Column column = columns.get(streamType);
+        return column == null ? null : Arrays.copyOf(column.ints, size);
+    }
+
+    private double[] doubles(StreamType streamType, int size) {
+        Column column = columns.get(streamType);
+        return column == null ? null : trim(column.doubles, column.size, size);
+    }
+
+    private boolean[] booleans(int size) {
+        Column column = columns.get(StreamType.MOVING);
+        return column == null ? null : Arrays.copyOf(column.booleans, size);
+    }
+
+    /**
+     * Copies the values to an array of the common size, padding a stream that ended early with NaN.
+     */
+    private static double[] trim(double[] values, int columnSize, int size) {
+        double[] trimmed = Arrays.copyOf(values, size);
+        if (columnSize < size) {
+            Arrays.fill(trimmed, columnSize, size, Double.NaN);
+        }
+        return trimmed;
+    }
+
+    /**
+     * Growable primitive column. Latitudes go in {@code doubles} and longitudes in {@code longitudes}. Missing values
+     * are stored as 0 in int columns and as NaN in double columns.
+     */
+    private static final class Column {
+
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private final StreamType.Column type;
+        private int[] ints;
+        private double[] doubles;
+        private double[] longitudes;
+        private boolean[] booleans;
+        private int size;
+
+        Column(StreamType.Column type) {
+            this.type = type;
+            switch (type) {
+                case INT -> ints = new int[INITIAL_CAPACITY];
+                case DOUBLE -> doubles = new double[INITIAL_CAPACITY];
+                case LATLNG -> {
+                    doubles = new double[INITIAL_CAPACITY];
+                    longitudes = new double[INITIAL_CAPACITY];
+                }
+                case BOOLEAN -> booleans = new boolean[INITIAL_CAPACITY];
+            }
+        }
+
+        void add(JsonParser parser, JsonToken token, int pairIndex) throws IOException {
+            ensureCapacity();
+            boolean isNull = token == JsonToken.VALUE_NULL;
+            switch (type) {
+                case INT -> ints[size++] = isNull ? 0 : parser.getValueAsInt();
+                case DOUBLE -> doubles[size++] = isNull ? Double.NaN : parser.getValueAsDouble();
+                case BOOLEAN -> booleans[size++] = token == JsonToken.VALUE_TRUE;
+                case LATLNG -> {
+                    if (pairIndex == 0) {
+                        doubles[size] = isNull ? Double.NaN : parser.getValueAsDouble();
+                    } else {
+                        longitudes[size++] = isNull ? Double.NaN : parser.getValueAsDouble();
+                    }
+                }
+            }
+        }
+
+        private void ensureCapacity() {
+            int capacity = switch (type) {
+                case INT -> ints.length;
+                case DOUBLE, LATLNG -> doubles.length;
+                case BOOLEAN -> booleans.length;
+            };
+            if (size < capacity) {
+                return;
+            }
+            int newCapacity = capacity * 2;
+            switch (type) {
+                case INT -> ints = Arrays.copyOf(ints, newCapacity);
+                case DOUBLE -> doubles = Arrays.copyOf(doubles, newCapacity);
+                case LATLNG -> {
+                    doubles = Arrays.copyOf(doubles, newCapacity);
+                    longitudes = Arrays.copyOf(longitudes, newCapacity);
+                }
+                case BOOLEAN -> booleans = Arrays.copyOf(booleans, newCapacity);
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package nl.thomas.stravaclient.client;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import nl.thomas.strava.model.ActivityType;
+import nl.thomas.strava.model.DetailedActivity;
+
+import java.time.OffsetDateTime;
+import java.util.Set;
+
+/**
+ * The fields of an activity that are needed for an overview. Decoding a Strava activity into this record skips all
+ * other properties, such as the map, segment efforts and photos, without building objects for them.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record ActivitySummary(
+        Long id,
+        String name,
+        @JsonProperty("start_date") OffsetDateTime startDate,
+        Float distance,
+        @JsonProperty("moving_time") Integer movingTime,
+        ActivityType type) {
+
+    public static ActivitySummary of(DetailedActivity activity) {
+        return new ActivitySummary(
+                activity.getId(),
+                activity.getName(),
+                activity.getStartDate(),
+                activity.getDistance(),
+                activity.getMovingTime(),
+                activity.getType());
+    }
+
+    /**
+     * Leaves out the fields that were not selected.
+     */
+    public ActivitySummary project(Set<ActivityField> fields) {
+        return new ActivitySummary(
+                fields.contains(ActivityField.ID) ? id : null,
+                fields.contains(ActivityField.NAME) ? name : null,
+                fields.contains(ActivityField.START_DATE) ? startDate : null,
+                fields.contains(ActivityField.DISTANCE) ? distance : null,
+                fields.contains(ActivityField.MOVING_TIME) ? movingTime : null,
+                fields.contains(ActivityField.TYPE) ? type : null);
+    }
+}
@@ -0,0 +1,46 @@
+package nl.thomas.stravaclient.client;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * The heart rate and power zones of the logged in athlete. Power zones are only there for athletes who set their
+ * functional threshold power.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record AthleteZones(
+        @JsonProperty("heart_rate") ZoneRanges heartRate,
+        ZoneRanges power) {
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record ZoneRanges(
+            @JsonProperty("custom_zones") Boolean customZones,
+            List<ZoneRange> zones) {
+
+        /**
+         * The lower bound of every zone but the first, ascending, so that a value is in the zone of the number of
+         * boundaries it reaches.
+         */
+        public int[] boundaries() {
+            if (zones == null || zones.isEmpty()) {
+                return new int[0];
+            }
+            return zones.stream()
+                    .skip(1)
+                    .mapToInt(ZoneRange::min)
+                    .sorted()
+                    .toArray();
+        }
+    }
+
+    /**
+     * @param max upper bound, -1 for the last zone
+     */
+    public record ZoneRange(int min, int max) {
+    }
+}
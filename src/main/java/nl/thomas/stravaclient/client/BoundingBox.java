@@ -0,0 +1,38 @@
+package nl.thomas.stravaclient.client;
+
+import lombok.NonNull;
+
+import java.util.List;
+
+/**
+ * Rectangle between a south-west and a north-east corner, in the order Strava expects for the {@code bounds} parameter.
+ */
+public record BoundingBox(double south, double west, double north, double east) {
+
+    public BoundingBox {
+        if (south > north || west > east) {
+            throw new IllegalArgumentException("Incorrect bounds: south %s should not be north of %s and west %s not east of %s"
+                    .formatted(south, north, west, east));
+        }
+    }
+
+    /**
+     * From {@code south,west,north,east}, the format of the Strava {@code bounds} parameter.
+     */
+    public static BoundingBox of(@NonNull List<Double> bounds) {
+        if (bounds.size() != 4) {
+            throw new IllegalArgumentException("Bounds should be south,west,north,east but were %s".formatted(bounds));
+        }
+        return new BoundingBox(bounds.get(0), bounds.get(1), bounds.get(2), bounds.get(3));
+    }
+
+    public boolean contains(LatLng point) {
+        return point != null
+                && point.lat() >= south && point.lat() <= north
+                && point.lng() >= west && point.lng() <= east;
+    }
+
+    String toParameter() {
+        return "%s,%s,%s,%s".formatted(south, west, north, east);
+    }
+}
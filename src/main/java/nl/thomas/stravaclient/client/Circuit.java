@@ -0,0 +1,114 @@
+package nl.thomas.stravaclient.client;
+
+/**
+ * Circuit breaker over the most recent outcomes of one operation. The circuit opens when the share of failures reaches
+ * the threshold, rejects every request for the open duration and then lets a single trial request through: the
+ * circuit closes again when it succeeds, and opens for another period when it fails. Times are in milliseconds of the
+ * scheduler the requests run on.
+ */
+class Circuit {
+
+    enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    private final StravaResilienceProperties.CircuitBreaker settings;
+    private final boolean[] failures;
+    private int outcomes;
+    private int next;
+    private int failureCount;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    Circuit(StravaResilienceProperties.CircuitBreaker settings) {
+        this.settings = settings;
+        this.failures = new boolean[Math.max(1, settings.windowSize())];
+    }
+
+    synchronized boolean tryAcquire(long now) {
+        if (!settings.enabled()) {
+            return true;
+        }
+        if (state == State.OPEN && now - openedAt >= settings.openDuration().toMillis()) {
+            state = State.HALF_OPEN;
+        }
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> false;
+            case HALF_OPEN -> {
+                if (trialInFlight) {
+                    yield false;
+                }
+                trialInFlight = true;
+                yield true;
+            }
+        };
+    }
+
+    synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            close();
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    synchronized void onFailure(long now) {
+        if (state == State.HALF_OPEN) {
+            open(now);
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (outcomes >= settings.minimumCalls() && failureCount >= settings.failureRateThreshold() * outcomes) {
+                open(now);
+            }
+        }
+    }
+
+    /**
+     * For an attempt that was cancelled or rejected before reaching Strava, which says nothing about its health.
+     */
+    synchronized void onIgnored() {
+        trialInFlight = false;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Milliseconds until a trial request is let through, or zero when the circuit is not open.
+     */
+    synchronized long remainingOpen(long now) {
+        return state == State.OPEN ? Math.max(0, openedAt + settings.openDuration().toMillis() - now) : 0;
+    }
+
+    private void record(boolean failure) {
+        if (outcomes == failures.length) {
+            if (failures[next]) {
+                failureCount--;
+            }
+        } else {
+            outcomes++;
+        }
+        failures[next] = failure;
+        if (failure) {
+            failureCount++;
+        }
+        next = (next + 1) % failures.length;
+    }
+
+    private void open(long now) {
+        state = State.OPEN;
+        openedAt = now;
+        trialInFlight = false;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        trialInFlight = false;
+        outcomes = 0;
+        next = 0;
+        failureCount = 0;
+    }
+}
@@ -0,0 +1,10 @@
+package nl.thomas.stravaclient.client;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+/**
+ * A point as Strava writes it: a two element array of latitude and longitude.
+ */
+@JsonFormat(shape = JsonFormat.Shape.ARRAY)
+public record LatLng(double lat, double lng) {
+}
@@ -0,0 +1,55 @@
+package nl.thomas.stravaclient.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.lang.Nullable;
+import org.springframework.util.MimeType;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * JSON decoder that records the size of every Strava response body decoded as a whole and the time spent decoding it,
+ * tagged with the decoded type, e.g. {@code DetailedActivity[]} for a page of activities.
+ */
+class MeteredJackson2JsonDecoder extends Jackson2JsonDecoder {
+
+    static final String SIZE_METRIC = "strava.client.response.size";
+    static final String DECODE_METRIC = "strava.client.response.decode";
+
+    private final MeterRegistry meterRegistry;
+
+    MeteredJackson2JsonDecoder(ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        super(objectMapper);
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Object decode(DataBuffer dataBuffer, ResolvableType targetType, @Nullable MimeType mimeType, @Nullable Map<String, Object> hints) throws DecodingException {
+        String type = typeTag(targetType);
+        DistributionSummary.builder(SIZE_METRIC)
+                .baseUnit("bytes")
+                .tag("type", type)
+                .register(meterRegistry)
+                .record(dataBuffer.readableByteCount());
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            return super.decode(dataBuffer, targetType, mimeType, hints);
+        } finally {
+            sample.stop(Timer.builder(DECODE_METRIC).tag("type", type).register(meterRegistry));
+        }
+    }
+
+    private static String typeTag(ResolvableType targetType) {
+        if (Collection.class.isAssignableFrom(targetType.toClass())) {
+            return targetType.getGeneric(0).toClass().getSimpleName() + "[]";
+        }
+        return targetType.toClass().getSimpleName();
+    }
+}
@@ -0,0 +1,171 @@
+package nl.thomas.stravaclient.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Model of the Strava request budget. Strava counts requests in fixed windows: a 15-minute window starting at the
+ * quarter hour and a daily window starting at midnight UTC. Every response reports the limits and the current usage in
+ * the X-RateLimit-Limit and X-RateLimit-Usage headers, formatted as "15-minute,daily". Between responses the usage is
+ * tracked locally, and the full limit is refilled when a window rolls over.
+ */
+@Component
+@Slf4j
+public class RateLimitBudget {
+
+    static final String LIMIT_HEADER = "X-RateLimit-Limit";
+    static final String USAGE_HEADER = "X-RateLimit-Usage";
+
+    public enum Window {
+        FIFTEEN_MINUTES, DAILY
+    }
+
+    private final Clock clock;
+    private final double backgroundReserve;
+    private final int[] limits = new int[Window.values().length];
+    private final int[] usages = new int[Window.values().length];
+    private final Instant[] windowStarts = new Instant[Window.values().length];
+
+    @Autowired
+    public RateLimitBudget(
+            @Value("${strava.rate-limit.default-limits:200,2000}") String defaultLimits,
+            @Value("${strava.rate-limit.background-reserve:0.2}") double backgroundReserve) {
+        this(Clock.systemUTC(), defaultLimits, backgroundReserve);
+    }
+
+    RateLimitBudget(Clock clock, String defaultLimits, double backgroundReserve) {
+        this.clock = clock;
+        this.backgroundReserve = backgroundReserve;
+        int[] parsed = parse(defaultLimits);
+        Instant now = clock.instant();
+        for (Window window : Window.values()) {
+            limits[window.ordinal()] = parsed[window.ordinal()];
+            windowStarts[window.ordinal()] = windowStart(window, now);
+        }
+    }
+
+    /**
+     * Whether a request of the given priority would be let through now, without taking it.
+     */
+    public synchronized boolean hasBudget(RequestPriority priority) {
+        rollWindows();
+        for (Window window : Window.values()) {
+            if (remaining(window) <= reserved(window, priority)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes one request from every window, unless that would eat into the share reserved for higher priorities.
+     */
+    synchronized boolean tryAcquire(RequestPriority priority) {
+        if (!hasBudget(priority)) {
+            return false;
+        }
+        for (Window window : Window.values()) {
+            usages[window.ordinal()]++;
+        }
+        return true;
+    }
+
+    synchronized void update(HttpHeaders headers, HttpStatusCode statusCode) {
+        rollWindows();
+        String limitHeader = headers.getFirst(LIMIT_HEADER);
+        String usageHeader = headers.getFirst(USAGE_HEADER);
+        if (limitHeader != null && usageHeader != null) {
+            try {
+                int[] reportedLimits = parse(limitHeader);
+                int[] reportedUsages = parse(usageHeader);
+                for (Window window : Window.values()) {
+                    limits[window.ordinal()] = reportedLimits[window.ordinal()];
+                    usages[window.ordinal()] = reportedUsages[window.ordinal()];
+                }
+            } catch (IllegalArgumentException e) {
+                log.warn("Ignoring unparsable rate limit headers {}=\"{}\" and {}=\"{}\"", LIMIT_HEADER, limitHeader, USAGE_HEADER, usageHeader);
+            }
+        }
+        if (statusCode.value() == 429) {
+            for (Window window : Window.values()) {
+                if (remaining(window) <= 0) {
+                    return;
+                }
+            }
+            // Strava rejected us without saying which window ran out, so assume the short one did
+            usages[Window.FIFTEEN_MINUTES.ordinal()] = limits[Window.FIFTEEN_MINUTES.ordinal()];
+        }
+    }
+
+    public synchronized int remaining(Window window) {
+        rollWindows();
+        return Math.max(0, limits[window.ordinal()] - usages[window.ordinal()]);
+    }
+
+    public synchronized int limit(Window window) {
+        return limits[window.ordinal()];
+    }
+
+    /**
+     * The moment the earliest window that prevents a request of the given priority is refilled.
+     */
+    synchronized Instant nextRefill(RequestPriority priority) {
+        rollWindows();
+        Instant nextRefill = clock.instant();
+        for (Window window : Window.values()) {
+            Instant windowEnd = windowStarts[window.ordinal()].plus(length(window));
+            if (remaining(window) <= reserved(window, priority) && windowEnd.isAfter(nextRefill)) {
+                nextRefill = windowEnd;
+            }
+        }
+        return nextRefill;
+    }
+
+    private int reserved(Window window, RequestPriority priority) {
+        return priority == RequestPriority.BACKGROUND ? (int) Math.ceil(limits[window.ordinal()] * backgroundReserve) : 0;
+    }
+
+    private void rollWindows() {
+        Instant now = clock.instant();
+        for (Window window : Window.values()) {
+            Instant currentStart = windowStart(window, now);
+            if (currentStart.isAfter(windowStarts[window.ordinal()])) {
+                windowStarts[window.ordinal()] = currentStart;
+                usages[window.ordinal()] = 0;
+            }
+        }
+    }
+
+    private static Instant windowStart(Window window, Instant now) {
+        if (window == Window.DAILY) {
+            return now.truncatedTo(ChronoUnit.DAYS);
+        }
+        long windowSeconds = length(window).toSeconds();
+        return Instant.ofEpochSecond(now.getEpochSecond() - now.getEpochSecond() % windowSeconds);
+    }
+
+    private static Duration length(Window window) {
+        return window == Window.DAILY ? Duration.ofDays(1) : Duration.ofMinutes(15);
+    }
+
+    private static int[] parse(String header) {
+        String[] values = header.split(",");
+        if (values.length != Window.values().length) {
+            throw new IllegalArgumentException("Expected %d comma separated values but got \"%s\"".formatted(Window.values().length, header));
+        }
+        int[] parsed = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            parsed[i] = Integer.parseInt(values[i].trim());
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,153 @@
+package nl.thomas.stravaclient.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds back requests to Strava until the {@link RateLimitBudget} allows them. Requests that cannot go right away are
+ * queued, interactive ones ahead of background ones, and released when a window is refilled. Rather than letting Strava
+ * answer with 429, interactive requests that would have to wait longer than the configured maximum are rejected
+ * immediately, as are requests that do not fit in the queue.
+ */
+@Component
+@Slf4j
+public class RateLimitScheduler implements ExchangeFilterFunction {
+
+    private final RateLimitBudget budget;
+    private final Duration maxInteractiveWait;
+    private final int maxQueued;
+    private final Clock clock;
+    private final Scheduler scheduler;
+    private final PriorityQueue<Waiter> queue = new PriorityQueue<>(
+            Comparator.comparing(Waiter::priority).thenComparingLong(Waiter::sequence));
+    private long sequence;
+    private Disposable scheduledDrain;
+
+    @Autowired
+    public RateLimitScheduler(
+            RateLimitBudget budget,
+            @Value("${strava.rate-limit.max-interactive-wait:2s}") Duration maxInteractiveWait,
+            @Value("${strava.rate-limit.max-queued:1000}") int maxQueued) {
+        this(budget, maxInteractiveWait, maxQueued, Clock.systemUTC(), Schedulers.parallel());
+    }
+
+    RateLimitScheduler(RateLimitBudget budget, Duration maxInteractiveWait, int maxQueued, Clock clock, Scheduler scheduler) {
+        this.budget = budget;
+        this.maxInteractiveWait = maxInteractiveWait;
+        this.maxQueued = maxQueued;
+        this.clock = clock;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        return Mono.deferContextual(context -> acquire(request, context.getOrDefault(RequestPriority.class, RequestPriority.INTERACTIVE)))
+                .then(Mono.defer(() -> next.exchange(request)))
+                .doOnNext(response -> {
+                    budget.update(response.headers().asHttpHeaders(), response.statusCode());
+                    drain();
+                });
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    private Mono<Void> acquire(ClientRequest request, RequestPriority priority) {
+        synchronized (this) {
+            if (!hasWaiterAtOrAbove(priority) && budget.tryAcquire(priority)) {
+                return Mono.empty();
+            }
+            Instant refill = budget.nextRefill(priority);
+            Duration wait = Duration.between(clock.instant(), refill);
+            if (priority == RequestPriority.INTERACTIVE && wait.compareTo(maxInteractiveWait) > 0 || queue.size() >= maxQueued) {
+                log.warn("Rejected {} {} request {} because the Strava rate limit budget is exhausted until {}",
+                        priority, request.method(), request.url(), refill);
+                return Mono.error(tooManyRequests(refill));
+            }
+        }
+        return Mono.create(sink -> {
+            Waiter waiter;
+            synchronized (this) {
+                waiter = new Waiter(priority, sequence++, sink);
+                queue.add(waiter);
+                scheduleDrain();
+            }
+            log.info("Delayed {} {} request {} until the Strava rate limit budget allows it", priority, request.method(), request.url());
+            sink.onCancel(() -> {
+                synchronized (this) {
+                    queue.remove(waiter);
+                }
+            });
+        });
+    }
+
+    private boolean hasWaiterAtOrAbove(RequestPriority priority) {
+        Waiter head = queue.peek();
+        return head != null && head.priority().compareTo(priority) <= 0;
+    }
+
+    private void drain() {
+        List<MonoSink<Void>> released = new ArrayList<>();
+        synchronized (this) {
+            while (!queue.isEmpty() && budget.tryAcquire(queue.peek().priority())) {
+                released.add(queue.poll().sink());
+            }
+            if (!queue.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+        released.forEach(MonoSink::success);
+    }
+
+    private void scheduleDrain() {
+        if (scheduledDrain != null && !scheduledDrain.isDisposed()) {
+            return;
+        }
+        Duration delay = Duration.between(clock.instant(), budget.nextRefill(queue.peek().priority()));
+        scheduledDrain = scheduler.schedule(() -> {
+            synchronized (this) {
+                scheduledDrain = null;
+            }
+            drain();
+        }, Math.max(0, delay.toMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    private WebClientResponseException tooManyRequests(Instant refill) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, Duration.between(clock.instant(), refill).toSeconds())));
+        return WebClientResponseException.create(
+                HttpStatus.TOO_MANY_REQUESTS.value(),
+                HttpStatus.TOO_MANY_REQUESTS.getReasonPhrase(),
+                headers,
+                "Strava rate limit budget exhausted until %s".formatted(refill).getBytes(StandardCharsets.UTF_8),
+                StandardCharsets.UTF_8);
+    }
+
+    private record Waiter(RequestPriority priority, long sequence, MonoSink<Void> sink) {
+    }
+}
@@ -0,0 +1,67 @@
+package nl.thomas.stravaclient.client;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Shares one in-flight upstream exchange among all concurrent subscribers asking for the same token, method, URI and
+ * body type.
+ * Once the exchange terminates it is forgotten, so results are never served beyond the lifetime of the request.
+ */
+@Component
+@Slf4j
+public class RequestCoalescer {
+
+    private final Map<Key, Mono<?>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong issued = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    <T> Mono<T> coalesce(String token, @NonNull HttpMethod method, @NonNull String uri, @NonNull Type bodyType, @NonNull Supplier<Mono<T>> exchange) {
+        Key key = new Key(token, method, uri, bodyType);
+        return Mono.defer(() -> {
+            Mono<?> existing = inFlight.get(key);
+            if (existing != null) {
+                return countCoalesced(key, (Mono<T>) existing);
+            }
+            Mono<T> shared = exchange.get()
+                    .doFinally(signalType -> inFlight.remove(key))
+                    .share();
+            Mono<?> raced = inFlight.putIfAbsent(key, shared);
+            if (raced != null) {
+                return countCoalesced(key, (Mono<T>) raced);
+            }
+            issued.incrementAndGet();
+            return shared;
+        });
+    }
+
+    private <T> Mono<T> countCoalesced(Key key, Mono<T> inFlightExchange) {
+        coalesced.incrementAndGet();
+        log.debug("Coalesced {} request {} with an exchange already in flight", key.method(), key.uri());
+        return inFlightExchange;
+    }
+
+    public long getIssuedCount() {
+        return issued.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * The body type is part of the key, as the same URI can be decoded into different types.
+     */
+    private record Key(String token, HttpMethod method, String uri, Type bodyType) {
+    }
+}
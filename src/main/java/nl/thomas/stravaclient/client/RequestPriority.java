@@ -0,0 +1,17 @@
+package nl.thomas.stravaclient.client;
+
+import reactor.util.context.Context;
+
+/**
+ * Priority of a request to Strava, read from the Reactor context by the {@link RateLimitScheduler}. Requests without a
+ * priority in their context are treated as interactive.
+ */
+public enum RequestPriority {
+
+    INTERACTIVE,
+    BACKGROUND;
+
+    public Context asContext() {
+        return Context.of(RequestPriority.class, this);
+    }
+}
@@ -0,0 +1,41 @@
+package nl.thomas.stravaclient.client;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import nl.thomas.strava.model.ActivityType;
+import nl.thomas.strava.model.PolylineMap;
+
+import java.time.OffsetDateTime;
+
+/**
+ * The detailed representation of a segment. Athlete specific statistics are left out, so the same segment looks the
+ * same to every athlete.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record Segment(
+        Long id,
+        String name,
+        @JsonProperty("activity_type") ActivityType activityType,
+        Float distance,
+        @JsonProperty("average_grade") Float averageGrade,
+        @JsonProperty("maximum_grade") Float maximumGrade,
+        @JsonProperty("elevation_high") Float elevationHigh,
+        @JsonProperty("elevation_low") Float elevationLow,
+        @JsonProperty("start_latlng") LatLng startLatlng,
+        @JsonProperty("end_latlng") LatLng endLatlng,
+        @JsonProperty("climb_category") Integer climbCategory,
+        String city,
+        String state,
+        String country,
+        @JsonProperty("private") Boolean isPrivate,
+        Boolean hazardous,
+        @JsonProperty("created_at") OffsetDateTime createdAt,
+        @JsonProperty("updated_at") OffsetDateTime updatedAt,
+        @JsonProperty("total_elevation_gain") Float totalElevationGain,
+        PolylineMap map,
+        @JsonProperty("effort_count") Integer effortCount,
+        @JsonProperty("athlete_count") Integer athleteCount,
+        @JsonProperty("star_count") Integer starCount) {
+}
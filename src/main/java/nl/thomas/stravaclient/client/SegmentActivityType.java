@@ -0,0 +1,28 @@
+package nl.thomas.stravaclient.client;
+
+import java.util.Arrays;
+
+/**
+ * The activity types segments can be explored for.
+ */
+public enum SegmentActivityType {
+    RUNNING("running"),
+    RIDING("riding");
+
+    private final String key;
+
+    SegmentActivityType(String key) {
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public static SegmentActivityType fromKey(String key) {
+        return Arrays.stream(values())
+                .filter(activityType -> activityType.key.equals(key))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown segment activity type %s".formatted(key)));
+    }
+}
@@ -0,0 +1,35 @@
+package nl.thomas.stravaclient.client;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A segment as returned by segment explore. The points are the encoded polyline of the segment.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record SegmentSummary(
+        Long id,
+        String name,
+        @JsonProperty("climb_category") Integer climbCategory,
+        @JsonProperty("climb_category_desc") String climbCategoryDesc,
+        @JsonProperty("avg_grade") Float avgGrade,
+        @JsonProperty("start_latlng") LatLng startLatlng,
+        @JsonProperty("end_latlng") LatLng endLatlng,
+        @JsonProperty("elev_difference") Float elevDifference,
+        Float distance,
+        String points,
+        Boolean starred) {
+
+    /**
+     * Without a bound, every category matches.
+     */
+    public boolean inCategories(Integer minCategory, Integer maxCategory) {
+        if (minCategory == null && maxCategory == null) {
+            return true;
+        }
+        int category = climbCategory == null ? 0 : climbCategory;
+        return (minCategory == null || category >= minCategory) && (maxCategory == null || category <= maxCategory);
+    }
+}
@@ -1,91 +1,214 @@
 package nl.thomas.stravaclient.client;
 
+import com.fasterxml.jackson.core.JsonFactory;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import nl.thomas.strava.model.DetailedActivity;
 import nl.thomas.strava.model.DetailedAthlete;
 import nl.thomas.strava.model.UpdatableActivity;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.security.oauth2.core.user.OAuth2User;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.lang.reflect.Type;
 import java.time.ZonedDateTime;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Component
 @Slf4j
 public class StravaClient {
 
+    static final int PAGE_SIZE = 200;
+    // A page is decoded as a whole, which is cheaper than tokenizing it into separate activities
+    private static final ParameterizedTypeReference<List<DetailedActivity>> ACTIVITY_LIST = new ParameterizedTypeReference<>() {
+    };
+    private static final ParameterizedTypeReference<List<ActivitySummary>> ACTIVITY_SUMMARY_LIST = new ParameterizedTypeReference<>() {
+    };
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
     private final WebClient webClient;
     private final TokenService tokenService;
+    private final RequestCoalescer requestCoalescer;
+    private final StravaResilience stravaResilience;
 
-    public StravaClient(WebClient webClient, TokenService tokenService) {
+    public StravaClient(WebClient webClient, TokenService tokenService, RequestCoalescer requestCoalescer, StravaResilience stravaResilience) {
         this.webClient = webClient;
         this.tokenService = tokenService;
+        this.requestCoalescer = requestCoalescer;
+        this.stravaResilience = stravaResilience;
     }
 
     public Mono<DetailedAthlete> getDetailedAthlete(OAuth2User oAuth2User) {
-        String token = tokenService.getToken(oAuth2User);
-        return webClient.get()
-                .uri("athlete")
-                .headers(httpHeaders -> httpHeaders.setBearerAuth(token))
-                .retrieve()
-                .bodyToMono(DetailedAthlete.class);
+        return tokenService.getTokenAsync(oAuth2User)
+                .flatMap(token -> get(token, StravaOperation.ATHLETE, DetailedAthlete.class, response -> response.bodyToMono(DetailedAthlete.class), "athlete"));
     }
 
-    public Mono<List<DetailedActivity>> getDetailedActivities(
+    /**
+     * Requires the profile:read_all scope.
+     */
+    public Mono<AthleteZones> getAthleteZones(@NonNull OAuth2User oAuth2User) {
+        return tokenService.getTokenAsync(oAuth2User)
+                .flatMap(token -> get(token, StravaOperation.ATHLETE_ZONES, AthleteZones.class, response -> response.bodyToMono(AthleteZones.class), "athlete/zones"));
+    }
+
+    public Flux<DetailedActivity> getDetailedActivities(
             @NonNull OAuth2User oAuth2User,
             @NonNull ZonedDateTime after,
             @NonNull ZonedDateTime before) {
-        throwIfInvalidParameters(after, before);
-        String token = tokenService.getToken(oAuth2User);
-        Mono<List<DetailedActivity>> mono = webClient.get()
-                .uri(uriBuilder -> uriBuilder
-                        .path("athlete/activities")
-                        .queryParam("after", after.toEpochSecond())
-                        .queryParam("before", before.toEpochSecond())
-                        .queryParam("per_page", 10)
-                        .build())
-                .headers(httpHeaders -> httpHeaders.setBearerAuth(token))
-                .retrieve()
-                .bodyToFlux(DetailedActivity.class)
-                .collectList();
-        mono.subscribe(detailedActivities -> log.info(
-                "The following activities were received from Strava: {}",
-                detailedActivities.stream().map(DetailedActivity::getId).toList()));
-        return mono;
-    }
-
-    private void throwIfInvalidParameters(ZonedDateTime after, ZonedDateTime before) {
-        if (before.isBefore(after)) {
-            throw new IllegalArgumentException("Incorrect parameters: after %s should be earlier than before %s.".formatted(after, before));
+        TimeWindow.validate(after, before);
+        return tokenService.getTokenAsync(oAuth2User)
+                .flatMapMany(token -> getActivities(token, after, before, ACTIVITY_LIST, DetailedActivity::getId));
+    }
+
+    /**
+     * Like {@link #getDetailedActivities}, but only the fields of {@link ActivitySummary} are decoded. Everything else in
+     * the response is skipped by the parser without building objects for it.
+     */
+    public Flux<ActivitySummary> getActivitySummaries(
+            @NonNull OAuth2User oAuth2User,
+            @NonNull ZonedDateTime after,
+            @NonNull ZonedDateTime before) {
+        TimeWindow.validate(after, before);
+        return tokenService.getTokenAsync(oAuth2User)
+                .flatMapMany(token -> getActivities(token, after, before, ACTIVITY_SUMMARY_LIST, ActivitySummary::id));
+    }
+
+    private <T> Flux<T> getActivities(
+            String token,
+            ZonedDateTime after,
+            ZonedDateTime before,
+            ParameterizedTypeReference<List<T>> pageType,
+            Function<T, Long> id) {
+        // The next page is requested as soon as the consumer starts on a full page, so at most one page is buffered ahead
+        // of the consumer. The default prefetch of concatMapIterable would request up to 32 pages ahead.
+        return getActivitiesPage(token, after, before, 1, pageType, id)
+                .expand(page -> page.activities().size() < PAGE_SIZE
+                        ? Mono.empty()
+                        : getActivitiesPage(token, after, before, page.number() + 1, pageType, id))
+                .concatMapIterable(ActivitiesPage::activities, 1);
+    }
+
+    private <T> Mono<ActivitiesPage<T>> getActivitiesPage(
+            String token,
+            ZonedDateTime after,
+            ZonedDateTime before,
+            int page,
+            ParameterizedTypeReference<List<T>> pageType,
+            Function<T, Long> id) {
+        return get(token,
+                StravaOperation.ACTIVITIES,
+                pageType.getType(),
+                response -> response.bodyToMono(pageType),
+                "athlete/activities?after={after}&before={before}&page={page}&per_page={perPage}",
+                after.toEpochSecond(),
+                before.toEpochSecond(),
+                page,
+                PAGE_SIZE)
+                .doOnNext(activities -> log.info(
+                        "The following activities were received from Strava on page {}: {}",
+                        page,
+                        activities.stream().map(id).toList()))
+                .map(activities -> new ActivitiesPage<>(page, activities));
+    }
+
+    private record ActivitiesPage<T>(int number, List<T> activities) {
+    }
+
+    public Mono<DetailedActivity> getDetailedActivity(@NonNull OAuth2User oAuth2User, @NonNull Long activityId) {
+        return tokenService.getTokenAsync(oAuth2User)
+                .flatMap(token -> getDetailedActivity(token, activityId));
+    }
+
+    private Mono<DetailedActivity> getDetailedActivity(String token, Long activityId) {
+        return get(token, StravaOperation.ACTIVITY, DetailedActivity.class, response -> response.bodyToMono(DetailedActivity.class), "activities/{id}", activityId);
+    }
+
+    /**
+     * Streams are decoded into primitive columns as the response arrives and downsampled to the resolution, if any.
+     */
+    public Mono<ActivityStreams> getActivityStreams(
+            @NonNull OAuth2User oAuth2User,
+            @NonNull Long activityId,
+            @NonNull Set<StreamType> keys,
+            StreamResolution resolution) {
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("At least one stream type is required");
         }
+        return tokenService.getTokenAsync(oAuth2User)
+                .flatMap(token -> get(token,
+                        StravaOperation.ACTIVITY_STREAMS,
+                        ActivityStreams.class,
+                        response -> response.bodyToFlux(DataBuffer.class)
+                                .reduceWith(() -> new ActivityStreamsDecoder(JSON_FACTORY, keys), (decoder, dataBuffer) -> {
+                                    try {
+                                        decoder.feed(dataBuffer);
+                                    } finally {
+                                        DataBufferUtils.release(dataBuffer);
+                                    }
+                                    return decoder;
+                                })
+                                .map(decoder -> decoder.finish(activityId)),
+                        "activities/{id}/streams?keys={keys}&key_by_type=true",
+                        activityId,
+                        keys.stream().map(StreamType::getKey).collect(Collectors.joining(","))))
+                .map(streams -> resolution == null ? streams : streams.downsample(resolution.getMaxPoints()));
+    }
+
+    /**
+     * The top segments, at most ten, of which Strava considers the start to be within the bounds.
+     */
+    public Mono<List<SegmentSummary>> exploreSegments(
+            @NonNull OAuth2User oAuth2User,
+            @NonNull BoundingBox bounds,
+            SegmentActivityType activityType) {
+        String uriTemplate = activityType == null
+                ? "segments/explore?bounds={bounds}"
+                : "segments/explore?bounds={bounds}&activity_type={activityType}";
+        Object[] uriVariables = activityType == null
+                ? new Object[]{bounds.toParameter()}
+                : new Object[]{bounds.toParameter(), activityType.getKey()};
+        return tokenService.getTokenAsync(oAuth2User)
+                .flatMap(token -> get(token, StravaOperation.SEGMENTS_EXPLORE, ExplorerResponse.class, response -> response.bodyToMono(ExplorerResponse.class), uriTemplate, uriVariables))
+                .map(response -> response.segments() == null ? List.<SegmentSummary>of() : response.segments());
+    }
+
+    private record ExplorerResponse(List<SegmentSummary> segments) {
+    }
+
+    public Mono<Segment> getSegment(@NonNull OAuth2User oAuth2User, @NonNull Long segmentId) {
+        return tokenService.getTokenAsync(oAuth2User)
+                .flatMap(token -> get(token, StravaOperation.SEGMENT, Segment.class, response -> response.bodyToMono(Segment.class), "segments/{id}", segmentId));
     }
 
     public Mono<DetailedActivity> replaceNameForActivity(
             @NonNull OAuth2User oAuth2User,
             @NonNull Long activityId,
             @NonNull String newName) {
-        String token = tokenService.getToken(oAuth2User);
-        UpdatableActivity updatableActivity = createUpdatableActivity(activityId, newName, token);
-        return webClient.put()
-                .uri("activities/{id}", activityId)
-                .contentType(MediaType.APPLICATION_JSON)
-                .bodyValue(updatableActivity)
-                .headers(httpHeaders -> httpHeaders.setBearerAuth(token))
-                .retrieve()
-                .bodyToMono(DetailedActivity.class);
+        return tokenService.getTokenAsync(oAuth2User)
+                .flatMap(token -> getDetailedActivity(token, activityId)
+                        .map(activity -> createUpdatableActivity(activity, newName))
+                        // Never retried: a PUT that failed or timed out may still have been applied by Strava
+                        .flatMap(updatableActivity -> stravaResilience.applyOnce(StravaOperation.ACTIVITY_UPDATE, () -> webClient.put()
+                                .uri("activities/{id}", activityId)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .bodyValue(updatableActivity)
+                                .headers(httpHeaders -> httpHeaders.setBearerAuth(token))
+                                .retrieve()
+                                .bodyToMono(DetailedActivity.class))));
     }
 
-    private UpdatableActivity createUpdatableActivity(Long activityId, String newName, String token) {
-        DetailedActivity activity = webClient.get()
-                .uri("/activities/{activityId}", activityId)
-                .headers(httpHeaders -> httpHeaders.setBearerAuth(token))
-                .retrieve()
-                .bodyToMono(DetailedActivity.class)
-                .block();
+    private UpdatableActivity createUpdatableActivity(DetailedActivity activity, String newName) {
         log.info("Replacing name \"{}\" with \"{}\" for activity {}", activity.getName(), newName, activity.getId());
         return new UpdatableActivity()
                 .name(newName)
@@ -97,4 +220,22 @@ public class StravaClient {
                 .trainer(activity.getTrainer())
                 .sportType(activity.getSportType());
     }
+
+    /**
+     * GETs are idempotent, so identical concurrent ones share a single upstream exchange, and they can safely be
+     * retried and hedged as the policy of the operation prescribes.
+     */
+    private <T> Mono<T> get(
+            String token,
+            StravaOperation operation,
+            Type bodyType,
+            Function<WebClient.ResponseSpec, Mono<T>> bodyExtractor,
+            String uriTemplate,
+            Object... uriVariables) {
+        String uri = UriComponentsBuilder.fromUriString(uriTemplate).buildAndExpand(uriVariables).toUriString();
+        return requestCoalescer.coalesce(token, HttpMethod.GET, uri, bodyType, () -> stravaResilience.apply(operation, () -> bodyExtractor.apply(webClient.get()
+                .uri(uriTemplate, uriVariables)
+                .headers(httpHeaders -> httpHeaders.setBearerAuth(token))
+                .retrieve())));
+    }
 }
@@ -0,0 +1,82 @@
+package nl.thomas.stravaclient.client;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+
+/**
+ * Publishes the state of the Strava client that is not visible per request: the rate limit headroom per window, the
+ * requests queued for budget, the number of GETs that were coalesced with an identical one, and the retries, hedges
+ * and circuit breaker state per operation.
+ */
+@Component
+public class StravaClientMetrics implements MeterBinder {
+
+    private final RateLimitBudget rateLimitBudget;
+    private final RateLimitScheduler rateLimitScheduler;
+    private final RequestCoalescer requestCoalescer;
+    private final StravaResilience stravaResilience;
+
+    public StravaClientMetrics(
+            RateLimitBudget rateLimitBudget,
+            RateLimitScheduler rateLimitScheduler,
+            RequestCoalescer requestCoalescer,
+            StravaResilience stravaResilience) {
+        this.rateLimitBudget = rateLimitBudget;
+        this.rateLimitScheduler = rateLimitScheduler;
+        this.requestCoalescer = requestCoalescer;
+        this.stravaResilience = stravaResilience;
+    }
+
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        for (RateLimitBudget.Window window : RateLimitBudget.Window.values()) {
+            String windowTag = window.name().toLowerCase(Locale.ROOT);
+            Gauge.builder("strava.ratelimit.remaining", rateLimitBudget, budget -> budget.remaining(window))
+                    .description("Requests left in the current Strava rate limit window")
+                    .tag("window", windowTag)
+                    .register(registry);
+            Gauge.builder("strava.ratelimit.limit", rateLimitBudget, budget -> budget.limit(window))
+                    .description("Requests allowed in a Strava rate limit window")
+                    .tag("window", windowTag)
+                    .register(registry);
+        }
+        Gauge.builder("strava.ratelimit.queued", rateLimitScheduler, RateLimitScheduler::getQueued)
+                .description("Requests waiting for Strava rate limit budget")
+                .register(registry);
+        FunctionCounter.builder("strava.client.requests.issued", requestCoalescer, RequestCoalescer::getIssuedCount)
+                .description("GET requests sent to Strava")
+                .register(registry);
+        FunctionCounter.builder("strava.client.requests.coalesced", requestCoalescer, RequestCoalescer::getCoalescedCount)
+                .description("GET requests answered by an identical request already in flight")
+                .register(registry);
+        for (StravaOperation operation : StravaOperation.values()) {
+            String operationTag = operation.getKey();
+            FunctionCounter.builder("strava.client.retries", stravaResilience, resilience -> resilience.getRetryCount(operation))
+                    .description("GET requests sent again after a failed attempt")
+                    .tag("operation", operationTag)
+                    .register(registry);
+            FunctionCounter.builder("strava.client.hedges", stravaResilience, resilience -> resilience.getHedgeCount(operation))
+                    .description("GET requests sent a second time because the first one was slow")
+                    .tag("operation", operationTag)
+                    .register(registry);
+            FunctionCounter.builder("strava.client.hedges.won", stravaResilience, resilience -> resilience.getHedgeWinCount(operation))
+                    .description("Hedged GET requests that were answered before the first one")
+                    .tag("operation", operationTag)
+                    .register(registry);
+            FunctionCounter.builder("strava.client.circuit.rejected", stravaResilience, resilience -> resilience.getRejectedCount(operation))
+                    .description("GET requests rejected because the circuit was open")
+                    .tag("operation", operationTag)
+                    .register(registry);
+            Gauge.builder("strava.client.circuit.state", stravaResilience, resilience -> resilience.getCircuitState(operation).ordinal())
+                    .description("State of the circuit breaker: 0 closed, 1 half open, 2 open")
+                    .tag("operation", operationTag)
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package nl.thomas.stravaclient.client;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Connection pool and timeout settings of the HTTP client used for Strava, bound from {@code strava.http.*}.
+ *
+ * @param maxConnections         connections kept open to Strava at most
+ * @param pendingAcquireMaxCount requests that may wait for a free connection before new ones are rejected
+ * @param pendingAcquireTimeout  time a request may wait for a free connection
+ * @param maxIdleTime            idle connections are closed after this time
+ * @param maxLifeTime            connections are closed after this time, so DNS changes are picked up
+ * @param evictionInterval       interval of the background eviction of idle and expired connections
+ * @param connectTimeout         time to establish a connection
+ * @param responseTimeout        time between sending the request and receiving the response headers
+ * @param readTimeout            time without any data being read from an open connection
+ * @param writeTimeout           time without any data being written to an open connection
+ * @param http2                  negotiate HTTP/2 when Strava is reached over https, falling back to HTTP/1.1
+ */
+@ConfigurationProperties("strava.http")
+public record StravaHttpProperties(
+        @DefaultValue("20") int maxConnections,
+        @DefaultValue("200") int pendingAcquireMaxCount,
+        @DefaultValue("5s") Duration pendingAcquireTimeout,
+        @DefaultValue("30s") Duration maxIdleTime,
+        @DefaultValue("5m") Duration maxLifeTime,
+        @DefaultValue("30s") Duration evictionInterval,
+        @DefaultValue("2s") Duration connectTimeout,
+        @DefaultValue("10s") Duration responseTimeout,
+        @DefaultValue("10s") Duration readTimeout,
+        @DefaultValue("10s") Duration writeTimeout,
+        @DefaultValue("true") boolean http2) {
+}
@@ -0,0 +1,23 @@
+package nl.thomas.stravaclient.client;
+
+import java.util.Locale;
+
+/**
+ * The kinds of request made to Strava, each of which can be given its own {@link StravaResilienceProperties.Policy}.
+ * The key is used in the configuration, e.g. {@code strava.resilience.operations.activity-streams}, and as the
+ * operation tag of the resilience metrics.
+ */
+public enum StravaOperation {
+    ATHLETE,
+    ATHLETE_ZONES,
+    ACTIVITIES,
+    ACTIVITY,
+    ACTIVITY_STREAMS,
+    SEGMENTS_EXPLORE,
+    SEGMENT,
+    ACTIVITY_UPDATE;
+
+    public String getKey() {
+        return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+}
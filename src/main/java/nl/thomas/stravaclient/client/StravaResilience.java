@@ -0,0 +1,251 @@
+package nl.thomas.stravaclient.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Applies the {@link StravaResilienceProperties.Policy} of an operation to a GET request: every attempt has a timeout,
+ * failed attempts are retried with exponential backoff and jitter, a slow attempt can be hedged with a second request,
+ * and a circuit breaker per operation rejects requests while Strava keeps failing. Only 5xx responses, connection
+ * errors and timeouts count as failures; a 429 is never retried, as it only costs more budget. Retries and hedges are
+ * extra requests, so they are only made while enough of the {@link RateLimitBudget} is left. Requests that change
+ * anything on Strava are not safe to repeat, so they go through {@link #applyOnce} instead.
+ */
+@Component
+@Slf4j
+public class StravaResilience {
+
+    private static final int LATENCY_SAMPLES = 100;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    private final StravaResilienceProperties properties;
+    private final RateLimitBudget budget;
+    private final Scheduler scheduler;
+    private final Map<StravaOperation, OperationState> states = new EnumMap<>(StravaOperation.class);
+
+    @Autowired
+    public StravaResilience(StravaResilienceProperties properties, RateLimitBudget budget) {
+        this(properties, budget, Schedulers.parallel());
+    }
+
+    StravaResilience(StravaResilienceProperties properties, RateLimitBudget budget, Scheduler scheduler) {
+        this.properties = properties;
+        this.budget = budget;
+        this.scheduler = scheduler;
+        for (StravaOperation operation : StravaOperation.values()) {
+            states.put(operation, new OperationState(new Circuit(properties.circuitBreaker())));
+        }
+    }
+
+    /**
+     * The request is subscribed to once per attempt, so it has to send a new request to Strava on every subscription.
+     */
+    public <T> Mono<T> apply(StravaOperation operation, Supplier<Mono<T>> request) {
+        StravaResilienceProperties.Policy policy = properties.policy(operation);
+        OperationState state = states.get(operation);
+        return Mono.defer(() -> attempt(operation, policy, state, request))
+                .retryWhen(Retry.backoff(policy.maxRetries(), policy.backoff())
+                        .maxBackoff(policy.maxBackoff())
+                        .jitter(policy.jitter())
+                        .scheduler(scheduler)
+                        .filter(e -> isFailure(e) && state.circuit().getState() == Circuit.State.CLOSED && hasHeadroom(operation, "retry"))
+                        .doBeforeRetry(signal -> {
+                            state.retries().incrementAndGet();
+                            log.info("Retrying {} request after {} with message \"{}\"",
+                                    operation.getKey(), signal.failure().getClass().getSimpleName(), signal.failure().getMessage());
+                        })
+                        .onRetryExhaustedThrow((spec, signal) -> signal.failure()))
+                .onErrorMap(TimeoutException.class, e -> gatewayTimeout(operation, policy.timeout()));
+    }
+
+    /**
+     * Only the timeout and the circuit breaker of the operation, without retries or hedges, for requests that change
+     * something on Strava.
+     */
+    public <T> Mono<T> applyOnce(StravaOperation operation, Supplier<Mono<T>> request) {
+        StravaResilienceProperties.Policy policy = properties.policy(operation).once();
+        OperationState state = states.get(operation);
+        return Mono.defer(() -> attempt(operation, policy, state, request))
+                .onErrorMap(TimeoutException.class, e -> gatewayTimeout(operation, policy.timeout()));
+    }
+
+    public long getRetryCount(StravaOperation operation) {
+        return states.get(operation).retries().get();
+    }
+
+    public long getHedgeCount(StravaOperation operation) {
+        return states.get(operation).hedges().get();
+    }
+
+    public long getHedgeWinCount(StravaOperation operation) {
+        return states.get(operation).hedgesWon().get();
+    }
+
+    public long getRejectedCount(StravaOperation operation) {
+        return states.get(operation).rejected().get();
+    }
+
+    Circuit.State getCircuitState(StravaOperation operation) {
+        return states.get(operation).circuit().getState();
+    }
+
+    private <T> Mono<T> attempt(StravaOperation operation, StravaResilienceProperties.Policy policy, OperationState state, Supplier<Mono<T>> request) {
+        long start = scheduler.now(TimeUnit.MILLISECONDS);
+        Circuit circuit = state.circuit();
+        if (!circuit.tryAcquire(start)) {
+            state.rejected().incrementAndGet();
+            return Mono.error(circuitOpen(operation, circuit.remainingOpen(start)));
+        }
+        Mono<T> response = request.get();
+        if (policy.hedge()) {
+            // The first value wins, so a hedge in flight can still answer when the first request fails. A failure before
+            // the hedge is sent cancels it, and when both fail it is the failure of the first request that counts.
+            AtomicReference<Throwable> primaryError = new AtomicReference<>();
+            Sinks.Empty<Void> primaryFailed = Sinks.empty();
+            Mono<T> primary = response.doOnError(e -> {
+                primaryError.set(e);
+                primaryFailed.tryEmitEmpty();
+            });
+            response = Mono.firstWithValue(primary, hedge(operation, state, request, hedgeDelay(policy, state), primaryFailed.asMono()))
+                    .onErrorMap(NoSuchElementException.class, e -> primaryError.get() == null ? e : primaryError.get());
+        }
+        return response
+                .timeout(policy.timeout(), scheduler)
+                .doOnSuccess(value -> {
+                    state.latencies().add(scheduler.now(TimeUnit.MILLISECONDS) - start);
+                    circuit.onSuccess();
+                })
+                .doOnError(e -> {
+                    if (isFailure(e)) {
+                        circuit.onFailure(scheduler.now(TimeUnit.MILLISECONDS));
+                    } else if (e instanceof WebClientResponseException.TooManyRequests) {
+                        circuit.onIgnored();
+                    } else {
+                        // Strava answered, so it is up, even if it did not like the request
+                        circuit.onSuccess();
+                    }
+                })
+                .doOnCancel(circuit::onIgnored);
+    }
+
+    private <T> Mono<T> hedge(StravaOperation operation, OperationState state, Supplier<Mono<T>> request, Duration delay, Mono<Void> cancelled) {
+        return Mono.delay(delay, scheduler)
+                .takeUntilOther(cancelled.then(Mono.just(true)))
+                .flatMap(tick -> {
+                    if (!hasHeadroom(operation, "hedge")) {
+                        return Mono.empty();
+                    }
+                    state.hedges().incrementAndGet();
+                    log.info("Hedging {} request that got no response within {}", operation.getKey(), delay);
+                    return request.get().doOnNext(value -> state.hedgesWon().incrementAndGet());
+                });
+    }
+
+    /**
+     * The 95th percentile of the recent response times, so that only the slowest requests are hedged.
+     */
+    private static Duration hedgeDelay(StravaResilienceProperties.Policy policy, OperationState state) {
+        long percentile = state.latencies().percentile95();
+        return percentile < 0 ? policy.hedgeDelay() : Duration.ofMillis(percentile);
+    }
+
+    private boolean hasHeadroom(StravaOperation operation, String purpose) {
+        for (RateLimitBudget.Window window : RateLimitBudget.Window.values()) {
+            if (budget.remaining(window) <= budget.limit(window) * properties.minRemainingBudget()) {
+                log.info("No {} of {} request, as only {} requests are left in the {} window",
+                        purpose, operation.getKey(), budget.remaining(window), window);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isFailure(Throwable e) {
+        return e instanceof TimeoutException
+                || e instanceof WebClientRequestException
+                || e instanceof WebClientResponseException response && response.getStatusCode().is5xxServerError();
+    }
+
+    private static WebClientResponseException gatewayTimeout(StravaOperation operation, Duration timeout) {
+        return WebClientResponseException.create(
+                HttpStatus.GATEWAY_TIMEOUT.value(),
+                HttpStatus.GATEWAY_TIMEOUT.getReasonPhrase(),
+                new HttpHeaders(),
+                "No response from Strava to %s request within %s".formatted(operation.getKey(), timeout).getBytes(StandardCharsets.UTF_8),
+                StandardCharsets.UTF_8);
+    }
+
+    private static WebClientResponseException circuitOpen(StravaOperation operation, long remainingMillis) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, TimeUnit.MILLISECONDS.toSeconds(remainingMillis + 999))));
+        return WebClientResponseException.create(
+                HttpStatus.SERVICE_UNAVAILABLE.value(),
+                HttpStatus.SERVICE_UNAVAILABLE.getReasonPhrase(),
+                headers,
+                "Circuit for %s requests to Strava is open".formatted(operation.getKey()).getBytes(StandardCharsets.UTF_8),
+                StandardCharsets.UTF_8);
+    }
+
+    private record OperationState(
+            Circuit circuit,
+            Latencies latencies,
+            AtomicLong retries,
+            AtomicLong hedges,
+            AtomicLong hedgesWon,
+            AtomicLong rejected) {
+
+        OperationState(Circuit circuit) {
+            this(circuit, new Latencies(), new AtomicLong(), new AtomicLong(), new AtomicLong(), new AtomicLong());
+        }
+    }
+
+    /**
+     * Response times of the most recent successful attempts, in milliseconds.
+     */
+    private static final class Latencies {
+
+        private final long[] samples = new long[LATENCY_SAMPLES];
+        private int count;
+        private int next;
+
+        synchronized void add(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        /**
+         * Returns -1 until enough responses were seen for the percentile to mean anything.
+         */
+        synchronized long percentile95() {
+            if (count < MIN_LATENCY_SAMPLES) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(0.95 * count) - 1];
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package nl.thomas.stravaclient.client;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Timeouts, retries, hedging and circuit breaking of requests to Strava, bound from {@code strava.resilience.*}. Only
+ * the timeout and the circuit breaker apply to requests that change something on Strava.
+ * A policy under {@code operations} only needs the settings that differ from {@code defaults}.
+ *
+ * @param defaults           policy of every operation, on top of {@link Policy#BUILT_IN}
+ * @param operations         policy per operation, on top of the defaults
+ * @param minRemainingBudget share of every rate limit window that must be left to spend a request on a retry or hedge
+ * @param circuitBreaker     settings of the circuit breaker kept per operation
+ */
+@ConfigurationProperties("strava.resilience")
+public record StravaResilienceProperties(
+        Policy defaults,
+        Map<StravaOperation, Policy> operations,
+        @DefaultValue("0.5") double minRemainingBudget,
+        @DefaultValue CircuitBreaker circuitBreaker) {
+
+    public Policy policy(StravaOperation operation) {
+        Policy policy = Policy.BUILT_IN;
+        if (defaults != null) {
+            policy = defaults.orElse(policy);
+        }
+        if (operations != null && operations.containsKey(operation)) {
+            policy = operations.get(operation).orElse(policy);
+        }
+        return policy;
+    }
+
+    /**
+     * @param timeout    time a single attempt may take, from sending the request until the body is decoded
+     * @param maxRetries attempts after the first one, only made after a 5xx response, a connection error or a timeout
+     * @param backoff    wait before the first retry, doubled for every next retry
+     * @param maxBackoff longest wait before a retry
+     * @param jitter     share of the wait that is randomised, so that retries of concurrent requests spread out
+     * @param hedge      send a second, identical request when the first one takes longer than the hedge delay
+     * @param hedgeDelay wait before hedging, until enough responses were seen to use their 95th percentile instead
+     */
+    public record Policy(
+            Duration timeout,
+            Integer maxRetries,
+            Duration backoff,
+            Duration maxBackoff,
+            Double jitter,
+            Boolean hedge,
+            Duration hedgeDelay) {
+
+        public static final Policy BUILT_IN = new Policy(
+                Duration.ofSeconds(10), 2, Duration.ofMillis(200), Duration.ofSeconds(2), 0.5, false, Duration.ofSeconds(1));
+
+        /**
+         * This policy with neither retries nor hedges.
+         */
+        Policy once() {
+            return new Policy(timeout, 0, backoff, maxBackoff, jitter, false, hedgeDelay);
+        }
+
+        Policy orElse(Policy fallback) {
+            return new Policy(
+                    timeout != null ? timeout : fallback.timeout(),
+                    maxRetries != null ? maxRetries : fallback.maxRetries(),
+                    backoff != null ? backoff : fallback.backoff(),
+                    maxBackoff != null ? maxBackoff : fallback.maxBackoff(),
+                    jitter != null ? jitter : fallback.jitter(),
+                    hedge != null ? hedge : fallback.hedge(),
+                    hedgeDelay != null ? hedgeDelay : fallback.hedgeDelay());
+        }
+    }
+
+    /**
+     * @param enabled              reject requests while the circuit is open
+     * @param windowSize           number of most recent outcomes the failure rate is taken over
+     * @param minimumCalls         outcomes needed before the circuit can open
+     * @param failureRateThreshold share of failed outcomes at which the circuit opens
+     * @param openDuration         time the circuit stays open before a single trial request is let through
+     */
+    public record CircuitBreaker(
+            @DefaultValue("true") boolean enabled,
+            @DefaultValue("20") int windowSize,
+            @DefaultValue("10") int minimumCalls,
+            @DefaultValue("0.5") double failureRateThreshold,
+            @DefaultValue("30s") Duration openDuration) {
+    }
+}
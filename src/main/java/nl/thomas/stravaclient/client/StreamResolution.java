@@ -0,0 +1,30 @@
+package nl.thomas.stravaclient.client;
+
+import java.util.Arrays;
+
+/**
+ * Maximum number of points per stream, named after the resolutions Strava used to offer. Streams are downsampled
+ * locally, as the API always returns every point.
+ */
+public enum StreamResolution {
+    LOW(100),
+    MEDIUM(1000),
+    HIGH(10000);
+
+    private final int maxPoints;
+
+    StreamResolution(int maxPoints) {
+        this.maxPoints = maxPoints;
+    }
+
+    public int getMaxPoints() {
+        return maxPoints;
+    }
+
+    public static StreamResolution fromKey(String key) {
+        return Arrays.stream(values())
+                .filter(resolution -> resolution.name().equalsIgnoreCase(key))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown resolution %s".formatted(key)));
+    }
+}
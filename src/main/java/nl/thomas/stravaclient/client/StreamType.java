@@ -0,0 +1,51 @@
+package nl.thomas.stravaclient.client;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * The activity streams Strava offers, with the primitive column each one is decoded into.
+ */
+public enum StreamType {
+    TIME("time", Column.INT),
+    DISTANCE("distance", Column.DOUBLE),
+    LATLNG("latlng", Column.LATLNG),
+    ALTITUDE("altitude", Column.DOUBLE),
+    VELOCITY_SMOOTH("velocity_smooth", Column.DOUBLE),
+    HEARTRATE("heartrate", Column.INT),
+    CADENCE("cadence", Column.INT),
+    WATTS("watts", Column.INT),
+    TEMP("temp", Column.INT),
+    MOVING("moving", Column.BOOLEAN),
+    GRADE_SMOOTH("grade_smooth", Column.DOUBLE);
+
+    enum Column {
+        INT, DOUBLE, BOOLEAN, LATLNG
+    }
+
+    private final String key;
+    private final Column column;
+
+    StreamType(String key, Column column) {
+        this.key = key;
+        this.column = column;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    Column getColumn() {
+        return column;
+    }
+
+    public static StreamType fromKey(String key) {
+        return find(key).orElseThrow(() -> new IllegalArgumentException("Unknown stream type %s".formatted(key)));
+    }
+
+    static Optional<StreamType> find(String key) {
+        return Arrays.stream(values())
+                .filter(streamType -> streamType.key.equals(key))
+                .findFirst();
+    }
+}
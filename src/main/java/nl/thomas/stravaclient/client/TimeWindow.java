@@ -0,0 +1,31 @@
+package nl.thomas.stravaclient.client;
+
+import lombok.NonNull;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+/**
+ * A window of activities, from {@code after} up to {@code before}. A window of which {@code before} lies before
+ * {@code after} is rejected with an {@link IllegalArgumentException}, which the controllers answer with a bad request.
+ */
+public record TimeWindow(@NonNull ZonedDateTime after, @NonNull ZonedDateTime before) {
+
+    public TimeWindow {
+        validate(after, before);
+    }
+
+    /**
+     * The window of a request, of which the moments are local to the time zone of the athlete.
+     */
+    public static TimeWindow of(@NonNull LocalDateTime after, @NonNull LocalDateTime before, @NonNull ZoneId timeZone) {
+        return new TimeWindow(ZonedDateTime.of(after, timeZone), ZonedDateTime.of(before, timeZone));
+    }
+
+    public static void validate(@NonNull ZonedDateTime after, @NonNull ZonedDateTime before) {
+        if (before.isBefore(after)) {
+            throw new IllegalArgumentException("Incorrect parameters: after %s should be earlier than before %s.".formatted(after, before));
+        }
+    }
+}
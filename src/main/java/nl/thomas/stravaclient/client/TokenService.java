@@ -1,28 +1,163 @@
 package nl.thomas.stravaclient.client;
 
 import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.oauth2.client.ClientAuthorizationRequiredException;
+import org.springframework.security.oauth2.client.OAuth2AuthorizeRequest;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientManager;
 import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
 import org.springframework.security.oauth2.core.user.OAuth2User;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Hands out Strava access tokens from a cache in front of the {@link OAuth2AuthorizedClientService}. Strava access
+ * tokens are valid for six hours; once a token is within {@code strava.token.refresh-before} of expiring it is
+ * refreshed in the background while the still valid token keeps being used. An expired token is refreshed before it is
+ * handed out. There is never more than one refresh per user in flight.
+ */
 @Component
+@Slf4j
 public class TokenService {
 
+    private static final String REGISTRATION_ID = "strava";
+
     private final OAuth2AuthorizedClientService oAuth2AuthorizedClientService;
+    private final OAuth2AuthorizedClientManager oAuth2AuthorizedClientManager;
+    private final Duration refreshBefore;
+    private final Clock clock;
+    private final Executor refreshExecutor;
+    private final Map<String, OAuth2AuthorizedClient> authorizedClients = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<OAuth2AuthorizedClient>> refreshes = new ConcurrentHashMap<>();
+
+    @Autowired
+    public TokenService(
+            OAuth2AuthorizedClientService oAuth2AuthorizedClientService,
+            OAuth2AuthorizedClientManager oAuth2AuthorizedClientManager,
+            @Value("${strava.token.refresh-before:5m}") Duration refreshBefore) {
+        this(oAuth2AuthorizedClientService, oAuth2AuthorizedClientManager, refreshBefore, Clock.systemUTC(), Executors.newVirtualThreadPerTaskExecutor());
+    }
 
-    public TokenService(OAuth2AuthorizedClientService oAuth2AuthorizedClientService) {
+    TokenService(
+            OAuth2AuthorizedClientService oAuth2AuthorizedClientService,
+            OAuth2AuthorizedClientManager oAuth2AuthorizedClientManager,
+            Duration refreshBefore,
+            Clock clock,
+            Executor refreshExecutor) {
         this.oAuth2AuthorizedClientService = oAuth2AuthorizedClientService;
+        this.oAuth2AuthorizedClientManager = oAuth2AuthorizedClientManager;
+        this.refreshBefore = refreshBefore;
+        this.clock = clock;
+        this.refreshExecutor = refreshExecutor;
     }
 
-    String getToken(@NonNull OAuth2User oAuth2User) {
-        return oAuth2AuthorizedClientService
-                .loadAuthorizedClient("strava", oAuth2User.getName())
-                .getAccessToken()
-                .getTokenValue();
+    /**
+     * The access token of the user. Nothing blocks the subscribing thread: the first load of the authorized client,
+     * which may read from disk, runs on the bounded elastic scheduler, and an expired token is refreshed on the refresh
+     * executor, of which the result is awaited without blocking.
+     */
+    public Mono<String> getTokenAsync(@NonNull OAuth2User oAuth2User) {
+        String principalName = oAuth2User.getName();
+        return Mono.defer(() -> {
+                    OAuth2AuthorizedClient cached = authorizedClients.get(principalName);
+                    return cached != null
+                            ? Mono.just(cached)
+                            : Mono.fromCallable(() -> authorizedClients.computeIfAbsent(principalName, this::loadAuthorizedClient))
+                                    .subscribeOn(Schedulers.boundedElastic());
+                })
+                .flatMap(authorizedClient -> {
+                    Instant expiresAt = authorizedClient.getAccessToken().getExpiresAt();
+                    Instant now = clock.instant();
+                    if (expiresAt != null && !now.isBefore(expiresAt)) {
+                        // The refresh is shared with other callers, so one that cancels must not cancel it for them
+                        return Mono.fromFuture(refresh(principalName, authorizedClient), true);
+                    }
+                    if (expiresAt != null && now.plus(refreshBefore).isAfter(expiresAt)) {
+                        refresh(principalName, authorizedClient);
+                    }
+                    return Mono.just(authorizedClient);
+                })
+                .map(authorizedClient -> authorizedClient.getAccessToken().getTokenValue());
     }
 
     public String logout(@NonNull OAuth2User oAuth2User) {
-        oAuth2AuthorizedClientService.removeAuthorizedClient("strava", oAuth2User.getName());
+        forget(oAuth2User.getName());
         return "Uitgelogd";
     }
+
+    /**
+     * Drops the authorized client of the user from the cache and from the {@link OAuth2AuthorizedClientService}, so
+     * that the user has to log in again.
+     */
+    public void forget(@NonNull String principalName) {
+        authorizedClients.remove(principalName);
+        oAuth2AuthorizedClientService.removeAuthorizedClient(REGISTRATION_ID, principalName);
+    }
+
+    private OAuth2AuthorizedClient loadAuthorizedClient(String principalName) {
+        OAuth2AuthorizedClient authorizedClient = oAuth2AuthorizedClientService.loadAuthorizedClient(REGISTRATION_ID, principalName);
+        if (authorizedClient == null) {
+            throw new ClientAuthorizationRequiredException(REGISTRATION_ID);
+        }
+        return authorizedClient;
+    }
+
+    /**
+     * Another node sharing the {@link OAuth2AuthorizedClientService} may have refreshed the token already, in which case
+     * the stored token is used rather than asking Strava again.
+     */
+    private OAuth2AuthorizedClient refreshedElsewhere(String principalName, OAuth2AuthorizedClient authorizedClient) {
+        OAuth2AuthorizedClient stored = oAuth2AuthorizedClientService.loadAuthorizedClient(REGISTRATION_ID, principalName);
+        if (stored == null || stored.getAccessToken().getTokenValue().equals(authorizedClient.getAccessToken().getTokenValue())) {
+            return null;
+        }
+        Instant expiresAt = stored.getAccessToken().getExpiresAt();
+        return expiresAt == null || clock.instant().plus(refreshBefore).isBefore(expiresAt) ? stored : null;
+    }
+
+    private CompletableFuture<OAuth2AuthorizedClient> refresh(String principalName, OAuth2AuthorizedClient authorizedClient) {
+        CompletableFuture<OAuth2AuthorizedClient> refresh = new CompletableFuture<>();
+        CompletableFuture<OAuth2AuthorizedClient> inFlight = refreshes.putIfAbsent(principalName, refresh);
+        if (inFlight != null) {
+            return inFlight;
+        }
+        refreshExecutor.execute(() -> {
+            try {
+                OAuth2AuthorizedClient refreshed = refreshedElsewhere(principalName, authorizedClient);
+                if (refreshed != null) {
+                    log.info("Using Strava access token of user {} that was already refreshed, valid until {}", principalName, refreshed.getAccessToken().getExpiresAt());
+                } else {
+                    refreshed = oAuth2AuthorizedClientManager.authorize(OAuth2AuthorizeRequest
+                            .withAuthorizedClient(authorizedClient)
+                            .principal(principalName)
+                            .build());
+                    if (refreshed == null) {
+                        refreshed = authorizedClient;
+                    }
+                    log.info("Refreshed Strava access token for user {}, now valid until {}", principalName, refreshed.getAccessToken().getExpiresAt());
+                }
+                authorizedClients.put(principalName, refreshed);
+                refresh.complete(refreshed);
+            } catch (RuntimeException e) {
+                log.warn("Refreshing Strava access token for user {} failed with {}", principalName, e.getMessage());
+                refresh.completeExceptionally(e);
+            } finally {
+                refreshes.remove(principalName, refresh);
+            }
+        });
+        return refresh;
+    }
 }
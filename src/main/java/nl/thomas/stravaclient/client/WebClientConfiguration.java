@@ -1,26 +1,91 @@
 package nl.thomas.stravaclient.client;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.handler.timeout.WriteTimeoutHandler;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.util.concurrent.TimeUnit;
 
 @Configuration
+@EnableConfigurationProperties({StravaHttpProperties.class, StravaResilienceProperties.class})
 @Slf4j
 public class WebClientConfiguration {
 
+    static final String CONNECTION_PROVIDER_NAME = "strava";
+
+    /**
+     * Built from the builder of Spring Boot, so that every exchange is observed: http.client.requests is timed per URI
+     * template with status and outcome tags, and the trace context is propagated to Strava. In wire efficiency mode,
+     * gzip is accepted from Strava and decompressed before decoding.
+     */
     @Bean
-    WebClient webClient(@Value("${strava.baseurl}") @NonNull String stravaBaseUrl) {
-        return WebClient.builder()
+    WebClient webClient(
+            WebClient.Builder webClientBuilder,
+            @Value("${strava.baseurl}") @NonNull String stravaBaseUrl,
+            RateLimitScheduler rateLimitScheduler,
+            ConnectionProvider stravaConnectionProvider,
+            StravaHttpProperties properties,
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry,
+            @Value("${strava.wire-efficiency.enabled:true}") boolean wireEfficiency) {
+        return webClientBuilder
                 .baseUrl(stravaBaseUrl)
+                .clientConnector(new ReactorClientHttpConnector(httpClient(stravaBaseUrl, stravaConnectionProvider, properties, wireEfficiency)))
+                .codecs(codecs -> codecs.defaultCodecs().jackson2JsonDecoder(new MeteredJackson2JsonDecoder(objectMapper, meterRegistry)))
+                .filter(rateLimitScheduler)
                 .filter(logRequestAndResponse())
                 .build();
     }
 
+    /**
+     * Pool of connections to Strava. With metrics enabled, Reactor Netty publishes the active, idle and pending
+     * connections and the time spent waiting for a connection as reactor.netty.connection.provider.* meters.
+     */
+    @Bean(destroyMethod = "dispose")
+    ConnectionProvider stravaConnectionProvider(StravaHttpProperties properties) {
+        return ConnectionProvider.builder(CONNECTION_PROVIDER_NAME)
+                .maxConnections(properties.maxConnections())
+                .pendingAcquireMaxCount(properties.pendingAcquireMaxCount())
+                .pendingAcquireTimeout(properties.pendingAcquireTimeout())
+                .maxIdleTime(properties.maxIdleTime())
+                .maxLifeTime(properties.maxLifeTime())
+                .evictInBackground(properties.evictionInterval())
+                .metrics(true)
+                .build();
+    }
+
+    private HttpClient httpClient(String stravaBaseUrl, ConnectionProvider connectionProvider, StravaHttpProperties properties, boolean compress) {
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .keepAlive(true)
+                .compress(compress)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) properties.connectTimeout().toMillis())
+                .responseTimeout(properties.responseTimeout())
+                .doOnConnected(connection -> connection
+                        .addHandlerLast(new ReadTimeoutHandler(properties.readTimeout().toMillis(), TimeUnit.MILLISECONDS))
+                        .addHandlerLast(new WriteTimeoutHandler(properties.writeTimeout().toMillis(), TimeUnit.MILLISECONDS)));
+        if (properties.http2() && stravaBaseUrl.startsWith("https:")) {
+            // HTTP/2 is negotiated with ALPN during the TLS handshake, so it is only offered over https
+            httpClient = httpClient.secure().protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+        }
+        return httpClient;
+    }
+
     private ExchangeFilterFunction logRequestAndResponse() {
         return ExchangeFilterFunction.ofResponseProcessor(clientResponse -> {
             log.info("{} response from Strava to {} request {}",
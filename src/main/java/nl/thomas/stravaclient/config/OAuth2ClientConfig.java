@@ -0,0 +1,56 @@
+package nl.thomas.stravaclient.config;
+
+import nl.thomas.stravaclient.store.FileOAuth2AuthorizedClientService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.oauth2.client.AuthorizedClientServiceOAuth2AuthorizedClientManager;
+import org.springframework.security.oauth2.client.InMemoryOAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientManager;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientProvider;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientProviderBuilder;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@Configuration
+public class OAuth2ClientConfig {
+
+    /**
+     * Keeps the tokens of logged in athletes on disk, so a restart does not send everybody to Strava to log in again.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "strava.auth.store", havingValue = "file", matchIfMissing = true)
+    public OAuth2AuthorizedClientService oAuth2AuthorizedClientService(
+            ClientRegistrationRepository clientRegistrationRepository,
+            @Value("${strava.auth.directory:data/authorized-clients}") Path directory) {
+        return new FileOAuth2AuthorizedClientService(clientRegistrationRepository, directory);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "strava.auth.store", havingValue = "memory")
+    public OAuth2AuthorizedClientService inMemoryOAuth2AuthorizedClientService(ClientRegistrationRepository clientRegistrationRepository) {
+        return new InMemoryOAuth2AuthorizedClientService(clientRegistrationRepository);
+    }
+
+    /**
+     * Refreshes access tokens with the refresh_token grant once they are within {@code strava.token.refresh-before} of
+     * expiring, and saves the refreshed client in the {@link OAuth2AuthorizedClientService}.
+     */
+    @Bean
+    public OAuth2AuthorizedClientManager authorizedClientManager(
+            ClientRegistrationRepository clientRegistrationRepository,
+            OAuth2AuthorizedClientService oAuth2AuthorizedClientService,
+            @Value("${strava.token.refresh-before:5m}") Duration refreshBefore) {
+        OAuth2AuthorizedClientProvider authorizedClientProvider = OAuth2AuthorizedClientProviderBuilder.builder()
+                .refreshToken(refreshToken -> refreshToken.clockSkew(refreshBefore))
+                .build();
+        AuthorizedClientServiceOAuth2AuthorizedClientManager authorizedClientManager =
+                new AuthorizedClientServiceOAuth2AuthorizedClientManager(clientRegistrationRepository, oAuth2AuthorizedClientService);
+        authorizedClientManager.setAuthorizedClientProvider(authorizedClientProvider);
+        return authorizedClientManager;
+    }
+}
@@ -0,0 +1,107 @@
+package nl.thomas.stravaclient.config;
+
+import org.springframework.boot.actuate.autoconfigure.security.reactive.EndpointRequest;
+import org.springframework.boot.actuate.health.HealthEndpoint;
+import org.springframework.boot.actuate.metrics.export.prometheus.PrometheusScrapeEndpoint;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.security.oauth2.client.OAuth2ClientProperties;
+import org.springframework.boot.autoconfigure.security.oauth2.client.OAuth2ClientPropertiesMapper;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.config.Customizer;
+import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.client.registration.InMemoryReactiveClientRegistrationRepository;
+import org.springframework.security.oauth2.client.registration.ReactiveClientRegistrationRepository;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.csrf.CsrfWebFilter;
+import org.springframework.security.web.server.util.matcher.AndServerWebExchangeMatcher;
+import org.springframework.security.web.server.util.matcher.NegatedServerWebExchangeMatcher;
+import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatchers;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Security for the reactive profile, where the application runs on WebFlux and Netty. The rules are those of
+ * {@link SecurityConfig}. Spring Boot only sets up the reactive OAuth2 client beans for a reactive application, while
+ * the token handling works with the blocking ones, so both are created here on top of the same registrations, and the
+ * reactive authorized clients delegate to the {@link OAuth2AuthorizedClientService} of {@link OAuth2ClientConfig}.
+ */
+@EnableWebFluxSecurity
+@EnableConfigurationProperties(OAuth2ClientProperties.class)
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@Configuration
+public class ReactiveSecurityConfig {
+
+    @Bean
+    public SecurityWebFilterChain defaultSecurityWebFilterChain(ServerHttpSecurity http) {
+        return http
+                .csrf(csrf -> csrf.requireCsrfProtectionMatcher(new AndServerWebExchangeMatcher(
+                        CsrfWebFilter.DEFAULT_CSRF_MATCHER,
+                        new NegatedServerWebExchangeMatcher(ServerWebExchangeMatchers.pathMatchers("/activity/name", "/activities/names", "/webhook")))))
+                .authorizeExchange(authorize -> authorize
+                        .matchers(EndpointRequest.to(HealthEndpoint.class, PrometheusScrapeEndpoint.class)).permitAll()
+                        .pathMatchers("/webhook").permitAll()
+                        .anyExchange().authenticated())
+                .oauth2Login(Customizer.withDefaults())
+                .build();
+    }
+
+    @Bean
+    public ReactiveClientRegistrationRepository reactiveClientRegistrationRepository(OAuth2ClientProperties properties) {
+        return new InMemoryReactiveClientRegistrationRepository(List.copyOf(clientRegistrations(properties).values()));
+    }
+
+    /**
+     * Not iterable, unlike the in-memory repository, as the reactive login looks up its links in the only iterable
+     * repository.
+     */
+    @Bean
+    public ClientRegistrationRepository clientRegistrationRepository(OAuth2ClientProperties properties) {
+        return clientRegistrations(properties)::get;
+    }
+
+    /**
+     * Lets the reactive login save the authorized client where the token handling looks for it.
+     */
+    @Bean
+    public ReactiveOAuth2AuthorizedClientService reactiveOAuth2AuthorizedClientService(OAuth2AuthorizedClientService oAuth2AuthorizedClientService) {
+        return new ReactiveOAuth2AuthorizedClientService() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T extends OAuth2AuthorizedClient> Mono<T> loadAuthorizedClient(String clientRegistrationId, String principalName) {
+                return Mono.fromCallable(() -> (T) oAuth2AuthorizedClientService.loadAuthorizedClient(clientRegistrationId, principalName))
+                        .subscribeOn(Schedulers.boundedElastic());
+            }
+
+            @Override
+            public Mono<Void> saveAuthorizedClient(OAuth2AuthorizedClient authorizedClient, Authentication principal) {
+                return Mono.fromRunnable(() -> oAuth2AuthorizedClientService.saveAuthorizedClient(authorizedClient, principal))
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .then();
+            }
+
+            @Override
+            public Mono<Void> removeAuthorizedClient(String clientRegistrationId, String principalName) {
+                return Mono.fromRunnable(() -> oAuth2AuthorizedClientService.removeAuthorizedClient(clientRegistrationId, principalName))
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .then();
+            }
+        };
+    }
+
+    private static Map<String, ClientRegistration> clientRegistrations(OAuth2ClientProperties properties) {
+        return Map.copyOf(new OAuth2ClientPropertiesMapper(properties).asClientRegistrations());
+    }
+}
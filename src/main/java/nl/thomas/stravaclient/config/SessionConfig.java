@@ -0,0 +1,83 @@
+package nl.thomas.stravaclient.config;
+
+import nl.thomas.stravaclient.store.FileSessionRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.session.ReactiveSessionRepository;
+import org.springframework.session.config.annotation.web.http.EnableSpringHttpSession;
+import org.springframework.session.config.annotation.web.server.EnableSpringWebSession;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Replaces the sessions of the server by Spring Session on {@link FileSessionRepository}, for the servlet and the
+ * reactive stack alike. Set {@code strava.session.store} to {@code server} to keep sessions in the memory of the server.
+ */
+@Configuration
+@ConditionalOnProperty(name = "strava.session.store", havingValue = "file", matchIfMissing = true)
+public class SessionConfig {
+
+    @Bean
+    public FileSessionRepository fileSessionRepository(
+            @Value("${strava.session.directory:data/sessions}") Path directory,
+            @Value("${spring.session.timeout:${server.servlet.session.timeout:30m}}") Duration timeout,
+            @Value("${strava.session.touch-interval:1m}") Duration touchInterval,
+            @Value("${strava.session.cleanup-interval:10m}") Duration cleanupInterval) {
+        return new FileSessionRepository(directory, timeout, touchInterval, cleanupInterval);
+    }
+
+    // The nested configurations are found by the component scan on their own, without the condition of this class
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnProperty(name = "strava.session.store", havingValue = "file", matchIfMissing = true)
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    @EnableSpringHttpSession
+    static class ServletSessionConfig {
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnProperty(name = "strava.session.store", havingValue = "file", matchIfMissing = true)
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    @EnableSpringWebSession
+    static class ReactiveSessionConfig {
+
+        /**
+         * The file system is blocking, so the reactive stack uses the repository on the bounded elastic scheduler.
+         */
+        @Bean
+        public ReactiveSessionRepository<FileSessionRepository.FileSession> reactiveSessionRepository(FileSessionRepository fileSessionRepository) {
+            return new ReactiveSessionRepository<>() {
+
+                @Override
+                public Mono<FileSessionRepository.FileSession> createSession() {
+                    return Mono.fromCallable(fileSessionRepository::createSession);
+                }
+
+                @Override
+                public Mono<Void> save(FileSessionRepository.FileSession session) {
+                    return Mono.fromRunnable(() -> fileSessionRepository.save(session))
+                            .subscribeOn(Schedulers.boundedElastic())
+                            .then();
+                }
+
+                @Override
+                public Mono<FileSessionRepository.FileSession> findById(String id) {
+                    return Mono.fromCallable(() -> fileSessionRepository.findById(id))
+                            .subscribeOn(Schedulers.boundedElastic());
+                }
+
+                @Override
+                public Mono<Void> deleteById(String id) {
+                    return Mono.fromRunnable(() -> fileSessionRepository.deleteById(id))
+                            .subscribeOn(Schedulers.boundedElastic())
+                            .then();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package nl.thomas.stravaclient.config;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.server.Compression;
+import org.springframework.boot.web.server.ConfigurableWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ * Spends less on the wire and on JSON, unless {@code strava.wire-efficiency.enabled} is false. Responses of at least
+ * {@code strava.wire-efficiency.min-response-size} are gzip-compressed for clients that accept it, on Tomcat and Netty
+ * alike, and Jackson reads and writes properties through generated accessors (Blackbird) instead of reflection, for the
+ * responses of Strava and of this application. Gzip from Strava is asked for in the WebClient configuration.
+ */
+@Configuration
+@ConditionalOnProperty(name = "strava.wire-efficiency.enabled", havingValue = "true", matchIfMissing = true)
+public class WireEfficiencyConfig {
+
+    // Next to the defaults of Spring Boot, the streamed and GeoJSON responses; exports are gzip files already
+    private static final String[] STREAMED_MIME_TYPES = {"application/x-ndjson", "application/geo+json"};
+
+    @Bean
+    public Module blackbirdModule() {
+        return new BlackbirdModule();
+    }
+
+    /**
+     * Runs after the customizer of Spring Boot, so it replaces anything set under {@code server.compression}.
+     */
+    @Bean
+    public WebServerFactoryCustomizer<ConfigurableWebServerFactory> compressionCustomizer(
+            @Value("${strava.wire-efficiency.min-response-size:2KB}") DataSize minResponseSize) {
+        return factory -> {
+            Compression compression = new Compression();
+            compression.setEnabled(true);
+            compression.setMinResponseSize(minResponseSize);
+            compression.setMimeTypes(Stream.concat(Arrays.stream(compression.getMimeTypes()), Arrays.stream(STREAMED_MIME_TYPES))
+                    .toArray(String[]::new));
+            factory.setCompression(compression);
+        };
+    }
+}
@@ -0,0 +1,16 @@
+package nl.thomas.stravaclient.controllers;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import nl.thomas.strava.model.DetailedActivity;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ActivityBatchResult(Long activityId, int status, String error, DetailedActivity activity) {
+
+    static ActivityBatchResult found(DetailedActivity activity) {
+        return new ActivityBatchResult(activity.getId(), 200, null, activity);
+    }
+
+    static ActivityBatchResult failed(Long activityId, int status, String error) {
+        return new ActivityBatchResult(activityId, status, error, null);
+    }
+}
@@ -0,0 +1,4 @@
+package nl.thomas.stravaclient.controllers;
+
+public record ActivityRename(Long activityId, String newName) {
+}
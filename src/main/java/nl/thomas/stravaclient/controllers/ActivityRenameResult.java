@@ -0,0 +1,15 @@
+package nl.thomas.stravaclient.controllers;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ActivityRenameResult(Long activityId, String newName, int status, String error) {
+
+    static ActivityRenameResult renamed(ActivityRename rename) {
+        return new ActivityRenameResult(rename.activityId(), rename.newName(), 200, null);
+    }
+
+    static ActivityRenameResult failed(ActivityRename rename, int status, String error) {
+        return new ActivityRenameResult(rename.activityId(), rename.newName(), status, error);
+    }
+}
@@ -0,0 +1,35 @@
+package nl.thomas.stravaclient.controllers;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+/**
+ * Answers for the controllers that have no handlers of their own: the status of Strava when a call to Strava failed,
+ * and a bad request for incorrect parameters.
+ */
+@RestControllerAdvice
+@Slf4j
+public class ControllerExceptionHandler {
+
+    @ExceptionHandler
+    public ResponseEntity<String> handleWebclientException(WebClientResponseException e) {
+        log.warn("{} with message \"{}\". Returned {}.",
+                e.getClass().getSimpleName(),
+                e.getMessage(),
+                e.getStatusCode());
+        return ResponseEntity.status(e.getStatusCode()).body(e.getMessage());
+    }
+
+    @ExceptionHandler
+    public ResponseEntity<String> handleException(IllegalArgumentException e) {
+        log.warn("{} with message \"{}\". Returned {}.",
+                e.getClass().getSimpleName(),
+                e.getMessage(),
+                HttpStatus.BAD_REQUEST.name());
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+    }
+}
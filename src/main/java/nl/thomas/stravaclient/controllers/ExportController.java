@@ -0,0 +1,66 @@
+package nl.thomas.stravaclient.controllers;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import nl.thomas.stravaclient.export.ActivityExporter;
+import nl.thomas.stravaclient.export.ExportFormat;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Export of the servlet stack. Spring MVC would collect a returned {@code Flux<DataBuffer>} into memory before writing
+ * it, so the buffers are written to the response stream here, a few at a time, on the async request thread.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@Slf4j
+public class ExportController {
+
+    private static final int PREFETCH = 4;
+
+    private final ActivityExporter activityExporter;
+
+    public ExportController(ActivityExporter activityExporter) {
+        this.activityExporter = activityExporter;
+    }
+
+    @GetMapping("/athlete/activities/export")
+    public ResponseEntity<StreamingResponseBody> exportActivities(
+            @AuthenticationPrincipal @NonNull OAuth2User oAuth2User,
+            @RequestParam(defaultValue = "ndjson") String format) {
+        ExportFormat exportFormat = ExportFormat.fromKey(format);
+        log.info("GET request received at /athlete/activities/export for user {} as {}", oAuth2User.getName(), exportFormat);
+        StreamingResponseBody body = outputStream -> {
+            // Closing the stream cancels the export, also when the client went away, and releases what was prefetched
+            try (Stream<DataBuffer> buffers = activityExporter.export(oAuth2User, exportFormat, DefaultDataBufferFactory.sharedInstance)
+                    .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+                    .toStream(PREFETCH)) {
+                Iterator<DataBuffer> iterator = buffers.iterator();
+                while (iterator.hasNext()) {
+                    try (InputStream inputStream = iterator.next().asInputStream(true)) {
+                        inputStream.transferTo(outputStream);
+                    }
+                    outputStream.flush();
+                }
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/gzip"))
+                .header("Content-Disposition", ActivityExporter.attachment(oAuth2User, exportFormat).toString())
+                .body(body);
+    }
+}
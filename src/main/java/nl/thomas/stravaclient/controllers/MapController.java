@@ -0,0 +1,49 @@
+package nl.thomas.stravaclient.controllers;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import nl.thomas.stravaclient.client.TimeWindow;
+import nl.thomas.stravaclient.geo.ActivityGeoJson;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+@RestController
+@Slf4j
+public class MapController {
+
+    private static final MediaType GEO_JSON = MediaType.parseMediaType("application/geo+json");
+
+    private final ActivityGeoJson activityGeoJson;
+
+    public MapController(ActivityGeoJson activityGeoJson) {
+        this.activityGeoJson = activityGeoJson;
+    }
+
+    @GetMapping("/athlete/activities/geojson")
+    public Mono<ResponseEntity<byte[]>> getActivitiesGeoJson(
+            @AuthenticationPrincipal @NonNull OAuth2User oAuth2User,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime after,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime before,
+            @RequestParam ZoneId timeZone,
+            @RequestParam(defaultValue = "12") int zoom) {
+        TimeWindow window = TimeWindow.of(after, before, timeZone);
+        log.info(
+                "GET request received at /athlete/activities/geojson for user {} with runs between {} and {} at zoom {}",
+                oAuth2User.getName(),
+                window.after(),
+                window.before(),
+                zoom);
+        return activityGeoJson.getFeatureCollection(oAuth2User, window.after(), window.before(), zoom)
+                .map(featureCollection -> ResponseEntity.ok().contentType(GEO_JSON).body(featureCollection));
+    }
+}
@@ -0,0 +1,45 @@
+package nl.thomas.stravaclient.controllers;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import nl.thomas.stravaclient.export.ActivityExporter;
+import nl.thomas.stravaclient.export.ExportFormat;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+/**
+ * Export of the reactive stack. The buffers go straight to the response, which only requests more once the previous
+ * ones were written to the connection.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@Slf4j
+public class ReactiveExportController {
+
+    private final ActivityExporter activityExporter;
+
+    public ReactiveExportController(ActivityExporter activityExporter) {
+        this.activityExporter = activityExporter;
+    }
+
+    @GetMapping("/athlete/activities/export")
+    public Mono<Void> exportActivities(
+            @AuthenticationPrincipal @NonNull OAuth2User oAuth2User,
+            @RequestParam(defaultValue = "ndjson") String format,
+            ServerHttpResponse response) {
+        ExportFormat exportFormat = ExportFormat.fromKey(format);
+        log.info("GET request received at /athlete/activities/export for user {} as {}", oAuth2User.getName(), exportFormat);
+        HttpHeaders headers = response.getHeaders();
+        headers.setContentType(MediaType.parseMediaType("application/gzip"));
+        headers.setContentDisposition(ActivityExporter.attachment(oAuth2User, exportFormat));
+        return response.writeWith(activityExporter.export(oAuth2User, exportFormat, response.bufferFactory()));
+    }
+}
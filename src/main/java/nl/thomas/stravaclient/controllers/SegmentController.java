@@ -0,0 +1,56 @@
+package nl.thomas.stravaclient.controllers;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import nl.thomas.stravaclient.client.BoundingBox;
+import nl.thomas.stravaclient.client.Segment;
+import nl.thomas.stravaclient.client.SegmentActivityType;
+import nl.thomas.stravaclient.client.SegmentSummary;
+import nl.thomas.stravaclient.client.StravaClient;
+import nl.thomas.stravaclient.segments.SegmentExplorer;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+@RestController
+@Slf4j
+public class SegmentController {
+
+    private final StravaClient stravaClient;
+    private final SegmentExplorer segmentExplorer;
+
+    public SegmentController(StravaClient stravaClient, SegmentExplorer segmentExplorer) {
+        this.stravaClient = stravaClient;
+        this.segmentExplorer = segmentExplorer;
+    }
+
+    @GetMapping("/segments/explore")
+    public Mono<List<SegmentSummary>> exploreSegments(
+            @AuthenticationPrincipal @NonNull OAuth2User oAuth2User,
+            @RequestParam List<Double> bounds,
+            @RequestParam(required = false) String activityType,
+            @RequestParam(required = false) Integer minCat,
+            @RequestParam(required = false) Integer maxCat) {
+        BoundingBox boundingBox = BoundingBox.of(bounds);
+        log.info("GET request received at /segments/explore for user {} within {}", oAuth2User.getName(), boundingBox);
+        return segmentExplorer.explore(
+                        oAuth2User,
+                        boundingBox,
+                        activityType == null ? null : SegmentActivityType.fromKey(activityType),
+                        minCat,
+                        maxCat)
+                .collectList();
+    }
+
+    @GetMapping("/segments/{id}")
+    public Mono<Segment> getSegment(@AuthenticationPrincipal @NonNull OAuth2User oAuth2User, @PathVariable Long id) {
+        log.info("GET request received at /segments/{} for user {}", id, oAuth2User.getName());
+        return stravaClient.getSegment(oAuth2User, id);
+    }
+}
@@ -4,30 +4,63 @@ import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import nl.thomas.strava.model.DetailedActivity;
 import nl.thomas.strava.model.DetailedAthlete;
+import nl.thomas.stravaclient.client.ActivityField;
+import nl.thomas.stravaclient.client.ActivityStreams;
 import nl.thomas.stravaclient.client.StravaClient;
+import nl.thomas.stravaclient.client.StreamResolution;
+import nl.thomas.stravaclient.client.StreamType;
+import nl.thomas.stravaclient.client.TimeWindow;
+import nl.thomas.stravaclient.store.ActivitySyncService;
+import nl.thomas.stravaclient.summary.SummaryBucket;
+import nl.thomas.stravaclient.summary.TrainingSummary;
+import nl.thomas.stravaclient.summary.TrainingSummaryEngine;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.oauth2.core.user.OAuth2User;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.time.LocalDateTime;
 import java.time.ZoneId;
-import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @RestController
 @Slf4j
 public class StravaController {
 
     private final StravaClient stravaClient;
+    private final ActivitySyncService activitySyncService;
+    private final TrainingSummaryEngine trainingSummaryEngine;
+    private final int renameConcurrency;
+    private final int batchConcurrency;
+    private final int batchMaxSize;
 
-    public StravaController(StravaClient stravaClient) {
+    public StravaController(
+            StravaClient stravaClient,
+            ActivitySyncService activitySyncService,
+            TrainingSummaryEngine trainingSummaryEngine,
+            @Value("${strava.rename.concurrency:4}") int renameConcurrency,
+            @Value("${strava.activities.batch-concurrency:4}") int batchConcurrency,
+            @Value("${strava.activities.batch-max-size:200}") int batchMaxSize) {
         this.stravaClient = stravaClient;
+        this.activitySyncService = activitySyncService;
+        this.trainingSummaryEngine = trainingSummaryEngine;
+        this.renameConcurrency = renameConcurrency;
+        this.batchConcurrency = batchConcurrency;
+        this.batchMaxSize = batchMaxSize;
     }
 
     @GetMapping("/athlete")
@@ -36,21 +69,121 @@ public class StravaController {
         return stravaClient.getDetailedAthlete(oAuth2User);
     }
 
-    @GetMapping("/athlete/activities")
-    public Mono<List<DetailedActivity>> getDetailedActivities(
+    @GetMapping(value = "/athlete/activities", produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public Flux<?> getDetailedActivities(
             @AuthenticationPrincipal @NonNull OAuth2User oAuth2User,
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime after,
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime before,
-            @RequestParam ZoneId timeZone
+            @RequestParam ZoneId timeZone,
+            @RequestParam(required = false) List<String> fields
     ) {
-        ZonedDateTime zonedAfter = ZonedDateTime.of(after, timeZone);
-        ZonedDateTime zonedBefore = ZonedDateTime.of(before, timeZone);
+        TimeWindow window = TimeWindow.of(after, before, timeZone);
         log.info(
                 "GET request received at /athlete/activities for user {} with runs between {} and {}",
                 oAuth2User.getName(),
-                zonedAfter,
-                zonedBefore);
-        return stravaClient.getDetailedActivities(oAuth2User, zonedAfter, zonedBefore);
+                window.after(),
+                window.before());
+        if (fields != null) {
+            Set<ActivityField> activityFields = fields.stream()
+                    .map(ActivityField::fromKey)
+                    .collect(Collectors.toCollection(() -> EnumSet.noneOf(ActivityField.class)));
+            return activitySyncService.getActivitySummaries(oAuth2User, window.after(), window.before(), activityFields);
+        }
+        return activitySyncService.getDetailedActivities(oAuth2User, window.after(), window.before());
+    }
+
+    @GetMapping("/athlete/summary")
+    public Mono<List<TrainingSummary>> getTrainingSummary(
+            @AuthenticationPrincipal @NonNull OAuth2User oAuth2User,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime after,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime before,
+            @RequestParam ZoneId timeZone,
+            @RequestParam(defaultValue = "week") String bucket
+    ) {
+        TimeWindow window = TimeWindow.of(after, before, timeZone);
+        SummaryBucket summaryBucket = SummaryBucket.fromKey(bucket);
+        log.info(
+                "GET request received at /athlete/summary for user {} per {} between {} and {}",
+                oAuth2User.getName(),
+                summaryBucket,
+                window.after(),
+                window.before());
+        if (!activitySyncService.isEnabled()) {
+            // Without a store there is nothing to keep the columns up to date, so the window is fetched every time
+            return trainingSummaryEngine.summarize(
+                    activitySyncService.getDetailedActivities(oAuth2User, window.after(), window.before()),
+                    window.after(),
+                    window.before(),
+                    summaryBucket);
+        }
+        return activitySyncService.sync(oAuth2User, window.after(), window.before())
+                // The first summary of an athlete reads the store
+                .then(Mono.fromCallable(() -> trainingSummaryEngine.summarize(oAuth2User.getName(), window.after(), window.before(), summaryBucket))
+                        .subscribeOn(Schedulers.boundedElastic()));
+    }
+
+    @GetMapping("/activities/{activityId}/streams")
+    public Mono<ActivityStreams> getActivityStreams(
+            @AuthenticationPrincipal @NonNull OAuth2User oAuth2User,
+            @PathVariable Long activityId,
+            @RequestParam(required = false) List<String> keys,
+            @RequestParam(required = false) String resolution) {
+        Set<StreamType> streamTypes = keys == null
+                ? EnumSet.allOf(StreamType.class)
+                : keys.stream().map(StreamType::fromKey).collect(Collectors.toCollection(() -> EnumSet.noneOf(StreamType.class)));
+        StreamResolution streamResolution = resolution == null ? null : StreamResolution.fromKey(resolution);
+        log.info("GET request received at /activities/{}/streams for user {} with keys {} and resolution {}",
+                activityId,
+                oAuth2User.getName(),
+                streamTypes,
+                streamResolution);
+        return stravaClient.getActivityStreams(oAuth2User, activityId, streamTypes, streamResolution);
+    }
+
+    /**
+     * Cached activities are answered straight away, the others are fetched from Strava a few at a time and streamed as
+     * they arrive, so the result is in no particular order.
+     */
+    @PostMapping(value = "/activities/batch", produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public Flux<ActivityBatchResult> getDetailedActivities(
+            @AuthenticationPrincipal @NonNull OAuth2User oAuth2User,
+            @RequestBody List<Long> activityIds) {
+        log.info("POST request from {} at /activities/batch for {} activities", oAuth2User.getName(), activityIds.size());
+        if (activityIds.size() > batchMaxSize) {
+            throw new IllegalArgumentException("At most %d activities can be requested at once, but %d were requested".formatted(batchMaxSize, activityIds.size()));
+        }
+        return Flux.defer(() -> {
+            List<ActivityBatchResult> answered = new ArrayList<>();
+            List<Long> missing = new ArrayList<>();
+            for (Long activityId : new LinkedHashSet<>(activityIds)) {
+                if (activityId == null) {
+                    answered.add(ActivityBatchResult.failed(null, HttpStatus.BAD_REQUEST.value(), "ActivityId is required"));
+                    continue;
+                }
+                activitySyncService.getCachedActivity(oAuth2User.getName(), activityId)
+                        .ifPresentOrElse(activity -> answered.add(ActivityBatchResult.found(activity)), () -> missing.add(activityId));
+            }
+            log.info("{} of {} activities answered from the cache", answered.size(), answered.size() + missing.size());
+            return Flux.fromIterable(answered)
+                    .concatWith(Flux.fromIterable(missing)
+                            .flatMap(activityId -> getDetailedActivity(oAuth2User, activityId), batchConcurrency));
+        });
+    }
+
+    private Mono<ActivityBatchResult> getDetailedActivity(OAuth2User oAuth2User, Long activityId) {
+        return Mono.defer(() -> activitySyncService.getDetailedActivity(oAuth2User, activityId))
+                .map(ActivityBatchResult::found)
+                .onErrorResume(e -> {
+                    int status = e instanceof WebClientResponseException webClientResponseException
+                            ? webClientResponseException.getStatusCode().value()
+                            : HttpStatus.INTERNAL_SERVER_ERROR.value();
+                    log.warn("{} with message \"{}\" while getting activity {}. Returned {}.",
+                            e.getClass().getSimpleName(),
+                            e.getMessage(),
+                            activityId,
+                            status);
+                    return Mono.just(ActivityBatchResult.failed(activityId, status, e.getMessage()));
+                });
     }
 
     @PutMapping("/activity/name")
@@ -63,7 +196,35 @@ public class StravaController {
                 oAuth2User.getName(),
                 activityId,
                 newName);
-        return stravaClient.replaceNameForActivity(oAuth2User, activityId, newName);
+        return activitySyncService.replaceNameForActivity(oAuth2User, activityId, newName);
+    }
+
+    @PutMapping(value = "/activities/names", produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public Flux<ActivityRenameResult> updateActivities(
+            @AuthenticationPrincipal @NonNull OAuth2User oAuth2User,
+            @RequestBody List<ActivityRename> renames) {
+        log.info("PUT request from {} at /activities/names to replace names for {} activities", oAuth2User.getName(), renames.size());
+        return Flux.fromIterable(renames)
+                .flatMap(rename -> replaceName(oAuth2User, rename), renameConcurrency);
+    }
+
+    private Mono<ActivityRenameResult> replaceName(OAuth2User oAuth2User, ActivityRename rename) {
+        if (rename.activityId() == null || rename.newName() == null) {
+            return Mono.just(ActivityRenameResult.failed(rename, HttpStatus.BAD_REQUEST.value(), "ActivityId and new name are required"));
+        }
+        return Mono.defer(() -> activitySyncService.replaceNameForActivity(oAuth2User, rename.activityId(), rename.newName()))
+                .map(activity -> ActivityRenameResult.renamed(rename))
+                .onErrorResume(e -> {
+                    int status = e instanceof WebClientResponseException webClientResponseException
+                            ? webClientResponseException.getStatusCode().value()
+                            : HttpStatus.INTERNAL_SERVER_ERROR.value();
+                    log.warn("{} with message \"{}\" while replacing name for activity {}. Returned {}.",
+                            e.getClass().getSimpleName(),
+                            e.getMessage(),
+                            rename.activityId(),
+                            status);
+                    return Mono.just(ActivityRenameResult.failed(rename, status, e.getMessage()));
+                });
     }
 
     private Long getActivityId(Map<String, String> body) {
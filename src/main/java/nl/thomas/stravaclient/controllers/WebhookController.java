@@ -0,0 +1,69 @@
+package nl.thomas.stravaclient.controllers;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.thomas.stravaclient.webhook.StravaEvent;
+import nl.thomas.stravaclient.webhook.WebhookEventPipeline;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Callback of the Strava webhook subscription. Strava validates the callback with a GET request carrying the verify
+ * token that was given when creating the subscription, and then posts an event for every change. Both have to be
+ * answered within two seconds, so events are only queued here. The callback is open to anyone, so events of another
+ * subscription than {@code strava.webhook.subscription-id} are refused, and every event is refused while it is not set.
+ */
+@RestController
+@Slf4j
+public class WebhookController {
+
+    private final WebhookEventPipeline webhookEventPipeline;
+    private final String verifyToken;
+    private final Long subscriptionId;
+
+    public WebhookController(
+            WebhookEventPipeline webhookEventPipeline,
+            @Value("${strava.webhook.verify-token:}") String verifyToken,
+            @Value("${strava.webhook.subscription-id:#{null}}") Long subscriptionId) {
+        this.webhookEventPipeline = webhookEventPipeline;
+        this.verifyToken = verifyToken;
+        this.subscriptionId = subscriptionId;
+    }
+
+    @GetMapping("/webhook")
+    public ResponseEntity<Map<String, String>> validateSubscription(
+            @RequestParam("hub.mode") String mode,
+            @RequestParam("hub.challenge") String challenge,
+            @RequestParam("hub.verify_token") String token) {
+        if (!"subscribe".equals(mode) || verifyToken.isEmpty() || !verifyToken.equals(token)) {
+            log.warn("Rejected webhook subscription validation with mode {}", mode);
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        log.info("Validated webhook subscription");
+        return ResponseEntity.ok(Map.of("hub.challenge", challenge));
+    }
+
+    @PostMapping("/webhook")
+    public ResponseEntity<Void> receiveEvent(@RequestBody StravaEvent event) {
+        log.info("Webhook event received: {} {} {} of athlete {}", event.aspectType(), event.objectType(), event.objectId(), event.ownerId());
+        if (subscriptionId == null) {
+            log.warn("Ignored webhook event of subscription {}, since no subscription id is set", event.subscriptionId());
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (subscriptionId != event.subscriptionId()) {
+            log.warn("Ignored webhook event of unknown subscription {}", event.subscriptionId());
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        // Strava retries an event that is not acknowledged with 200
+        return webhookEventPipeline.submit(event)
+                ? ResponseEntity.ok().build()
+                : ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+    }
+}
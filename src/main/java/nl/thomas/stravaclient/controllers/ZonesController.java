@@ -0,0 +1,62 @@
+package nl.thomas.stravaclient.controllers;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import nl.thomas.stravaclient.client.AthleteZones;
+import nl.thomas.stravaclient.client.StravaClient;
+import nl.thomas.stravaclient.zones.ActivityLoad;
+import nl.thomas.stravaclient.zones.ZoneAnalytics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+
+@RestController
+@Slf4j
+public class ZonesController {
+
+    private final StravaClient stravaClient;
+    private final ZoneAnalytics zoneAnalytics;
+    private final int maxActivities;
+
+    public ZonesController(
+            StravaClient stravaClient,
+            ZoneAnalytics zoneAnalytics,
+            @Value("${strava.zones.max-activities:500}") int maxActivities) {
+        this.stravaClient = stravaClient;
+        this.zoneAnalytics = zoneAnalytics;
+        this.maxActivities = maxActivities;
+    }
+
+    @GetMapping("/athlete/zones")
+    public Mono<AthleteZones> getAthleteZones(@AuthenticationPrincipal @NonNull OAuth2User oAuth2User) {
+        log.info("GET request received at /athlete/zones for user {}", oAuth2User.getName());
+        return stravaClient.getAthleteZones(oAuth2User);
+    }
+
+    /**
+     * Loads are streamed as their batch is analysed, so the result is in no particular order.
+     */
+    @PostMapping(value = "/activities/zones", produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public Flux<ActivityLoad> getActivityLoads(
+            @AuthenticationPrincipal @NonNull OAuth2User oAuth2User,
+            @RequestBody List<Long> activityIds) {
+        log.info("POST request from {} at /activities/zones for {} activities", oAuth2User.getName(), activityIds.size());
+        if (activityIds.size() > maxActivities) {
+            throw new IllegalArgumentException("At most %d activities can be analysed at once, but %d were requested".formatted(maxActivities, activityIds.size()));
+        }
+        if (activityIds.contains(null)) {
+            throw new IllegalArgumentException("ActivityId is required");
+        }
+        return zoneAnalytics.getActivityLoads(oAuth2User, List.copyOf(new LinkedHashSet<>(activityIds)));
+    }
+}
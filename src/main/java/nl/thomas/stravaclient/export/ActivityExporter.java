@@ -0,0 +1,182 @@
+package nl.thomas.stravaclient.export;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import nl.thomas.strava.model.DetailedActivity;
+import nl.thomas.stravaclient.client.ActivityField;
+import nl.thomas.stravaclient.client.ActivitySummary;
+import nl.thomas.stravaclient.store.ActivitySyncService;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.ContentDisposition;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the full activity history of an athlete as gzip-compressed NDJSON or CSV. Activities are taken from the
+ * {@link ActivitySyncService}, which reads them from the store without copying, one at a time as the consumer asks for
+ * more buffers. Each row is compressed right away, and a buffer is only handed out once the compressor has a block
+ * ready. No matter how many activities there are, only the rows of the current block and the compressor window are
+ * held.
+ */
+@Component
+@Slf4j
+public class ActivityExporter {
+
+    private static final ActivityField[] CSV_COLUMNS = ActivityField.values();
+    private static final int COMPRESSED_BLOCK_SIZE = 8192;
+    private static final String FORMULA_PREFIXES = "=+-@";
+
+    private final ActivitySyncService activitySyncService;
+    private final ObjectMapper objectMapper;
+
+    public ActivityExporter(ActivitySyncService activitySyncService, ObjectMapper objectMapper) {
+        this.activitySyncService = activitySyncService;
+        this.objectMapper = objectMapper;
+    }
+
+    public Flux<DataBuffer> export(@NonNull OAuth2User oAuth2User, @NonNull ExportFormat format, @NonNull DataBufferFactory bufferFactory) {
+        ZonedDateTime after = ZonedDateTime.ofInstant(Instant.EPOCH, ZoneOffset.UTC);
+        ZonedDateTime before = ZonedDateTime.now(ZoneOffset.UTC);
+        Flux<byte[]> rows = activitySyncService.getDetailedActivities(oAuth2User, after, before)
+                .map(activity -> row(activity, format));
+        if (format == ExportFormat.CSV) {
+            rows = rows.startWith(csvHeader());
+        }
+        return gzip(rows, bufferFactory)
+                .doOnComplete(() -> log.info("Exported the activities of athlete {} as {}", oAuth2User.getName(), format));
+    }
+
+    /**
+     * Name of the downloaded file, for the Content-Disposition header.
+     */
+    public static ContentDisposition attachment(OAuth2User oAuth2User, ExportFormat format) {
+        return ContentDisposition.attachment()
+                .filename("activities-%s.%s.gz".formatted(oAuth2User.getName(), format.getKey()))
+                .build();
+    }
+
+    static Flux<DataBuffer> gzip(Flux<byte[]> rows, DataBufferFactory bufferFactory) {
+        return Flux.defer(() -> {
+            Compressor compressor = new Compressor();
+            return rows
+                    .<DataBuffer>handle((row, sink) -> {
+                        byte[] compressed = compressor.write(row);
+                        if (compressed.length > 0) {
+                            sink.next(bufferFactory.wrap(compressed));
+                        }
+                    })
+                    .concatWith(Mono.fromCallable(() -> bufferFactory.wrap(compressor.finish())));
+        });
+    }
+
+    private byte[] row(DetailedActivity activity, ExportFormat format) {
+        return switch (format) {
+            case NDJSON -> {
+                try {
+                    byte[] json = objectMapper.writeValueAsBytes(activity);
+                    byte[] line = Arrays.copyOf(json, json.length + 1);
+                    line[json.length] = '\n';
+                    yield line;
+                } catch (JsonProcessingException e) {
+                    throw new IllegalStateException("Could not write activity %d as JSON".formatted(activity.getId()), e);
+                }
+            }
+            case CSV -> csvRow(ActivitySummary.of(activity));
+        };
+    }
+
+    private static byte[] csvHeader() {
+        return Arrays.stream(CSV_COLUMNS)
+                .map(ActivityField::getKey)
+                .collect(Collectors.joining(",", "", "\r\n"))
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] csvRow(ActivitySummary summary) {
+        return Arrays.stream(CSV_COLUMNS)
+                .map(column -> switch (column) {
+                    case ID -> summary.id();
+                    case NAME -> summary.name();
+                    case START_DATE -> summary.startDate();
+                    case DISTANCE -> summary.distance();
+                    case MOVING_TIME -> summary.movingTime();
+                    case TYPE -> summary.type();
+                })
+                .map(value -> value == null ? "" : csvValue(Objects.toString(value)))
+                .collect(Collectors.joining(",", "", "\r\n"))
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Quotes values as RFC 4180 requires, which is only needed for free text such as activity names. A value that a
+     * spreadsheet would take for a formula is prefixed with a quote, so that an activity name cannot run one.
+     */
+    static String csvValue(String value) {
+        if (!value.isEmpty() && FORMULA_PREFIXES.indexOf(value.charAt(0)) >= 0) {
+            value = "'" + value;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * A gzip stream whose output is taken out after every write. The deflater only emits a block once it has gathered
+     * enough input, so most writes return nothing.
+     */
+    private static final class Compressor {
+
+        private final ByteArrayOutputStream compressed = new ByteArrayOutputStream(COMPRESSED_BLOCK_SIZE);
+        private final GZIPOutputStream gzip;
+
+        Compressor() {
+            try {
+                gzip = new GZIPOutputStream(compressed, COMPRESSED_BLOCK_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        byte[] write(byte[] row) {
+            try {
+                gzip.write(row);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return take();
+        }
+
+        byte[] finish() {
+            try {
+                gzip.finish();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return take();
+        }
+
+        private byte[] take() {
+            byte[] bytes = compressed.toByteArray();
+            compressed.reset();
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package nl.thomas.stravaclient.export;
+
+import java.util.Arrays;
+
+public enum ExportFormat {
+    NDJSON("ndjson"),
+    CSV("csv");
+
+    private final String key;
+
+    ExportFormat(String key) {
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public static ExportFormat fromKey(String key) {
+        return Arrays.stream(values())
+                .filter(format -> format.key.equals(key))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown export format %s, expected one of %s".formatted(
+                        key, Arrays.stream(values()).map(ExportFormat::getKey).toList())));
+    }
+}
@@ -0,0 +1,38 @@
+package nl.thomas.stravaclient.fleet;
+
+import nl.thomas.stravaclient.client.RateLimitBudget;
+import nl.thomas.stravaclient.store.ActivityStore;
+import nl.thomas.stravaclient.store.ActivitySyncService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+
+/**
+ * Background synchronisation of all athletes, only when {@code strava.fleet.enabled} is set: without it, the store of
+ * an athlete is brought up to date when the athlete asks for it. There is nothing to keep up to date when
+ * {@code strava.store.enabled} is off, so then there is no synchronisation either.
+ */
+@Configuration
+@ConditionalOnProperty(name = "strava.fleet.enabled", havingValue = "true")
+@EnableConfigurationProperties(FleetSyncProperties.class)
+public class FleetSyncConfiguration {
+
+    @Bean(destroyMethod = "stop")
+    @ConditionalOnProperty(name = "strava.store.enabled", havingValue = "true", matchIfMissing = true)
+    FleetSyncScheduler fleetSyncScheduler(
+            ActivitySyncService activitySyncService,
+            ActivityStore activityStore,
+            RateLimitBudget rateLimitBudget,
+            OAuth2AuthorizedClientService oAuth2AuthorizedClientService,
+            FleetSyncProperties fleetSyncProperties) {
+        return new FleetSyncScheduler(activitySyncService, activityStore, rateLimitBudget, oAuth2AuthorizedClientService, fleetSyncProperties);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "strava.store.enabled", havingValue = "true", matchIfMissing = true)
+    FleetSyncMetrics fleetSyncMetrics(FleetSyncScheduler fleetSyncScheduler) {
+        return new FleetSyncMetrics(fleetSyncScheduler);
+    }
+}
@@ -0,0 +1,45 @@
+package nl.thomas.stravaclient.fleet;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+
+/**
+ * Publishes how far the background synchronisation keeps up: the athletes known, those waiting for a sync and running
+ * one, how long the longest waiting one is overdue, and the number of syncs per outcome.
+ */
+public class FleetSyncMetrics implements MeterBinder {
+
+    private final FleetSyncScheduler fleetSyncScheduler;
+
+    public FleetSyncMetrics(FleetSyncScheduler fleetSyncScheduler) {
+        this.fleetSyncScheduler = fleetSyncScheduler;
+    }
+
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        Gauge.builder("strava.fleet.athletes", fleetSyncScheduler, FleetSyncScheduler::getAthleteCount)
+                .description("Athletes synchronised in the background")
+                .register(registry);
+        Gauge.builder("strava.fleet.queued", fleetSyncScheduler, FleetSyncScheduler::getQueued)
+                .description("Athletes due for a sync that has not started yet")
+                .register(registry);
+        Gauge.builder("strava.fleet.running", fleetSyncScheduler, FleetSyncScheduler::getRunning)
+                .description("Background syncs running")
+                .register(registry);
+        Gauge.builder("strava.fleet.lag", fleetSyncScheduler, scheduler -> scheduler.getLag().toMillis() / 1000.0)
+                .description("Time the longest waiting athlete is overdue for a sync")
+                .baseUnit("seconds")
+                .register(registry);
+        FunctionCounter.builder("strava.fleet.syncs", fleetSyncScheduler, FleetSyncScheduler::getSyncedCount)
+                .description("Background syncs of an athlete")
+                .tag("outcome", "success")
+                .register(registry);
+        FunctionCounter.builder("strava.fleet.syncs", fleetSyncScheduler, FleetSyncScheduler::getFailedCount)
+                .description("Background syncs of an athlete")
+                .tag("outcome", "failure")
+                .register(registry);
+    }
+}
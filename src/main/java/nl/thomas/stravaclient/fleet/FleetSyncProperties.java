@@ -0,0 +1,46 @@
+package nl.thomas.stravaclient.fleet;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * Settings of the background synchronisation of all athletes, bound from {@code strava.fleet.*}.
+ *
+ * @param enabled           keep the store of every athlete with an authorized client up to date
+ * @param window            period up to now that is kept synchronised
+ * @param minInterval       shortest time between syncs of an athlete, for the most active ones; the first sync after
+ *                          registering is at a random moment within this interval
+ * @param maxInterval       time between syncs of an athlete without activities in the last week
+ * @param jitter            share of the interval by which the next sync is moved at random, earlier or later
+ * @param concurrency       syncs running at the same time at most
+ * @param tick              how often due athletes are looked for
+ * @param discoveryInterval how often the directory of authorized clients is read for athletes that logged in elsewhere
+ * @param syncTimeout       time after which a single sync is given up
+ * @param nodeIndex         index of this node among the nodes that share the authorized clients, from zero
+ * @param nodeCount         number of nodes that share the authorized clients; every node synchronises only the athletes
+ *                          of which the hash of the id modulo this number is its index, so that no athlete is
+ *                          synchronised by several nodes at once
+ */
+@ConfigurationProperties("strava.fleet")
+public record FleetSyncProperties(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("30d") Duration window,
+        @DefaultValue("15m") Duration minInterval,
+        @DefaultValue("6h") Duration maxInterval,
+        @DefaultValue("0.2") double jitter,
+        @DefaultValue("4") int concurrency,
+        @DefaultValue("1s") Duration tick,
+        @DefaultValue("5m") Duration discoveryInterval,
+        @DefaultValue("5m") Duration syncTimeout,
+        @DefaultValue("0") int nodeIndex,
+        @DefaultValue("1") int nodeCount) {
+
+    public FleetSyncProperties {
+        if (nodeCount < 1 || nodeIndex < 0 || nodeIndex >= nodeCount) {
+            throw new IllegalArgumentException("Incorrect parameters: node index %d should be at least 0 and below node count %d."
+                    .formatted(nodeIndex, nodeCount));
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package nl.thomas.stravaclient.fleet;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import nl.thomas.stravaclient.client.RateLimitBudget;
+import nl.thomas.stravaclient.client.RequestPriority;
+import nl.thomas.stravaclient.store.ActivityStore;
+import nl.thomas.stravaclient.store.ActivitySyncService;
+import nl.thomas.stravaclient.store.FileOAuth2AuthorizedClientService;
+import org.springframework.context.event.EventListener;
+import org.springframework.security.authentication.event.AuthenticationSuccessEvent;
+import org.springframework.security.oauth2.client.ClientAuthorizationRequiredException;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.random.RandomGenerator;
+
+/**
+ * Keeps the store of every athlete with an authorized client up to date, so that their dashboards are answered without
+ * waiting for Strava. Every athlete has a moment of its own for the next sync: the first one at random within
+ * {@code strava.fleet.min-interval} of being registered, and after every sync an interval that depends on how active
+ * the athlete is. That is {@code max-interval} divided by one plus the number of activities of the last week, but at
+ * least {@code min-interval}, and moved at random by {@code jitter} either way, so that syncs never bunch up.
+ * <p>
+ * Syncs run on virtual threads, at most {@code concurrency} at a time, as background requests: the
+ * {@link RateLimitBudget} keeps a share of every window for interactive requests, and no sync is started while there
+ * is no background budget left. Athletes that are due wait in a queue, least recently synchronised first, so that
+ * athletes with a short interval cannot crowd out the others when the budget runs short.
+ * <p>
+ * Athletes are registered on login and found in the directory of the file store of authorized clients every
+ * {@code discovery-interval}. They are dropped when their authorized client is gone. Nodes that share the directory
+ * split the athletes by {@code node-index} and {@code node-count}, so that every athlete is synchronised by one node.
+ */
+@Slf4j
+public class FleetSyncScheduler {
+
+    private static final String REGISTRATION_ID = "strava";
+    private static final Duration ACTIVITY_PERIOD = Duration.ofDays(7);
+
+    private final ActivitySyncService activitySyncService;
+    private final ActivityStore activityStore;
+    private final RateLimitBudget rateLimitBudget;
+    private final OAuth2AuthorizedClientService oAuth2AuthorizedClientService;
+    private final FleetSyncProperties properties;
+    private final Clock clock;
+    private final Executor executor;
+    private final RandomGenerator random;
+    private final Map<String, Athlete> athletes = new HashMap<>();
+    private final PriorityQueue<Athlete> scheduled = new PriorityQueue<>(Comparator.comparing(Athlete::getDueAt));
+    private final PriorityQueue<Athlete> due = new PriorityQueue<>(
+            Comparator.comparing(Athlete::getLastSyncedAt, Comparator.nullsFirst(Comparator.naturalOrder()))
+                    .thenComparing(Athlete::getDueAt));
+    private final AtomicLong syncedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final Disposable ticks;
+    private Instant nextDiscovery;
+    private int running;
+
+    public FleetSyncScheduler(
+            ActivitySyncService activitySyncService,
+            ActivityStore activityStore,
+            RateLimitBudget rateLimitBudget,
+            OAuth2AuthorizedClientService oAuth2AuthorizedClientService,
+            FleetSyncProperties properties) {
+        // Ticks may read the directory of authorized clients, so they run where blocking is allowed
+        this(activitySyncService, activityStore, rateLimitBudget, oAuth2AuthorizedClientService, properties,
+                Clock.systemUTC(), Schedulers.boundedElastic(), Executors.newVirtualThreadPerTaskExecutor(), RandomGenerator.getDefault());
+    }
+
+    FleetSyncScheduler(
+            ActivitySyncService activitySyncService,
+            ActivityStore activityStore,
+            RateLimitBudget rateLimitBudget,
+            OAuth2AuthorizedClientService oAuth2AuthorizedClientService,
+            FleetSyncProperties properties,
+            Clock clock,
+            Scheduler scheduler,
+            Executor executor,
+            RandomGenerator random) {
+        this.activitySyncService = activitySyncService;
+        this.activityStore = activityStore;
+        this.rateLimitBudget = rateLimitBudget;
+        this.oAuth2AuthorizedClientService = oAuth2AuthorizedClientService;
+        this.properties = properties;
+        this.clock = clock;
+        this.executor = executor;
+        this.random = random;
+        this.nextDiscovery = clock.instant();
+        long tickMillis = properties.tick().toMillis();
+        this.ticks = scheduler.schedulePeriodically(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Athletes of other nodes are ignored.
+     */
+    public void register(@NonNull String athleteId) {
+        if (Math.floorMod(athleteId.hashCode(), properties.nodeCount()) != properties.nodeIndex()) {
+            return;
+        }
+        synchronized (this) {
+            if (athletes.containsKey(athleteId)) {
+                return;
+            }
+            // Anywhere within the minimum interval, so that athletes registered together spread over it
+            Duration firstSync = Duration.ofMillis((long) (random.nextDouble() * properties.minInterval().toMillis()));
+            Athlete athlete = new Athlete(athleteId, clock.instant().plus(firstSync));
+            athletes.put(athleteId, athlete);
+            scheduled.add(athlete);
+        }
+        log.info("Registered athlete {} for background synchronisation", athleteId);
+    }
+
+    /**
+     * A sync that is already running is finished, but not followed by another one.
+     */
+    public void unregister(@NonNull String athleteId) {
+        synchronized (this) {
+            Athlete athlete = athletes.remove(athleteId);
+            if (athlete == null) {
+                return;
+            }
+            scheduled.remove(athlete);
+            due.remove(athlete);
+        }
+        log.info("Unregistered athlete {} from background synchronisation", athleteId);
+    }
+
+    @EventListener
+    public void onLogin(AuthenticationSuccessEvent event) {
+        if (event.getAuthentication().getPrincipal() instanceof OAuth2User oAuth2User) {
+            register(oAuth2User.getName());
+        }
+    }
+
+    public synchronized int getAthleteCount() {
+        return athletes.size();
+    }
+
+    /**
+     * Athletes whose sync is due but not started yet.
+     */
+    public synchronized int getQueued() {
+        return due.size();
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    /**
+     * How long the athlete that has been due the longest is waiting for its sync.
+     */
+    public synchronized Duration getLag() {
+        Instant now = clock.instant();
+        return due.stream()
+                .map(athlete -> Duration.between(athlete.getDueAt(), now))
+                .max(Comparator.naturalOrder())
+                .orElse(Duration.ZERO);
+    }
+
+    public long getSyncedCount() {
+        return syncedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    void stop() {
+        ticks.dispose();
+        if (executor instanceof ExecutorService executorService) {
+            executorService.shutdownNow();
+        }
+    }
+
+    void tick() {
+        Instant now = clock.instant();
+        if (!now.isBefore(nextDiscovery)) {
+            nextDiscovery = now.plus(properties.discoveryInterval());
+            discover();
+        }
+        List<Athlete> started = new ArrayList<>();
+        synchronized (this) {
+            while (!scheduled.isEmpty() && !scheduled.peek().getDueAt().isAfter(now)) {
+                due.add(scheduled.poll());
+            }
+            while (!due.isEmpty() && running < properties.concurrency() && rateLimitBudget.hasBudget(RequestPriority.BACKGROUND)) {
+                started.add(due.poll());
+                running++;
+            }
+        }
+        started.forEach(athlete -> executor.execute(() -> sync(athlete)));
+    }
+
+    private void discover() {
+        if (!(oAuth2AuthorizedClientService instanceof FileOAuth2AuthorizedClientService fileOAuth2AuthorizedClientService)) {
+            return;
+        }
+        try {
+            Set<String> authorized = new HashSet<>(fileOAuth2AuthorizedClientService.getPrincipalNames(REGISTRATION_ID));
+            authorized.forEach(this::register);
+            List<String> gone;
+            synchronized (this) {
+                gone = athletes.keySet().stream().filter(athleteId -> !authorized.contains(athleteId)).toList();
+            }
+            gone.forEach(this::unregister);
+        } catch (RuntimeException e) {
+            log.warn("{} with message \"{}\" while looking for athletes to synchronise", e.getClass().getSimpleName(), e.getMessage());
+        }
+    }
+
+    private void sync(Athlete athlete) {
+        Instant start = clock.instant();
+        boolean authorized = true;
+        try {
+            activitySyncService.sync(
+                            athlete(athlete.getId()),
+                            ZonedDateTime.ofInstant(start.minus(properties.window()), ZoneOffset.UTC),
+                            ZonedDateTime.ofInstant(start, ZoneOffset.UTC))
+                    .contextWrite(RequestPriority.BACKGROUND.asContext())
+                    .block(properties.syncTimeout());
+            syncedCount.incrementAndGet();
+            log.debug("Synchronised athlete {}, {} after it was due", athlete.getId(), Duration.between(athlete.getDueAt(), start));
+        } catch (ClientAuthorizationRequiredException e) {
+            authorized = false;
+        } catch (RuntimeException e) {
+            failedCount.incrementAndGet();
+            log.warn("{} with message \"{}\" while synchronising athlete {}", e.getClass().getSimpleName(), e.getMessage(), athlete.getId());
+        }
+        Instant end = clock.instant();
+        Duration interval = authorized ? interval(athlete.getId(), end) : Duration.ZERO;
+        synchronized (this) {
+            running--;
+            if (athletes.get(athlete.getId()) != athlete) {
+                return;
+            }
+            if (!authorized) {
+                athletes.remove(athlete.getId());
+                log.info("Stopped synchronising athlete {}, who is no longer authorized", athlete.getId());
+                return;
+            }
+            athlete.synced(end, end.plus(randomPart(interval, properties.jitter())));
+            scheduled.add(athlete);
+        }
+    }
+
+    private Duration interval(String athleteId, Instant now) {
+        int recentActivities = activityStore.find(athleteId, now.minus(ACTIVITY_PERIOD), now).size();
+        Duration interval = properties.maxInterval().dividedBy(1 + recentActivities);
+        return interval.compareTo(properties.minInterval()) < 0 ? properties.minInterval() : interval;
+    }
+
+    /**
+     * The duration with a random share of at most the jitter added or taken off.
+     */
+    private Duration randomPart(Duration duration, double jitter) {
+        double factor = 1 + jitter * (2 * random.nextDouble() - 1);
+        return Duration.ofMillis(Math.round(duration.toMillis() * factor));
+    }
+
+    /**
+     * The athlete as the token handling knows it after login: by the id attribute.
+     */
+    private static DefaultOAuth2User athlete(String athleteId) {
+        return new DefaultOAuth2User(List.of(), Map.of("id", athleteId), "id");
+    }
+
+    private static final class Athlete {
+
+        private final String id;
+        private Instant dueAt;
+        private Instant lastSyncedAt;
+
+        Athlete(String id, Instant dueAt) {
+            this.id = id;
+            this.dueAt = dueAt;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        Instant getDueAt() {
+            return dueAt;
+        }
+
+        Instant getLastSyncedAt() {
+            return lastSyncedAt;
+        }
+
+        void synced(Instant syncedAt, Instant nextDueAt) {
+            lastSyncedAt = syncedAt;
+            dueAt = nextDueAt;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package nl.thomas.stravaclient.geo;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import nl.thomas.strava.model.DetailedActivity;
+import nl.thomas.strava.model.PolylineMap;
+import nl.thomas.stravaclient.store.ActivitySyncService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The routes of activities as a GeoJSON FeatureCollection of LineStrings, simplified for a web map zoom level: points
+ * closer than a pixel to the simplified line are left out. Coordinates go from the decoded columns straight to the
+ * generator, without objects per point.
+ * <p>
+ * Simplified lines are cached per activity and zoom level, at most {@code strava.geojson.cache-size} of them, least
+ * recently used first out. A cached line is only used while the encoded polyline of the activity is unchanged.
+ */
+@Component
+@Slf4j
+public class ActivityGeoJson {
+
+    public static final int MAX_ZOOM = 22;
+    // From this zoom level a pixel is smaller than the precision of an encoded polyline, so nothing is left out
+    private static final int UNSIMPLIFIED_ZOOM = 18;
+
+    private final ActivitySyncService activitySyncService;
+    private final ObjectMapper objectMapper;
+    private final Map<LineKey, SimplifiedLine> lines;
+    private final AtomicLong cacheHitCount = new AtomicLong();
+    private final AtomicLong cacheMissCount = new AtomicLong();
+
+    @Autowired
+    public ActivityGeoJson(
+            ActivitySyncService activitySyncService,
+            ObjectMapper objectMapper,
+            @Value("${strava.geojson.cache-size:10000}") int cacheSize) {
+        this.activitySyncService = activitySyncService;
+        this.objectMapper = objectMapper;
+        this.lines = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<LineKey, SimplifiedLine> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    public Mono<byte[]> getFeatureCollection(
+            @NonNull OAuth2User oAuth2User,
+            @NonNull ZonedDateTime after,
+            @NonNull ZonedDateTime before,
+            int zoom) {
+        if (zoom < 0 || zoom > MAX_ZOOM) {
+            throw new IllegalArgumentException("Zoom should be between 0 and %d but was %d".formatted(MAX_ZOOM, zoom));
+        }
+        return activitySyncService.getDetailedActivities(oAuth2User, after, before)
+                .collectList()
+                .map(activities -> write(activities, Math.min(zoom, UNSIMPLIFIED_ZOOM)));
+    }
+
+    public long getCacheHitCount() {
+        return cacheHitCount.get();
+    }
+
+    public long getCacheMissCount() {
+        return cacheMissCount.get();
+    }
+
+    private byte[] write(List<DetailedActivity> activities, int zoom) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            generator.writeStartObject();
+            generator.writeStringField("type", "FeatureCollection");
+            generator.writeArrayFieldStart("features");
+            for (DetailedActivity activity : activities) {
+                String encoded = encodedPolyline(activity.getMap());
+                if (encoded != null) {
+                    writeFeature(generator, activity, line(activity.getId(), encoded, zoom));
+                }
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private Polyline line(Long activityId, String encoded, int zoom) {
+        LineKey key = new LineKey(activityId, zoom);
+        SimplifiedLine cached;
+        synchronized (lines) {
+            cached = lines.get(key);
+        }
+        if (cached != null && cached.encoded().equals(encoded)) {
+            cacheHitCount.incrementAndGet();
+            return cached.line();
+        }
+        cacheMissCount.incrementAndGet();
+        Polyline decoded = Polyline.decode(encoded);
+        Polyline line = zoom >= UNSIMPLIFIED_ZOOM ? decoded : decoded.simplify(Polyline.pixelSize(zoom));
+        if (activityId != null) {
+            synchronized (lines) {
+                lines.put(key, new SimplifiedLine(encoded, line));
+            }
+        }
+        return line;
+    }
+
+    private static void writeFeature(JsonGenerator generator, DetailedActivity activity, Polyline line) throws IOException {
+        if (line.size() == 0) {
+            return;
+        }
+        generator.writeStartObject();
+        generator.writeStringField("type", "Feature");
+        if (activity.getId() != null) {
+            generator.writeNumberField("id", activity.getId());
+        }
+        generator.writeObjectFieldStart("properties");
+        generator.writeStringField("name", activity.getName());
+        generator.writeStringField("type", activity.getType() == null ? null : activity.getType().toString());
+        generator.writeStringField("start_date", activity.getStartDate() == null ? null : activity.getStartDate().toString());
+        generator.writeEndObject();
+        generator.writeObjectFieldStart("geometry");
+        // A LineString needs two positions, so an activity recorded at one spot is a Point
+        if (line.size() == 1) {
+            generator.writeStringField("type", "Point");
+            generator.writeFieldName("coordinates");
+            writePosition(generator, line, 0);
+        } else {
+            generator.writeStringField("type", "LineString");
+            generator.writeArrayFieldStart("coordinates");
+            for (int i = 0; i < line.size(); i++) {
+                writePosition(generator, line, i);
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
+    /**
+     * GeoJSON positions are longitude first.
+     */
+    private static void writePosition(JsonGenerator generator, Polyline line, int index) throws IOException {
+        generator.writeStartArray();
+        generator.writeNumber(line.longitudes()[index]);
+        generator.writeNumber(line.latitudes()[index]);
+        generator.writeEndArray();
+    }
+
+    /**
+     * The full polyline of a detailed activity, or the summary polyline that comes with activity lists.
+     */
+    private static String encodedPolyline(PolylineMap map) {
+        if (map == null) {
+            return null;
+        }
+        if (map.getPolyline() != null && !map.getPolyline().isEmpty()) {
+            return map.getPolyline();
+        }
+        return map.getSummaryPolyline() == null || map.getSummaryPolyline().isEmpty() ? null : map.getSummaryPolyline();
+    }
+
+    private record LineKey(Long activityId, int zoom) {
+    }
+
+    private record SimplifiedLine(String encoded, Polyline line) {
+    }
+}
@@ -0,0 +1,162 @@
+package nl.thomas.stravaclient.geo;
+
+import lombok.NonNull;
+
+/**
+ * A line as primitive columns of latitudes and longitudes that share the same index, like the latlng stream of
+ * {@link nl.thomas.stravaclient.client.ActivityStreams}.
+ */
+public record Polyline(double[] latitudes, double[] longitudes) {
+
+    private static final double PRECISION = 1e5;
+    // Web maps cut the world off here, so that it is square
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    public int size() {
+        return latitudes.length;
+    }
+
+    /**
+     * Decodes the <a href="https://developers.google.com/maps/documentation/utilities/polylinealgorithm">encoded
+     * polyline</a> format of {@code map.polyline} and {@code map.summary_polyline}. The points are counted first, so
+     * the two columns are the only allocations.
+     */
+    public static Polyline decode(@NonNull CharSequence encoded) {
+        int length = encoded.length();
+        int values = 0;
+        for (int i = 0; i < length; i++) {
+            int chunk = encoded.charAt(i) - 63;
+            if (chunk < 0 || chunk > 63) {
+                throw new IllegalArgumentException("Invalid character %s at %d in polyline".formatted(encoded.charAt(i), i));
+            }
+            if (chunk < 0x20) {
+                values++;
+            }
+        }
+        if (values % 2 != 0 || length > 0 && encoded.charAt(length - 1) - 63 >= 0x20) {
+            throw new IllegalArgumentException("Polyline ends halfway a point");
+        }
+        double[] latitudes = new double[values / 2];
+        double[] longitudes = new double[values / 2];
+        int index = 0;
+        int latitude = 0;
+        int longitude = 0;
+        for (int point = 0; point < latitudes.length; point++) {
+            int result = 0;
+            int shift = 0;
+            int chunk;
+            do {
+                chunk = encoded.charAt(index++) - 63;
+                result |= (chunk & 0x1f) << shift;
+                shift += 5;
+            } while (chunk >= 0x20);
+            latitude += (result & 1) != 0 ? ~(result >> 1) : result >> 1;
+            result = 0;
+            shift = 0;
+            do {
+                chunk = encoded.charAt(index++) - 63;
+                result |= (chunk & 0x1f) << shift;
+                shift += 5;
+            } while (chunk >= 0x20);
+            longitude += (result & 1) != 0 ? ~(result >> 1) : result >> 1;
+            latitudes[point] = latitude / PRECISION;
+            longitudes[point] = longitude / PRECISION;
+        }
+        return new Polyline(latitudes, longitudes);
+    }
+
+    /**
+     * Douglas–Peucker simplification: keeps the points that lie further than {@code tolerance} degrees longitude from
+     * the line through the points kept around them, always including the first and the last. Distances are measured in
+     * the Web Mercator projection of web maps, where a degree of latitude is stretched by {@code 1 / cos(latitude)} just
+     * like a pixel is, so a tolerance of one {@link #pixelSize} is one pixel in every direction. Iterative with an index
+     * stack, so long lines do not run into the recursion limit.
+     */
+    public Polyline simplify(double tolerance) {
+        int size = size();
+        if (size <= 2) {
+            return this;
+        }
+        double[] ys = new double[size];
+        for (int i = 0; i < size; i++) {
+            ys[i] = mercatorY(latitudes[i]);
+        }
+        boolean[] keep = new boolean[size];
+        keep[0] = true;
+        keep[size - 1] = true;
+        int kept = 2;
+        // Every pop pushes at most two ranges, and open ranges never outnumber the points
+        int[] stack = new int[2 * size];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = size - 1;
+        double squaredTolerance = tolerance * tolerance;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            double maxSquaredDistance = squaredTolerance;
+            int farthest = -1;
+            for (int i = first + 1; i < last; i++) {
+                double squaredDistance = squaredDistanceToSegment(ys, i, first, last);
+                if (squaredDistance > maxSquaredDistance) {
+                    maxSquaredDistance = squaredDistance;
+                    farthest = i;
+                }
+            }
+            if (farthest >= 0) {
+                keep[farthest] = true;
+                kept++;
+                stack[top++] = first;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = last;
+            }
+        }
+        if (kept == size) {
+            return this;
+        }
+        double[] simplifiedLatitudes = new double[kept];
+        double[] simplifiedLongitudes = new double[kept];
+        for (int i = 0, j = 0; i < size; i++) {
+            if (keep[i]) {
+                simplifiedLatitudes[j] = latitudes[i];
+                simplifiedLongitudes[j] = longitudes[i];
+                j++;
+            }
+        }
+        return new Polyline(simplifiedLatitudes, simplifiedLongitudes);
+    }
+
+    /**
+     * The size of a pixel in degrees longitude at a web map zoom level, with 256 pixel tiles.
+     */
+    public static double pixelSize(int zoom) {
+        return 360.0 / (256L << zoom);
+    }
+
+    /**
+     * The Web Mercator y of a latitude, in degrees so that it compares to longitudes.
+     */
+    static double mercatorY(double latitude) {
+        double clamped = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude));
+        return Math.toDegrees(Math.log(Math.tan(Math.PI / 4 + Math.toRadians(clamped) / 2)));
+    }
+
+    private double squaredDistanceToSegment(double[] ys, int point, int first, int last) {
+        double x = longitudes[point];
+        double y = ys[point];
+        double x1 = longitudes[first];
+        double y1 = ys[first];
+        double dx = longitudes[last] - x1;
+        double dy = ys[last] - y1;
+        double squaredLength = dx * dx + dy * dy;
+        if (squaredLength > 0) {
+            double t = Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / squaredLength));
+            x1 += t * dx;
+            y1 += t * dy;
+        }
+        double ex = x - x1;
+        double ey = y - y1;
+        return ex * ex + ey * ey;
+    }
+}
@@ -0,0 +1,193 @@
+package nl.thomas.stravaclient.segments;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import nl.thomas.stravaclient.client.BoundingBox;
+import nl.thomas.stravaclient.client.SegmentActivityType;
+import nl.thomas.stravaclient.client.SegmentSummary;
+import nl.thomas.stravaclient.client.StravaClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Segment explore on a grid of tiles of {@code strava.segments.tile-size} degrees. A bounding box is split into the
+ * tiles it touches, and only tiles that were not explored before go to Strava, one request per tile. The segments of
+ * all tiles are then filtered on the box locally, so overlapping boxes of a route planner mostly cost nothing.
+ * <p>
+ * Strava returns the top ten segments per request, so the answer is the union of the top segments of every tile rather
+ * than the top ten of the box, and usually has more segments. Boxes spanning more than
+ * {@code strava.segments.max-tiles-per-query} tiles go to Strava as a whole and are not cached. Explored tiles are
+ * kept for {@code strava.segments.tile-ttl}, and at most {@code strava.segments.max-tiles} of them, least recently used
+ * first out. Segments are public, so the tiles are shared between athletes.
+ */
+@Component
+@Slf4j
+public class SegmentExplorer {
+
+    private static final double COORDINATE_PRECISION = 1e6;
+
+    private final StravaClient stravaClient;
+    private final double tileSize;
+    private final int maxTilesPerQuery;
+    private final int concurrency;
+    private final Duration tileTtl;
+    private final Clock clock;
+    private final Map<Tile, ExploredTile> tiles;
+    private final Map<Tile, InFlight> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong localTileCount = new AtomicLong();
+    private final AtomicLong fetchedTileCount = new AtomicLong();
+
+    @Autowired
+    public SegmentExplorer(
+            StravaClient stravaClient,
+            @Value("${strava.segments.tile-size:0.05}") double tileSize,
+            @Value("${strava.segments.max-tiles:10000}") int maxTiles,
+            @Value("${strava.segments.max-tiles-per-query:16}") int maxTilesPerQuery,
+            @Value("${strava.segments.concurrency:4}") int concurrency,
+            @Value("${strava.segments.tile-ttl:7d}") Duration tileTtl) {
+        this(stravaClient, tileSize, maxTiles, maxTilesPerQuery, concurrency, tileTtl, Clock.systemUTC());
+    }
+
+    SegmentExplorer(
+            StravaClient stravaClient,
+            double tileSize,
+            int maxTiles,
+            int maxTilesPerQuery,
+            int concurrency,
+            Duration tileTtl,
+            Clock clock) {
+        this.stravaClient = stravaClient;
+        this.tileSize = tileSize;
+        this.maxTilesPerQuery = maxTilesPerQuery;
+        this.concurrency = concurrency;
+        this.tileTtl = tileTtl;
+        this.clock = clock;
+        this.tiles = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Tile, ExploredTile> eldest) {
+                return size() > maxTiles;
+            }
+        };
+    }
+
+    public Flux<SegmentSummary> explore(
+            @NonNull OAuth2User oAuth2User,
+            @NonNull BoundingBox bounds,
+            SegmentActivityType activityType,
+            Integer minCategory,
+            Integer maxCategory) {
+        int firstRow = index(bounds.south());
+        int lastRow = lastIndex(bounds.north(), firstRow);
+        int firstColumn = index(bounds.west());
+        int lastColumn = lastIndex(bounds.east(), firstColumn);
+        long tileCount = (long) (lastRow - firstRow + 1) * (lastColumn - firstColumn + 1);
+        Flux<SegmentSummary> segments;
+        if (tileCount > maxTilesPerQuery) {
+            log.info("Exploring segments in {} directly, as it spans {} tiles", bounds, tileCount);
+            segments = stravaClient.exploreSegments(oAuth2User, bounds, activityType).flatMapIterable(list -> list);
+        } else {
+            List<Tile> covering = new ArrayList<>((int) tileCount);
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    covering.add(new Tile(activityType, row, column));
+                }
+            }
+            segments = Flux.fromIterable(covering)
+                    .flatMap(tile -> tileSegments(oAuth2User, tile), concurrency)
+                    .flatMapIterable(list -> list)
+                    .filter(segment -> bounds.contains(segment.startLatlng()));
+        }
+        return segments
+                .filter(segment -> segment.inCategories(minCategory, maxCategory))
+                .distinct(SegmentSummary::id);
+    }
+
+    public long getLocalTileCount() {
+        return localTileCount.get();
+    }
+
+    public long getFetchedTileCount() {
+        return fetchedTileCount.get();
+    }
+
+    private Mono<List<SegmentSummary>> tileSegments(OAuth2User oAuth2User, Tile tile) {
+        return Mono.defer(() -> {
+            ExploredTile explored;
+            synchronized (tiles) {
+                explored = tiles.get(tile);
+            }
+            if (explored != null && explored.exploredAt().plus(tileTtl).isAfter(clock.instant())) {
+                localTileCount.incrementAndGet();
+                return Mono.just(explored.segments());
+            }
+            // Concurrent queries for the same tile, also of other athletes, share a single request. It carries the token
+            // of the athlete who started it, which is only resolved on subscription, so when it fails the others do not
+            // get that failure but try again with their own token.
+            String athleteId = oAuth2User.getName();
+            InFlight request = inFlight.computeIfAbsent(tile, t -> new InFlight(
+                    athleteId,
+                    fetch(oAuth2User, t).doFinally(signalType -> inFlight.remove(t)).share()));
+            if (Objects.equals(request.athleteId(), athleteId)) {
+                return request.segments();
+            }
+            return request.segments().onErrorResume(e -> fetch(oAuth2User, tile));
+        });
+    }
+
+    private Mono<List<SegmentSummary>> fetch(OAuth2User oAuth2User, Tile tile) {
+        return stravaClient.exploreSegments(oAuth2User, bounds(tile), tile.activityType())
+                .doOnNext(segments -> {
+                    fetchedTileCount.incrementAndGet();
+                    synchronized (tiles) {
+                        tiles.put(tile, new ExploredTile(List.copyOf(segments), clock.instant()));
+                    }
+                });
+    }
+
+    private BoundingBox bounds(Tile tile) {
+        return new BoundingBox(
+                coordinate(tile.row()),
+                coordinate(tile.column()),
+                coordinate(tile.row() + 1),
+                coordinate(tile.column() + 1));
+    }
+
+    private int index(double coordinate) {
+        return (int) Math.floor(coordinate / tileSize);
+    }
+
+    /**
+     * A box ending exactly on a tile edge does not need the next tile.
+     */
+    private int lastIndex(double coordinate, int firstIndex) {
+        return Math.max(firstIndex, (int) Math.ceil(coordinate / tileSize) - 1);
+    }
+
+    private double coordinate(int index) {
+        return Math.round(index * tileSize * COORDINATE_PRECISION) / COORDINATE_PRECISION;
+    }
+
+    private record Tile(SegmentActivityType activityType, int row, int column) {
+    }
+
+    private record ExploredTile(List<SegmentSummary> segments, Instant exploredAt) {
+    }
+
+    private record InFlight(String athleteId, Mono<List<SegmentSummary>> segments) {
+    }
+}
@@ -0,0 +1,66 @@
+package nl.thomas.stravaclient.store;
+
+import lombok.NonNull;
+import nl.thomas.strava.model.DetailedActivity;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Activities as Strava returns them one by one, with all their details, at most {@code strava.activities.cache-size}
+ * of them, least recently used first out. These are kept apart from the {@link ActivityStore}, which holds the
+ * activities as they come in a page of a window. Details of a completed activity rarely change, and when they do, a
+ * rename, a webhook event or a delete replaces or drops the cached activity.
+ */
+@Component
+public class ActivityDetailsCache {
+
+    private final Map<Key, DetailedActivity> activities;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public ActivityDetailsCache(@Value("${strava.activities.cache-size:10000}") int cacheSize) {
+        this.activities = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, DetailedActivity> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    public Optional<DetailedActivity> get(@NonNull String athleteId, long activityId) {
+        DetailedActivity activity;
+        synchronized (activities) {
+            activity = activities.get(new Key(athleteId, activityId));
+        }
+        (activity == null ? missCount : hitCount).incrementAndGet();
+        return Optional.ofNullable(activity);
+    }
+
+    public void put(@NonNull String athleteId, @NonNull DetailedActivity activity) {
+        synchronized (activities) {
+            activities.put(new Key(athleteId, activity.getId()), activity);
+        }
+    }
+
+    public void remove(@NonNull String athleteId, long activityId) {
+        synchronized (activities) {
+            activities.remove(new Key(athleteId, activityId));
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    private record Key(String athleteId, long activityId) {
+    }
+}
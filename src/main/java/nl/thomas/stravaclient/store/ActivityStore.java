@@ -0,0 +1,324 @@
+package nl.thomas.stravaclient.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import nl.thomas.strava.model.DetailedActivity;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Embedded store of the activities seen per athlete. Activities are kept in memory ordered by start date, so that
+ * window queries are answered without going to Strava, and are appended to one NDJSON file per athlete so that they
+ * survive a restart. An activity that is saved again unchanged, as every sync of an overlapping window does, is not
+ * appended; it is recognised by a fingerprint of the JSON line that was written for it, so that the stored version
+ * does not have to be written out again to compare. Next to the activities, the store remembers which period has been synchronised with Strava.
+ * <p>
+ * Saving and the first access to an athlete go to disk, so they must not be called on an event loop thread.
+ */
+@Component
+@Slf4j
+public class ActivityStore {
+
+    private final ObjectMapper objectMapper;
+    private final Path directory;
+    private final Map<String, AthleteActivities> athletes = new ConcurrentHashMap<>();
+    private final List<BiConsumer<String, DetailedActivity>> listeners = new CopyOnWriteArrayList<>();
+    private final List<BiConsumer<String, Long>> deleteListeners = new CopyOnWriteArrayList<>();
+
+    public ActivityStore(ObjectMapper objectMapper, @Value("${strava.store.directory:data/activities}") Path directory) {
+        this.objectMapper = objectMapper;
+        this.directory = directory;
+    }
+
+    public List<DetailedActivity> find(@NonNull String athleteId, @NonNull Instant after, @NonNull Instant before) {
+        return athlete(athleteId).find(after, before);
+    }
+
+    /**
+     * Like {@link #find}, but the activities are read from the store as the stream is consumed instead of being copied
+     * first. Saves are not held up by a consumer that takes long; an activity saved while the stream is read may or
+     * may not be in it.
+     */
+    public Stream<DetailedActivity> stream(@NonNull String athleteId, @NonNull Instant after, @NonNull Instant before) {
+        return athlete(athleteId).window(after, before).stream();
+    }
+
+    public Optional<DetailedActivity> get(@NonNull String athleteId, long activityId) {
+        return athlete(athleteId).get(activityId);
+    }
+
+    /**
+     * Stores the activity, unless it is stored already exactly like this. Listeners are only called for a change.
+     */
+    public void save(@NonNull String athleteId, @NonNull DetailedActivity activity) {
+        saveAll(athleteId, List.of(activity));
+    }
+
+    /**
+     * Like {@link #save} for every activity, with the changed ones appended to the file of the athlete at once.
+     */
+    public void saveAll(@NonNull String athleteId, @NonNull List<DetailedActivity> activities) {
+        List<DetailedActivity> changed = athlete(athleteId).save(activities);
+        // Outside the lock of the athlete, so listeners can query the store
+        changed.forEach(activity -> listeners.forEach(listener -> listener.accept(athleteId, activity)));
+    }
+
+    /**
+     * Removes the activity and rewrites the file of the athlete without it. Returns whether the activity was stored.
+     */
+    public boolean delete(@NonNull String athleteId, long activityId) {
+        boolean deleted = athlete(athleteId).delete(activityId);
+        if (deleted) {
+            deleteListeners.forEach(listener -> listener.accept(athleteId, activityId));
+        }
+        return deleted;
+    }
+
+    /**
+     * Registers a listener that is called with the athlete id and the activity after every save.
+     */
+    public void addListener(@NonNull BiConsumer<String, DetailedActivity> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Registers a listener that is called with the athlete id and the activity id after every delete.
+     */
+    public void addDeleteListener(@NonNull BiConsumer<String, Long> listener) {
+        deleteListeners.add(listener);
+    }
+
+    public Optional<SyncState> getSyncState(@NonNull String athleteId) {
+        return Optional.ofNullable(athlete(athleteId).syncState());
+    }
+
+    public void saveSyncState(@NonNull String athleteId, @NonNull SyncState syncState) {
+        athlete(athleteId).saveSyncState(syncState);
+    }
+
+    /**
+     * The athlete is only created here; the files are read on first use, under the lock of the athlete, so that a slow
+     * load does not hold up other athletes in the map.
+     */
+    private AthleteActivities athlete(String athleteId) {
+        return athletes.computeIfAbsent(athleteId, AthleteActivities::new);
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a JSON line, to tell whether an activity changed since it was written.
+     */
+    static long fingerprint(String line) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < line.length(); i++) {
+            hash ^= line.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Everything that started at or after {@code syncedFrom} and before {@code syncedUntil} is known to the store.
+     */
+    public record SyncState(Instant syncedFrom, Instant syncedUntil) {
+    }
+
+    private record Key(Instant startDate, long id) implements Comparable<Key> {
+
+        static Key of(DetailedActivity activity) {
+            return new Key(activity.getStartDate().toInstant(), activity.getId());
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int byStartDate = startDate.compareTo(other.startDate);
+            return byStartDate != 0 ? byStartDate : Long.compare(id, other.id);
+        }
+    }
+
+    private record Stored(Key key, long fingerprint) {
+    }
+
+    private class AthleteActivities {
+
+        private final Path activitiesFile;
+        private final Path syncStateFile;
+        // Concurrent, so a window can be read while activities are saved
+        private final NavigableMap<Key, DetailedActivity> byStartDate = new ConcurrentSkipListMap<>();
+        private final Map<Long, Stored> byId = new HashMap<>();
+        private SyncState syncState;
+        private volatile boolean loaded;
+
+        AthleteActivities(String athleteId) {
+            this.activitiesFile = directory.resolve(athleteId + ".ndjson");
+            this.syncStateFile = directory.resolve(athleteId + ".sync.json");
+        }
+
+        List<DetailedActivity> find(Instant after, Instant before) {
+            return List.copyOf(window(after, before));
+        }
+
+        Collection<DetailedActivity> window(Instant after, Instant before) {
+            ensureLoaded();
+            return byStartDate.subMap(new Key(after, Long.MIN_VALUE), true, new Key(before, Long.MIN_VALUE), false).values();
+        }
+
+        synchronized Optional<DetailedActivity> get(long activityId) {
+            ensureLoaded();
+            return Optional.ofNullable(byId.get(activityId)).map(stored -> byStartDate.get(stored.key()));
+        }
+
+        synchronized SyncState syncState() {
+            ensureLoaded();
+            return syncState;
+        }
+
+        /**
+         * Returns the activities that changed, which are the ones appended to the file.
+         */
+        synchronized List<DetailedActivity> save(List<DetailedActivity> activities) {
+            ensureLoaded();
+            List<DetailedActivity> changed = new ArrayList<>();
+            List<String> lines = new ArrayList<>();
+            for (DetailedActivity activity : activities) {
+                String line = write(activity);
+                // Compared as JSON, which is what ends up in the file, so no equals of the generated model is needed
+                long fingerprint = fingerprint(line);
+                Stored stored = byId.get(activity.getId());
+                if (stored == null || stored.fingerprint() != fingerprint) {
+                    index(activity, fingerprint);
+                    changed.add(activity);
+                    lines.add(line);
+                }
+            }
+            if (lines.isEmpty()) {
+                return changed;
+            }
+            try {
+                Files.createDirectories(directory);
+                try (BufferedWriter writer = Files.newBufferedWriter(activitiesFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    for (String line : lines) {
+                        writer.write(line);
+                        writer.newLine();
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not store %d activities in %s".formatted(lines.size(), activitiesFile), e);
+            }
+            return changed;
+        }
+
+        synchronized boolean delete(long activityId) {
+            ensureLoaded();
+            Stored stored = byId.remove(activityId);
+            if (stored == null) {
+                return false;
+            }
+            byStartDate.remove(stored.key());
+            // Deletes are rare, so the file is compacted right away instead of keeping tombstones around
+            Path rewritten = activitiesFile.resolveSibling(activitiesFile.getFileName() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(rewritten, StandardCharsets.UTF_8)) {
+                for (DetailedActivity activity : byStartDate.values()) {
+                    writer.write(write(activity));
+                    writer.newLine();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not rewrite %s without activity %d".formatted(activitiesFile, activityId), e);
+            }
+            try {
+                Files.move(rewritten, activitiesFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not replace %s".formatted(activitiesFile), e);
+            }
+            return true;
+        }
+
+        synchronized void saveSyncState(SyncState syncState) {
+            ensureLoaded();
+            this.syncState = syncState;
+            try {
+                Files.createDirectories(directory);
+                objectMapper.writeValue(syncStateFile.toFile(), syncState);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not store sync state in %s".formatted(syncStateFile), e);
+            }
+        }
+
+        private void index(DetailedActivity activity, long fingerprint) {
+            Key key = Key.of(activity);
+            Stored stored = byId.put(activity.getId(), new Stored(key, fingerprint));
+            Key previous = stored == null ? null : stored.key();
+            // Added before the previous version is removed, so that a reader of the window never misses the activity
+            byStartDate.put(key, activity);
+            if (previous != null && !previous.equals(key)) {
+                byStartDate.remove(previous);
+            }
+        }
+
+        private void ensureLoaded() {
+            if (!loaded) {
+                synchronized (this) {
+                    if (!loaded) {
+                        load();
+                        loaded = true;
+                    }
+                }
+            }
+        }
+
+        private void load() {
+            try {
+                if (Files.exists(activitiesFile)) {
+                    try (Stream<String> lines = Files.lines(activitiesFile, StandardCharsets.UTF_8)) {
+                        // Later lines hold newer versions of an activity and replace the earlier ones
+                        lines.filter(line -> !line.isBlank()).forEach(line -> index(read(line), fingerprint(line)));
+                    }
+                    log.info("Loaded {} activities from {}", byId.size(), activitiesFile);
+                }
+                if (Files.exists(syncStateFile)) {
+                    syncState = objectMapper.readValue(syncStateFile.toFile(), SyncState.class);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not load activities from %s".formatted(directory), e);
+            }
+        }
+
+        private String write(DetailedActivity activity) {
+            try {
+                return objectMapper.writeValueAsString(activity);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write activity %d".formatted(activity.getId()), e);
+            }
+        }
+
+        private DetailedActivity read(String line) {
+            try {
+                return objectMapper.readValue(line, DetailedActivity.class);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read activity from %s".formatted(activitiesFile), e);
+            }
+        }
+    }
+}
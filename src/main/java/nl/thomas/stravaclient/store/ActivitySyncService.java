@@ -0,0 +1,270 @@
+package nl.thomas.stravaclient.store;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import nl.thomas.strava.model.DetailedActivity;
+import nl.thomas.stravaclient.client.ActivityField;
+import nl.thomas.stravaclient.client.ActivitySummary;
+import nl.thomas.stravaclient.client.StravaClient;
+import nl.thomas.stravaclient.client.TimeWindow;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Answers activity window queries from the {@link ActivityStore}. Only the parts of a window that have not been
+ * synchronised yet are fetched from Strava: the period before the earliest synchronised moment and the tail after the
+ * latest one. Because activities can be uploaded some time after they started, the synchronised period never reaches
+ * into the configured late upload margin, so the tail is fetched again until it is older than the margin.
+ * <p>
+ * The store goes to disk, so everything that touches it runs on the bounded elastic scheduler instead of the event
+ * loop that the response of Strava arrives on.
+ */
+@Component
+@Slf4j
+public class ActivitySyncService {
+
+    private static final int SAVE_BATCH_SIZE = 200;
+
+    private final StravaClient stravaClient;
+    private final ActivityStore activityStore;
+    private final ActivityDetailsCache activityDetailsCache;
+    private final boolean enabled;
+    private final Duration lateUploadMargin;
+    private final Map<String, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    public ActivitySyncService(
+            StravaClient stravaClient,
+            ActivityStore activityStore,
+            ActivityDetailsCache activityDetailsCache,
+            @Value("${strava.store.enabled:true}") boolean enabled,
+            @Value("${strava.store.late-upload-margin:2d}") Duration lateUploadMargin) {
+        this.stravaClient = stravaClient;
+        this.activityStore = activityStore;
+        this.activityDetailsCache = activityDetailsCache;
+        this.enabled = enabled;
+        this.lateUploadMargin = lateUploadMargin;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Flux<DetailedActivity> getDetailedActivities(
+            @NonNull OAuth2User oAuth2User,
+            @NonNull ZonedDateTime after,
+            @NonNull ZonedDateTime before) {
+        if (!enabled) {
+            return stravaClient.getDetailedActivities(oAuth2User, after, before);
+        }
+        TimeWindow.validate(after, before);
+        String athleteId = oAuth2User.getName();
+        return Flux.defer(() -> inFlight.containsKey(athleteId)
+                // Waits for the running sync rather than fetching the same pages again
+                ? sync(oAuth2User, after, before).thenMany(Flux.defer(() -> Flux.fromStream(activityStore.stream(athleteId, after.toInstant(), before.toInstant()))))
+                : window(oAuth2User, after, before, true));
+    }
+
+    /**
+     * The selected fields of the activities in the window. Without the store, only those fields are decoded from the
+     * Strava response. With the store, what is fetched is decoded in full and stored, as the store keeps whole
+     * activities for any later window and selection; only the response is smaller then.
+     */
+    public Flux<ActivitySummary> getActivitySummaries(
+            @NonNull OAuth2User oAuth2User,
+            @NonNull ZonedDateTime after,
+            @NonNull ZonedDateTime before,
+            @NonNull Set<ActivityField> fields) {
+        if (!enabled) {
+            return stravaClient.getActivitySummaries(oAuth2User, after, before)
+                    .map(summary -> summary.project(fields));
+        }
+        return getDetailedActivities(oAuth2User, after, before)
+                .map(activity -> ActivitySummary.of(activity).project(fields));
+    }
+
+    /**
+     * The details of a single activity, from the {@link ActivityDetailsCache} if it is there.
+     */
+    public Mono<DetailedActivity> getDetailedActivity(@NonNull OAuth2User oAuth2User, @NonNull Long activityId) {
+        String athleteId = oAuth2User.getName();
+        return Mono.defer(() -> activityDetailsCache.get(athleteId, activityId)
+                .map(Mono::just)
+                .orElseGet(() -> stravaClient.getDetailedActivity(oAuth2User, activityId)
+                        .doOnNext(activity -> activityDetailsCache.put(athleteId, activity))));
+    }
+
+    /**
+     * The details of a single activity if they are cached, without asking Strava.
+     */
+    public Optional<DetailedActivity> getCachedActivity(@NonNull String athleteId, long activityId) {
+        return activityDetailsCache.get(athleteId, activityId);
+    }
+
+    public Mono<DetailedActivity> replaceNameForActivity(
+            @NonNull OAuth2User oAuth2User,
+            @NonNull Long activityId,
+            @NonNull String newName) {
+        return stravaClient.replaceNameForActivity(oAuth2User, activityId, newName)
+                .publishOn(Schedulers.boundedElastic())
+                .doOnNext(activity -> {
+                    activityDetailsCache.put(oAuth2User.getName(), activity);
+                    if (enabled) {
+                        activityStore.save(oAuth2User.getName(), activity);
+                    }
+                });
+    }
+
+    /**
+     * Fetches the current version of a single activity that is known to have changed and stores it. Without the store
+     * there is nothing to keep up to date, so nothing is fetched, and a cached version is dropped.
+     */
+    public Mono<DetailedActivity> refreshActivity(@NonNull OAuth2User oAuth2User, @NonNull Long activityId) {
+        String athleteId = oAuth2User.getName();
+        if (!enabled) {
+            return Mono.fromRunnable(() -> activityDetailsCache.remove(athleteId, activityId));
+        }
+        return Mono.defer(() -> stravaClient.getDetailedActivity(oAuth2User, activityId))
+                .publishOn(Schedulers.boundedElastic())
+                .doOnNext(activity -> {
+                    activityDetailsCache.put(athleteId, activity);
+                    activityStore.save(athleteId, activity);
+                });
+    }
+
+    public void deleteActivity(@NonNull String athleteId, long activityId) {
+        activityDetailsCache.remove(athleteId, activityId);
+        if (enabled && activityStore.delete(athleteId, activityId)) {
+            log.info("Deleted activity {} of athlete {} from the store", activityId, athleteId);
+        }
+    }
+
+    /**
+     * Brings the store up to date for the given window, fetching only what lies outside the synchronised period. Without
+     * the store there is nothing to bring up to date. Only one sync per athlete runs at a time: a sync of a window that
+     * the running one covers joins it, and any other waits for it and then fetches what is still missing.
+     */
+    public Mono<Void> sync(@NonNull OAuth2User oAuth2User, @NonNull ZonedDateTime after, @NonNull ZonedDateTime before) {
+        if (!enabled) {
+            return Mono.empty();
+        }
+        String athleteId = oAuth2User.getName();
+        return Mono.defer(() -> {
+            InFlight running = inFlight.computeIfAbsent(athleteId, id -> new InFlight(
+                    after,
+                    before,
+                    syncMissing(oAuth2User, after, before)
+                            // Removed before the waiting syncs hear of the end, so that they do not join it again
+                            .doOnTerminate(() -> inFlight.remove(id))
+                            .doOnCancel(() -> inFlight.remove(id))
+                            .share()));
+            if (running.covers(after, before)) {
+                return running.sync();
+            }
+            return running.sync()
+                    .onErrorResume(e -> Mono.empty())
+                    .then(sync(oAuth2User, after, before));
+        });
+    }
+
+    private Mono<Void> syncMissing(OAuth2User oAuth2User, ZonedDateTime after, ZonedDateTime before) {
+        return window(oAuth2User, after, before, false).then();
+    }
+
+    /**
+     * The parts of the window before and after the synchronised period are fetched from Strava and stored as they pass
+     * through, so the first activities are handed on before the last page has arrived. With {@code withStored}, the part
+     * within the synchronised period is read from the store in between, and only the activities of the window are
+     * emitted. Strava lists a window in order of start date, so the whole window is in order of start date.
+     */
+    private Flux<DetailedActivity> window(OAuth2User oAuth2User, ZonedDateTime after, ZonedDateTime before, boolean withStored) {
+        String athleteId = oAuth2User.getName();
+        Flux<DetailedActivity> window = Flux.defer(() -> {
+            ActivityStore.SyncState syncState = activityStore.getSyncState(athleteId).orElse(null);
+            if (syncState == null) {
+                return fetch(oAuth2User, after, before)
+                        .concatWith(Mono.fromRunnable(() -> activityStore.saveSyncState(athleteId, new ActivityStore.SyncState(
+                                after.toInstant(),
+                                syncedUntil(after.toInstant(), before)))));
+            }
+            Flux<DetailedActivity> head = Flux.empty();
+            if (after.toInstant().isBefore(syncState.syncedFrom())) {
+                ZonedDateTime headBefore = ZonedDateTime.ofInstant(syncState.syncedFrom(), after.getZone());
+                head = fetch(oAuth2User, after, headBefore)
+                        .concatWith(Mono.fromRunnable(() -> activityStore.saveSyncState(athleteId, new ActivityStore.SyncState(
+                                after.toInstant(),
+                                activityStore.getSyncState(athleteId).orElseThrow().syncedUntil()))));
+            }
+            Flux<DetailedActivity> stored = Flux.empty();
+            Instant storedFrom = after.toInstant().isAfter(syncState.syncedFrom()) ? after.toInstant() : syncState.syncedFrom();
+            Instant storedUntil = before.toInstant().isBefore(syncState.syncedUntil()) ? before.toInstant() : syncState.syncedUntil();
+            if (withStored && storedFrom.isBefore(storedUntil)) {
+                stored = Flux.defer(() -> Flux.fromStream(activityStore.stream(athleteId, storedFrom, storedUntil)));
+            }
+            Flux<DetailedActivity> tail = Flux.empty();
+            if (before.toInstant().isAfter(syncState.syncedUntil())) {
+                ZonedDateTime tailAfter = ZonedDateTime.ofInstant(syncState.syncedUntil(), before.getZone());
+                tail = fetch(oAuth2User, tailAfter, before)
+                        .concatWith(Mono.fromRunnable(() -> activityStore.saveSyncState(athleteId, new ActivityStore.SyncState(
+                                activityStore.getSyncState(athleteId).orElseThrow().syncedFrom(),
+                                syncedUntil(syncState.syncedUntil(), before)))));
+            }
+            return Flux.concat(head, stored, tail);
+        }).subscribeOn(Schedulers.boundedElastic());
+        // The head and tail can reach beyond the window, to keep the synchronised period in one piece
+        return withStored
+                ? window.filter(activity -> !activity.getStartDate().toInstant().isBefore(after.toInstant())
+                        && activity.getStartDate().toInstant().isBefore(before.toInstant()))
+                : window;
+    }
+
+    /**
+     * The end of the window, but not later than the late upload margin before now: an activity that started inside the
+     * margin may still be uploaded, also before the last one that was seen. Never earlier than {@code from}, the moment
+     * up to which the store was synchronised already.
+     */
+    private Instant syncedUntil(Instant from, ZonedDateTime before) {
+        Instant settled = Instant.now().minus(lateUploadMargin);
+        Instant windowEnd = before.toInstant().isBefore(settled) ? before.toInstant() : settled;
+        return windowEnd.isBefore(from) ? from : windowEnd;
+    }
+
+    /**
+     * Stores all activities in the window a page at a time, and hands them on once stored. The store is written on the
+     * bounded elastic scheduler.
+     */
+    private Flux<DetailedActivity> fetch(OAuth2User oAuth2User, ZonedDateTime after, ZonedDateTime before) {
+        String athleteId = oAuth2User.getName();
+        return Flux.defer(() -> {
+            AtomicInteger count = new AtomicInteger();
+            return stravaClient.getDetailedActivities(oAuth2User, after, before)
+                    .publishOn(Schedulers.boundedElastic())
+                    .buffer(SAVE_BATCH_SIZE)
+                    .doOnNext(activities -> {
+                        activityStore.saveAll(athleteId, activities);
+                        count.addAndGet(activities.size());
+                    })
+                    .doOnComplete(() -> log.info("Synchronised {} activities for athlete {} between {} and {}", count.get(), athleteId, after, before))
+                    .concatMapIterable(activities -> activities);
+        });
+    }
+
+    private record InFlight(ZonedDateTime after, ZonedDateTime before, Mono<Void> sync) {
+
+        boolean covers(ZonedDateTime otherAfter, ZonedDateTime otherBefore) {
+            return !otherAfter.isBefore(after) && !otherBefore.isAfter(before);
+        }
+    }
+}
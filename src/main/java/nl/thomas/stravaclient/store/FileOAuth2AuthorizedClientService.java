@@ -0,0 +1,103 @@
+package nl.thomas.stravaclient.store;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the authorized clients, the tokens of every athlete that logged in, in a file per athlete, so that they survive
+ * a restart and can be shared by nodes that mount the same directory. Only the tokens are written; the client
+ * registration, with the client secret, is looked up again on load.
+ */
+@Slf4j
+public class FileOAuth2AuthorizedClientService implements OAuth2AuthorizedClientService {
+
+    private final ClientRegistrationRepository clientRegistrationRepository;
+    private final StripedFileStore<StoredAuthorizedClient> store;
+
+    public FileOAuth2AuthorizedClientService(@NonNull ClientRegistrationRepository clientRegistrationRepository, @NonNull Path directory) {
+        this.clientRegistrationRepository = clientRegistrationRepository;
+        this.store = new StripedFileStore<>(directory, ".client", StoredAuthorizedClient.class);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends OAuth2AuthorizedClient> T loadAuthorizedClient(String clientRegistrationId, String principalName) {
+        ClientRegistration clientRegistration = clientRegistrationRepository.findByRegistrationId(clientRegistrationId);
+        if (clientRegistration == null) {
+            return null;
+        }
+        return (T) store.load(key(clientRegistrationId, principalName))
+                .map(stored -> stored.toAuthorizedClient(clientRegistration))
+                .orElse(null);
+    }
+
+    @Override
+    public void saveAuthorizedClient(@NonNull OAuth2AuthorizedClient authorizedClient, @NonNull Authentication principal) {
+        store.save(key(authorizedClient.getClientRegistration().getRegistrationId(), principal.getName()), StoredAuthorizedClient.of(authorizedClient));
+        log.debug("Stored authorized client of user {}", principal.getName());
+    }
+
+    @Override
+    public void removeAuthorizedClient(String clientRegistrationId, String principalName) {
+        store.delete(key(clientRegistrationId, principalName));
+    }
+
+    /**
+     * The principals with an authorized client of the registration, as far as the directory shows, without loading them.
+     */
+    public List<String> getPrincipalNames(@NonNull String clientRegistrationId) {
+        String prefix = key(clientRegistrationId, "");
+        return store.keys().stream()
+                .filter(key -> key.startsWith(prefix))
+                .map(key -> key.substring(prefix.length()))
+                .toList();
+    }
+
+    private static String key(String clientRegistrationId, String principalName) {
+        return clientRegistrationId + "-" + principalName;
+    }
+
+    record StoredAuthorizedClient(
+            String principalName,
+            String accessToken,
+            Instant accessTokenIssuedAt,
+            Instant accessTokenExpiresAt,
+            Set<String> scopes,
+            String refreshToken,
+            Instant refreshTokenIssuedAt) implements Serializable {
+
+        static StoredAuthorizedClient of(OAuth2AuthorizedClient authorizedClient) {
+            OAuth2AccessToken accessToken = authorizedClient.getAccessToken();
+            OAuth2RefreshToken refreshToken = authorizedClient.getRefreshToken();
+            return new StoredAuthorizedClient(
+                    authorizedClient.getPrincipalName(),
+                    accessToken.getTokenValue(),
+                    accessToken.getIssuedAt(),
+                    accessToken.getExpiresAt(),
+                    Set.copyOf(accessToken.getScopes()),
+                    refreshToken == null ? null : refreshToken.getTokenValue(),
+                    refreshToken == null ? null : refreshToken.getIssuedAt());
+        }
+
+        OAuth2AuthorizedClient toAuthorizedClient(ClientRegistration clientRegistration) {
+            return new OAuth2AuthorizedClient(
+                    clientRegistration,
+                    principalName,
+                    new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, accessToken, accessTokenIssuedAt, accessTokenExpiresAt, scopes),
+                    refreshToken == null ? null : new OAuth2RefreshToken(refreshToken, refreshTokenIssuedAt));
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package nl.thomas.stravaclient.store;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.session.MapSession;
+import org.springframework.session.Session;
+import org.springframework.session.SessionRepository;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+
+/**
+ * Spring Session repository with a file per session, so that a login survives a restart and any node that mounts the
+ * same directory can serve the next request. A session is written when an attribute changes, and otherwise at most once
+ * per {@code touchInterval} to record that it is still in use, so that plain requests do not write a file each.
+ * Sessions unused for longer than the default timeout are deleted every {@code cleanupInterval}.
+ */
+@Slf4j
+public class FileSessionRepository implements SessionRepository<FileSessionRepository.FileSession>, AutoCloseable {
+
+    private final StripedFileStore<MapSession> store;
+    private final Duration maxInactiveInterval;
+    private final Duration touchInterval;
+    private final Clock clock;
+    private final Disposable cleanup;
+
+    public FileSessionRepository(@NonNull Path directory, @NonNull Duration maxInactiveInterval, @NonNull Duration touchInterval, @NonNull Duration cleanupInterval) {
+        this(directory, maxInactiveInterval, touchInterval, cleanupInterval, Clock.systemUTC(), Schedulers.boundedElastic());
+    }
+
+    FileSessionRepository(Path directory, Duration maxInactiveInterval, Duration touchInterval, Duration cleanupInterval, Clock clock, Scheduler scheduler) {
+        this.store = new StripedFileStore<>(directory, ".session", MapSession.class);
+        this.maxInactiveInterval = maxInactiveInterval;
+        this.touchInterval = touchInterval;
+        this.clock = clock;
+        this.cleanup = Flux.interval(cleanupInterval, scheduler)
+                .subscribe(tick -> deleteExpiredSessions());
+    }
+
+    @Override
+    public FileSession createSession() {
+        MapSession session = new MapSession();
+        Instant now = clock.instant();
+        session.setCreationTime(now);
+        session.setLastAccessedTime(now);
+        session.setMaxInactiveInterval(maxInactiveInterval);
+        return new FileSession(session, null);
+    }
+
+    @Override
+    public void save(@NonNull FileSession session) {
+        if (session.originalId != null && !session.originalId.equals(session.getId())) {
+            store.delete(session.originalId);
+            session.changed = true;
+        }
+        if (session.changed || !session.getLastAccessedTime().isBefore(session.savedLastAccessedTime.plus(touchInterval))) {
+            store.save(session.getId(), new MapSession(session.delegate));
+            session.saved();
+        }
+    }
+
+    @Override
+    public FileSession findById(String id) {
+        if (!StripedFileStore.isValidKey(id)) {
+            return null;
+        }
+        MapSession stored = store.load(id).orElse(null);
+        if (stored == null) {
+            return null;
+        }
+        if (isExpired(stored)) {
+            store.delete(id);
+            return null;
+        }
+        return new FileSession(new MapSession(stored), id);
+    }
+
+    @Override
+    public void deleteById(String id) {
+        if (StripedFileStore.isValidKey(id)) {
+            store.delete(id);
+        }
+    }
+
+    /**
+     * Deletes the sessions that expired by their own last access and timeout, which may differ from the default one. A
+     * failure is logged and left for the next cleanup, as an error would end the interval for good.
+     */
+    void deleteExpiredSessions() {
+        try {
+            int deleted = store.deleteIf(this::isExpired);
+            if (deleted > 0) {
+                log.info("Deleted {} expired sessions", deleted);
+            }
+        } catch (RuntimeException e) {
+            log.warn("{} with message \"{}\" while deleting expired sessions", e.getClass().getSimpleName(), e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        cleanup.dispose();
+    }
+
+    private boolean isExpired(MapSession session) {
+        Duration sessionMaxInactiveInterval = session.getMaxInactiveInterval();
+        return !sessionMaxInactiveInterval.isNegative()
+                && !clock.instant().isBefore(session.getLastAccessedTime().plus(sessionMaxInactiveInterval));
+    }
+
+    /**
+     * A session that remembers whether it changed since it was loaded.
+     */
+    public static final class FileSession implements Session {
+
+        private final MapSession delegate;
+        private String originalId;
+        private boolean changed;
+        private Instant savedLastAccessedTime;
+
+        private FileSession(MapSession delegate, String originalId) {
+            this.delegate = delegate;
+            this.originalId = originalId;
+            this.changed = originalId == null;
+            this.savedLastAccessedTime = delegate.getLastAccessedTime();
+        }
+
+        private void saved() {
+            originalId = delegate.getId();
+            changed = false;
+            savedLastAccessedTime = delegate.getLastAccessedTime();
+        }
+
+        @Override
+        public String getId() {
+            return delegate.getId();
+        }
+
+        @Override
+        public String changeSessionId() {
+            changed = true;
+            return delegate.changeSessionId();
+        }
+
+        @Override
+        public <T> T getAttribute(String attributeName) {
+            return delegate.getAttribute(attributeName);
+        }
+
+        @Override
+        public Set<String> getAttributeNames() {
+            return delegate.getAttributeNames();
+        }
+
+        @Override
+        public void setAttribute(String attributeName, Object attributeValue) {
+            changed = true;
+            delegate.setAttribute(attributeName, attributeValue);
+        }
+
+        @Override
+        public void removeAttribute(String attributeName) {
+            changed = true;
+            delegate.removeAttribute(attributeName);
+        }
+
+        @Override
+        public Instant getCreationTime() {
+            return delegate.getCreationTime();
+        }
+
+        @Override
+        public void setLastAccessedTime(Instant lastAccessedTime) {
+            delegate.setLastAccessedTime(lastAccessedTime);
+        }
+
+        @Override
+        public Instant getLastAccessedTime() {
+            return delegate.getLastAccessedTime();
+        }
+
+        @Override
+        public void setMaxInactiveInterval(Duration interval) {
+            changed = true;
+            delegate.setMaxInactiveInterval(interval);
+        }
+
+        @Override
+        public Duration getMaxInactiveInterval() {
+            return delegate.getMaxInactiveInterval();
+        }
+
+        @Override
+        public boolean isExpired() {
+            return delegate.isExpired();
+        }
+    }
+}
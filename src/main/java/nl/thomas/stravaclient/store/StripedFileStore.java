@@ -0,0 +1,212 @@
+package nl.thomas.stravaclient.store;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Serialized values in one file per key, with the deserialized values cached in memory. Every key maps to one of a
+ * fixed set of locks, so that a key is never read and written at the same time while different keys rarely wait on
+ * each other. A cached value is only used while its file has the same modification time, so values written by another
+ * node sharing the directory are picked up on the next load. Only the classes that sessions and authorized clients are
+ * made of are read back, so a planted file cannot instantiate anything else.
+ */
+@Slf4j
+class StripedFileStore<V extends Serializable> {
+
+    private static final int STRIPES = 64;
+    private static final Pattern KEY = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final boolean POSIX = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+    // What Spring Security and Spring Session keep in a session, the JDK types they consist of, and the records of this
+    // package; arrays are checked by their element type
+    private static final ObjectInputFilter ALLOWED_CLASSES = ObjectInputFilter.Config.createFilter(
+            "java.lang.*;java.util.*;java.time.*;java.net.*;"
+                    + "org.springframework.security.**;org.springframework.session.*;nl.thomas.stravaclient.store.*;!*");
+
+    private final Path directory;
+    private final String suffix;
+    private final Class<V> type;
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    private final Map<String, Cached<V>> cache = new ConcurrentHashMap<>();
+
+    StripedFileStore(@NonNull Path directory, @NonNull String suffix, @NonNull Class<V> type) {
+        this.directory = directory;
+        this.suffix = suffix;
+        this.type = type;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Keys end up in file names, so only letters, digits, dashes and underscores are allowed.
+     */
+    static boolean isValidKey(String key) {
+        return key != null && KEY.matcher(key).matches();
+    }
+
+    Optional<V> load(String key) {
+        Path file = file(key);
+        ReentrantLock lock = lock(key);
+        lock.lock();
+        try {
+            return loadLocked(key, file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read %s".formatted(file), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes a temporary file that replaces the current one in a single move, so readers never see half a value.
+     */
+    void save(String key, V value) {
+        Path file = file(key);
+        ReentrantLock lock = lock(key);
+        lock.lock();
+        try {
+            Files.createDirectories(directory);
+            Path written = Files.createTempFile(directory, key, ".tmp");
+            try {
+                if (POSIX) {
+                    Files.setPosixFilePermissions(written, PosixFilePermissions.fromString("rw-------"));
+                }
+                try (OutputStream outputStream = Files.newOutputStream(written);
+                     ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream)) {
+                    objectOutputStream.writeObject(value);
+                }
+                Files.move(written, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(written);
+            }
+            cache.put(key, new Cached<>(value, Files.getLastModifiedTime(file)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write %s".formatted(file), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void delete(String key) {
+        Path file = file(key);
+        ReentrantLock lock = lock(key);
+        lock.lock();
+        try {
+            cache.remove(key);
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not delete %s".formatted(file), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the values that match, each read and deleted under its lock so that a value written meanwhile is judged
+     * as written. Values that have not changed since the last load are taken from the cache. Returns how many.
+     */
+    int deleteIf(Predicate<V> condition) {
+        int deleted = 0;
+        for (String key : keys()) {
+            Path file = file(key);
+            ReentrantLock lock = lock(key);
+            lock.lock();
+            try {
+                Optional<V> value = loadLocked(key, file);
+                if (value.isPresent() && condition.test(value.get())) {
+                    cache.remove(key);
+                    Files.deleteIfExists(file);
+                    deleted++;
+                }
+            } catch (IOException e) {
+                log.warn("Could not check {}: {}", file, e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * The keys that have a file, without reading them.
+     */
+    List<String> keys() {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> listed = Files.list(directory)) {
+            return listed.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(suffix))
+                    .map(name -> name.substring(0, name.length() - suffix.length()))
+                    .filter(StripedFileStore::isValidKey)
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not list %s".formatted(directory), e);
+        }
+    }
+
+    private Optional<V> loadLocked(String key, Path file) throws IOException {
+        FileTime modified;
+        try {
+            modified = Files.getLastModifiedTime(file);
+        } catch (NoSuchFileException e) {
+            cache.remove(key);
+            return Optional.empty();
+        }
+        Cached<V> cached = cache.get(key);
+        if (cached != null && cached.modified().equals(modified)) {
+            return Optional.of(cached.value());
+        }
+        V value = read(file);
+        cache.put(key, new Cached<>(value, modified));
+        return Optional.of(value);
+    }
+
+    private V read(Path file) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(file);
+             ObjectInputStream objectInputStream = new ObjectInputStream(inputStream)) {
+            objectInputStream.setObjectInputFilter(ALLOWED_CLASSES);
+            return type.cast(objectInputStream.readObject());
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Unexpected content in %s".formatted(file), e);
+        }
+    }
+
+    private Path file(String key) {
+        if (!isValidKey(key)) {
+            throw new IllegalArgumentException("Invalid key %s".formatted(key));
+        }
+        return directory.resolve(key + suffix);
+    }
+
+    private ReentrantLock lock(String key) {
+        return locks[Math.floorMod(key.hashCode(), STRIPES)];
+    }
+
+    private record Cached<V>(V value, FileTime modified) {
+    }
+}
@@ -0,0 +1,44 @@
+package nl.thomas.stravaclient.summary;
+
+import java.time.DayOfWeek;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Arrays;
+
+/**
+ * Calendar periods activities are summarised by. Weeks start on Monday.
+ */
+public enum SummaryBucket {
+    DAY, WEEK, MONTH, YEAR;
+
+    /**
+     * Start of the bucket containing the given moment, in the time zone of that moment.
+     */
+    ZonedDateTime start(ZonedDateTime moment) {
+        ZonedDateTime day = moment.toLocalDate().atStartOfDay(moment.getZone());
+        return switch (this) {
+            case DAY -> day;
+            case WEEK -> day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case MONTH -> day.withDayOfMonth(1);
+            case YEAR -> day.withDayOfYear(1);
+        };
+    }
+
+    ZonedDateTime next(ZonedDateTime start) {
+        ZonedDateTime next = switch (this) {
+            case DAY -> start.plusDays(1);
+            case WEEK -> start.plusWeeks(1);
+            case MONTH -> start.plusMonths(1);
+            case YEAR -> start.plusYears(1);
+        };
+        // Days do not always start at midnight when clocks change
+        return next.toLocalDate().atStartOfDay(start.getZone());
+    }
+
+    public static SummaryBucket fromKey(String key) {
+        return Arrays.stream(values())
+                .filter(bucket -> bucket.name().equalsIgnoreCase(key))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown bucket %s".formatted(key)));
+    }
+}
@@ -0,0 +1,23 @@
+package nl.thomas.stravaclient.summary;
+
+import nl.thomas.strava.model.SportType;
+
+import java.time.LocalDate;
+
+/**
+ * Totals of one sport type in one bucket.
+ *
+ * @param bucket        first day of the bucket in the requested time zone
+ * @param sportType     null for activities without a sport type
+ * @param distance      in meters
+ * @param elevationGain in meters
+ * @param movingTime    in seconds
+ */
+public record TrainingSummary(
+        LocalDate bucket,
+        SportType sportType,
+        int count,
+        double distance,
+        double elevationGain,
+        long movingTime) {
+}
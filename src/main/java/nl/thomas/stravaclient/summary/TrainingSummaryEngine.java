@@ -0,0 +1,241 @@
+package nl.thomas.stravaclient.summary;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import nl.thomas.strava.model.DetailedActivity;
+import nl.thomas.strava.model.SportType;
+import nl.thomas.stravaclient.client.TimeWindow;
+import nl.thomas.stravaclient.store.ActivityStore;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the figures that training summaries are made of per athlete in primitive columns ordered by start time, and
+ * adds every activity saved in the {@link ActivityStore} as it arrives. An athlete is read from the store only once,
+ * when first asked for. A summary walks the activities of the window once against precomputed bucket boundaries, so
+ * any bucket size and time zone can be asked for without touching the activities themselves. Without a store the
+ * activities of the window are passed in and summed in columns that are thrown away afterwards.
+ */
+@Component
+@Slf4j
+public class TrainingSummaryEngine {
+
+    private static final SportType[] SPORT_TYPES = SportType.values();
+    // Activities without a sport type are counted in the extra last slot
+    private static final int SPORT_SLOTS = SPORT_TYPES.length + 1;
+
+    private final ActivityStore activityStore;
+    private final Map<String, AthleteColumns> athletes = new ConcurrentHashMap<>();
+
+    public TrainingSummaryEngine(ActivityStore activityStore) {
+        this.activityStore = activityStore;
+        activityStore.addListener(this::accept);
+        activityStore.addDeleteListener(this::delete);
+    }
+
+    void accept(String athleteId, DetailedActivity activity) {
+        athlete(athleteId).upsert(activity);
+    }
+
+    void delete(String athleteId, long activityId) {
+        athlete(athleteId).delete(activityId);
+    }
+
+    public List<TrainingSummary> summarize(
+            @NonNull String athleteId,
+            @NonNull ZonedDateTime after,
+            @NonNull ZonedDateTime before,
+            @NonNull SummaryBucket bucket) {
+        TimeWindow.validate(after, before);
+        return summarize(athlete(athleteId), after, before, bucket);
+    }
+
+    public Mono<List<TrainingSummary>> summarize(
+            @NonNull Flux<DetailedActivity> activities,
+            @NonNull ZonedDateTime after,
+            @NonNull ZonedDateTime before,
+            @NonNull SummaryBucket bucket) {
+        TimeWindow.validate(after, before);
+        return activities
+                .reduceWith(AthleteColumns::new, (columns, activity) -> {
+                    columns.upsert(activity);
+                    return columns;
+                })
+                .map(columns -> summarize(columns, after, before, bucket));
+    }
+
+    private static List<TrainingSummary> summarize(AthleteColumns columns, ZonedDateTime after, ZonedDateTime before, SummaryBucket bucket) {
+        List<ZonedDateTime> bucketStarts = new ArrayList<>();
+        for (ZonedDateTime start = bucket.start(after); start.isBefore(before); start = bucket.next(start)) {
+            bucketStarts.add(start);
+        }
+        // Boundary i is where bucket i ends; the first bucket may start before the window does
+        long[] boundaries = new long[bucketStarts.size()];
+        for (int i = 0; i < boundaries.length; i++) {
+            boundaries[i] = i + 1 < bucketStarts.size() ? bucketStarts.get(i + 1).toEpochSecond() : before.toEpochSecond();
+        }
+        Totals totals = columns.sum(after.toEpochSecond(), before.toEpochSecond(), boundaries);
+
+        List<TrainingSummary> summaries = new ArrayList<>();
+        for (int b = 0; b < boundaries.length; b++) {
+            for (int sport = 0; sport < SPORT_SLOTS; sport++) {
+                int slot = b * SPORT_SLOTS + sport;
+                if (totals.counts[slot] > 0) {
+                    summaries.add(new TrainingSummary(
+                            bucketStarts.get(b).toLocalDate(),
+                            sport < SPORT_TYPES.length ? SPORT_TYPES[sport] : null,
+                            totals.counts[slot],
+                            totals.distances[slot],
+                            totals.elevationGains[slot],
+                            totals.movingTimes[slot]));
+                }
+            }
+        }
+        return summaries;
+    }
+
+    private AthleteColumns athlete(String athleteId) {
+        return athletes.computeIfAbsent(athleteId, id -> {
+            AthleteColumns columns = new AthleteColumns();
+            List<DetailedActivity> stored = activityStore.find(id, Instant.MIN, Instant.MAX);
+            stored.forEach(columns::upsert);
+            log.info("Loaded {} activities of athlete {} into the training summary engine", stored.size(), id);
+            return columns;
+        });
+    }
+
+    private record Totals(int[] counts, double[] distances, double[] elevationGains, long[] movingTimes) {
+
+        Totals(int slots) {
+            this(new int[slots], new double[slots], new double[slots], new long[slots]);
+        }
+    }
+
+    /**
+     * Columns of one athlete, sorted by start time and id.
+     */
+    private static final class AthleteColumns {
+
+        private static final int INITIAL_CAPACITY = 256;
+
+        private long[] starts = new long[INITIAL_CAPACITY];
+        private long[] ids = new long[INITIAL_CAPACITY];
+        private int[] sports = new int[INITIAL_CAPACITY];
+        private double[] distances = new double[INITIAL_CAPACITY];
+        private double[] elevationGains = new double[INITIAL_CAPACITY];
+        private int[] movingTimes = new int[INITIAL_CAPACITY];
+        private int size;
+        private final Map<Long, Long> startById = new HashMap<>();
+
+        synchronized void upsert(DetailedActivity activity) {
+            if (activity.getId() == null || activity.getStartDate() == null) {
+                return;
+            }
+            long id = activity.getId();
+            Long previousStart = startById.get(id);
+            if (previousStart != null) {
+                remove(indexOf(previousStart, id));
+            }
+            long start = activity.getStartDate().toEpochSecond();
+            int index = -indexOf(start, id) - 1;
+            ensureCapacity();
+            int moved = size - index;
+            System.arraycopy(starts, index, starts, index + 1, moved);
+            System.arraycopy(ids, index, ids, index + 1, moved);
+            System.arraycopy(sports, index, sports, index + 1, moved);
+            System.arraycopy(distances, index, distances, index + 1, moved);
+            System.arraycopy(elevationGains, index, elevationGains, index + 1, moved);
+            System.arraycopy(movingTimes, index, movingTimes, index + 1, moved);
+            starts[index] = start;
+            ids[index] = id;
+            sports[index] = activity.getSportType() == null ? SPORT_TYPES.length : activity.getSportType().ordinal();
+            distances[index] = activity.getDistance() == null ? 0 : activity.getDistance();
+            elevationGains[index] = activity.getTotalElevationGain() == null ? 0 : activity.getTotalElevationGain();
+            movingTimes[index] = activity.getMovingTime() == null ? 0 : activity.getMovingTime();
+            size++;
+            startById.put(id, start);
+        }
+
+        synchronized void delete(long id) {
+            Long start = startById.remove(id);
+            if (start != null) {
+                remove(indexOf(start, id));
+            }
+        }
+
+        synchronized Totals sum(long after, long before, long[] boundaries) {
+            Totals totals = new Totals(boundaries.length * SPORT_SLOTS);
+            int bucket = 0;
+            for (int i = firstAtOrAfter(after); i < size && starts[i] < before; i++) {
+                while (starts[i] >= boundaries[bucket]) {
+                    bucket++;
+                }
+                int slot = bucket * SPORT_SLOTS + sports[i];
+                totals.counts[slot]++;
+                totals.distances[slot] += distances[i];
+                totals.elevationGains[slot] += elevationGains[i];
+                totals.movingTimes[slot] += movingTimes[i];
+            }
+            return totals;
+        }
+
+        private void remove(int index) {
+            int moved = size - index - 1;
+            System.arraycopy(starts, index + 1, starts, index, moved);
+            System.arraycopy(ids, index + 1, ids, index, moved);
+            System.arraycopy(sports, index + 1, sports, index, moved);
+            System.arraycopy(distances, index + 1, distances, index, moved);
+            System.arraycopy(elevationGains, index + 1, elevationGains, index, moved);
+            System.arraycopy(movingTimes, index + 1, movingTimes, index, moved);
+            size--;
+        }
+
+        /**
+         * Binary search on start time and id, returning {@code -(insertion point) - 1} when not found.
+         */
+        private int indexOf(long start, long id) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int comparison = starts[middle] != start ? Long.compare(starts[middle], start) : Long.compare(ids[middle], id);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else if (comparison > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+
+        private int firstAtOrAfter(long start) {
+            int index = indexOf(start, Long.MIN_VALUE);
+            return index < 0 ? -index - 1 : index;
+        }
+
+        private void ensureCapacity() {
+            if (size < starts.length) {
+                return;
+            }
+            int capacity = starts.length * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            sports = Arrays.copyOf(sports, capacity);
+            distances = Arrays.copyOf(distances, capacity);
+            elevationGains = Arrays.copyOf(elevationGains, capacity);
+            movingTimes = Arrays.copyOf(movingTimes, capacity);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package nl.thomas.stravaclient.webhook;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Map;
+
+/**
+ * Push event of a Strava webhook subscription. Strava only tells which object changed and how; the object itself has
+ * to be fetched. For athletes the only event is a deauthorization, with {@code "authorized": "false"} in the updates.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record StravaEvent(
+        @JsonProperty("object_type") ObjectType objectType,
+        @JsonProperty("object_id") long objectId,
+        @JsonProperty("aspect_type") AspectType aspectType,
+        @JsonProperty("updates") Map<String, String> updates,
+        @JsonProperty("owner_id") long ownerId,
+        @JsonProperty("subscription_id") long subscriptionId,
+        @JsonProperty("event_time") long eventTime) {
+
+    public enum ObjectType {
+        @JsonProperty("activity") ACTIVITY,
+        @JsonProperty("athlete") ATHLETE
+    }
+
+    public enum AspectType {
+        @JsonProperty("create") CREATE,
+        @JsonProperty("update") UPDATE,
+        @JsonProperty("delete") DELETE
+    }
+
+    boolean isDeauthorization() {
+        return objectType == ObjectType.ATHLETE && updates != null && "false".equals(updates.get("authorized"));
+    }
+}
@@ -0,0 +1,221 @@
+package nl.thomas.stravaclient.webhook;
+
+import jakarta.annotation.PreDestroy;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import nl.thomas.stravaclient.client.RequestPriority;
+import nl.thomas.stravaclient.client.StravaClient;
+import nl.thomas.stravaclient.client.TokenService;
+import nl.thomas.stravaclient.store.ActivitySyncService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.oauth2.core.OAuth2AuthorizationException;
+import org.springframework.security.oauth2.core.OAuth2ErrorCodes;
+import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.concurrent.Queues;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Turns Strava webhook events into store updates. Events are queued and taken in batches of at most
+ * {@code strava.webhook.batch-size}, or whatever arrived within {@code strava.webhook.batch-window}. Within a batch all
+ * events for the same object collapse into one, so that a burst of updates to an activity costs a single request, and
+ * a delete wins over everything else. Only the changed activity is then fetched, as a background request so that it
+ * never takes budget from interactive ones.
+ * <p>
+ * Anyone can post to the callback, so a delete or a deauthorization is only carried out once Strava confirms it: the
+ * activity is gone when asking for it gives a 404, and the athlete revoked access when the token of the athlete is
+ * refused with a 401, or its refresh token as an invalid grant.
+ */
+@Component
+@Slf4j
+public class WebhookEventPipeline {
+
+    private final ActivitySyncService activitySyncService;
+    private final StravaClient stravaClient;
+    private final TokenService tokenService;
+    private final int batchSize;
+    private final Duration batchWindow;
+    private final int maxQueued;
+    private final int concurrency;
+    private final Scheduler scheduler;
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong collapsedCount = new AtomicLong();
+    private Sinks.Many<StravaEvent> events;
+    private Disposable subscription;
+    private boolean stopped;
+
+    @Autowired
+    public WebhookEventPipeline(
+            ActivitySyncService activitySyncService,
+            StravaClient stravaClient,
+            TokenService tokenService,
+            @Value("${strava.webhook.batch-size:100}") int batchSize,
+            @Value("${strava.webhook.batch-window:5s}") Duration batchWindow,
+            @Value("${strava.webhook.max-queued:10000}") int maxQueued,
+            @Value("${strava.webhook.concurrency:4}") int concurrency) {
+        this(activitySyncService, stravaClient, tokenService, batchSize, batchWindow, maxQueued, concurrency, Schedulers.parallel());
+    }
+
+    WebhookEventPipeline(
+            ActivitySyncService activitySyncService,
+            StravaClient stravaClient,
+            TokenService tokenService,
+            int batchSize,
+            Duration batchWindow,
+            int maxQueued,
+            int concurrency,
+            Scheduler scheduler) {
+        this.activitySyncService = activitySyncService;
+        this.stravaClient = stravaClient;
+        this.tokenService = tokenService;
+        this.batchSize = batchSize;
+        this.batchWindow = batchWindow;
+        this.maxQueued = maxQueued;
+        this.concurrency = concurrency;
+        this.scheduler = scheduler;
+        start();
+    }
+
+    /**
+     * Batches are only emitted as the processing asks for them, also when the window closes on a full batch, so that a
+     * slow batch holds the next ones back in the queue instead of failing the pipeline. Should the pipeline fail
+     * anyway, it is started again on a new queue; the events that were still queued are lost.
+     */
+    private synchronized void start() {
+        if (stopped) {
+            return;
+        }
+        events = Sinks.many().unicast().onBackpressureBuffer(Queues.<StravaEvent>get(maxQueued).get());
+        subscription = events.asFlux()
+                .bufferTimeout(batchSize, batchWindow, scheduler, true)
+                .concatMap(batch -> Flux.fromIterable(collapse(batch))
+                        .flatMap(this::handle, concurrency)
+                        .then())
+                .subscribe(null, e -> {
+                    log.error("{} with message \"{}\" stopped the processing of webhook events. Starting it again.",
+                            e.getClass().getSimpleName(),
+                            e.getMessage());
+                    start();
+                });
+    }
+
+    /**
+     * Queues the event for processing. Returns false when the queue is full, so that Strava can be asked to retry.
+     */
+    public boolean submit(@NonNull StravaEvent event) {
+        Sinks.EmitResult result;
+        synchronized (this) {
+            result = events.tryEmitNext(event);
+        }
+        if (result.isFailure()) {
+            log.warn("Rejected {} event for {} {} of athlete {}: {}", event.aspectType(), event.objectType(), event.objectId(), event.ownerId(), result);
+            return false;
+        }
+        receivedCount.incrementAndGet();
+        return true;
+    }
+
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    public long getCollapsedCount() {
+        return collapsedCount.get();
+    }
+
+    @PreDestroy
+    synchronized void stop() {
+        stopped = true;
+        subscription.dispose();
+    }
+
+    private List<StravaEvent> collapse(List<StravaEvent> batch) {
+        Map<ObjectKey, StravaEvent> latest = new LinkedHashMap<>();
+        for (StravaEvent event : batch) {
+            latest.merge(new ObjectKey(event.objectType(), event.objectId()), event,
+                    (earlier, later) -> earlier.aspectType() == StravaEvent.AspectType.DELETE ? earlier : later);
+        }
+        collapsedCount.addAndGet(batch.size() - latest.size());
+        log.info("Processing {} webhook events collapsed into {}", batch.size(), latest.size());
+        return new ArrayList<>(latest.values());
+    }
+
+    private Mono<Void> handle(StravaEvent event) {
+        String athleteId = String.valueOf(event.ownerId());
+        Mono<Void> handled = switch (event.objectType()) {
+            case ACTIVITY -> event.aspectType() == StravaEvent.AspectType.DELETE
+                    ? deleteIfGone(athleteId, event.objectId())
+                    : activitySyncService.refreshActivity(athlete(athleteId), event.objectId())
+                    .contextWrite(Context.of(RequestPriority.class, RequestPriority.BACKGROUND))
+                    .then();
+            case ATHLETE -> event.isDeauthorization()
+                    ? forgetIfDeauthorized(athleteId)
+                    : Mono.empty();
+        };
+        return handled.onErrorResume(e -> {
+            log.warn("{} with message \"{}\" while processing {} event for {} {} of athlete {}",
+                    e.getClass().getSimpleName(),
+                    e.getMessage(),
+                    event.aspectType(),
+                    event.objectType(),
+                    event.objectId(),
+                    athleteId);
+            return Mono.empty();
+        });
+    }
+
+    private Mono<Void> deleteIfGone(String athleteId, long activityId) {
+        return stravaClient.getDetailedActivity(athlete(athleteId), activityId)
+                .contextWrite(Context.of(RequestPriority.class, RequestPriority.BACKGROUND))
+                .doOnNext(activity -> log.warn("Ignored delete event for activity {} of athlete {}, which Strava still has", activityId, athleteId))
+                .then()
+                .onErrorResume(WebClientResponseException.NotFound.class, e -> Mono.<Void>fromRunnable(() -> activitySyncService.deleteActivity(athleteId, activityId))
+                        .subscribeOn(Schedulers.boundedElastic()));
+    }
+
+    private Mono<Void> forgetIfDeauthorized(String athleteId) {
+        return stravaClient.getDetailedAthlete(athlete(athleteId))
+                .contextWrite(Context.of(RequestPriority.class, RequestPriority.BACKGROUND))
+                .doOnNext(athlete -> log.warn("Ignored deauthorization event of athlete {}, whose token Strava still accepts", athleteId))
+                .then()
+                .onErrorResume(WebhookEventPipeline::isRevoked, e -> Mono.<Void>fromRunnable(() -> {
+                            tokenService.forget(athleteId);
+                            log.info("Athlete {} deauthorized the application", athleteId);
+                        })
+                        .subscribeOn(Schedulers.boundedElastic()));
+    }
+
+    /**
+     * Strava refuses the access token, or, when it had expired, the refresh token.
+     */
+    private static boolean isRevoked(Throwable e) {
+        return e instanceof WebClientResponseException.Unauthorized
+                || e instanceof OAuth2AuthorizationException oAuth2AuthorizationException
+                && OAuth2ErrorCodes.INVALID_GRANT.equals(oAuth2AuthorizationException.getError().getErrorCode());
+    }
+
+    /**
+     * The athlete as the token handling knows it after login: by the id attribute.
+     */
+    private static DefaultOAuth2User athlete(String athleteId) {
+        return new DefaultOAuth2User(List.of(), Map.of("id", athleteId), "id");
+    }
+
+    private record ObjectKey(StravaEvent.ObjectType objectType, long objectId) {
+    }
+}
@@ -0,0 +1,20 @@
+package nl.thomas.stravaclient.zones;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Training load of one activity. Figures of which the activity has no stream, or the athlete has no zones, are null.
+ *
+ * @param heartRateZoneSeconds seconds spent in every heart rate zone, lowest zone first
+ * @param powerZoneSeconds     seconds spent in every power zone, lowest zone first
+ * @param normalizedPower      fourth root of the mean fourth power of the 30 second rolling average power, in watts
+ * @param trimp                Edwards' training impulse: minutes in every heart rate zone times the number of the zone
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ActivityLoad(
+        long activityId,
+        int[] heartRateZoneSeconds,
+        int[] powerZoneSeconds,
+        Double normalizedPower,
+        Double trimp) {
+}
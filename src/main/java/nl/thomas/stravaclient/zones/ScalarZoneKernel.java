@@ -0,0 +1,31 @@
+package nl.thomas.stravaclient.zones;
+
+final class ScalarZoneKernel implements ZoneKernel {
+
+    @Override
+    public int[] secondsAtOrAbove(int[] values, int[] durations, int size, int[] boundaries) {
+        int[] seconds = new int[boundaries.length];
+        for (int b = 0; b < boundaries.length; b++) {
+            int boundary = boundaries[b];
+            int total = 0;
+            for (int i = 0; i < size; i++) {
+                if (values[i] >= boundary) {
+                    total += durations[i];
+                }
+            }
+            seconds[b] = total;
+        }
+        return seconds;
+    }
+
+    @Override
+    public double meanFourthPower(double[] prefixSums, int count, int window) {
+        double total = 0;
+        for (int i = 0; i < count; i++) {
+            double mean = (prefixSums[i + window] - prefixSums[i]) / window;
+            double square = mean * mean;
+            total += square * square;
+        }
+        return total / count;
+    }
+}
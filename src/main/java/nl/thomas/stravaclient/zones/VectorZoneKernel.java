@@ -0,0 +1,63 @@
+package nl.thomas.stravaclient.zones;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The same loops as {@link ScalarZoneKernel}, a full vector of points at a time, with the remainder done one by one.
+ * Only loaded when the JVM was started with {@code --add-modules=jdk.incubator.vector}. Sums of doubles are added in a
+ * different order than in the scalar loop, so they may differ in the last bits.
+ */
+final class VectorZoneKernel implements ZoneKernel {
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public int[] secondsAtOrAbove(int[] values, int[] durations, int size, int[] boundaries) {
+        int[] seconds = new int[boundaries.length];
+        int upperBound = INTS.loopBound(size);
+        for (int b = 0; b < boundaries.length; b++) {
+            int boundary = boundaries[b];
+            IntVector boundaryVector = IntVector.broadcast(INTS, boundary);
+            IntVector totals = IntVector.zero(INTS);
+            int i = 0;
+            for (; i < upperBound; i += INTS.length()) {
+                IntVector valueVector = IntVector.fromArray(INTS, values, i);
+                IntVector durationVector = IntVector.fromArray(INTS, durations, i);
+                totals = totals.add(durationVector, valueVector.compare(VectorOperators.GE, boundaryVector));
+            }
+            int total = totals.reduceLanes(VectorOperators.ADD);
+            for (; i < size; i++) {
+                if (values[i] >= boundary) {
+                    total += durations[i];
+                }
+            }
+            seconds[b] = total;
+        }
+        return seconds;
+    }
+
+    @Override
+    public double meanFourthPower(double[] prefixSums, int count, int window) {
+        int upperBound = DOUBLES.loopBound(count);
+        DoubleVector totals = DoubleVector.zero(DOUBLES);
+        int i = 0;
+        for (; i < upperBound; i += DOUBLES.length()) {
+            DoubleVector mean = DoubleVector.fromArray(DOUBLES, prefixSums, i + window)
+                    .sub(DoubleVector.fromArray(DOUBLES, prefixSums, i))
+                    .div(window);
+            DoubleVector square = mean.mul(mean);
+            totals = totals.add(square.mul(square));
+        }
+        double total = totals.reduceLanes(VectorOperators.ADD);
+        for (; i < count; i++) {
+            double mean = (prefixSums[i + window] - prefixSums[i]) / window;
+            double square = mean * mean;
+            total += square * square;
+        }
+        return total / count;
+    }
+}
@@ -0,0 +1,222 @@
+package nl.thomas.stravaclient.zones;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import nl.thomas.stravaclient.client.ActivityStreams;
+import nl.thomas.stravaclient.client.AthleteZones;
+import nl.thomas.stravaclient.client.StravaClient;
+import nl.thomas.stravaclient.client.StreamType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Time in zone, normalized power and training impulse of activities, computed from their full resolution streams
+ * against the zones of the athlete. Every figure is a loop over primitive columns, which runs a vector of points at a
+ * time when the JVM was started with {@code --add-modules=jdk.incubator.vector} and {@code strava.zones.vectorized} is
+ * on, and one point at a time otherwise. Streams are fetched {@code strava.zones.concurrency} at a time and analysed
+ * in batches of {@code strava.zones.batch-size}, which share the zone boundaries and the work arrays.
+ * <p>
+ * A point lasts until the next one, but at most {@value #MAX_GAP_SECONDS} seconds: a longer gap in the recording is a
+ * stop, which counts as no time in any zone and as no power. Points at which the athlete was not moving count as no
+ * time in any zone either.
+ */
+@Component
+@Slf4j
+public class ZoneAnalytics {
+
+    static final int MAX_GAP_SECONDS = 10;
+    static final int NORMALIZED_POWER_WINDOW = 30;
+    private static final String VECTOR_KERNEL = "nl.thomas.stravaclient.zones.VectorZoneKernel";
+    private static final Set<StreamType> STREAM_TYPES = EnumSet.of(StreamType.TIME, StreamType.HEARTRATE, StreamType.WATTS, StreamType.MOVING);
+
+    private final StravaClient stravaClient;
+    private final int concurrency;
+    private final int batchSize;
+    private final ZoneKernel kernel;
+
+    @Autowired
+    public ZoneAnalytics(
+            StravaClient stravaClient,
+            @Value("${strava.zones.concurrency:4}") int concurrency,
+            @Value("${strava.zones.batch-size:32}") int batchSize,
+            @Value("${strava.zones.vectorized:true}") boolean vectorized) {
+        this(stravaClient, concurrency, batchSize, kernel(vectorized));
+    }
+
+    ZoneAnalytics(StravaClient stravaClient, int concurrency, int batchSize, ZoneKernel kernel) {
+        this.stravaClient = stravaClient;
+        this.concurrency = concurrency;
+        this.batchSize = batchSize;
+        this.kernel = kernel;
+        log.info("Zone analytics run {}", kernel instanceof ScalarZoneKernel ? "one point at a time" : "vectorized");
+    }
+
+    /**
+     * The vector kernel is compiled on its own, with the incubator module, so it is only known here by name.
+     */
+    private static ZoneKernel kernel(boolean vectorized) {
+        if (vectorized && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return Class.forName(VECTOR_KERNEL).asSubclass(ZoneKernel.class).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                log.warn("{} with message \"{}\" while loading the vector kernel. Running one point at a time.",
+                        e.getClass().getSimpleName(),
+                        e.getMessage());
+            }
+        }
+        return new ScalarZoneKernel();
+    }
+
+    public boolean isVectorized() {
+        return !(kernel instanceof ScalarZoneKernel);
+    }
+
+    /**
+     * The load of every activity, in no particular order. Activities of which the streams cannot be fetched are left
+     * out.
+     */
+    public Flux<ActivityLoad> getActivityLoads(@NonNull OAuth2User oAuth2User, @NonNull List<Long> activityIds) {
+        return stravaClient.getAthleteZones(oAuth2User)
+                .flatMapMany(zones -> Flux.fromIterable(activityIds)
+                        .flatMap(activityId -> getActivityStreams(oAuth2User, activityId), concurrency)
+                        .buffer(batchSize)
+                        .concatMapIterable(batch -> analyze(batch, zones)));
+    }
+
+    private Mono<ActivityStreams> getActivityStreams(OAuth2User oAuth2User, Long activityId) {
+        return Mono.defer(() -> stravaClient.getActivityStreams(oAuth2User, activityId, STREAM_TYPES, null))
+                .onErrorResume(e -> {
+                    log.warn("{} with message \"{}\" while getting the streams of activity {}. Left out of the loads.",
+                            e.getClass().getSimpleName(),
+                            e.getMessage(),
+                            activityId);
+                    return Mono.empty();
+                });
+    }
+
+    public ActivityLoad analyze(@NonNull ActivityStreams activity, @NonNull AthleteZones zones) {
+        return analyze(List.of(activity), zones).getFirst();
+    }
+
+    public List<ActivityLoad> analyze(@NonNull List<ActivityStreams> activities, @NonNull AthleteZones zones) {
+        int[] heartRateBoundaries = zones.heartRate() == null ? new int[0] : zones.heartRate().boundaries();
+        int[] powerBoundaries = zones.power() == null ? new int[0] : zones.power().boundaries();
+        WorkArrays workArrays = new WorkArrays();
+        List<ActivityLoad> loads = new ArrayList<>(activities.size());
+        for (ActivityStreams activity : activities) {
+            loads.add(analyze(activity, heartRateBoundaries, powerBoundaries, workArrays));
+        }
+        return loads;
+    }
+
+    private ActivityLoad analyze(ActivityStreams activity, int[] heartRateBoundaries, int[] powerBoundaries, WorkArrays workArrays) {
+        int size = activity.size();
+        if (size == 0) {
+            return new ActivityLoad(activity.activityId(), null, null, null, null);
+        }
+        int[] durations = workArrays.durations(size);
+        int totalSeconds = durations(activity, durations);
+        int[] heartRateZoneSeconds = null;
+        Double trimp = null;
+        if (activity.heartrate() != null && heartRateBoundaries.length > 0) {
+            heartRateZoneSeconds = zoneSeconds(activity.heartrate(), durations, size, heartRateBoundaries, totalSeconds);
+            double weightedSeconds = 0;
+            for (int zone = 0; zone < heartRateZoneSeconds.length; zone++) {
+                weightedSeconds += (zone + 1) * (double) heartRateZoneSeconds[zone];
+            }
+            trimp = weightedSeconds / 60;
+        }
+        int[] powerZoneSeconds = null;
+        Double normalizedPower = null;
+        if (activity.watts() != null) {
+            if (powerBoundaries.length > 0) {
+                powerZoneSeconds = zoneSeconds(activity.watts(), durations, size, powerBoundaries, totalSeconds);
+            }
+            normalizedPower = normalizedPower(activity, workArrays);
+        }
+        return new ActivityLoad(activity.activityId(), heartRateZoneSeconds, powerZoneSeconds, normalizedPower, trimp);
+    }
+
+    /**
+     * Fills in how long every point lasts, and returns the sum. Without a time stream every point lasts a second.
+     */
+    private static int durations(ActivityStreams activity, int[] durations) {
+        int size = activity.size();
+        int[] time = activity.time();
+        boolean[] moving = activity.moving();
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            int duration = i + 1 == size ? 0 : time == null ? 1 : Math.clamp(time[i + 1] - time[i], 0, MAX_GAP_SECONDS);
+            durations[i] = moving == null || moving[i] ? duration : 0;
+            total += durations[i];
+        }
+        return total;
+    }
+
+    private int[] zoneSeconds(int[] values, int[] durations, int size, int[] boundaries, int totalSeconds) {
+        int[] atOrAbove = kernel.secondsAtOrAbove(values, durations, size, boundaries);
+        int[] zoneSeconds = new int[boundaries.length + 1];
+        zoneSeconds[0] = totalSeconds - atOrAbove[0];
+        for (int zone = 1; zone < boundaries.length; zone++) {
+            zoneSeconds[zone] = atOrAbove[zone - 1] - atOrAbove[zone];
+        }
+        zoneSeconds[boundaries.length] = atOrAbove[boundaries.length - 1];
+        return zoneSeconds;
+    }
+
+    /**
+     * Rolling averages need a value for every second, so the power of every point is repeated until the next one, but
+     * at most {@value #MAX_GAP_SECONDS} seconds, and the rest of a gap is filled with zero.
+     */
+    private Double normalizedPower(ActivityStreams activity, WorkArrays workArrays) {
+        int size = activity.size();
+        int[] time = activity.time();
+        int[] watts = activity.watts();
+        int seconds = time == null ? size : time[size - 1] - time[0] + 1;
+        if (seconds < NORMALIZED_POWER_WINDOW) {
+            return null;
+        }
+        double[] prefixSums = workArrays.prefixSums(seconds + 1);
+        prefixSums[0] = 0;
+        for (int i = 0; i < size; i++) {
+            int start = time == null ? i : time[i] - time[0];
+            int end = i + 1 == size ? start + 1 : time == null ? i + 1 : time[i + 1] - time[0];
+            for (int second = start; second < end; second++) {
+                prefixSums[second + 1] = prefixSums[second] + (second - start < MAX_GAP_SECONDS ? watts[i] : 0);
+            }
+        }
+        return Math.sqrt(Math.sqrt(kernel.meanFourthPower(prefixSums, seconds - NORMALIZED_POWER_WINDOW + 1, NORMALIZED_POWER_WINDOW)));
+    }
+
+    /**
+     * Arrays reused for every activity of a batch, grown to the largest one.
+     */
+    private static final class WorkArrays {
+
+        private int[] durations = new int[0];
+        private double[] prefixSums = new double[0];
+
+        int[] durations(int size) {
+            if (durations.length < size) {
+                durations = new int[size];
+            }
+            return durations;
+        }
+
+        double[] prefixSums(int size) {
+            if (prefixSums.length < size) {
+                prefixSums = new double[size];
+            }
+            return prefixSums;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package nl.thomas.stravaclient.zones;
+
+/**
+ * The loops over every point of a stream, of which {@link ZoneAnalytics} has a scalar and a vectorized implementation.
+ * Arrays may be longer than the part that is used.
+ */
+interface ZoneKernel {
+
+    /**
+     * Per boundary, the sum of the durations of the first {@code size} values that reach it.
+     */
+    int[] secondsAtOrAbove(int[] values, int[] durations, int size, int[] boundaries);
+
+    /**
+     * The mean of the fourth power of the mean of {@code count} consecutive windows of {@code window} values, given
+     * the prefix sums of the values: {@code prefixSums[i]} is the sum of the first i values.
+     */
+    double meanFourthPower(double[] prefixSums, int count, int window);
+}
@@ -0,0 +1,83 @@
+package nl.thomas.stravaclient.client;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ActivityStreamsDecoderTest {
+
+    private static final String STREAMS = """
+            {
+              "time": {"data": [0, 1, 2, 5], "series_type": "distance", "original_size": 4, "resolution": "high"},
+              "latlng": {"data": [[52.07869, 5.1566014], [52.0787, 5.15661], [52.07871, 5.15662], [52.07872, 5.15663]], "series_type": "distance", "original_size": 4, "resolution": "high"},
+              "heartrate": {"data": [98, 101, null, 110], "series_type": "distance", "original_size": 4, "resolution": "high"},
+              "moving": {"data": [false, true, true, true], "series_type": "distance", "original_size": 4, "resolution": "high"},
+              "distance": {"data": [0.0, 2.9, 5.8, 8.5], "series_type": "distance", "original_size": 4, "resolution": "high"}
+            }""";
+
+    @Test
+    void streamsInSmallChunks_decodedIntoColumns() {
+        ActivityStreams actual = decode(STREAMS, 7, EnumSet.allOf(StreamType.class));
+
+        assertThat(actual.activityId()).isEqualTo(1155632529L);
+        assertThat(actual.originalSize()).isEqualTo(4);
+        assertThat(actual.size()).isEqualTo(4);
+        assertThat(actual.time()).containsExactly(0, 1, 2, 5);
+        assertThat(actual.latitude()).containsExactly(52.07869, 52.0787, 52.07871, 52.07872);
+        assertThat(actual.longitude()).containsExactly(5.1566014, 5.15661, 5.15662, 5.15663);
+        assertThat(actual.heartrate()).containsExactly(98, 101, 0, 110);
+        assertThat(actual.moving()).containsExactly(false, true, true, true);
+        assertThat(actual.distance()).containsExactly(0.0, 2.9, 5.8, 8.5);
+        assertThat(actual.watts()).isNull();
+    }
+
+    @Test
+    void streamsNotRequested_skipped() {
+        ActivityStreams actual = decode(STREAMS, 1, EnumSet.of(StreamType.HEARTRATE));
+
+        assertThat(actual.heartrate()).containsExactly(98, 101, 0, 110);
+        assertThat(actual.time()).isNull();
+        assertThat(actual.latitude()).isNull();
+        assertThat(actual.moving()).isNull();
+    }
+
+    @Test
+    void longStream_downsampledKeepingFirstAndLast() {
+        String time = IntStream.range(0, 10_001).mapToObj(String::valueOf).collect(Collectors.joining(","));
+        String json = "{\"time\": {\"data\": [" + time + "], \"original_size\": 10001}}";
+
+        ActivityStreams actual = decode(json, 4096, EnumSet.of(StreamType.TIME)).downsample(StreamResolution.LOW.getMaxPoints());
+
+        assertThat(actual.originalSize()).isEqualTo(10_001);
+        assertThat(actual.size()).isEqualTo(100);
+        assertThat(actual.time()).hasSize(100).startsWith(0).endsWith(10_000);
+        assertThat(Arrays.stream(actual.time()).distinct().count()).isEqualTo(100);
+    }
+
+    @Test
+    void invalidJson_exception() {
+        ActivityStreamsDecoder decoder = new ActivityStreamsDecoder(new JsonFactory(), EnumSet.allOf(StreamType.class));
+
+        assertThatThrownBy(() -> decoder.feed(DefaultDataBufferFactory.sharedInstance.wrap("{\"time\": bla".getBytes(StandardCharsets.UTF_8))))
+                .hasMessage("Could not decode activity streams");
+    }
+
+    private static ActivityStreams decode(String json, int chunkSize, Set<StreamType> keys) {
+        ActivityStreamsDecoder decoder = new ActivityStreamsDecoder(new JsonFactory(), keys);
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+            decoder.feed(DefaultDataBufferFactory.sharedInstance.wrap(Arrays.copyOfRange(bytes, offset, Math.min(bytes.length, offset + chunkSize))));
+        }
+        return decoder.finish(1155632529L);
+    }
+}
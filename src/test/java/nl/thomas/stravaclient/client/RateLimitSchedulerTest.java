@@ -0,0 +1,128 @@
+package nl.thomas.stravaclient.client;
+
+import nl.thomas.stravaclient.MutableClock;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimitSchedulerTest {
+
+    private static final ClientRequest REQUEST = ClientRequest.create(HttpMethod.GET, URI.create("http://localhost/athlete")).build();
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2025-05-17T12:01:00Z"));
+    private final VirtualTimeScheduler virtualTime = VirtualTimeScheduler.create();
+    private final RateLimitBudget budget = new RateLimitBudget(clock, "100,1000", 0.2);
+    private final RateLimitScheduler scheduler = new RateLimitScheduler(budget, Duration.ofSeconds(2), 10, clock, virtualTime);
+    private final AtomicInteger exchanges = new AtomicInteger();
+    private final ExchangeFunction strava = request -> {
+        exchanges.incrementAndGet();
+        return Mono.just(ClientResponse.create(HttpStatus.OK).build());
+    };
+
+    @Test
+    void rateLimitHeaders_budgetUpdated() {
+        budget.update(rateLimitHeaders("37,500"), HttpStatus.OK);
+
+        assertThat(budget.remaining(RateLimitBudget.Window.FIFTEEN_MINUTES)).isEqualTo(63);
+        assertThat(budget.remaining(RateLimitBudget.Window.DAILY)).isEqualTo(500);
+    }
+
+    @Test
+    void unparsableHeaders_ignored() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(RateLimitBudget.LIMIT_HEADER, "100");
+        headers.set(RateLimitBudget.USAGE_HEADER, "bla");
+
+        budget.update(headers, HttpStatus.OK);
+
+        assertThat(budget.remaining(RateLimitBudget.Window.FIFTEEN_MINUTES)).isEqualTo(100);
+    }
+
+    @Test
+    void budgetAvailable_requestPassedOn() {
+        StepVerifier.create(scheduler.filter(REQUEST, strava))
+                .expectNextCount(1)
+                .verifyComplete();
+
+        assertThat(exchanges).hasValue(1);
+        assertThat(budget.remaining(RateLimitBudget.Window.FIFTEEN_MINUTES)).isEqualTo(99);
+    }
+
+    @Test
+    void windowExhausted_interactiveRequestRejected() {
+        budget.update(rateLimitHeaders("100,500"), HttpStatus.OK);
+
+        StepVerifier.create(scheduler.filter(REQUEST, strava))
+                .expectError(WebClientResponseException.TooManyRequests.class)
+                .verify();
+
+        assertThat(exchanges).hasValue(0);
+    }
+
+    @Test
+    void windowExhaustedShortlyBeforeRefill_interactiveRequestDelayed() {
+        clock.advance(Duration.ofMinutes(13).plusSeconds(59));
+        budget.update(rateLimitHeaders("100,500"), HttpStatus.OK);
+
+        StepVerifier.create(scheduler.filter(REQUEST, strava))
+                .then(() -> assertThat(scheduler.getQueued()).isEqualTo(1))
+                .then(() -> {
+                    clock.advance(Duration.ofSeconds(1));
+                    virtualTime.advanceTimeBy(Duration.ofSeconds(1));
+                })
+                .expectNextCount(1)
+                .verifyComplete();
+
+        assertThat(exchanges).hasValue(1);
+    }
+
+    @Test
+    void reserveReached_backgroundDelayedWhileInteractivePasses() {
+        budget.update(rateLimitHeaders("85,500"), HttpStatus.OK);
+
+        StepVerifier.create(scheduler.filter(REQUEST, strava).contextWrite(RequestPriority.BACKGROUND.asContext()))
+                .then(() -> StepVerifier.create(scheduler.filter(REQUEST, strava))
+                        .expectNextCount(1)
+                        .verifyComplete())
+                .then(() -> assertThat(exchanges).hasValue(1))
+                .then(() -> {
+                    clock.advance(Duration.ofMinutes(14));
+                    virtualTime.advanceTimeBy(Duration.ofMinutes(14));
+                })
+                .expectNextCount(1)
+                .verifyComplete();
+
+        assertThat(exchanges).hasValue(2);
+    }
+
+    @Test
+    void tooManyRequestsFromStrava_windowMarkedExhausted() {
+        budget.update(new HttpHeaders(), HttpStatus.TOO_MANY_REQUESTS);
+
+        assertThat(budget.remaining(RateLimitBudget.Window.FIFTEEN_MINUTES)).isZero();
+        clock.advance(Duration.ofMinutes(14));
+        assertThat(budget.remaining(RateLimitBudget.Window.FIFTEEN_MINUTES)).isEqualTo(100);
+    }
+
+    private static HttpHeaders rateLimitHeaders(String usage) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(RateLimitBudget.LIMIT_HEADER, "100,1000");
+        headers.set(RateLimitBudget.USAGE_HEADER, usage);
+        return headers;
+    }
+}
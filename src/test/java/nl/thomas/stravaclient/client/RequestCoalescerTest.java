@@ -0,0 +1,118 @@
+package nl.thomas.stravaclient.client;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RequestCoalescerTest {
+
+    private final RequestCoalescer requestCoalescer = new RequestCoalescer();
+
+    @Test
+    void concurrentIdenticalRequests_oneExchangeIssued() {
+        AtomicInteger exchanges = new AtomicInteger();
+        Sinks.One<String> upstream = Sinks.one();
+
+        Mono<String> first = requestCoalescer.coalesce("token", HttpMethod.GET, "athlete", String.class, () -> {
+            exchanges.incrementAndGet();
+            return upstream.asMono();
+        });
+        Mono<String> second = requestCoalescer.coalesce("token", HttpMethod.GET, "athlete", String.class, () -> {
+            exchanges.incrementAndGet();
+            return upstream.asMono();
+        });
+
+        StepVerifier.create(Mono.zip(first, second))
+                .then(() -> upstream.tryEmitValue("athlete"))
+                .assertNext(results -> {
+                    assertThat(results.getT1()).isEqualTo("athlete");
+                    assertThat(results.getT2()).isEqualTo("athlete");
+                })
+                .verifyComplete();
+        assertThat(exchanges).hasValue(1);
+        assertThat(requestCoalescer.getIssuedCount()).isEqualTo(1);
+        assertThat(requestCoalescer.getCoalescedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void differentTokens_separateExchanges() {
+        AtomicInteger exchanges = new AtomicInteger();
+        Sinks.One<String> upstream = Sinks.one();
+
+        Mono<String> first = requestCoalescer.coalesce("token", HttpMethod.GET, "athlete", String.class, () -> {
+            exchanges.incrementAndGet();
+            return upstream.asMono();
+        });
+        Mono<String> second = requestCoalescer.coalesce("other-token", HttpMethod.GET, "athlete", String.class, () -> {
+            exchanges.incrementAndGet();
+            return upstream.asMono();
+        });
+
+        StepVerifier.create(Mono.zip(first, second))
+                .then(() -> upstream.tryEmitValue("athlete"))
+                .expectNextCount(1)
+                .verifyComplete();
+        assertThat(exchanges).hasValue(2);
+        assertThat(requestCoalescer.getCoalescedCount()).isZero();
+    }
+
+    @Test
+    void differentBodyTypes_separateExchanges() {
+        AtomicInteger exchanges = new AtomicInteger();
+        Sinks.One<String> upstream = Sinks.one();
+
+        Mono<String> first = requestCoalescer.coalesce("token", HttpMethod.GET, "athlete", String.class, () -> {
+            exchanges.incrementAndGet();
+            return upstream.asMono();
+        });
+        Mono<String> second = requestCoalescer.coalesce("token", HttpMethod.GET, "athlete", CharSequence.class, () -> {
+            exchanges.incrementAndGet();
+            return upstream.asMono();
+        });
+
+        StepVerifier.create(Mono.zip(first, second))
+                .then(() -> upstream.tryEmitValue("athlete"))
+                .expectNextCount(1)
+                .verifyComplete();
+        assertThat(exchanges).hasValue(2);
+    }
+
+    @Test
+    void completedExchange_nextRequestIssuedAgain() {
+        AtomicInteger exchanges = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            StepVerifier.create(requestCoalescer.coalesce("token", HttpMethod.GET, "athlete", String.class, () -> {
+                        exchanges.incrementAndGet();
+                        return Mono.just("athlete");
+                    }))
+                    .expectNext("athlete")
+                    .verifyComplete();
+        }
+
+        assertThat(exchanges).hasValue(2);
+        assertThat(requestCoalescer.getIssuedCount()).isEqualTo(2);
+    }
+
+    @Test
+    void failedExchange_errorSharedAndForgotten() {
+        Sinks.One<String> upstream = Sinks.one();
+        Mono<String> first = requestCoalescer.coalesce("token", HttpMethod.GET, "athlete", String.class, upstream::asMono);
+        Mono<String> second = requestCoalescer.coalesce("token", HttpMethod.GET, "athlete", String.class, upstream::asMono);
+
+        StepVerifier.create(Mono.zip(first, second))
+                .then(() -> upstream.tryEmitError(new IllegalStateException("Foutje")))
+                .expectErrorMessage("Foutje")
+                .verify();
+
+        StepVerifier.create(requestCoalescer.coalesce("token", HttpMethod.GET, "athlete", String.class, () -> Mono.just("retried")))
+                .expectNext("retried")
+                .verifyComplete();
+    }
+}
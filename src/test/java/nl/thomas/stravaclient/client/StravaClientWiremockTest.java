@@ -1,10 +1,14 @@
 package nl.thomas.stravaclient.client;
 
 import com.github.tomakehurst.wiremock.client.WireMock;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import nl.thomas.strava.model.ActivityType;
 import nl.thomas.strava.model.DetailedActivity;
 import nl.thomas.strava.model.DetailedAthlete;
 import nl.thomas.strava.model.SportType;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -19,20 +23,27 @@ import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 import org.wiremock.spring.EnableWireMock;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.stubbing.Scenario.STARTED;
 import static nl.thomas.stravaclient.client.StravaClientTest.EARLIER;
 import static nl.thomas.stravaclient.client.StravaClientTest.LATER;
 import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 @EnableWireMock
 @SpringBootTest
@@ -42,9 +53,18 @@ class StravaClientWiremockTest {
 
     @Autowired
     private StravaClient stravaClient;
+    @Autowired
+    private RateLimitBudget rateLimitBudget;
+    @Autowired
+    private MeterRegistry meterRegistry;
     @MockitoBean
     private TokenService tokenService;
 
+    @BeforeEach
+    void token() {
+        when(tokenService.getTokenAsync(any())).thenReturn(Mono.just("token"));
+    }
+
     @Value("classpath:athlete-sample.json")
     Resource athleteResponsFile;
     @Value("classpath:activities-sample.json")
@@ -88,6 +108,80 @@ class StravaClientWiremockTest {
         assertThat(actual.getShoes()).isNull();
     }
 
+    @Test
+    void concurrentIdenticalRequests_oneUpstreamCall() throws IOException {
+        String athleteSampleResponse = athleteResponsFile.getContentAsString(Charset.defaultCharset());
+        WireMock.stubFor(get("/athlete").willReturn(
+                aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withStatus(200)
+                        .withFixedDelay(200)
+                        .withBody(athleteSampleResponse)));
+
+        List<DetailedAthlete> actual = Flux.merge(
+                        stravaClient.getDetailedAthlete(mock(OAuth2User.class)),
+                        stravaClient.getDetailedAthlete(mock(OAuth2User.class)),
+                        stravaClient.getDetailedAthlete(mock(OAuth2User.class)))
+                .collectList()
+                .block();
+
+        assertThatList(actual).hasSize(3).allMatch(athlete -> athlete.getId() == 5646321L);
+        WireMock.verify(1, getRequestedFor(urlEqualTo("/athlete")));
+    }
+
+    @Test
+    void rateLimitHeaders_budgetUpdated() throws IOException {
+        String athleteSampleResponse = athleteResponsFile.getContentAsString(Charset.defaultCharset());
+        WireMock.stubFor(get("/athlete").willReturn(
+                aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withHeader("X-RateLimit-Limit", "100,1000")
+                        .withHeader("X-RateLimit-Usage", "37,512")
+                        .withStatus(200)
+                        .withBody(athleteSampleResponse)));
+
+        stravaClient.getDetailedAthlete(mock(OAuth2User.class)).block();
+
+        assertThat(rateLimitBudget.remaining(RateLimitBudget.Window.FIFTEEN_MINUTES)).isEqualTo(63);
+        assertThat(rateLimitBudget.remaining(RateLimitBudget.Window.DAILY)).isEqualTo(488);
+        assertThat(meterRegistry.get("strava.ratelimit.remaining").tag("window", "fifteen_minutes").gauge().value()).isEqualTo(63);
+    }
+
+    @Test
+    void serverErrorThenResponse_retried() throws IOException {
+        String athleteSampleResponse = athleteResponsFile.getContentAsString(Charset.defaultCharset());
+        WireMock.stubFor(get("/athlete").inScenario("Storing").whenScenarioStateIs(STARTED).willReturn(
+                aResponse().withStatus(503)).willSetStateTo("Hersteld"));
+        WireMock.stubFor(get("/athlete").inScenario("Storing").whenScenarioStateIs("Hersteld").willReturn(
+                aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withStatus(200)
+                        .withBody(athleteSampleResponse)));
+        double retries = meterRegistry.get("strava.client.retries").tag("operation", "athlete").functionCounter().count();
+
+        DetailedAthlete actual = stravaClient.getDetailedAthlete(mock(OAuth2User.class)).block();
+
+        assertThat(actual.getId()).isEqualTo(5646321L);
+        WireMock.verify(2, getRequestedFor(urlEqualTo("/athlete")));
+        assertThat(meterRegistry.get("strava.client.retries").tag("operation", "athlete").functionCounter().count()).isEqualTo(retries + 1);
+    }
+
+    @Test
+    void serverErrorOnNameChange_putNotRetried() throws IOException {
+        String activitySampleResponse = activityResponsFile.getContentAsString(StandardCharsets.UTF_8);
+        WireMock.stubFor(get("/activities/123132").willReturn(
+                aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withStatus(200)
+                        .withBody(activitySampleResponse)));
+        WireMock.stubFor(put("/activities/123132").willReturn(aResponse().withStatus(502)));
+
+        assertThatThrownBy(() -> stravaClient.replaceNameForActivity(mock(OAuth2User.class), 123132L, "new").block())
+                .isInstanceOf(WebClientResponseException.BadGateway.class);
+
+        WireMock.verify(1, putRequestedFor(urlEqualTo("/activities/123132")));
+    }
+
     @Test
     void invalidResponse_exception() {
         WireMock.stubFor(get("/athlete").willReturn(
@@ -134,16 +228,16 @@ class StravaClientWiremockTest {
     @Test
     void getActivities(CapturedOutput output) throws IOException {
         String activitiesSampleResponse = activitiesResponsFile.getContentAsString(StandardCharsets.UTF_8);
-        WireMock.stubFor(get("/athlete/activities?after=1747476183&before=1747476303&per_page=10").willReturn(
+        WireMock.stubFor(get("/athlete/activities?after=1747476183&before=1747476303&page=1&per_page=200").willReturn(
                 aResponse()
                         .withHeader("Content-Type", "application/json")
                         .withStatus(200)
                         .withBody(activitiesSampleResponse)));
 
-        Mono<List<DetailedActivity>> detailedActivities = stravaClient.getDetailedActivities(mock(OAuth2User.class), EARLIER, LATER);
-        List<DetailedActivity> actual = detailedActivities.block();
+        Flux<DetailedActivity> detailedActivities = stravaClient.getDetailedActivities(mock(OAuth2User.class), EARLIER, LATER);
+        List<DetailedActivity> actual = detailedActivities.collectList().block();
 
-        assertThat(output).containsPattern("200 OK response from Strava to GET request http://localhost:[0-9]+/athlete/activities\\?after=1747476183&before=1747476303&per_page=10");
+        assertThat(output).containsPattern("200 OK response from Strava to GET request http://localhost:[0-9]+/athlete/activities\\?after=1747476183&before=1747476303&page=1&per_page=200");
         assertThatList(actual).hasSize(1);
         DetailedActivity detailedActivity = actual.get(0);
         assertThat(detailedActivity.getId()).isEqualTo(1155632529L);
@@ -202,6 +296,193 @@ class StravaClientWiremockTest {
         assertThat(detailedActivity.getPrivate()).isFalse();
     }
 
+    @Test
+    void fullFirstPage_getActivities_nextPageFetched() throws IOException {
+        String activitySampleResponse = activityResponsFile.getContentAsString(StandardCharsets.UTF_8);
+        String fullPage = "[" + String.join(",", Collections.nCopies(StravaClient.PAGE_SIZE, activitySampleResponse)) + "]";
+        WireMock.stubFor(get("/athlete/activities?after=1747476183&before=1747476303&page=1&per_page=200").willReturn(
+                aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withStatus(200)
+                        .withBody(fullPage)));
+        WireMock.stubFor(get("/athlete/activities?after=1747476183&before=1747476303&page=2&per_page=200").willReturn(
+                aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withStatus(200)
+                        .withBody("[" + activitySampleResponse + "]")));
+
+        StepVerifier.create(stravaClient.getDetailedActivities(mock(OAuth2User.class), EARLIER, LATER))
+                .expectNextCount(StravaClient.PAGE_SIZE + 1)
+                .verifyComplete();
+
+        WireMock.verify(1, getRequestedFor(urlEqualTo("/athlete/activities?after=1747476183&before=1747476303&page=2&per_page=200")));
+        WireMock.verify(0, getRequestedFor(urlEqualTo("/athlete/activities?after=1747476183&before=1747476303&page=3&per_page=200")));
+    }
+
+    @Test
+    void slowConsumer_getActivities_atMostOnePageAhead() throws IOException {
+        String activitySampleResponse = activityResponsFile.getContentAsString(StandardCharsets.UTF_8);
+        String fullPage = "[" + String.join(",", Collections.nCopies(StravaClient.PAGE_SIZE, activitySampleResponse)) + "]";
+        for (int page = 1; page <= 3; page++) {
+            WireMock.stubFor(get("/athlete/activities?after=1747476183&before=1747476303&page=" + page + "&per_page=200").willReturn(
+                    aResponse()
+                            .withHeader("Content-Type", "application/json")
+                            .withStatus(200)
+                            .withBody(fullPage)));
+        }
+
+        StepVerifier.create(stravaClient.getDetailedActivities(mock(OAuth2User.class), EARLIER, LATER), 1)
+                .expectNextCount(1)
+                .thenAwait(Duration.ofSeconds(1))
+                .then(() -> {
+                    WireMock.verify(1, getRequestedFor(urlEqualTo("/athlete/activities?after=1747476183&before=1747476303&page=2&per_page=200")));
+                    WireMock.verify(0, getRequestedFor(urlEqualTo("/athlete/activities?after=1747476183&before=1747476303&page=3&per_page=200")));
+                })
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void getActivitySummaries_onlySummaryFieldsDecoded() throws IOException {
+        String activitiesSampleResponse = activitiesResponsFile.getContentAsString(Charset.defaultCharset());
+        WireMock.stubFor(get("/athlete/activities?after=1747476183&before=1747476303&page=1&per_page=200").willReturn(
+                aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withStatus(200)
+                        .withBody(activitiesSampleResponse)));
+
+        StepVerifier.create(stravaClient.getActivitySummaries(mock(OAuth2User.class), EARLIER, LATER))
+                .expectNext(new ActivitySummary(
+                        1155632529L,
+                        "Zomeravondcup",
+                        ZonedDateTime.parse("2024-04-23T17:51:02Z").toOffsetDateTime(),
+                        10028.8f,
+                        2768,
+                        ActivityType.RUN))
+                .verifyComplete();
+    }
+
+    @Test
+    void getActivities_metricsPerUriTemplate() throws IOException {
+        String activitySampleResponse = activityResponsFile.getContentAsString(StandardCharsets.UTF_8);
+        WireMock.stubFor(get("/athlete/activities?after=1747476183&before=1747476303&page=1&per_page=200").willReturn(
+                aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withStatus(200)
+                        .withBody("[" + activitySampleResponse + "]")));
+        // Other tests share the registry, so only the increase is checked
+        long requestsBefore = activitiesRequests().count();
+        double bytesBefore = activitiesSize().totalAmount();
+
+        stravaClient.getDetailedActivities(mock(OAuth2User.class), EARLIER, LATER).blockLast();
+
+        assertThat(activitiesRequests().count()).isEqualTo(requestsBefore + 1);
+        assertThat(activitiesSize().totalAmount()).isEqualTo(bytesBefore + activitySampleResponse.getBytes(StandardCharsets.UTF_8).length + 2);
+        assertThat(meterRegistry.get(MeteredJackson2JsonDecoder.DECODE_METRIC).tag("type", "DetailedActivity[]").timer().count()).isPositive();
+    }
+
+    private Timer activitiesRequests() {
+        return meterRegistry.timer("http.client.requests",
+                "client.name", "localhost",
+                "error", "none",
+                "exception", "none",
+                "method", "GET",
+                "outcome", "SUCCESS",
+                "status", "200",
+                "uri", "/athlete/activities?after={after}&before={before}&page={page}&per_page={perPage}");
+    }
+
+    private DistributionSummary activitiesSize() {
+        return DistributionSummary.builder(MeteredJackson2JsonDecoder.SIZE_METRIC)
+                .baseUnit("bytes")
+                .tag("type", "DetailedActivity[]")
+                .register(meterRegistry);
+    }
+
+    @Test
+    void getActivityStreams_columnsForRequestedKeys() {
+        WireMock.stubFor(get(urlPathEqualTo("/activities/1155632529/streams"))
+                .withQueryParam("keys", equalTo("time,heartrate"))
+                .withQueryParam("key_by_type", equalTo("true"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withStatus(200)
+                        .withBody("""
+                                {"time": {"data": [0, 1, 2], "series_type": "distance", "original_size": 3, "resolution": "high"},
+                                 "heartrate": {"data": [98, 101, 104], "series_type": "distance", "original_size": 3, "resolution": "high"}}""")));
+
+        ActivityStreams actual = stravaClient.getActivityStreams(
+                mock(OAuth2User.class), 1155632529L, EnumSet.of(StreamType.TIME, StreamType.HEARTRATE), StreamResolution.LOW).block();
+
+        assertThat(actual.time()).containsExactly(0, 1, 2);
+        assertThat(actual.heartrate()).containsExactly(98, 101, 104);
+        assertThat(actual.latitude()).isNull();
+    }
+
+    @Test
+    void exploreSegments_boundsAndActivityTypeSent() {
+        WireMock.stubFor(get(urlPathEqualTo("/segments/explore"))
+                .withQueryParam("bounds", equalTo("37.8,-122.5,37.85,-122.45"))
+                .withQueryParam("activity_type", equalTo("riding"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withStatus(200)
+                        .withBody("""
+                                {"segments": [{"id": 229781, "resource_state": 2, "name": "Hawk Hill", "climb_category": 1,
+                                  "climb_category_desc": "4", "avg_grade": 5.7, "start_latlng": [37.8331119, -122.4834356],
+                                  "end_latlng": [37.8280722, -122.4981393], "elev_difference": 152.8, "distance": 2684.8,
+                                  "points": "}g|eFnpqjVl@En@Md@HbAd@d@^h@Xx@VbARjBDh@", "starred": false}]}""")));
+
+        List<SegmentSummary> actual = stravaClient.exploreSegments(
+                mock(OAuth2User.class), new BoundingBox(37.8, -122.5, 37.85, -122.45), SegmentActivityType.RIDING).block();
+
+        assertThat(actual).singleElement().satisfies(segment -> {
+            assertThat(segment.id()).isEqualTo(229781L);
+            assertThat(segment.climbCategory()).isEqualTo(1);
+            assertThat(segment.startLatlng()).isEqualTo(new LatLng(37.8331119, -122.4834356));
+            assertThat(segment.points()).startsWith("}g|eF");
+        });
+    }
+
+    @Test
+    void getSegment_correctlyMapped() {
+        WireMock.stubFor(get("/segments/229781").willReturn(aResponse()
+                .withHeader("Content-Type", "application/json")
+                .withStatus(200)
+                .withBody("""
+                        {"id": 229781, "resource_state": 3, "name": "Hawk Hill", "activity_type": "Ride", "distance": 2684.82,
+                         "average_grade": 5.7, "maximum_grade": 14.2, "start_latlng": [37.8331119, -122.4834356],
+                         "climb_category": 1, "city": "San Francisco", "private": false, "created_at": "2009-09-21T20:29:41Z",
+                         "map": {"id": "s229781", "polyline": "}g|eFnpqjVl@En@Md@HbAd@d@^h@Xx@VbARjBDh@", "resource_state": 3},
+                         "effort_count": 309974, "athlete_segment_stats": {"pr_elapsed_time": 553, "effort_count": 2}}""")));
+
+        Segment actual = stravaClient.getSegment(mock(OAuth2User.class), 229781L).block();
+
+        assertThat(actual.name()).isEqualTo("Hawk Hill");
+        assertThat(actual.activityType()).isEqualTo(ActivityType.RIDE);
+        assertThat(actual.isPrivate()).isFalse();
+        assertThat(actual.startLatlng()).isEqualTo(new LatLng(37.8331119, -122.4834356));
+        assertThat(actual.map().getPolyline()).startsWith("}g|eF");
+        assertThat(actual.effortCount()).isEqualTo(309974);
+    }
+
+    @Test
+    void getAthleteZones_boundariesFromZones() {
+        WireMock.stubFor(get("/athlete/zones").willReturn(aResponse()
+                .withHeader("Content-Type", "application/json")
+                .withStatus(200)
+                .withBody("""
+                        {"heart_rate": {"custom_zones": false, "zones": [{"min": 0, "max": 123}, {"min": 123, "max": 153},
+                         {"min": 153, "max": 169}, {"min": 169, "max": 184}, {"min": 184, "max": -1}]},
+                         "power": {"zones": [{"min": 0, "max": 180}, {"min": 181, "max": 246}, {"min": 247, "max": -1}]}}""")));
+
+        AthleteZones actual = stravaClient.getAthleteZones(mock(OAuth2User.class)).block();
+
+        assertThat(actual.heartRate().customZones()).isFalse();
+        assertThat(actual.heartRate().boundaries()).containsExactly(123, 153, 169, 184);
+        assertThat(actual.power().boundaries()).containsExactly(181, 247);
+    }
+
     @Test
     void validNameChangeRequest_nameChanged(CapturedOutput output) throws IOException {
         String activitySampleResponse = activityResponsFile.getContentAsString(StandardCharsets.UTF_8);
@@ -216,9 +497,18 @@ class StravaClientWiremockTest {
                         .withStatus(200)
                         .withBody(activitySampleResponse)));
 
-        stravaClient.replaceNameForActivity(mock(OAuth2User.class), 123132L, "new");
+        DetailedActivity actual = stravaClient.replaceNameForActivity(mock(OAuth2User.class), 123132L, "new").block();
 
         assertThat(output).contains("Replacing name \"Zomeravondcup\" with \"new\" for activity 1155632529");
+        assertThat(actual.getId()).isEqualTo(1155632529L);
+        WireMock.verify(putRequestedFor(urlEqualTo("/activities/123132")).withRequestBody(matchingJsonPath("$.name", equalTo("new"))));
+    }
+
+    @Test
+    void nameChangeRequestNotSubscribed_nothingSent() {
+        stravaClient.replaceNameForActivity(mock(OAuth2User.class), 123132L, "new");
+
+        WireMock.verify(0, anyRequestedFor(anyUrl()));
     }
 
     @Test
@@ -227,7 +517,7 @@ class StravaClientWiremockTest {
                 aResponse()
                         .withHeader("Content-Type", "application/json")
                         .withStatus(404)));
-        assertThatThrownBy(() -> stravaClient.replaceNameForActivity(mock(OAuth2User.class), 123132L, "new"))
+        assertThatThrownBy(() -> stravaClient.replaceNameForActivity(mock(OAuth2User.class), 123132L, "new").block())
                 .isInstanceOf(WebClientResponseException.NotFound.class)
                 .hasMessageMatching("404 Not Found from GET http://localhost:[0-9]+/activities/123132");
 
@@ -0,0 +1,251 @@
+package nl.thomas.stravaclient.client;
+
+import nl.thomas.stravaclient.MutableClock;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StravaResilienceTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration BACKOFF = Duration.ofMillis(200);
+    private static final Duration OPEN_DURATION = Duration.ofSeconds(30);
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2025-05-17T12:01:00Z"));
+    private final VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+    private final RateLimitBudget budget = new RateLimitBudget(clock, "100,1000", 0.2);
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private StravaResilience resilience(StravaResilienceProperties.Policy policy) {
+        return new StravaResilience(
+                new StravaResilienceProperties(policy, Map.of(), 0.5, new StravaResilienceProperties.CircuitBreaker(true, 10, 4, 0.5, OPEN_DURATION)),
+                budget,
+                scheduler);
+    }
+
+    private static StravaResilienceProperties.Policy retries(int maxRetries) {
+        return new StravaResilienceProperties.Policy(TIMEOUT, maxRetries, BACKOFF, Duration.ofSeconds(2), 0.0, false, null);
+    }
+
+    private static StravaResilienceProperties.Policy hedged(Duration hedgeDelay) {
+        return new StravaResilienceProperties.Policy(TIMEOUT, 0, BACKOFF, Duration.ofSeconds(2), 0.0, true, hedgeDelay);
+    }
+
+    /**
+     * Answers every subscription with the next response, and with the last one when they run out.
+     */
+    @SafeVarargs
+    private Supplier<Mono<String>> strava(Mono<String>... responses) {
+        Deque<Mono<String>> remaining = new ArrayDeque<>(List.of(responses));
+        return () -> Mono.defer(() -> {
+            requests.incrementAndGet();
+            return remaining.size() > 1 ? remaining.poll() : remaining.peek();
+        });
+    }
+
+    @Test
+    void serverErrors_retriedWithBackoff() {
+        StravaResilience resilience = resilience(retries(2));
+
+        StepVerifier.create(resilience.apply(StravaOperation.ATHLETE, strava(
+                        Mono.error(error(HttpStatus.BAD_GATEWAY)),
+                        Mono.error(error(HttpStatus.SERVICE_UNAVAILABLE)),
+                        Mono.just("Sifan"))))
+                .expectSubscription()
+                .then(() -> scheduler.advanceTimeBy(BACKOFF.minusMillis(1)))
+                .then(() -> assertThat(requests).hasValue(1))
+                .then(() -> scheduler.advanceTimeBy(Duration.ofSeconds(1)))
+                .expectNext("Sifan")
+                .verifyComplete();
+        assertThat(requests).hasValue(3);
+        assertThat(resilience.getRetryCount(StravaOperation.ATHLETE)).isEqualTo(2);
+    }
+
+    @Test
+    void clientErrors_notRetried() {
+        StravaResilience resilience = resilience(retries(2));
+
+        StepVerifier.create(resilience.apply(StravaOperation.ACTIVITY, strava(Mono.error(error(HttpStatus.NOT_FOUND)))))
+                .verifyError(WebClientResponseException.NotFound.class);
+        StepVerifier.create(resilience.apply(StravaOperation.ACTIVITY, strava(Mono.error(error(HttpStatus.TOO_MANY_REQUESTS)))))
+                .verifyError(WebClientResponseException.TooManyRequests.class);
+
+        assertThat(requests).hasValue(2);
+        assertThat(resilience.getRetryCount(StravaOperation.ACTIVITY)).isZero();
+    }
+
+    @Test
+    void noResponse_gatewayTimeoutAfterRetries() {
+        StravaResilience resilience = resilience(retries(1));
+
+        StepVerifier.create(resilience.apply(StravaOperation.ACTIVITY, strava(Mono.never())))
+                .expectSubscription()
+                .then(() -> scheduler.advanceTimeBy(TIMEOUT.multipliedBy(2).plus(BACKOFF)))
+                .verifyError(WebClientResponseException.GatewayTimeout.class);
+        assertThat(requests).hasValue(2);
+    }
+
+    @Test
+    void halfOfBudgetUsed_notRetried() {
+        for (int i = 0; i < 50; i++) {
+            budget.tryAcquire(RequestPriority.INTERACTIVE);
+        }
+        StravaResilience resilience = resilience(retries(2));
+
+        StepVerifier.create(resilience.apply(StravaOperation.ATHLETE, strava(Mono.error(error(HttpStatus.SERVICE_UNAVAILABLE)))))
+                .verifyError(WebClientResponseException.ServiceUnavailable.class);
+        assertThat(requests).hasValue(1);
+    }
+
+    @Test
+    void slowResponse_hedgedAfterDelay() {
+        StravaResilience resilience = resilience(hedged(Duration.ofMillis(500)));
+
+        StepVerifier.create(resilience.apply(StravaOperation.ACTIVITY, strava(
+                        Mono.never(),
+                        Mono.just("Ochtendloop").delayElement(Duration.ofMillis(100), scheduler))))
+                .expectSubscription()
+                .then(() -> scheduler.advanceTimeBy(Duration.ofMillis(499)))
+                .then(() -> assertThat(requests).hasValue(1))
+                .then(() -> scheduler.advanceTimeBy(Duration.ofMillis(101)))
+                .expectNext("Ochtendloop")
+                .verifyComplete();
+        assertThat(requests).hasValue(2);
+        assertThat(resilience.getHedgeCount(StravaOperation.ACTIVITY)).isEqualTo(1);
+        assertThat(resilience.getHedgeWinCount(StravaOperation.ACTIVITY)).isEqualTo(1);
+    }
+
+    @Test
+    void firstRequestFailsWhileHedgeInFlight_hedgeAnswers() {
+        StravaResilience resilience = resilience(hedged(Duration.ofMillis(500)));
+
+        StepVerifier.create(resilience.apply(StravaOperation.ACTIVITY, strava(
+                        Mono.<String>error(error(HttpStatus.BAD_GATEWAY)).delaySubscription(Duration.ofMillis(600), scheduler),
+                        Mono.just("Ochtendloop").delayElement(Duration.ofMillis(200), scheduler))))
+                .expectSubscription()
+                .then(() -> scheduler.advanceTimeBy(Duration.ofMillis(700)))
+                .expectNext("Ochtendloop")
+                .verifyComplete();
+        assertThat(resilience.getHedgeWinCount(StravaOperation.ACTIVITY)).isEqualTo(1);
+    }
+
+    @Test
+    void firstRequestFailsBeforeHedge_itsErrorWithoutHedge() {
+        StravaResilience resilience = resilience(hedged(Duration.ofMillis(500)));
+
+        StepVerifier.create(resilience.apply(StravaOperation.ACTIVITY, strava(
+                        Mono.<String>error(error(HttpStatus.NOT_FOUND)).delaySubscription(Duration.ofMillis(100), scheduler),
+                        Mono.just("Ochtendloop"))))
+                .expectSubscription()
+                .then(() -> scheduler.advanceTimeBy(Duration.ofSeconds(1)))
+                .verifyError(WebClientResponseException.NotFound.class);
+        assertThat(requests).hasValue(1);
+        assertThat(resilience.getHedgeCount(StravaOperation.ACTIVITY)).isZero();
+    }
+
+    @Test
+    void bothFail_errorOfFirstRequest() {
+        StravaResilience resilience = resilience(hedged(Duration.ofMillis(500)));
+
+        StepVerifier.create(resilience.apply(StravaOperation.ACTIVITY, strava(
+                        Mono.<String>error(error(HttpStatus.BAD_GATEWAY)).delaySubscription(Duration.ofMillis(600), scheduler),
+                        Mono.<String>error(error(HttpStatus.SERVICE_UNAVAILABLE)).delaySubscription(Duration.ofMillis(200), scheduler))))
+                .expectSubscription()
+                .then(() -> scheduler.advanceTimeBy(Duration.ofSeconds(1)))
+                .verifyError(WebClientResponseException.BadGateway.class);
+        assertThat(requests).hasValue(2);
+    }
+
+    @Test
+    void enoughResponsesSeen_hedgedAfterPercentile() {
+        StravaResilience resilience = resilience(hedged(Duration.ofSeconds(2)));
+        for (int i = 0; i < 20; i++) {
+            StepVerifier.create(resilience.apply(StravaOperation.ACTIVITY, () -> Mono.just("Ochtendloop").delayElement(Duration.ofMillis(300), scheduler)))
+                    .then(() -> scheduler.advanceTimeBy(Duration.ofMillis(300)))
+                    .expectNextCount(1)
+                    .verifyComplete();
+        }
+
+        StepVerifier.create(resilience.apply(StravaOperation.ACTIVITY, strava(Mono.never(), Mono.just("Avondloop"))))
+                .expectSubscription()
+                .then(() -> scheduler.advanceTimeBy(Duration.ofMillis(299)))
+                .then(() -> assertThat(requests).hasValue(1))
+                .then(() -> scheduler.advanceTimeBy(Duration.ofMillis(1)))
+                .expectNext("Avondloop")
+                .verifyComplete();
+        assertThat(resilience.getHedgeCount(StravaOperation.ACTIVITY)).isEqualTo(1);
+    }
+
+    @Test
+    void failuresInARow_circuitOpenedUntilTrialSucceeds() {
+        StravaResilience resilience = resilience(retries(0));
+        for (int i = 0; i < 4; i++) {
+            StepVerifier.create(resilience.apply(StravaOperation.SEGMENT, strava(Mono.error(error(HttpStatus.INTERNAL_SERVER_ERROR)))))
+                    .verifyError(WebClientResponseException.InternalServerError.class);
+        }
+
+        StepVerifier.create(resilience.apply(StravaOperation.SEGMENT, strava(Mono.just("Col du Galibier"))))
+                .verifyErrorSatisfies(e -> assertThat(e)
+                        .isInstanceOf(WebClientResponseException.ServiceUnavailable.class)
+                        .extracting(exception -> ((WebClientResponseException) exception).getHeaders().getFirst(HttpHeaders.RETRY_AFTER))
+                        .isEqualTo("30"));
+        StepVerifier.create(resilience.apply(StravaOperation.ATHLETE, strava(Mono.just("Sifan"))))
+                .expectNext("Sifan")
+                .verifyComplete();
+        assertThat(requests).hasValue(5);
+        assertThat(resilience.getCircuitState(StravaOperation.SEGMENT)).isEqualTo(Circuit.State.OPEN);
+        assertThat(resilience.getRejectedCount(StravaOperation.SEGMENT)).isEqualTo(1);
+
+        scheduler.advanceTimeBy(OPEN_DURATION);
+        StepVerifier.create(resilience.apply(StravaOperation.SEGMENT, strava(Mono.just("Col du Galibier"))))
+                .expectNext("Col du Galibier")
+                .verifyComplete();
+        assertThat(resilience.getCircuitState(StravaOperation.SEGMENT)).isEqualTo(Circuit.State.CLOSED);
+    }
+
+    @Test
+    void change_timedOutWithoutRetry() {
+        StravaResilience resilience = resilience(retries(2));
+
+        StepVerifier.create(resilience.applyOnce(StravaOperation.ACTIVITY_UPDATE, strava(Mono.never())))
+                .expectSubscription()
+                .then(() -> scheduler.advanceTimeBy(TIMEOUT.multipliedBy(3).plus(BACKOFF.multipliedBy(3))))
+                .verifyError(WebClientResponseException.GatewayTimeout.class);
+        assertThat(requests).hasValue(1);
+        assertThat(resilience.getRetryCount(StravaOperation.ACTIVITY_UPDATE)).isZero();
+    }
+
+    @Test
+    void changeFailuresInARow_circuitOpened() {
+        StravaResilience resilience = resilience(hedged(Duration.ofMillis(100)));
+        for (int i = 0; i < 4; i++) {
+            StepVerifier.create(resilience.applyOnce(StravaOperation.ACTIVITY_UPDATE, strava(Mono.error(error(HttpStatus.BAD_GATEWAY)))))
+                    .verifyError(WebClientResponseException.BadGateway.class);
+        }
+
+        StepVerifier.create(resilience.applyOnce(StravaOperation.ACTIVITY_UPDATE, strava(Mono.just("Ochtendloop"))))
+                .verifyError(WebClientResponseException.ServiceUnavailable.class);
+        assertThat(requests).hasValue(4);
+        assertThat(resilience.getHedgeCount(StravaOperation.ACTIVITY_UPDATE)).isZero();
+    }
+
+    private static WebClientResponseException error(HttpStatus status) {
+        return WebClientResponseException.create(status.value(), status.getReasonPhrase(), new HttpHeaders(), "Foutje".getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+    }
+}
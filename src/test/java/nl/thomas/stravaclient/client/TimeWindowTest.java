@@ -0,0 +1,37 @@
+package nl.thomas.stravaclient.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TimeWindowTest {
+
+    private static final ZoneId AMSTERDAM = ZoneId.of("Europe/Amsterdam");
+
+    @Test
+    void localMoments_inTimeZoneOfAthlete() {
+        TimeWindow window = TimeWindow.of(LocalDateTime.of(2025, 5, 1, 0, 0), LocalDateTime.of(2025, 6, 1, 0, 0), AMSTERDAM);
+
+        assertThat(window.after()).isEqualTo(ZonedDateTime.parse("2025-05-01T00:00+02:00[Europe/Amsterdam]"));
+        assertThat(window.before()).isEqualTo(ZonedDateTime.parse("2025-06-01T00:00+02:00[Europe/Amsterdam]"));
+    }
+
+    @Test
+    void emptyWindow_allowed() {
+        LocalDateTime moment = LocalDateTime.of(2025, 5, 1, 0, 0);
+
+        assertThat(TimeWindow.of(moment, moment, AMSTERDAM).after()).isEqualTo(ZonedDateTime.of(moment, AMSTERDAM));
+    }
+
+    @Test
+    void beforeIsAfter_exception() {
+        assertThatThrownBy(() -> TimeWindow.of(LocalDateTime.of(2025, 6, 1, 0, 0), LocalDateTime.of(2025, 5, 1, 0, 0), AMSTERDAM))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Incorrect parameters: after 2025-06-01T00:00+02:00[Europe/Amsterdam] should be earlier than before 2025-05-01T00:00+02:00[Europe/Amsterdam].");
+    }
+}
@@ -0,0 +1,141 @@
+package nl.thomas.stravaclient.client;
+
+import nl.thomas.stravaclient.MutableClock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.oauth2.client.ClientAuthorizationRequiredException;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientManager;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class TokenServiceTest {
+
+    private static final ClientRegistration STRAVA = ClientRegistration.withRegistrationId("strava")
+            .clientId("client")
+            .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+            .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")
+            .authorizationUri("https://www.strava.com/oauth/authorize")
+            .tokenUri("https://www.strava.com/oauth/token")
+            .build();
+
+    @Mock
+    OAuth2AuthorizedClientService oAuth2AuthorizedClientService;
+    @Mock
+    OAuth2AuthorizedClientManager oAuth2AuthorizedClientManager;
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2025-05-17T12:00:00Z"));
+    private final List<Runnable> refreshTasks = new ArrayList<>();
+    private final OAuth2User oAuth2User = mock(OAuth2User.class);
+    private TokenService tokenService;
+
+    @BeforeEach
+    void setUp() {
+        when(oAuth2User.getName()).thenReturn("2523456");
+        tokenService = new TokenService(oAuth2AuthorizedClientService, oAuth2AuthorizedClientManager, Duration.ofMinutes(5), clock, refreshTasks::add);
+    }
+
+    @Test
+    void validToken_loadedFromStoreOnce() {
+        when(oAuth2AuthorizedClientService.loadAuthorizedClient("strava", "2523456")).thenReturn(authorizedClient("token", Duration.ofHours(6)));
+
+        assertThat(tokenService.getTokenAsync(oAuth2User).block()).isEqualTo("token");
+        assertThat(tokenService.getTokenAsync(oAuth2User).block()).isEqualTo("token");
+
+        verify(oAuth2AuthorizedClientService, times(1)).loadAuthorizedClient("strava", "2523456");
+        assertThat(refreshTasks).isEmpty();
+    }
+
+    @Test
+    void tokenAboutToExpire_refreshedOnceInBackground() {
+        when(oAuth2AuthorizedClientService.loadAuthorizedClient("strava", "2523456")).thenReturn(authorizedClient("token", Duration.ofHours(6)));
+        when(oAuth2AuthorizedClientManager.authorize(any())).thenReturn(authorizedClient("refreshed", Duration.ofHours(12)));
+        tokenService.getTokenAsync(oAuth2User).block();
+        clock.advance(Duration.ofHours(6).minusMinutes(2));
+
+        assertThat(tokenService.getTokenAsync(oAuth2User).block()).isEqualTo("token");
+        assertThat(tokenService.getTokenAsync(oAuth2User).block()).isEqualTo("token");
+        assertThat(refreshTasks).hasSize(1);
+
+        refreshTasks.getFirst().run();
+        assertThat(tokenService.getTokenAsync(oAuth2User).block()).isEqualTo("refreshed");
+        verify(oAuth2AuthorizedClientManager, times(1)).authorize(any());
+    }
+
+    @Test
+    void expiredToken_refreshedBeforeUse() {
+        tokenService = new TokenService(oAuth2AuthorizedClientService, oAuth2AuthorizedClientManager, Duration.ofMinutes(5), clock, Runnable::run);
+        when(oAuth2AuthorizedClientService.loadAuthorizedClient("strava", "2523456")).thenReturn(authorizedClient("token", Duration.ofMinutes(-1)));
+        when(oAuth2AuthorizedClientManager.authorize(any())).thenReturn(authorizedClient("refreshed", Duration.ofHours(6)));
+
+        assertThat(tokenService.getTokenAsync(oAuth2User).block()).isEqualTo("refreshed");
+    }
+
+    @Test
+    void tokenRefreshedByOtherNode_storedTokenUsed() {
+        tokenService = new TokenService(oAuth2AuthorizedClientService, oAuth2AuthorizedClientManager, Duration.ofMinutes(5), clock, Runnable::run);
+        when(oAuth2AuthorizedClientService.loadAuthorizedClient("strava", "2523456"))
+                .thenReturn(authorizedClient("token", Duration.ofMinutes(-1)))
+                .thenReturn(authorizedClient("refreshed elsewhere", Duration.ofHours(6)));
+
+        assertThat(tokenService.getTokenAsync(oAuth2User).block()).isEqualTo("refreshed elsewhere");
+        verify(oAuth2AuthorizedClientManager, never()).authorize(any());
+    }
+
+    @Test
+    void expiredTokenAndRefreshFails_exception() {
+        tokenService = new TokenService(oAuth2AuthorizedClientService, oAuth2AuthorizedClientManager, Duration.ofMinutes(5), clock, Runnable::run);
+        when(oAuth2AuthorizedClientService.loadAuthorizedClient("strava", "2523456")).thenReturn(authorizedClient("token", Duration.ofMinutes(-1)));
+        when(oAuth2AuthorizedClientManager.authorize(any())).thenThrow(new IllegalStateException("Foutje"));
+
+        assertThatThrownBy(() -> tokenService.getTokenAsync(oAuth2User).block())
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("Foutje");
+    }
+
+    @Test
+    void notLoggedIn_authorizationRequired() {
+        assertThatThrownBy(() -> tokenService.getTokenAsync(oAuth2User).block())
+                .isInstanceOf(ClientAuthorizationRequiredException.class);
+        verify(oAuth2AuthorizedClientManager, never()).authorize(any());
+    }
+
+    @Test
+    void logout_tokenNoLongerCached() {
+        when(oAuth2AuthorizedClientService.loadAuthorizedClient("strava", "2523456")).thenReturn(authorizedClient("token", Duration.ofHours(6)));
+        tokenService.getTokenAsync(oAuth2User).block();
+
+        tokenService.logout(oAuth2User);
+        tokenService.getTokenAsync(oAuth2User).block();
+
+        verify(oAuth2AuthorizedClientService).removeAuthorizedClient("strava", "2523456");
+        verify(oAuth2AuthorizedClientService, times(2)).loadAuthorizedClient("strava", "2523456");
+    }
+
+    private OAuth2AuthorizedClient authorizedClient(String token, Duration validFor) {
+        Instant now = clock.instant();
+        OAuth2AccessToken accessToken = new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, token, now.minus(Duration.ofHours(1)), now.plus(validFor));
+        return new OAuth2AuthorizedClient(STRAVA, "2523456", accessToken);
+    }
+}
@@ -0,0 +1,140 @@
+package nl.thomas.stravaclient.client;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.handler.timeout.ReadTimeoutException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.wiremock.spring.EnableWireMock;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.internal.shaded.reactor.pool.PoolAcquirePendingLimitException;
+import reactor.test.StepVerifier;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.zip.GZIPOutputStream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Load against a local stub with a fixed latency. Per Little's law the pool handles at most
+ * {@code max-connections / latency} requests per second; everything above that waits for a connection.
+ */
+@EnableWireMock
+@SpringBootTest
+@TestPropertySource(properties = {
+        "strava.base-url=http://localhost:${wiremock.server.port}",
+        "strava.http.max-connections=5",
+        "strava.http.pending-acquire-max-count=10",
+        "strava.http.response-timeout=1s"})
+class WebClientConfigurationTest {
+
+    private static final int LATENCY_MILLIS = 200;
+
+    @Autowired
+    private WebClient webClient;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @MockitoBean
+    private TokenService tokenService;
+
+    @Test
+    void moreRequestsThanConnections_waitForFreeConnection() {
+        stubAthlete(LATENCY_MILLIS);
+        long start = System.nanoTime();
+
+        StepVerifier.create(requests(15))
+                .expectNextCount(15)
+                .verifyComplete();
+
+        // 15 requests over 5 connections take at least 3 round trips
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(3 * LATENCY_MILLIS));
+    }
+
+    @Test
+    void moreRequestsThanPendingLimit_excessRejected() {
+        stubAthlete(LATENCY_MILLIS);
+
+        StepVerifier.create(Flux.range(0, 20)
+                        .flatMap(i -> request(i).onErrorResume(e -> {
+                            assertThat(e).isInstanceOf(WebClientRequestException.class).hasCauseInstanceOf(PoolAcquirePendingLimitException.class);
+                            return Mono.just("rejected");
+                        }), 20)
+                        .filter("rejected"::equals))
+                .expectNextCount(5)
+                .verifyComplete();
+    }
+
+    @Test
+    void slowResponse_timeout() {
+        stubAthlete(1500);
+
+        StepVerifier.create(webClient.get().uri("/athlete").retrieve().bodyToMono(String.class))
+                .expectErrorSatisfies(e -> assertThat(e).hasRootCauseInstanceOf(ReadTimeoutException.class))
+                .verify();
+    }
+
+    @Test
+    void connectionPool_metricsPublished() {
+        stubAthlete(0);
+
+        webClient.get().uri("/athlete").retrieve().toBodilessEntity().block();
+
+        Gauge maxConnections = meterRegistry.find("reactor.netty.connection.provider.max.connections")
+                .tag("name", WebClientConfiguration.CONNECTION_PROVIDER_NAME)
+                .gauge();
+        assertThat(maxConnections).isNotNull();
+        assertThat(maxConnections.value()).isEqualTo(5);
+        assertThat(meterRegistry.find("reactor.netty.connection.provider.pending.connections").gauge()).isNotNull();
+        assertThat(meterRegistry.find("reactor.netty.connection.provider.idle.connections").gauge()).isNotNull();
+        assertThat(meterRegistry.find("reactor.netty.connection.provider.active.connections").gauge()).isNotNull();
+    }
+
+    @Test
+    void gzipResponse_acceptedAndDecompressed() throws IOException {
+        String athlete = "{\"id\":2523456,\"firstname\":\"Thomas\"}";
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+            gzip.write(athlete.getBytes(StandardCharsets.UTF_8));
+        }
+        WireMock.stubFor(get(urlPathEqualTo("/athlete")).willReturn(
+                aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withHeader("Content-Encoding", "gzip")
+                        .withStatus(200)
+                        .withBody(gzipped.toByteArray())));
+
+        StepVerifier.create(webClient.get().uri("/athlete").retrieve().bodyToMono(String.class))
+                .expectNext(athlete)
+                .verifyComplete();
+
+        WireMock.verify(getRequestedFor(urlPathEqualTo("/athlete")).withHeader("Accept-Encoding", containing("gzip")));
+    }
+
+    private Flux<String> requests(int count) {
+        return Flux.range(0, count).flatMap(this::request, count);
+    }
+
+    private Mono<String> request(int i) {
+        return webClient.get().uri("/athlete?request={i}", i).retrieve().bodyToMono(String.class);
+    }
+
+    private void stubAthlete(int latencyMillis) {
+        WireMock.stubFor(get(urlPathEqualTo("/athlete")).willReturn(
+                aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withStatus(200)
+                        .withFixedDelay(latencyMillis)
+                        .withBody("{}")));
+    }
+}
@@ -0,0 +1,80 @@
+package nl.thomas.stravaclient.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.embedded.netty.NettyWebServer;
+import org.springframework.boot.web.reactive.context.ReactiveWebServerApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.test.StepVerifier;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("reactive")
+class ReactiveSecurityConfigTest {
+
+    @Autowired
+    ReactiveWebServerApplicationContext applicationContext;
+    @Autowired
+    WebTestClient webTestClient;
+    @Autowired
+    ClientRegistrationRepository clientRegistrationRepository;
+    @Autowired
+    OAuth2AuthorizedClientService oAuth2AuthorizedClientService;
+    @Autowired
+    ReactiveOAuth2AuthorizedClientService reactiveOAuth2AuthorizedClientService;
+
+    @Test
+    void reactiveProfile_runsOnNetty() {
+        assertThat(applicationContext.getWebServer()).isInstanceOf(NettyWebServer.class);
+    }
+
+    @Test
+    void notLoggedIn_redirectedToStrava() {
+        webTestClient.get().uri("/athlete")
+                .accept(MediaType.TEXT_HTML)
+                .exchange()
+                .expectStatus().is3xxRedirection()
+                .expectHeader().valueEquals("Location", "/oauth2/authorization/strava");
+    }
+
+    @Test
+    void notLoggedIn_healthAvailable() {
+        webTestClient.get().uri("/actuator/health")
+                .exchange()
+                .expectStatus().isOk();
+    }
+
+    @Test
+    void notLoggedIn_putWithoutCsrfToken_notForbidden() {
+        webTestClient.put().uri("/activity/name")
+                .bodyValue("{}")
+                .exchange()
+                .expectStatus().is3xxRedirection();
+    }
+
+    @Test
+    void reactiveLogin_authorizedClientAvailableToTokenService() {
+        OAuth2AuthorizedClient authorizedClient = new OAuth2AuthorizedClient(
+                clientRegistrationRepository.findByRegistrationId("strava"),
+                "2523456",
+                new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, "token", Instant.now(), Instant.now().plusSeconds(60)));
+
+        StepVerifier.create(reactiveOAuth2AuthorizedClientService.saveAuthorizedClient(authorizedClient, new TestingAuthenticationToken("2523456", null)))
+                .verifyComplete();
+
+        OAuth2AuthorizedClient loaded = oAuth2AuthorizedClientService.loadAuthorizedClient("strava", "2523456");
+        assertThat(loaded.getAccessToken().getTokenValue()).isEqualTo("token");
+    }
+}
@@ -0,0 +1,23 @@
+package nl.thomas.stravaclient.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.session.SessionRepository;
+import org.springframework.session.web.http.SessionRepositoryFilter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {"strava.session.store=server", "strava.auth.store=memory"})
+class SessionConfigTest {
+
+    @Autowired
+    ApplicationContext applicationContext;
+
+    @Test
+    void serverStore_noSpringSession() {
+        assertThat(applicationContext.getBeansOfType(SessionRepository.class)).isEmpty();
+        assertThat(applicationContext.getBeansOfType(SessionRepositoryFilter.class)).isEmpty();
+    }
+}
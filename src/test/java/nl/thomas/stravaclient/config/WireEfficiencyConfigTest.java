@@ -0,0 +1,48 @@
+package nl.thomas.stravaclient.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@AutoConfigureObservability(tracing = false)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {"strava.session.store=server", "strava.auth.store=memory"})
+class WireEfficiencyConfigTest {
+
+    @LocalServerPort
+    int port;
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Test
+    void defaultMode_blackbirdRegistered() {
+        assertThat(objectMapper.getRegisteredModuleIds()).contains(new BlackbirdModule().getTypeId());
+    }
+
+    @Test
+    void largeResponse_gzipOnlyWhenAccepted() throws IOException, InterruptedException {
+        try (HttpClient httpClient = HttpClient.newHttpClient()) {
+            HttpResponse<byte[]> compressed = httpClient.send(prometheus().header("Accept-Encoding", "gzip").build(), HttpResponse.BodyHandlers.ofByteArray());
+            HttpResponse<byte[]> plain = httpClient.send(prometheus().build(), HttpResponse.BodyHandlers.ofByteArray());
+
+            assertThat(compressed.headers().firstValue("Content-Encoding")).hasValue("gzip");
+            assertThat(plain.headers().firstValue("Content-Encoding")).isEmpty();
+            assertThat(compressed.body().length).isLessThan(plain.body().length);
+        }
+    }
+
+    private HttpRequest.Builder prometheus() {
+        return HttpRequest.newBuilder(URI.create("http://localhost:%d/actuator/prometheus".formatted(port)));
+    }
+}
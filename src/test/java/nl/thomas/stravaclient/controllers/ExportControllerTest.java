@@ -0,0 +1,79 @@
+package nl.thomas.stravaclient.controllers;
+
+import nl.thomas.strava.model.DetailedActivity;
+import nl.thomas.stravaclient.config.SecurityConfig;
+import nl.thomas.stravaclient.export.ActivityExporter;
+import nl.thomas.stravaclient.store.ActivitySyncService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.oidcLogin;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(ExportController.class)
+@Import({SecurityConfig.class, ActivityExporter.class})
+class ExportControllerTest {
+
+    @Autowired
+    MockMvc mockMvc;
+    @MockitoBean
+    ActivitySyncService activitySyncService;
+
+    @Test
+    void exportCsv_gzippedAttachment() throws Exception {
+        when(activitySyncService.getDetailedActivities(any(), any(), any()))
+                .thenReturn(Flux.just(new DetailedActivity().id(1L).name("Ochtendloop"), new DetailedActivity().id(2L)));
+
+        MvcResult started = mockMvc.perform(get("/athlete/activities/export?format=csv").with(oidcLogin()))
+                .andReturn();
+        MvcResult result = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", "application/gzip"))
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"activities-user.csv.gz\""))
+                .andReturn();
+
+        assertThat(gunzip(result.getResponse().getContentAsByteArray()).lines())
+                .containsExactly("id,name,start_date,distance,moving_time,type", "1,Ochtendloop,,,,", "2,,,,,");
+    }
+
+    @Test
+    void unknownFormat_badRequest() throws Exception {
+        mockMvc.perform(get("/athlete/activities/export?format=xlsx").with(oidcLogin()))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(activitySyncService);
+    }
+
+    @Test
+    void notLoggedIn_noExport() throws Exception {
+        mockMvc.perform(get("/athlete/activities/export"))
+                .andExpect(status().is3xxRedirection());
+
+        verifyNoInteractions(activitySyncService);
+    }
+
+    private static String gunzip(byte[] compressed) throws IOException {
+        try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package nl.thomas.stravaclient.controllers;
+
+import nl.thomas.stravaclient.config.SecurityConfig;
+import nl.thomas.stravaclient.geo.ActivityGeoJson;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import reactor.core.publisher.Mono;
+
+import java.time.ZonedDateTime;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.oidcLogin;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(MapController.class)
+@Import(SecurityConfig.class)
+class MapControllerTest {
+
+    @Autowired
+    MockMvc mockMvc;
+    @MockitoBean
+    ActivityGeoJson activityGeoJson;
+
+    @Test
+    void geoJson_windowAndZoomPassed() throws Exception {
+        when(activityGeoJson.getFeatureCollection(
+                any(),
+                eq(ZonedDateTime.parse("2025-05-01T00:00+02:00[Europe/Amsterdam]")),
+                eq(ZonedDateTime.parse("2025-06-01T00:00+02:00[Europe/Amsterdam]")),
+                eq(14)))
+                .thenReturn(Mono.just("{\"type\":\"FeatureCollection\",\"features\":[]}".getBytes()));
+
+        MvcResult result = mockMvc.perform(get("/athlete/activities/geojson?after=2025-05-01T00:00&before=2025-06-01T00:00&timeZone=Europe/Amsterdam&zoom=14")
+                        .with(oidcLogin()))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/geo+json"))
+                .andExpect(content().json("{\"type\": \"FeatureCollection\", \"features\": []}"));
+    }
+}
@@ -0,0 +1,61 @@
+package nl.thomas.stravaclient.controllers;
+
+import nl.thomas.stravaclient.client.BoundingBox;
+import nl.thomas.stravaclient.client.LatLng;
+import nl.thomas.stravaclient.client.SegmentActivityType;
+import nl.thomas.stravaclient.client.SegmentSummary;
+import nl.thomas.stravaclient.client.StravaClient;
+import nl.thomas.stravaclient.config.SecurityConfig;
+import nl.thomas.stravaclient.segments.SegmentExplorer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import reactor.core.publisher.Flux;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.oidcLogin;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(SegmentController.class)
+@Import(SecurityConfig.class)
+class SegmentControllerTest {
+
+    @Autowired
+    MockMvc mockMvc;
+    @MockitoBean
+    StravaClient stravaClient;
+    @MockitoBean
+    SegmentExplorer segmentExplorer;
+
+    @Test
+    void explore_segmentsInBox() throws Exception {
+        when(segmentExplorer.explore(any(), eq(new BoundingBox(37.8, -122.5, 37.85, -122.45)), eq(SegmentActivityType.RIDING), eq(1), eq(null)))
+                .thenReturn(Flux.just(new SegmentSummary(229781L, "Hawk Hill", 1, "4", 5.7f,
+                        new LatLng(37.8331119, -122.4834356), null, 152.8f, 2684.8f, null, false)));
+
+        MvcResult result = mockMvc.perform(get("/segments/explore?bounds=37.8,-122.5,37.85,-122.45&activityType=riding&minCat=1")
+                        .with(oidcLogin()))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().json("[{\"id\": 229781, \"name\": \"Hawk Hill\", \"start_latlng\": [37.8331119, -122.4834356]}]"));
+    }
+
+    @Test
+    void exploreWithIncompleteBounds_badRequest() throws Exception {
+        mockMvc.perform(get("/segments/explore?bounds=37.8,-122.5,37.85").with(oidcLogin()))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(segmentExplorer);
+    }
+}
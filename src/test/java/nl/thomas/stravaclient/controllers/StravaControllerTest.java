@@ -1,7 +1,17 @@
 package nl.thomas.stravaclient.controllers;
 
 import jakarta.servlet.http.Cookie;
+import nl.thomas.strava.model.DetailedActivity;
+import nl.thomas.strava.model.SportType;
+import nl.thomas.stravaclient.client.ActivityField;
+import nl.thomas.stravaclient.client.ActivitySummary;
 import nl.thomas.stravaclient.client.StravaClient;
+import nl.thomas.stravaclient.client.StreamResolution;
+import nl.thomas.stravaclient.client.StreamType;
+import nl.thomas.stravaclient.store.ActivitySyncService;
+import nl.thomas.stravaclient.summary.SummaryBucket;
+import nl.thomas.stravaclient.summary.TrainingSummary;
+import nl.thomas.stravaclient.summary.TrainingSummaryEngine;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,24 +23,37 @@ import org.springframework.http.MediaType;
 import org.springframework.security.oauth2.core.user.OAuth2User;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.oidcLogin;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
-@WebMvcTest
+@WebMvcTest(StravaController.class)
 @ExtendWith(OutputCaptureExtension.class)
 class StravaControllerTest {
 
@@ -38,6 +61,10 @@ class StravaControllerTest {
     MockMvc mockMvc;
     @MockitoBean
     StravaClient stravaClient;
+    @MockitoBean
+    ActivitySyncService activitySyncService;
+    @MockitoBean
+    TrainingSummaryEngine trainingSummaryEngine;
 
     @Test
     void loggedIn_athleteRequest_clientCalled(CapturedOutput output) throws Exception {
@@ -60,7 +87,22 @@ class StravaControllerTest {
         assertThat(output).contains("GET request received at /athlete/activities for user user with runs between 2025-05-01T10:02+02:00[Europe/Amsterdam] and 2025-05-08T10:02+02:00[Europe/Amsterdam]");
         ZonedDateTime afterExpected = ZonedDateTime.of(LocalDateTime.parse("2025-05-01T10:02"), ZoneId.of("Europe/Amsterdam"));
         ZonedDateTime beforeExpected = ZonedDateTime.of(LocalDateTime.parse("2025-05-08T10:02"), ZoneId.of("Europe/Amsterdam"));
-        verify(stravaClient).getDetailedActivities(any(), eq(afterExpected), eq(beforeExpected));
+        verify(activitySyncService).getDetailedActivities(any(), eq(afterExpected), eq(beforeExpected));
+    }
+
+    @Test
+    void loggedIn_activitiesRequest_streamedAsNdjson() throws Exception {
+        String url = "/athlete/activities?after=2025-05-01T10:02&before=2025-05-08T10:02&timeZone=Europe/Amsterdam";
+        when(activitySyncService.getDetailedActivities(any(), any(), any()))
+                .thenReturn(Flux.just(new DetailedActivity().id(1L), new DetailedActivity().id(2L)));
+
+        MvcResult result = mockMvc.perform(get(url).with(oidcLogin()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.getAsyncResult();
+
+        assertThat(result.getResponse().getContentType()).isEqualTo(MediaType.APPLICATION_NDJSON_VALUE);
+        assertThat(result.getResponse().getContentAsString().lines()).hasSize(2);
     }
 
     @Test
@@ -69,11 +111,70 @@ class StravaControllerTest {
         mockMvc.perform(get(url)).andExpect(status().is3xxRedirection());
     }
 
+    @Test
+    void loggedIn_activitiesRequestWithFields_summariesReturned() throws Exception {
+        String url = "/athlete/activities?after=2025-05-01T10:02&before=2025-05-08T10:02&timeZone=Europe/Amsterdam&fields=id,moving_time";
+        when(activitySyncService.getActivitySummaries(any(), any(), any(), eq(EnumSet.of(ActivityField.ID, ActivityField.MOVING_TIME))))
+                .thenReturn(Flux.just(new ActivitySummary(1L, null, null, null, 2768, null)));
+
+        MvcResult result = mockMvc.perform(get(url).with(oidcLogin()).accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.getAsyncResult();
+
+        assertThat(result.getResponse().getContentAsString().lines()).containsExactly("{\"id\":1,\"moving_time\":2768}");
+    }
+
+    @Test
+    void loggedIn_activitiesRequestWithUnknownField_exception() throws Exception {
+        String url = "/athlete/activities?after=2025-05-01T10:02&before=2025-05-08T10:02&timeZone=Europe/Amsterdam&fields=id,map";
+        mockMvc.perform(get(url).with(oidcLogin()))
+                .andExpect(status().is(HttpStatus.BAD_REQUEST.value()))
+                .andExpect(content().string("Unknown activity field map, expected one of [id, name, start_date, distance, moving_time, type]"));
+    }
+
+    @Test
+    void loggedIn_summaryRequest_syncedThenSummarised(CapturedOutput output) throws Exception {
+        String url = "/athlete/summary?after=2025-05-01T00:00&before=2025-06-01T00:00&timeZone=Europe/Amsterdam&bucket=month";
+        ZonedDateTime afterExpected = ZonedDateTime.of(LocalDateTime.parse("2025-05-01T00:00"), ZoneId.of("Europe/Amsterdam"));
+        ZonedDateTime beforeExpected = ZonedDateTime.of(LocalDateTime.parse("2025-06-01T00:00"), ZoneId.of("Europe/Amsterdam"));
+        when(activitySyncService.isEnabled()).thenReturn(true);
+        when(activitySyncService.sync(any(), eq(afterExpected), eq(beforeExpected))).thenReturn(Mono.empty());
+        when(trainingSummaryEngine.summarize("user", afterExpected, beforeExpected, SummaryBucket.MONTH)).thenReturn(List.of(
+                new TrainingSummary(LocalDate.parse("2025-05-01"), SportType.RUN, 3, 23000, 20, 6600)));
+
+        MvcResult result = mockMvc.perform(get(url).with(oidcLogin()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        assertThat(result.getAsyncResult()).isEqualTo(List.of(new TrainingSummary(LocalDate.parse("2025-05-01"), SportType.RUN, 3, 23000, 20, 6600)));
+        assertThat(output).contains("GET request received at /athlete/summary for user user per MONTH between 2025-05-01T00:00+02:00[Europe/Amsterdam] and 2025-06-01T00:00+02:00[Europe/Amsterdam]");
+    }
+
+    @Test
+    void storeDisabled_summaryRequest_summarisedFromStrava() throws Exception {
+        String url = "/athlete/summary?after=2025-05-01T00:00&before=2025-06-01T00:00&timeZone=Europe/Amsterdam&bucket=month";
+        ZonedDateTime afterExpected = ZonedDateTime.of(LocalDateTime.parse("2025-05-01T00:00"), ZoneId.of("Europe/Amsterdam"));
+        ZonedDateTime beforeExpected = ZonedDateTime.of(LocalDateTime.parse("2025-06-01T00:00"), ZoneId.of("Europe/Amsterdam"));
+        Flux<DetailedActivity> activities = Flux.just(new DetailedActivity().id(1L));
+        when(activitySyncService.isEnabled()).thenReturn(false);
+        when(activitySyncService.getDetailedActivities(any(), eq(afterExpected), eq(beforeExpected))).thenReturn(activities);
+        when(trainingSummaryEngine.summarize(activities, afterExpected, beforeExpected, SummaryBucket.MONTH)).thenReturn(Mono.just(List.of(
+                new TrainingSummary(LocalDate.parse("2025-05-01"), SportType.RUN, 1, 10000, 12, 2700))));
+
+        MvcResult result = mockMvc.perform(get(url).with(oidcLogin()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        assertThat(result.getAsyncResult()).isEqualTo(List.of(new TrainingSummary(LocalDate.parse("2025-05-01"), SportType.RUN, 1, 10000, 12, 2700)));
+        verify(activitySyncService, never()).sync(any(), any(), any());
+    }
+
     @Test
     void loggedIn_activitiesRequestWithClientException_errorMessage(CapturedOutput output) throws Exception {
         String url = "/athlete/activities?after=2025-05-01T10:02&before=2025-05-08T10:02&timeZone=Europe/Amsterdam";
         IllegalArgumentException exception = new IllegalArgumentException("Foutje");
-        when(stravaClient.getDetailedActivities(any(), any(), any())).thenThrow(exception);
+        when(activitySyncService.getDetailedActivities(any(), any(), any())).thenThrow(exception);
 
         mockMvc.perform(get(url).with(oidcLogin()))
                 .andExpect(content().string("Foutje"))
@@ -81,6 +182,21 @@ class StravaControllerTest {
         assertThat(output).contains("IllegalArgumentException with message \"Foutje\". Returned BAD_REQUEST.");
     }
 
+    @Test
+    void loggedIn_streamsRequest_clientCalledWithKeysAndResolution(CapturedOutput output) throws Exception {
+        mockMvc.perform(get("/activities/1155632529/streams?keys=heartrate,time&resolution=low").with(oidcLogin()));
+
+        assertThat(output).contains("GET request received at /activities/1155632529/streams for user user with keys [TIME, HEARTRATE] and resolution LOW");
+        verify(stravaClient).getActivityStreams(any(), eq(1155632529L), eq(EnumSet.of(StreamType.TIME, StreamType.HEARTRATE)), eq(StreamResolution.LOW));
+    }
+
+    @Test
+    void loggedIn_streamsRequestWithUnknownKey_exception() throws Exception {
+        mockMvc.perform(get("/activities/1155632529/streams?keys=speed").with(oidcLogin()))
+                .andExpect(status().is(HttpStatus.BAD_REQUEST.value()))
+                .andExpect(content().string("Unknown stream type speed"));
+    }
+
     @Test
     void loggedIn_nameChangeRequest_clientCalled(CapturedOutput output) throws Exception {
         String newName = "This Is The New Name";
@@ -91,7 +207,74 @@ class StravaControllerTest {
                         .content("{\"activityId\": 1155632529, \"newName\": \"This Is The New Name\"}"))
                 .andExpect(status().is2xxSuccessful());
         assertThat(output).contains("PUT request from user at /activity/name to replace name for activity 1155632529 with \"This Is The New Name\"");
-        verify(stravaClient).replaceNameForActivity(any(OAuth2User.class), eq(1155632529L), eq(newName));
+        verify(activitySyncService).replaceNameForActivity(any(OAuth2User.class), eq(1155632529L), eq(newName));
+    }
+
+    @Test
+    void loggedIn_bulkNameChangeRequest_resultPerActivity(CapturedOutput output) throws Exception {
+        when(activitySyncService.replaceNameForActivity(any(), eq(1L), eq("First")))
+                .thenReturn(Mono.just(new DetailedActivity().id(1L).name("First")));
+        when(activitySyncService.replaceNameForActivity(any(), eq(2L), eq("Second")))
+                .thenReturn(Mono.error(WebClientResponseException.create(404, "Not Found", null, null, null)));
+
+        MvcResult result = mockMvc.perform(put("/activities/names")
+                        .with(csrf())
+                        .with(oidcLogin())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                [{"activityId": 1, "newName": "First"},
+                                 {"activityId": 2, "newName": "Second"},
+                                 {"activityId": 3}]"""))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.getAsyncResult();
+
+        assertThat(result.getResponse().getContentAsString().lines()).containsExactlyInAnyOrder(
+                "{\"activityId\":1,\"newName\":\"First\",\"status\":200}",
+                "{\"activityId\":2,\"newName\":\"Second\",\"status\":404,\"error\":\"404 Not Found\"}",
+                "{\"activityId\":3,\"status\":400,\"error\":\"ActivityId and new name are required\"}");
+        assertThat(output).contains("PUT request from user at /activities/names to replace names for 3 activities");
+    }
+
+    @Test
+    void loggedIn_batchRequest_cachedFirstThenFetched(CapturedOutput output) throws Exception {
+        when(activitySyncService.getCachedActivity("user", 1L)).thenReturn(Optional.of(new DetailedActivity().id(1L).name("First")));
+        when(activitySyncService.getCachedActivity("user", 2L)).thenReturn(Optional.empty());
+        when(activitySyncService.getCachedActivity("user", 3L)).thenReturn(Optional.empty());
+        when(activitySyncService.getDetailedActivity(any(), eq(2L)))
+                .thenReturn(Mono.just(new DetailedActivity().id(2L).name("Second")));
+        when(activitySyncService.getDetailedActivity(any(), eq(3L)))
+                .thenReturn(Mono.error(WebClientResponseException.create(404, "Not Found", null, null, null)));
+
+        MvcResult result = mockMvc.perform(post("/activities/batch")
+                        .with(csrf())
+                        .with(oidcLogin())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[2, 1, 3, 1]"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.getAsyncResult();
+
+        List<String> lines = result.getResponse().getContentAsString().lines().toList();
+        assertThat(lines.getFirst()).startsWith("{\"activityId\":1,\"status\":200,\"activity\":{").contains("\"name\":\"First\"");
+        assertThat(lines).hasSize(3)
+                .anyMatch(line -> line.startsWith("{\"activityId\":2,\"status\":200,\"activity\":{") && line.contains("\"name\":\"Second\""))
+                .contains("{\"activityId\":3,\"status\":404,\"error\":\"404 Not Found\"}");
+        assertThat(output).contains("POST request from user at /activities/batch for 4 activities");
+        verify(activitySyncService, never()).getDetailedActivity(any(), eq(1L));
+    }
+
+    @Test
+    void loggedIn_batchRequestTooLarge_exception() throws Exception {
+        String activityIds = LongStream.rangeClosed(1, 201).mapToObj(Long::toString).collect(Collectors.joining(",", "[", "]"));
+        mockMvc.perform(post("/activities/batch")
+                        .with(csrf())
+                        .with(oidcLogin())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(activityIds))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("At most 200 activities can be requested at once, but 201 were requested"));
+        verify(activitySyncService, never()).getDetailedActivity(any(), any());
     }
 
     @Test
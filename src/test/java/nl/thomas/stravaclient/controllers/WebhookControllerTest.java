@@ -0,0 +1,110 @@
+package nl.thomas.stravaclient.controllers;
+
+import nl.thomas.stravaclient.config.SecurityConfig;
+import nl.thomas.stravaclient.webhook.StravaEvent;
+import nl.thomas.stravaclient.webhook.WebhookEventPipeline;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(WebhookController.class)
+@Import(SecurityConfig.class)
+@TestPropertySource(properties = {"strava.webhook.verify-token=STRAVA", "strava.webhook.subscription-id=120475"})
+class WebhookControllerTest {
+
+    private static final String EVENT = """
+            {
+              "aspect_type": "update",
+              "event_time": 1516126040,
+              "object_id": 1155632529,
+              "object_type": "activity",
+              "owner_id": 2523456,
+              "subscription_id": %d,
+              "updates": {"title": "Ochtendloop"}
+            }""";
+
+    @Autowired
+    MockMvc mockMvc;
+    @MockitoBean
+    WebhookEventPipeline webhookEventPipeline;
+
+    @Test
+    void validationWithVerifyToken_challengeEchoed() throws Exception {
+        mockMvc.perform(get("/webhook?hub.mode=subscribe&hub.challenge=15f7d1a91c1f40f8a748fd134752feb3&hub.verify_token=STRAVA"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"hub.challenge\": \"15f7d1a91c1f40f8a748fd134752feb3\"}"));
+    }
+
+    @Test
+    void validationWithWrongVerifyToken_forbidden() throws Exception {
+        mockMvc.perform(get("/webhook?hub.mode=subscribe&hub.challenge=15f7d1a91c1f40f8a748fd134752feb3&hub.verify_token=guess"))
+                .andExpect(status().isForbidden());
+    }
+
+    @Test
+    void event_queuedWithoutLogin() throws Exception {
+        when(webhookEventPipeline.submit(any())).thenReturn(true);
+
+        mockMvc.perform(post("/webhook").contentType(MediaType.APPLICATION_JSON).content(EVENT.formatted(120475)))
+                .andExpect(status().isOk());
+
+        verify(webhookEventPipeline).submit(new StravaEvent(
+                StravaEvent.ObjectType.ACTIVITY,
+                1155632529L,
+                StravaEvent.AspectType.UPDATE,
+                Map.of("title", "Ochtendloop"),
+                2523456L,
+                120475L,
+                1516126040L));
+    }
+
+    @Test
+    void eventOfOtherSubscription_forbidden() throws Exception {
+        mockMvc.perform(post("/webhook").contentType(MediaType.APPLICATION_JSON).content(EVENT.formatted(999)))
+                .andExpect(status().isForbidden());
+
+        verifyNoInteractions(webhookEventPipeline);
+    }
+
+    @Test
+    void eventWithoutSubscriptionIdSet_forbidden() {
+        WebhookController webhookController = new WebhookController(webhookEventPipeline, "STRAVA", null);
+        StravaEvent event = new StravaEvent(
+                StravaEvent.ObjectType.ACTIVITY,
+                1155632529L,
+                StravaEvent.AspectType.UPDATE,
+                Map.of(),
+                2523456L,
+                120475L,
+                1516126040L);
+
+        assertThat(webhookController.receiveEvent(event).getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+        verifyNoInteractions(webhookEventPipeline);
+    }
+
+    @Test
+    void pipelineFull_serviceUnavailableSoStravaRetries() throws Exception {
+        when(webhookEventPipeline.submit(any())).thenReturn(false);
+
+        mockMvc.perform(post("/webhook").contentType(MediaType.APPLICATION_JSON).content(EVENT.formatted(120475)))
+                .andExpect(status().isServiceUnavailable());
+    }
+}
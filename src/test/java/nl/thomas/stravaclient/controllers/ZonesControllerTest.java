@@ -0,0 +1,76 @@
+package nl.thomas.stravaclient.controllers;
+
+import nl.thomas.stravaclient.client.StravaClient;
+import nl.thomas.stravaclient.config.SecurityConfig;
+import nl.thomas.stravaclient.zones.ActivityLoad;
+import nl.thomas.stravaclient.zones.ZoneAnalytics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.oidcLogin;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(ZonesController.class)
+@Import(SecurityConfig.class)
+class ZonesControllerTest {
+
+    @Autowired
+    MockMvc mockMvc;
+    @MockitoBean
+    StravaClient stravaClient;
+    @MockitoBean
+    ZoneAnalytics zoneAnalytics;
+
+    @Test
+    void activityLoads_duplicatesAnalysedOnce() throws Exception {
+        when(zoneAnalytics.getActivityLoads(any(), eq(List.of(2L, 1L)))).thenReturn(Flux.just(
+                new ActivityLoad(2L, new int[]{600, 1200, 0, 0, 0}, null, null, 50.0),
+                new ActivityLoad(1L, null, new int[]{0, 3600, 0}, 200.0, null)));
+
+        MvcResult result = mockMvc.perform(post("/activities/zones")
+                        .with(csrf())
+                        .with(oidcLogin())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[2, 1, 2]"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.getAsyncResult();
+
+        assertThat(result.getResponse().getContentAsString().lines().toList()).containsExactly(
+                "{\"activityId\":2,\"heartRateZoneSeconds\":[600,1200,0,0,0],\"trimp\":50.0}",
+                "{\"activityId\":1,\"powerZoneSeconds\":[0,3600,0],\"normalizedPower\":200.0}");
+    }
+
+    @Test
+    void tooManyActivities_badRequest() throws Exception {
+        String activityIds = LongStream.rangeClosed(1, 501).mapToObj(Long::toString).collect(Collectors.joining(",", "[", "]"));
+        mockMvc.perform(post("/activities/zones")
+                        .with(csrf())
+                        .with(oidcLogin())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(activityIds))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("At most 500 activities can be analysed at once, but 501 were requested"));
+        verifyNoInteractions(zoneAnalytics);
+    }
+}
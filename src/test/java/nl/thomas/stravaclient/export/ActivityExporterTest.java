@@ -0,0 +1,123 @@
+package nl.thomas.stravaclient.export;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.thomas.strava.model.ActivityType;
+import nl.thomas.strava.model.DetailedActivity;
+import nl.thomas.stravaclient.store.ActivitySyncService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ActivityExporterTest {
+
+    private static final OAuth2User ATHLETE = new DefaultOAuth2User(List.of(), Map.of("id", "2523456"), "id");
+
+    @Mock
+    ActivitySyncService activitySyncService;
+
+    private ActivityExporter activityExporter() {
+        return new ActivityExporter(activitySyncService, new ObjectMapper().findAndRegisterModules());
+    }
+
+    @Test
+    void ndjson_oneActivityPerLine() throws IOException {
+        when(activitySyncService.getDetailedActivities(eq(ATHLETE), any(), any()))
+                .thenReturn(Flux.just(new DetailedActivity().id(1L).name("Ochtendloop"), new DetailedActivity().id(2L)));
+
+        String exported = gunzip(activityExporter().export(ATHLETE, ExportFormat.NDJSON, DefaultDataBufferFactory.sharedInstance));
+
+        List<String> lines = exported.lines().toList();
+        assertThat(lines).hasSize(2);
+        assertThat(lines.get(0)).contains("\"id\":1").contains("\"name\":\"Ochtendloop\"");
+        assertThat(lines.get(1)).contains("\"id\":2");
+    }
+
+    @Test
+    void csv_headerAndEscapedRows() throws IOException {
+        when(activitySyncService.getDetailedActivities(eq(ATHLETE), any(), any()))
+                .thenReturn(Flux.just(new DetailedActivity()
+                        .id(1L)
+                        .name("Rondje \"Vondelpark\", snel")
+                        .startDate(OffsetDateTime.of(2025, 5, 6, 7, 30, 0, 0, ZoneOffset.UTC))
+                        .distance(10000.0f)
+                        .movingTime(2700)
+                        .type(ActivityType.RUN)));
+
+        String exported = gunzip(activityExporter().export(ATHLETE, ExportFormat.CSV, DefaultDataBufferFactory.sharedInstance));
+
+        assertThat(exported).isEqualTo("""
+                id,name,start_date,distance,moving_time,type\r
+                1,"Rondje ""Vondelpark"", snel",2025-05-06T07:30Z,10000.0,2700,Run\r
+                """);
+    }
+
+    @Test
+    void csvValueLikeFormula_prefixedWithQuote() {
+        assertThat(ActivityExporter.csvValue("=HYPERLINK(\"https://example.com\")")).isEqualTo("\"'=HYPERLINK(\"\"https://example.com\"\")\"");
+        assertThat(ActivityExporter.csvValue("+31 rondje")).isEqualTo("'+31 rondje");
+        assertThat(ActivityExporter.csvValue("-5 graden")).isEqualTo("'-5 graden");
+        assertThat(ActivityExporter.csvValue("@strava")).isEqualTo("'@strava");
+        assertThat(ActivityExporter.csvValue("Rondje = snel")).isEqualTo("Rondje = snel");
+    }
+
+    @Test
+    void noActivities_validEmptyGzip() throws IOException {
+        when(activitySyncService.getDetailedActivities(eq(ATHLETE), any(), any())).thenReturn(Flux.empty());
+
+        assertThat(gunzip(activityExporter().export(ATHLETE, ExportFormat.NDJSON, DefaultDataBufferFactory.sharedInstance))).isEmpty();
+    }
+
+    @Test
+    void largeHistory_activitiesOnlyTakenAsBuffersAreRequested() {
+        AtomicLong taken = new AtomicLong();
+        when(activitySyncService.getDetailedActivities(eq(ATHLETE), any(), any()))
+                .thenReturn(Flux.range(0, 1_000_000)
+                        .map(i -> new DetailedActivity().id((long) i).name("Activiteit " + i))
+                        .doOnNext(activity -> taken.incrementAndGet()));
+
+        StepVerifier.create(activityExporter().export(ATHLETE, ExportFormat.NDJSON, DefaultDataBufferFactory.sharedInstance), 1)
+                .consumeNextWith(DataBufferUtils::release)
+                .thenCancel()
+                .verify();
+
+        assertThat(taken.get()).isLessThan(10_000);
+    }
+
+    private static String gunzip(Flux<DataBuffer> buffers) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        for (DataBuffer buffer : buffers.toIterable()) {
+            try (InputStream inputStream = buffer.asInputStream(true)) {
+                inputStream.transferTo(compressed);
+            }
+        }
+        try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
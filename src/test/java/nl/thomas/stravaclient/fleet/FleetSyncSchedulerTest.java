@@ -0,0 +1,278 @@
+package nl.thomas.stravaclient.fleet;
+
+import nl.thomas.strava.model.DetailedActivity;
+import nl.thomas.stravaclient.MutableClock;
+import nl.thomas.stravaclient.client.RateLimitBudget;
+import nl.thomas.stravaclient.client.RequestPriority;
+import nl.thomas.stravaclient.store.ActivityStore;
+import nl.thomas.stravaclient.store.ActivitySyncService;
+import nl.thomas.stravaclient.store.FileOAuth2AuthorizedClientService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.oauth2.client.ClientAuthorizationRequiredException;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import reactor.core.publisher.Mono;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class FleetSyncSchedulerTest {
+
+    private static final Instant NOW = Instant.parse("2025-06-02T08:00:00Z");
+    private static final Duration MIN_INTERVAL = Duration.ofMinutes(15);
+
+    @Mock
+    ActivitySyncService activitySyncService;
+    @Mock
+    ActivityStore activityStore;
+    @Mock
+    RateLimitBudget rateLimitBudget;
+    @Mock
+    OAuth2AuthorizedClientService oAuth2AuthorizedClientService;
+
+    private final MutableClock clock = new MutableClock(NOW);
+    private final VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final List<String> synced = new ArrayList<>();
+    private final List<RequestPriority> priorities = new ArrayList<>();
+    private FleetSyncScheduler fleetSyncScheduler;
+
+    @BeforeEach
+    void budgetAndStrava() {
+        lenient().when(rateLimitBudget.hasBudget(RequestPriority.BACKGROUND)).thenReturn(true);
+        lenient().when(activitySyncService.sync(any(), any(), any())).thenAnswer(invocation -> Mono.deferContextual(context -> {
+            priorities.add(context.get(RequestPriority.class));
+            synced.add(invocation.<OAuth2User>getArgument(0).getName());
+            return Mono.empty();
+        }));
+    }
+
+    @AfterEach
+    void stop() {
+        if (fleetSyncScheduler != null) {
+            fleetSyncScheduler.stop();
+        }
+    }
+
+    private FleetSyncScheduler fleetSyncScheduler(int concurrency) {
+        return fleetSyncScheduler(concurrency, oAuth2AuthorizedClientService);
+    }
+
+    private FleetSyncScheduler fleetSyncScheduler(int concurrency, OAuth2AuthorizedClientService oAuth2AuthorizedClientService) {
+        return fleetSyncScheduler(concurrency, oAuth2AuthorizedClientService, 0, 1);
+    }
+
+    private FleetSyncScheduler fleetSyncScheduler(int concurrency, OAuth2AuthorizedClientService oAuth2AuthorizedClientService, int nodeIndex, int nodeCount) {
+        FleetSyncProperties properties = new FleetSyncProperties(
+                true, Duration.ofDays(30), MIN_INTERVAL, Duration.ofHours(6), 0.2, concurrency,
+                Duration.ofSeconds(1), Duration.ofMinutes(5), Duration.ofMinutes(5), nodeIndex, nodeCount);
+        // Always the middle, so every random part is exactly the interval, and the first sync is halfway the minimum one
+        RandomGenerator middle = () -> Long.MIN_VALUE;
+        fleetSyncScheduler = new FleetSyncScheduler(
+                activitySyncService, activityStore, rateLimitBudget, oAuth2AuthorizedClientService, properties,
+                clock, scheduler, tasks::add, middle);
+        return fleetSyncScheduler;
+    }
+
+    private void advanceAndTick(Duration duration) {
+        clock.advance(duration);
+        fleetSyncScheduler.tick();
+    }
+
+    private void runTasks() {
+        List<Runnable> started = List.copyOf(tasks);
+        tasks.clear();
+        started.forEach(Runnable::run);
+    }
+
+    @Test
+    void registeredAthlete_syncedInBackgroundWithinFirstInterval() {
+        fleetSyncScheduler(4).register("2523456");
+
+        advanceAndTick(MIN_INTERVAL.dividedBy(2).minusSeconds(1));
+        runTasks();
+        assertThat(synced).isEmpty();
+
+        advanceAndTick(Duration.ofSeconds(1));
+        runTasks();
+        assertThat(synced).containsExactly("2523456");
+        assertThat(priorities).containsExactly(RequestPriority.BACKGROUND);
+        verify(activitySyncService).sync(
+                any(),
+                eq(ZonedDateTime.parse("2025-05-03T08:07:30Z")),
+                eq(ZonedDateTime.parse("2025-06-02T08:07:30Z")));
+        assertThat(fleetSyncScheduler.getSyncedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void activeAthlete_syncedMoreOften() {
+        when(activityStore.find(eq("2523456"), any(), any())).thenReturn(Collections.nCopies(5, new DetailedActivity()));
+        when(activityStore.find(eq("5646321"), any(), any())).thenReturn(List.of());
+        fleetSyncScheduler(4);
+        fleetSyncScheduler.register("2523456");
+        fleetSyncScheduler.register("5646321");
+        advanceAndTick(MIN_INTERVAL);
+        runTasks();
+
+        for (int i = 0; i < 6; i++) {
+            advanceAndTick(Duration.ofHours(1));
+            runTasks();
+        }
+
+        // Five activities in a week: every hour instead of every six
+        assertThat(synced.stream().filter("2523456"::equals)).hasSize(7);
+        assertThat(synced.stream().filter("5646321"::equals)).hasSize(2);
+    }
+
+    @Test
+    void noBackgroundBudget_athletesQueuedWithLag() {
+        when(rateLimitBudget.hasBudget(RequestPriority.BACKGROUND)).thenReturn(false);
+        fleetSyncScheduler(4);
+        fleetSyncScheduler.register("2523456");
+        fleetSyncScheduler.register("5646321");
+
+        advanceAndTick(MIN_INTERVAL.dividedBy(2));
+        advanceAndTick(Duration.ofMinutes(10));
+
+        assertThat(tasks).isEmpty();
+        verify(activitySyncService, never()).sync(any(), any(), any());
+        assertThat(fleetSyncScheduler.getQueued()).isEqualTo(2);
+        assertThat(fleetSyncScheduler.getLag()).isEqualTo(Duration.ofMinutes(10));
+
+        when(rateLimitBudget.hasBudget(RequestPriority.BACKGROUND)).thenReturn(true);
+        advanceAndTick(Duration.ofSeconds(1));
+        runTasks();
+        assertThat(synced).containsExactlyInAnyOrder("2523456", "5646321");
+        assertThat(fleetSyncScheduler.getQueued()).isZero();
+        assertThat(fleetSyncScheduler.getLag()).isZero();
+    }
+
+    @Test
+    void moreDueThanConcurrency_restWaits() {
+        fleetSyncScheduler(2);
+        fleetSyncScheduler.register("2523456");
+        fleetSyncScheduler.register("5646321");
+        fleetSyncScheduler.register("120475");
+
+        advanceAndTick(MIN_INTERVAL);
+        assertThat(tasks).hasSize(2);
+        assertThat(fleetSyncScheduler.getRunning()).isEqualTo(2);
+        assertThat(fleetSyncScheduler.getQueued()).isEqualTo(1);
+
+        runTasks();
+        assertThat(fleetSyncScheduler.getRunning()).isZero();
+        advanceAndTick(Duration.ofSeconds(1));
+        runTasks();
+        assertThat(synced).containsExactlyInAnyOrder("2523456", "5646321", "120475");
+    }
+
+    @Test
+    void athleteNeverSynced_goesBeforeAthleteDueEarlier() {
+        when(activityStore.find(anyString(), any(), any())).thenReturn(Collections.nCopies(50, new DetailedActivity()));
+        fleetSyncScheduler(1);
+        fleetSyncScheduler.register("2523456");
+        advanceAndTick(MIN_INTERVAL);
+        runTasks();
+        advanceAndTick(Duration.ofMinutes(5));
+        fleetSyncScheduler.register("5646321");
+
+        // The first is due again five minutes before the second, but the second has never been synchronised
+        advanceAndTick(MIN_INTERVAL);
+        runTasks();
+
+        assertThat(synced).containsExactly("2523456", "5646321");
+        assertThat(fleetSyncScheduler.getQueued()).isEqualTo(1);
+    }
+
+    @Test
+    void athleteNoLongerAuthorized_dropped() {
+        when(activitySyncService.sync(any(), any(), any())).thenReturn(Mono.error(new ClientAuthorizationRequiredException("strava")));
+        fleetSyncScheduler(4).register("2523456");
+
+        advanceAndTick(MIN_INTERVAL);
+        runTasks();
+
+        assertThat(fleetSyncScheduler.getAthleteCount()).isZero();
+        assertThat(fleetSyncScheduler.getFailedCount()).isZero();
+        advanceAndTick(Duration.ofHours(6));
+        assertThat(tasks).isEmpty();
+    }
+
+    @Test
+    void failedSync_countedAndRetriedLater() {
+        when(activitySyncService.sync(any(), any(), any())).thenReturn(Mono.error(new IllegalStateException("Strava is down")));
+        fleetSyncScheduler(4).register("2523456");
+
+        advanceAndTick(MIN_INTERVAL);
+        runTasks();
+
+        assertThat(fleetSyncScheduler.getFailedCount()).isEqualTo(1);
+        assertThat(fleetSyncScheduler.getAthleteCount()).isEqualTo(1);
+        advanceAndTick(Duration.ofHours(6));
+        assertThat(tasks).hasSize(1);
+    }
+
+    @Test
+    void severalNodes_everyAthleteRegisteredOnOneNode() {
+        List<String> athleteIds = List.of("2523456", "5646321", "120475", "8745122", "3362014", "6104378");
+        List<Integer> counts = new ArrayList<>();
+        for (int nodeIndex = 0; nodeIndex < 3; nodeIndex++) {
+            fleetSyncScheduler(4, oAuth2AuthorizedClientService, nodeIndex, 3);
+            athleteIds.forEach(fleetSyncScheduler::register);
+            counts.add(fleetSyncScheduler.getAthleteCount());
+            fleetSyncScheduler.stop();
+        }
+
+        assertThat(counts.stream().mapToInt(Integer::intValue).sum()).isEqualTo(athleteIds.size());
+        assertThat(counts).allMatch(count -> count < athleteIds.size());
+    }
+
+    @Test
+    void nodeIndexNotBelowNodeCount_rejected() {
+        assertThatThrownBy(() -> new FleetSyncProperties(
+                true, Duration.ofDays(30), MIN_INTERVAL, Duration.ofHours(6), 0.2, 4,
+                Duration.ofSeconds(1), Duration.ofMinutes(5), Duration.ofMinutes(5), 2, 2))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void authorizedClientsInDirectory_registeredAndDropped() {
+        FileOAuth2AuthorizedClientService fileOAuth2AuthorizedClientService = mock(FileOAuth2AuthorizedClientService.class);
+        when(fileOAuth2AuthorizedClientService.getPrincipalNames("strava"))
+                .thenReturn(List.of("2523456", "5646321"))
+                .thenReturn(List.of("5646321"));
+        fleetSyncScheduler(4, fileOAuth2AuthorizedClientService);
+
+        fleetSyncScheduler.tick();
+        assertThat(fleetSyncScheduler.getAthleteCount()).isEqualTo(2);
+
+        advanceAndTick(Duration.ofMinutes(1));
+        verify(fileOAuth2AuthorizedClientService, times(1)).getPrincipalNames("strava");
+        advanceAndTick(Duration.ofMinutes(4));
+        assertThat(fleetSyncScheduler.getAthleteCount()).isEqualTo(1);
+    }
+}
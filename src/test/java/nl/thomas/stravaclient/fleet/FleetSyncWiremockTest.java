@@ -0,0 +1,62 @@
+package nl.thomas.stravaclient.fleet;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import io.micrometer.core.instrument.MeterRegistry;
+import nl.thomas.stravaclient.client.TokenService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.wiremock.spring.EnableWireMock;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@EnableWireMock
+@SpringBootTest
+@TestPropertySource(properties = {
+        "strava.base-url=http://localhost:${wiremock.server.port}",
+        "strava.auth.store=memory",
+        "strava.store.directory=target/fleet-sync-test",
+        "strava.fleet.enabled=true",
+        "strava.fleet.min-interval=200ms",
+        "strava.fleet.tick=50ms"})
+class FleetSyncWiremockTest {
+
+    @Autowired
+    private FleetSyncScheduler fleetSyncScheduler;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @MockitoBean
+    private TokenService tokenService;
+
+    @BeforeEach
+    void token() {
+        when(tokenService.getTokenAsync(any())).thenReturn(Mono.just("token"));
+    }
+
+    @Test
+    void registeredAthlete_activitiesFetchedFromStrava() {
+        WireMock.stubFor(get(urlPathEqualTo("/athlete/activities")).willReturn(
+                aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withStatus(200)
+                        .withBody("[]")));
+
+        fleetSyncScheduler.register("2523456");
+
+        await().atMost(Duration.ofSeconds(10)).untilAsserted(() ->
+                WireMock.verify(getRequestedFor(urlPathEqualTo("/athlete/activities"))));
+        await().atMost(Duration.ofSeconds(10)).untilAsserted(() ->
+                assertThat(meterRegistry.get("strava.fleet.syncs").tag("outcome", "success").functionCounter().count()).isGreaterThanOrEqualTo(1));
+        assertThat(meterRegistry.get("strava.fleet.athletes").gauge().value()).isEqualTo(1);
+    }
+}
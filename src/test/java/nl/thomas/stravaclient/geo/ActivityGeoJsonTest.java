@@ -0,0 +1,106 @@
+package nl.thomas.stravaclient.geo;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.thomas.strava.model.ActivityType;
+import nl.thomas.strava.model.DetailedActivity;
+import nl.thomas.strava.model.PolylineMap;
+import nl.thomas.stravaclient.store.ActivitySyncService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ActivityGeoJsonTest {
+
+    private static final OAuth2User ATHLETE = mock(OAuth2User.class);
+    private static final ZonedDateTime AFTER = ZonedDateTime.parse("2025-05-01T00:00:00Z");
+    private static final ZonedDateTime BEFORE = ZonedDateTime.parse("2025-06-01T00:00:00Z");
+    private static final String POLYLINE = "_p~iF~ps|U_ulLnnqC_mqNvxq`@";
+
+    @Mock
+    ActivitySyncService activitySyncService;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void activities_lineStringFeatures() throws IOException {
+        when(activitySyncService.getDetailedActivities(any(), any(), any())).thenReturn(Flux.just(
+                new DetailedActivity().id(1L).name("Ochtendloop").type(ActivityType.RUN).map(new PolylineMap().summaryPolyline(POLYLINE)),
+                new DetailedActivity().id(2L).name("Op de band").map(new PolylineMap().summaryPolyline(""))));
+        ActivityGeoJson activityGeoJson = new ActivityGeoJson(activitySyncService, objectMapper, 100);
+
+        JsonNode actual = objectMapper.readTree(activityGeoJson.getFeatureCollection(ATHLETE, AFTER, BEFORE, 18).block());
+
+        assertThat(actual.get("type").asText()).isEqualTo("FeatureCollection");
+        assertThat(actual.get("features")).hasSize(1);
+        JsonNode feature = actual.get("features").get(0);
+        assertThat(feature.get("id").asLong()).isEqualTo(1L);
+        assertThat(feature.at("/properties/name").asText()).isEqualTo("Ochtendloop");
+        assertThat(feature.at("/properties/type").asText()).isEqualTo("Run");
+        assertThat(feature.at("/geometry/type").asText()).isEqualTo("LineString");
+        assertThat(feature.at("/geometry/coordinates").toString()).isEqualTo("[[-120.2,38.5],[-120.95,40.7],[-126.453,43.252]]");
+    }
+
+    @Test
+    void lowZoom_simplified() throws IOException {
+        // The sample line with (38.9, -120.7) added, which is well within a pixel of the line at zoom 0. On the map,
+        // (40.7, -120.95) is 1.5 pixels off the line from start to end, although only 1.3 pixels of degrees.
+        when(activitySyncService.getDetailedActivities(any(), any(), any())).thenReturn(Flux.just(
+                new DetailedActivity().id(1L).map(new PolylineMap().summaryPolyline("_p~iF~ps|U_cmA~s`B_q~Inyo@_mqNvxq`@"))));
+        ActivityGeoJson activityGeoJson = new ActivityGeoJson(activitySyncService, objectMapper, 100);
+
+        JsonNode actual = objectMapper.readTree(activityGeoJson.getFeatureCollection(ATHLETE, AFTER, BEFORE, 0).block());
+
+        assertThat(actual.at("/features/0/geometry/coordinates").toString()).isEqualTo("[[-120.2,38.5],[-120.95,40.7],[-126.453,43.252]]");
+    }
+
+    @Test
+    void sameZoomAgain_lineFromCache() {
+        when(activitySyncService.getDetailedActivities(any(), any(), any())).thenAnswer(invocation -> Flux.just(
+                new DetailedActivity().id(1L).map(new PolylineMap().summaryPolyline(POLYLINE))));
+        ActivityGeoJson activityGeoJson = new ActivityGeoJson(activitySyncService, objectMapper, 100);
+
+        byte[] first = activityGeoJson.getFeatureCollection(ATHLETE, AFTER, BEFORE, 10).block();
+        byte[] second = activityGeoJson.getFeatureCollection(ATHLETE, AFTER, BEFORE, 10).block();
+        activityGeoJson.getFeatureCollection(ATHLETE, AFTER, BEFORE, 11).block();
+
+        assertThat(second).isEqualTo(first);
+        assertThat(activityGeoJson.getCacheHitCount()).isEqualTo(1);
+        assertThat(activityGeoJson.getCacheMissCount()).isEqualTo(2);
+    }
+
+    @Test
+    void changedPolyline_notFromCache() {
+        when(activitySyncService.getDetailedActivities(any(), any(), any()))
+                .thenReturn(Flux.just(new DetailedActivity().id(1L).map(new PolylineMap().summaryPolyline(POLYLINE))))
+                .thenReturn(Flux.just(new DetailedActivity().id(1L).map(new PolylineMap().summaryPolyline("_p~iF~ps|U"))));
+        ActivityGeoJson activityGeoJson = new ActivityGeoJson(activitySyncService, objectMapper, 100);
+
+        activityGeoJson.getFeatureCollection(ATHLETE, AFTER, BEFORE, 10).block();
+        byte[] actual = activityGeoJson.getFeatureCollection(ATHLETE, AFTER, BEFORE, 10).block();
+
+        assertThat(new String(actual)).contains("\"type\":\"Point\"");
+        assertThat(activityGeoJson.getCacheHitCount()).isZero();
+    }
+
+    @Test
+    void zoomOutOfRange_rejected() {
+        ActivityGeoJson activityGeoJson = new ActivityGeoJson(activitySyncService, objectMapper, 100);
+
+        assertThatThrownBy(() -> activityGeoJson.getFeatureCollection(ATHLETE, AFTER, BEFORE, 23))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,73 @@
+package nl.thomas.stravaclient.geo;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class PolylineTest {
+
+    @Test
+    void encodedPolyline_decodedIntoColumns() {
+        Polyline actual = Polyline.decode("_p~iF~ps|U_ulLnnqC_mqNvxq`@");
+
+        assertThat(actual.latitudes()).containsExactly(38.5, 40.7, 43.252);
+        assertThat(actual.longitudes()).containsExactly(-120.2, -120.95, -126.453);
+    }
+
+    @Test
+    void emptyPolyline_noPoints() {
+        assertThat(Polyline.decode("").size()).isZero();
+    }
+
+    @Test
+    void truncatedPolyline_rejected() {
+        assertThatThrownBy(() -> Polyline.decode("_p~iF~ps|U_ulL"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> Polyline.decode("_p~iF~ps|"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void straightLine_onlyEndsKept() {
+        Polyline line = new Polyline(new double[]{52.0, 52.1, 52.2, 52.3}, new double[]{5.0, 5.1, 5.2, 5.3});
+
+        Polyline actual = line.simplify(0.001);
+
+        assertThat(actual.latitudes()).containsExactly(52.0, 52.3);
+        assertThat(actual.longitudes()).containsExactly(5.0, 5.3);
+    }
+
+    @Test
+    void cornerBeyondTolerance_kept() {
+        Polyline line = new Polyline(
+                new double[]{52.0, 52.0005, 52.0, 52.1, 52.0},
+                new double[]{5.0, 5.05, 5.1, 5.15, 5.2});
+
+        assertThat(line.simplify(0.01).longitudes()).containsExactly(5.0, 5.1, 5.15, 5.2);
+        assertThat(line.simplify(0.0001).longitudes()).containsExactly(5.0, 5.05, 5.1, 5.15, 5.2);
+    }
+
+    @Test
+    void northSouthDeviationFarNorth_measuredAsOnMap() {
+        // At 60 degrees a degree of latitude is twice as long on the map as a degree of longitude
+        Polyline line = new Polyline(new double[]{60.0, 60.0006, 60.0}, new double[]{5.0, 5.1, 5.2});
+
+        assertThat(line.simplify(0.001).longitudes()).containsExactly(5.0, 5.1, 5.2);
+        assertThat(line.simplify(0.0013).longitudes()).containsExactly(5.0, 5.2);
+    }
+
+    @Test
+    void equator_mercatorEqualToDegrees() {
+        assertThat(Polyline.mercatorY(0)).isCloseTo(0, within(1e-12));
+        assertThat(Polyline.mercatorY(0.001)).isCloseTo(0.001, within(1e-9));
+        assertThat(Polyline.mercatorY(60.0006) - Polyline.mercatorY(60.0)).isCloseTo(0.0012, within(1e-6));
+    }
+
+    @Test
+    void higherZoom_smallerPixel() {
+        assertThat(Polyline.pixelSize(0)).isEqualTo(360.0 / 256);
+        assertThat(Polyline.pixelSize(12)).isEqualTo(Polyline.pixelSize(11) / 2);
+    }
+}
@@ -0,0 +1,166 @@
+package nl.thomas.stravaclient.segments;
+
+import nl.thomas.stravaclient.MutableClock;
+import nl.thomas.stravaclient.client.BoundingBox;
+import nl.thomas.stravaclient.client.LatLng;
+import nl.thomas.stravaclient.client.SegmentActivityType;
+import nl.thomas.stravaclient.client.SegmentSummary;
+import nl.thomas.stravaclient.client.StravaClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SegmentExplorerTest {
+
+    private static final OAuth2User ATHLETE = mock(OAuth2User.class);
+
+    @Mock
+    StravaClient stravaClient;
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2025-05-17T12:00:00Z"));
+    private final List<BoundingBox> requested = new ArrayList<>();
+    private SegmentExplorer segmentExplorer;
+
+    @BeforeEach
+    void setUp() {
+        // One segment starting in the middle of every tile that is explored
+        lenient().when(stravaClient.exploreSegments(eq(ATHLETE), any(), any())).thenAnswer(invocation -> {
+            BoundingBox tile = invocation.getArgument(1);
+            requested.add(tile);
+            double lat = Math.round((tile.south() + tile.north()) / 2 * 1e6) / 1e6;
+            double lng = Math.round((tile.west() + tile.east()) / 2 * 1e6) / 1e6;
+            long id = Math.round(lat * 1000) * 1_000_000 + Math.round(lng * 1000);
+            return Mono.just(List.of(segment(id, lat, lng, (int) (id % 6))));
+        });
+        segmentExplorer = new SegmentExplorer(stravaClient, 0.1, 100, 16, 4, Duration.ofDays(7), clock);
+    }
+
+    @Test
+    void box_oneRequestPerTouchedTile() {
+        List<SegmentSummary> actual = segmentExplorer.explore(ATHLETE, new BoundingBox(52.0, 5.0, 52.2, 5.1), null, null, null)
+                .collectList().block();
+
+        assertThat(requested).containsExactlyInAnyOrder(
+                new BoundingBox(52.0, 5.0, 52.1, 5.1),
+                new BoundingBox(52.1, 5.0, 52.2, 5.1));
+        assertThat(actual).extracting(SegmentSummary::startLatlng)
+                .containsExactlyInAnyOrder(new LatLng(52.05, 5.05), new LatLng(52.15, 5.05));
+    }
+
+    @Test
+    void overlappingBox_onlyUncoveredTilesRequested() {
+        segmentExplorer.explore(ATHLETE, new BoundingBox(52.0, 5.0, 52.2, 5.1), null, null, null).blockLast();
+        requested.clear();
+
+        segmentExplorer.explore(ATHLETE, new BoundingBox(52.11, 5.01, 52.29, 5.09), null, null, null).blockLast();
+
+        assertThat(requested).containsExactly(new BoundingBox(52.2, 5.0, 52.3, 5.1));
+        assertThat(segmentExplorer.getLocalTileCount()).isEqualTo(1);
+        assertThat(segmentExplorer.getFetchedTileCount()).isEqualTo(3);
+    }
+
+    @Test
+    void coveredBox_answeredLocallyAndFilteredOnBox() {
+        segmentExplorer.explore(ATHLETE, new BoundingBox(52.0, 5.0, 52.2, 5.1), null, null, null).blockLast();
+        requested.clear();
+
+        List<SegmentSummary> actual = segmentExplorer.explore(ATHLETE, new BoundingBox(52.12, 5.02, 52.18, 5.08), null, null, null)
+                .collectList().block();
+        List<SegmentSummary> outside = segmentExplorer.explore(ATHLETE, new BoundingBox(52.01, 5.01, 52.02, 5.02), null, null, null)
+                .collectList().block();
+
+        assertThat(requested).isEmpty();
+        assertThat(actual).extracting(SegmentSummary::startLatlng).containsExactly(new LatLng(52.15, 5.05));
+        assertThat(outside).isEmpty();
+    }
+
+    @Test
+    void otherActivityType_tileRequestedAgain() {
+        segmentExplorer.explore(ATHLETE, new BoundingBox(52.0, 5.0, 52.1, 5.1), SegmentActivityType.RUNNING, null, null).blockLast();
+        segmentExplorer.explore(ATHLETE, new BoundingBox(52.0, 5.0, 52.1, 5.1), SegmentActivityType.RIDING, null, null).blockLast();
+
+        verify(stravaClient).exploreSegments(ATHLETE, new BoundingBox(52.0, 5.0, 52.1, 5.1), SegmentActivityType.RUNNING);
+        verify(stravaClient).exploreSegments(ATHLETE, new BoundingBox(52.0, 5.0, 52.1, 5.1), SegmentActivityType.RIDING);
+    }
+
+    @Test
+    void expiredTile_requestedAgain() {
+        segmentExplorer.explore(ATHLETE, new BoundingBox(52.0, 5.0, 52.1, 5.1), null, null, null).blockLast();
+        clock.advance(Duration.ofDays(8));
+
+        segmentExplorer.explore(ATHLETE, new BoundingBox(52.0, 5.0, 52.1, 5.1), null, null, null).blockLast();
+
+        assertThat(requested).hasSize(2);
+    }
+
+    @Test
+    void categories_filteredLocally() {
+        List<SegmentSummary> all = segmentExplorer.explore(ATHLETE, new BoundingBox(52.0, 5.0, 52.5, 5.1), null, null, null)
+                .collectList().block();
+        List<SegmentSummary> climbs = segmentExplorer.explore(ATHLETE, new BoundingBox(52.0, 5.0, 52.5, 5.1), null, 3, 5)
+                .collectList().block();
+
+        assertThat(climbs).isNotEmpty()
+                .allMatch(segment -> segment.climbCategory() >= 3)
+                .hasSizeLessThan(all.size());
+        assertThat(requested).hasSize(5);
+    }
+
+    @Test
+    void largeBox_sentAsWholeWithoutCaching() {
+        BoundingBox large = new BoundingBox(51.0, 4.0, 53.0, 6.0);
+
+        segmentExplorer.explore(ATHLETE, large, null, null, null).blockLast();
+        segmentExplorer.explore(ATHLETE, large, null, null, null).blockLast();
+
+        assertThat(requested).containsExactly(large, large);
+        verify(stravaClient, never()).exploreSegments(ATHLETE, new BoundingBox(51.0, 4.0, 51.1, 4.1), null);
+    }
+
+    @Test
+    void sharedRequestOfOtherAthleteFails_triedAgainWithOwnToken() {
+        OAuth2User first = mock(OAuth2User.class);
+        OAuth2User second = mock(OAuth2User.class);
+        when(first.getName()).thenReturn("2523456");
+        when(second.getName()).thenReturn("5646321");
+        Sinks.One<List<SegmentSummary>> firstRequest = Sinks.one();
+        when(stravaClient.exploreSegments(eq(first), any(), any())).thenReturn(firstRequest.asMono());
+        when(stravaClient.exploreSegments(eq(second), any(), any())).thenReturn(Mono.just(List.of(segment(1L, 52.05, 5.05, 0))));
+        BoundingBox box = new BoundingBox(52.0, 5.0, 52.1, 5.1);
+
+        Mono<List<SegmentSummary>> ofFirst = segmentExplorer.explore(first, box, null, null, null).collectList().cache();
+        Mono<List<SegmentSummary>> ofSecond = segmentExplorer.explore(second, box, null, null, null).collectList().cache();
+        ofFirst.subscribe(segments -> {}, e -> {});
+        ofSecond.subscribe(segments -> {}, e -> {});
+        verify(stravaClient, never()).exploreSegments(eq(second), any(), any());
+        firstRequest.tryEmitError(new IllegalStateException("Token revoked"));
+
+        assertThat(ofSecond.block()).extracting(SegmentSummary::id).containsExactly(1L);
+        assertThatThrownBy(ofFirst::block).hasMessage("Token revoked");
+    }
+
+    private static SegmentSummary segment(long id, double lat, double lng, int climbCategory) {
+        return new SegmentSummary(id, "Segment " + id, climbCategory, null, 1.0f, new LatLng(lat, lng), null, null, 1000.0f, null, false);
+    }
+}
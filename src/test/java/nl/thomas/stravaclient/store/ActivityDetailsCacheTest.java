@@ -0,0 +1,32 @@
+package nl.thomas.stravaclient.store;
+
+import nl.thomas.strava.model.DetailedActivity;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ActivityDetailsCacheTest {
+
+    @Test
+    void cacheFull_leastRecentlyUsedEvicted() {
+        ActivityDetailsCache cache = new ActivityDetailsCache(2);
+        cache.put("2523456", new DetailedActivity().id(1L));
+        cache.put("2523456", new DetailedActivity().id(2L));
+        cache.get("2523456", 1L);
+        cache.put("2523456", new DetailedActivity().id(3L));
+
+        assertThat(cache.get("2523456", 1L)).isPresent();
+        assertThat(cache.get("2523456", 2L)).isEmpty();
+        assertThat(cache.get("2523456", 3L)).isPresent();
+        assertThat(cache.getHitCount()).isEqualTo(3);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    void sameActivityIdOtherAthlete_notShared() {
+        ActivityDetailsCache cache = new ActivityDetailsCache(10);
+        cache.put("2523456", new DetailedActivity().id(1L));
+
+        assertThat(cache.get("120475", 1L)).isEmpty();
+    }
+}
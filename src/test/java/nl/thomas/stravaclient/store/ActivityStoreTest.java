@@ -0,0 +1,151 @@
+package nl.thomas.stravaclient.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.thomas.strava.model.DetailedActivity;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ActivityStoreTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = Jackson2ObjectMapperBuilder.json().build();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void savedActivities_foundInWindowOrderedByStartDate() {
+        ActivityStore activityStore = new ActivityStore(OBJECT_MAPPER, directory);
+        activityStore.save("2523456", activity(3L, "2025-05-03T10:00:00Z", "Third"));
+        activityStore.save("2523456", activity(1L, "2025-05-01T10:00:00Z", "First"));
+        activityStore.save("2523456", activity(2L, "2025-05-02T10:00:00Z", "Second"));
+
+        assertThat(activityStore.find("2523456", Instant.parse("2025-05-01T10:00:00Z"), Instant.parse("2025-05-03T10:00:00Z")))
+                .extracting(DetailedActivity::getName)
+                .containsExactly("First", "Second");
+        assertThat(activityStore.find("other", Instant.EPOCH, Instant.parse("2030-01-01T00:00:00Z"))).isEmpty();
+    }
+
+    @Test
+    void saveWhileStreaming_streamNotBroken() {
+        ActivityStore activityStore = new ActivityStore(OBJECT_MAPPER, directory);
+        activityStore.save("2523456", activity(1L, "2025-05-01T10:00:00Z", "First"));
+        activityStore.save("2523456", activity(2L, "2025-05-02T10:00:00Z", "Second"));
+        activityStore.save("2523456", activity(3L, "2025-05-03T10:00:00Z", "Third"));
+
+        List<String> streamed = new ArrayList<>();
+        try (Stream<DetailedActivity> activities = activityStore.stream("2523456", Instant.EPOCH, Instant.parse("2030-01-01T00:00:00Z"))) {
+            activities.forEach(activity -> {
+                streamed.add(activity.getName());
+                activityStore.save("2523456", activity(4L, "2025-04-30T10:00:00Z", "Earlier"));
+            });
+        }
+
+        assertThat(streamed).containsExactly("First", "Second", "Third");
+    }
+
+    @Test
+    void updatedActivity_replacesEarlierVersion() {
+        ActivityStore activityStore = new ActivityStore(OBJECT_MAPPER, directory);
+        activityStore.save("2523456", activity(1L, "2025-05-01T10:00:00Z", "Old name"));
+        activityStore.save("2523456", activity(1L, "2025-05-01T10:00:00Z", "New name"));
+
+        assertThat(activityStore.find("2523456", Instant.EPOCH, Instant.parse("2030-01-01T00:00:00Z")))
+                .extracting(DetailedActivity::getName)
+                .containsExactly("New name");
+        assertThat(activityStore.get("2523456", 1L)).map(DetailedActivity::getName).contains("New name");
+    }
+
+    @Test
+    void unchangedActivity_notAppendedAgain() throws IOException {
+        ActivityStore activityStore = new ActivityStore(OBJECT_MAPPER, directory);
+        List<String> saved = new ArrayList<>();
+        activityStore.addListener((athleteId, activity) -> saved.add(activity.getName()));
+        activityStore.save("2523456", activity(1L, "2025-05-01T10:00:00Z", "First"));
+        activityStore.save("2523456", activity(1L, "2025-05-01T10:00:00Z", "First"));
+        activityStore.save("2523456", activity(1L, "2025-05-01T10:00:00Z", "Renamed"));
+
+        assertThat(saved).containsExactly("First", "Renamed");
+        assertThat(Files.readAllLines(directory.resolve("2523456.ndjson"))).hasSize(2);
+    }
+
+    @Test
+    void savedBatch_changedActivitiesAppendedOnce() throws IOException {
+        ActivityStore activityStore = new ActivityStore(OBJECT_MAPPER, directory);
+        List<String> saved = new ArrayList<>();
+        activityStore.addListener((athleteId, activity) -> saved.add(activity.getName()));
+        activityStore.saveAll("2523456", List.of(
+                activity(1L, "2025-05-01T10:00:00Z", "First"),
+                activity(2L, "2025-05-02T10:00:00Z", "Second")));
+
+        activityStore.saveAll("2523456", List.of(
+                activity(1L, "2025-05-01T10:00:00Z", "First"),
+                activity(2L, "2025-05-02T10:00:00Z", "Renamed"),
+                activity(3L, "2025-05-03T10:00:00Z", "Third")));
+
+        assertThat(saved).containsExactly("First", "Second", "Renamed", "Third");
+        assertThat(Files.readAllLines(directory.resolve("2523456.ndjson"))).hasSize(4);
+    }
+
+    @Test
+    void restartThenSavedUnchanged_notAppendedAgain() throws IOException {
+        new ActivityStore(OBJECT_MAPPER, directory).save("2523456", activity(1L, "2025-05-01T10:00:00Z", "First"));
+
+        new ActivityStore(OBJECT_MAPPER, directory).save("2523456", activity(1L, "2025-05-01T10:00:00Z", "First"));
+
+        assertThat(Files.readAllLines(directory.resolve("2523456.ndjson"))).hasSize(1);
+    }
+
+    @Test
+    void restart_activitiesAndSyncStateLoadedFromFiles() {
+        ActivityStore activityStore = new ActivityStore(OBJECT_MAPPER, directory);
+        activityStore.save("2523456", activity(1L, "2025-05-01T10:00:00Z", "Old name"));
+        activityStore.save("2523456", activity(1L, "2025-05-01T10:00:00Z", "New name"));
+        activityStore.save("2523456", activity(2L, "2025-05-02T10:00:00Z", "Second"));
+        ActivityStore.SyncState syncState = new ActivityStore.SyncState(Instant.parse("2025-04-01T00:00:00Z"), Instant.parse("2025-05-02T10:00:00Z"));
+        activityStore.saveSyncState("2523456", syncState);
+
+        ActivityStore restarted = new ActivityStore(OBJECT_MAPPER, directory);
+
+        assertThat(restarted.find("2523456", Instant.EPOCH, Instant.parse("2030-01-01T00:00:00Z")))
+                .extracting(DetailedActivity::getName)
+                .containsExactly("New name", "Second");
+        assertThat(restarted.getSyncState("2523456")).contains(syncState);
+    }
+
+    @Test
+    void deletedActivity_goneAfterRestart() {
+        ActivityStore activityStore = new ActivityStore(OBJECT_MAPPER, directory);
+        List<Long> deleted = new ArrayList<>();
+        activityStore.addDeleteListener((athleteId, activityId) -> deleted.add(activityId));
+        activityStore.save("2523456", activity(1L, "2025-05-01T10:00:00Z", "First"));
+        activityStore.save("2523456", activity(2L, "2025-05-02T10:00:00Z", "Second"));
+
+        assertThat(activityStore.delete("2523456", 1L)).isTrue();
+        assertThat(activityStore.delete("2523456", 1L)).isFalse();
+
+        assertThat(deleted).containsExactly(1L);
+        assertThat(activityStore.get("2523456", 1L)).isEmpty();
+        assertThat(new ActivityStore(OBJECT_MAPPER, directory).find("2523456", Instant.EPOCH, Instant.parse("2030-01-01T00:00:00Z")))
+                .extracting(DetailedActivity::getName)
+                .containsExactly("Second");
+    }
+
+    static DetailedActivity activity(long id, String startDate, String name) {
+        return new DetailedActivity()
+                .id(id)
+                .name(name)
+                .startDate(OffsetDateTime.parse(startDate));
+    }
+}
@@ -0,0 +1,273 @@
+package nl.thomas.stravaclient.store;
+
+import nl.thomas.strava.model.DetailedActivity;
+import nl.thomas.strava.model.ActivityType;
+import nl.thomas.stravaclient.client.ActivityField;
+import nl.thomas.stravaclient.client.ActivitySummary;
+import nl.thomas.stravaclient.client.StravaClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static nl.thomas.stravaclient.store.ActivityStoreTest.activity;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ActivitySyncServiceTest {
+
+    private static final ZonedDateTime MAY_1 = ZonedDateTime.parse("2025-05-01T00:00:00Z");
+    private static final ZonedDateTime MAY_8 = ZonedDateTime.parse("2025-05-08T00:00:00Z");
+    private static final ZonedDateTime MAY_15 = ZonedDateTime.parse("2025-05-15T00:00:00Z");
+
+    @Mock
+    StravaClient stravaClient;
+    @TempDir
+    Path directory;
+
+    private final OAuth2User oAuth2User = mock(OAuth2User.class);
+
+    private ActivitySyncService activitySyncService(boolean enabled) {
+        ActivityStore activityStore = new ActivityStore(Jackson2ObjectMapperBuilder.json().build(), directory);
+        return new ActivitySyncService(stravaClient, activityStore, new ActivityDetailsCache(100), enabled, Duration.ofDays(2));
+    }
+
+    @Test
+    void windowAlreadySynchronised_answeredFromStore() {
+        when(oAuth2User.getName()).thenReturn("2523456");
+        when(stravaClient.getDetailedActivities(any(), eq(MAY_1), eq(MAY_15))).thenReturn(Flux.just(
+                activity(1L, "2025-05-02T10:00:00Z", "First"),
+                activity(2L, "2025-05-09T10:00:00Z", "Second")));
+        ActivitySyncService activitySyncService = activitySyncService(true);
+
+        StepVerifier.create(activitySyncService.getDetailedActivities(oAuth2User, MAY_1, MAY_15))
+                .expectNextCount(2)
+                .verifyComplete();
+        StepVerifier.create(activitySyncService.getDetailedActivities(oAuth2User, MAY_1, MAY_8))
+                .expectNextMatches(activity -> activity.getName().equals("First"))
+                .verifyComplete();
+
+        verify(stravaClient).getDetailedActivities(any(), eq(MAY_1), eq(MAY_15));
+        verifyNoMoreInteractions(stravaClient);
+    }
+
+    @Test
+    void windowExtendsBeyondSynchronisedPeriod_onlyMissingPartsFetched() {
+        when(oAuth2User.getName()).thenReturn("2523456");
+        ZonedDateTime april24 = ZonedDateTime.parse("2025-04-24T00:00:00Z");
+        ZonedDateTime lastSeen = ZonedDateTime.parse("2025-05-02T10:00:00Z");
+        when(stravaClient.getDetailedActivities(any(), eq(MAY_1), eq(MAY_8)))
+                .thenReturn(Flux.just(activity(1L, "2025-05-02T10:00:00Z", "First")));
+        when(stravaClient.getDetailedActivities(any(), eq(april24), eq(MAY_1)))
+                .thenReturn(Flux.just(activity(0L, "2025-04-25T10:00:00Z", "Earlier")));
+        when(stravaClient.getDetailedActivities(any(), eq(MAY_8), eq(MAY_15)))
+                .thenReturn(Flux.just(activity(2L, "2025-05-09T10:00:00Z", "Later")));
+        ActivitySyncService activitySyncService = activitySyncService(true);
+
+        StepVerifier.create(activitySyncService.getDetailedActivities(oAuth2User, MAY_1, MAY_8))
+                .expectNextCount(1)
+                .verifyComplete();
+        StepVerifier.create(activitySyncService.getDetailedActivities(oAuth2User, april24, MAY_15))
+                .expectNextMatches(activity -> activity.getName().equals("Earlier"))
+                .expectNextMatches(activity -> activity.getName().equals("First"))
+                .expectNextMatches(activity -> activity.getName().equals("Later"))
+                .verifyComplete();
+
+        verify(stravaClient, never()).getDetailedActivities(any(), eq(lastSeen), any());
+    }
+
+    @Test
+    void concurrentSyncs_oneRunningPerAthlete() {
+        when(oAuth2User.getName()).thenReturn("2523456");
+        Sinks.Many<DetailedActivity> firstWeek = Sinks.many().unicast().onBackpressureBuffer();
+        when(stravaClient.getDetailedActivities(any(), eq(MAY_1), eq(MAY_8))).thenReturn(firstWeek.asFlux());
+        when(stravaClient.getDetailedActivities(any(), eq(MAY_8), eq(MAY_15))).thenReturn(Flux.just(
+                activity(2L, "2025-05-09T10:00:00Z", "Second")));
+        ActivitySyncService activitySyncService = activitySyncService(true);
+
+        StepVerifier.create(Mono.when(
+                        activitySyncService.sync(oAuth2User, MAY_1, MAY_8),
+                        activitySyncService.sync(oAuth2User, MAY_1, MAY_8),
+                        activitySyncService.sync(oAuth2User, MAY_1, MAY_15)))
+                .then(() -> {
+                    firstWeek.tryEmitNext(activity(1L, "2025-05-02T10:00:00Z", "First"));
+                    firstWeek.tryEmitComplete();
+                })
+                .verifyComplete();
+
+        // The same window joined the running sync, the wider one only fetched what that sync left
+        verify(stravaClient).getDetailedActivities(any(), eq(MAY_1), eq(MAY_8));
+        verify(stravaClient).getDetailedActivities(any(), eq(MAY_8), eq(MAY_15));
+        verifyNoMoreInteractions(stravaClient);
+    }
+
+    @Test
+    void windowNotSynchronised_storedPageHandedOnBeforeLastPage() {
+        when(oAuth2User.getName()).thenReturn("2523456");
+        Sinks.Many<DetailedActivity> pages = Sinks.many().unicast().onBackpressureBuffer();
+        when(stravaClient.getDetailedActivities(any(), eq(MAY_1), eq(MAY_15))).thenReturn(pages.asFlux());
+        ActivitySyncService activitySyncService = activitySyncService(true);
+        ActivityStore activityStore = new ActivityStore(Jackson2ObjectMapperBuilder.json().build(), directory);
+
+        StepVerifier.create(activitySyncService.getDetailedActivities(oAuth2User, MAY_1, MAY_15))
+                .then(() -> LongStream.range(0, 200).forEach(id -> pages.tryEmitNext(
+                        activity(id, MAY_1.plusMinutes(id).toInstant().toString(), "Activity " + id))))
+                .expectNextCount(200)
+                .then(() -> assertThat(activityStore.find("2523456", MAY_1.toInstant(), MAY_15.toInstant())).hasSize(200))
+                .then(pages::tryEmitComplete)
+                .verifyComplete();
+    }
+
+    @Test
+    void activityInsideLateUploadMargin_lateUploadBeforeItFetched() {
+        when(oAuth2User.getName()).thenReturn("2523456");
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        ZonedDateTime weekAgo = now.minusDays(7);
+        DetailedActivity recent = activity(1L, now.minusHours(1).toString(), "Recent");
+        // Started before the recent one, but uploaded after the first sync
+        DetailedActivity lateUpload = activity(2L, now.minusHours(3).toString(), "Late upload");
+        List<ZonedDateTime> fetchedAfter = new ArrayList<>();
+        when(stravaClient.getDetailedActivities(any(), any(), eq(now))).thenAnswer(invocation -> {
+            fetchedAfter.add(invocation.getArgument(1));
+            return fetchedAfter.size() == 1 ? Flux.just(recent) : Flux.just(lateUpload, recent);
+        });
+        ActivitySyncService activitySyncService = activitySyncService(true);
+
+        StepVerifier.create(activitySyncService.getDetailedActivities(oAuth2User, weekAgo, now))
+                .expectNextCount(1)
+                .verifyComplete();
+        StepVerifier.create(activitySyncService.getDetailedActivities(oAuth2User, weekAgo, now))
+                .expectNextMatches(activity -> activity.getName().equals("Late upload"))
+                .expectNextMatches(activity -> activity.getName().equals("Recent"))
+                .verifyComplete();
+
+        assertThat(fetchedAfter).hasSize(2);
+        assertThat(fetchedAfter.get(1)).isBefore(now.minusDays(2).plusMinutes(1));
+    }
+
+    @Test
+    void storeDisabled_syncDoesNothing() {
+        StepVerifier.create(activitySyncService(false).sync(oAuth2User, MAY_1, MAY_8))
+                .verifyComplete();
+
+        verifyNoMoreInteractions(stravaClient);
+    }
+
+    @Test
+    void storeDisabled_passedToClient() {
+        when(stravaClient.getDetailedActivities(any(), eq(MAY_1), eq(MAY_8)))
+                .thenReturn(Flux.just(activity(1L, "2025-05-02T10:00:00Z", "First")));
+
+        StepVerifier.create(activitySyncService(false).getDetailedActivities(oAuth2User, MAY_1, MAY_8))
+                .expectNextCount(1)
+                .verifyComplete();
+    }
+
+    @Test
+    void summaries_selectedFieldsFromStore() {
+        when(oAuth2User.getName()).thenReturn("2523456");
+        when(stravaClient.getDetailedActivities(any(), eq(MAY_1), eq(MAY_8)))
+                .thenReturn(Flux.just(activity(1L, "2025-05-02T10:00:00Z", "First")));
+
+        StepVerifier.create(activitySyncService(true).getActivitySummaries(oAuth2User, MAY_1, MAY_8, EnumSet.of(ActivityField.ID, ActivityField.NAME)))
+                .expectNext(new ActivitySummary(1L, "First", null, null, null, null))
+                .verifyComplete();
+    }
+
+    @Test
+    void storeDisabled_summariesDecodedByClient() {
+        when(stravaClient.getActivitySummaries(any(), eq(MAY_1), eq(MAY_8)))
+                .thenReturn(Flux.just(new ActivitySummary(1L, "First", OffsetDateTime.parse("2025-05-02T10:00:00Z"), 10028.8f, 2768, ActivityType.RUN)));
+
+        StepVerifier.create(activitySyncService(false).getActivitySummaries(oAuth2User, MAY_1, MAY_8, EnumSet.of(ActivityField.DISTANCE)))
+                .expectNext(new ActivitySummary(null, null, null, 10028.8f, null, null))
+                .verifyComplete();
+        verify(stravaClient, never()).getDetailedActivities(any(), any(), any());
+    }
+
+    @Test
+    void beforeIsAfter_exception() {
+        ActivitySyncService activitySyncService = activitySyncService(true);
+
+        assertThatThrownBy(() -> activitySyncService.getDetailedActivities(oAuth2User, MAY_8, MAY_1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Incorrect parameters: after 2025-05-08T00:00Z should be earlier than before 2025-05-01T00:00Z.");
+    }
+
+    @Test
+    void renamedActivity_storeUpdated() {
+        when(oAuth2User.getName()).thenReturn("2523456");
+        DetailedActivity renamed = activity(1L, "2025-05-02T10:00:00Z", "New name");
+        when(stravaClient.replaceNameForActivity(oAuth2User, 1L, "New name")).thenReturn(Mono.just(renamed));
+        when(stravaClient.getDetailedActivities(any(), eq(MAY_1), eq(MAY_8))).thenReturn(Flux.just(
+                activity(1L, "2025-05-02T10:00:00Z", "Old name")));
+        ActivitySyncService activitySyncService = activitySyncService(true);
+        activitySyncService.sync(oAuth2User, MAY_1, MAY_8).block();
+
+        StepVerifier.create(activitySyncService.replaceNameForActivity(oAuth2User, 1L, "New name"))
+                .expectNext(renamed)
+                .verifyComplete();
+        StepVerifier.create(activitySyncService.getDetailedActivities(oAuth2User, MAY_1, MAY_8))
+                .expectNextMatches(activity -> activity.getName().equals("New name"))
+                .verifyComplete();
+    }
+
+    @Test
+    void activityFetchedTwice_secondFromCache() {
+        when(oAuth2User.getName()).thenReturn("2523456");
+        when(stravaClient.getDetailedActivity(oAuth2User, 1L)).thenReturn(Mono.just(activity(1L, "2025-05-02T10:00:00Z", "First")));
+        ActivitySyncService activitySyncService = activitySyncService(false);
+
+        assertThat(activitySyncService.getCachedActivity("2523456", 1L)).isEmpty();
+        StepVerifier.create(activitySyncService.getDetailedActivity(oAuth2User, 1L))
+                .expectNextMatches(activity -> activity.getName().equals("First"))
+                .verifyComplete();
+        StepVerifier.create(activitySyncService.getDetailedActivity(oAuth2User, 1L))
+                .expectNextMatches(activity -> activity.getName().equals("First"))
+                .verifyComplete();
+
+        verify(stravaClient).getDetailedActivity(oAuth2User, 1L);
+    }
+
+    @Test
+    void cachedActivityRenamedAndDeleted_cacheUpdated() {
+        when(oAuth2User.getName()).thenReturn("2523456");
+        when(stravaClient.getDetailedActivity(oAuth2User, 1L)).thenReturn(Mono.just(activity(1L, "2025-05-02T10:00:00Z", "First")));
+        when(stravaClient.replaceNameForActivity(oAuth2User, 1L, "New name"))
+                .thenReturn(Mono.just(activity(1L, "2025-05-02T10:00:00Z", "New name")));
+        ActivitySyncService activitySyncService = activitySyncService(false);
+
+        activitySyncService.getDetailedActivity(oAuth2User, 1L).block();
+        activitySyncService.replaceNameForActivity(oAuth2User, 1L, "New name").block();
+        assertThat(activitySyncService.getCachedActivity("2523456", 1L)).get()
+                .extracting(DetailedActivity::getName)
+                .isEqualTo("New name");
+        activitySyncService.deleteActivity("2523456", 1L);
+        assertThat(activitySyncService.getCachedActivity("2523456", 1L)).isEmpty();
+    }
+}
@@ -0,0 +1,113 @@
+package nl.thomas.stravaclient.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileOAuth2AuthorizedClientServiceTest {
+
+    private static final ClientRegistration STRAVA = ClientRegistration.withRegistrationId("strava")
+            .clientId("client")
+            .clientSecret("geheim")
+            .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+            .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")
+            .authorizationUri("https://www.strava.com/oauth/authorize")
+            .tokenUri("https://www.strava.com/oauth/token")
+            .build();
+    private static final Instant ISSUED_AT = Instant.parse("2025-05-17T12:00:00Z");
+
+    @TempDir
+    Path directory;
+
+    private final InMemoryClientRegistrationRepository clientRegistrationRepository = new InMemoryClientRegistrationRepository(STRAVA);
+
+    @Test
+    void savedClient_loadedAfterRestart() {
+        new FileOAuth2AuthorizedClientService(clientRegistrationRepository, directory)
+                .saveAuthorizedClient(authorizedClient("token"), new TestingAuthenticationToken("2523456", null));
+
+        OAuth2AuthorizedClient actual = new FileOAuth2AuthorizedClientService(clientRegistrationRepository, directory)
+                .loadAuthorizedClient("strava", "2523456");
+
+        assertThat(actual.getClientRegistration()).isSameAs(STRAVA);
+        assertThat(actual.getPrincipalName()).isEqualTo("2523456");
+        assertThat(actual.getAccessToken().getTokenValue()).isEqualTo("token");
+        assertThat(actual.getAccessToken().getExpiresAt()).isEqualTo(ISSUED_AT.plus(6, ChronoUnit.HOURS));
+        assertThat(actual.getAccessToken().getScopes()).containsExactlyInAnyOrder("read", "activity:read_all");
+        assertThat(actual.getRefreshToken().getTokenValue()).isEqualTo("refresh");
+    }
+
+    @Test
+    void savedClient_clientSecretNotWritten() throws Exception {
+        new FileOAuth2AuthorizedClientService(clientRegistrationRepository, directory)
+                .saveAuthorizedClient(authorizedClient("token"), new TestingAuthenticationToken("2523456", null));
+
+        assertThat(new String(Files.readAllBytes(directory.resolve("strava-2523456.client")))).doesNotContain("geheim");
+    }
+
+    @Test
+    void clientSavedByOtherNode_newTokenLoaded() throws Exception {
+        FileOAuth2AuthorizedClientService service = new FileOAuth2AuthorizedClientService(clientRegistrationRepository, directory);
+        service.saveAuthorizedClient(authorizedClient("token"), new TestingAuthenticationToken("2523456", null));
+        service.loadAuthorizedClient("strava", "2523456");
+
+        new FileOAuth2AuthorizedClientService(clientRegistrationRepository, directory)
+                .saveAuthorizedClient(authorizedClient("refreshed"), new TestingAuthenticationToken("2523456", null));
+        Files.setLastModifiedTime(directory.resolve("strava-2523456.client"), FileTime.from(Instant.now().plusSeconds(1)));
+
+        assertThat(service.<OAuth2AuthorizedClient>loadAuthorizedClient("strava", "2523456").getAccessToken().getTokenValue())
+                .isEqualTo("refreshed");
+    }
+
+    @Test
+    void removedClient_notLoaded() {
+        FileOAuth2AuthorizedClientService service = new FileOAuth2AuthorizedClientService(clientRegistrationRepository, directory);
+        service.saveAuthorizedClient(authorizedClient("token"), new TestingAuthenticationToken("2523456", null));
+
+        service.removeAuthorizedClient("strava", "2523456");
+
+        assertThat(service.<OAuth2AuthorizedClient>loadAuthorizedClient("strava", "2523456")).isNull();
+    }
+
+    @Test
+    void unknownRegistration_notLoaded() {
+        FileOAuth2AuthorizedClientService service = new FileOAuth2AuthorizedClientService(clientRegistrationRepository, directory);
+
+        assertThat(service.<OAuth2AuthorizedClient>loadAuthorizedClient("garmin", "2523456")).isNull();
+    }
+
+    @Test
+    void savedClients_principalNamesListed() {
+        FileOAuth2AuthorizedClientService service = new FileOAuth2AuthorizedClientService(clientRegistrationRepository, directory);
+        assertThat(service.getPrincipalNames("strava")).isEmpty();
+        service.saveAuthorizedClient(authorizedClient("token"), new TestingAuthenticationToken("2523456", null));
+        service.saveAuthorizedClient(authorizedClient("token"), new TestingAuthenticationToken("120475", null));
+        service.removeAuthorizedClient("strava", "120475");
+
+        assertThat(service.getPrincipalNames("strava")).containsExactly("2523456");
+        assertThat(service.getPrincipalNames("garmin")).isEmpty();
+    }
+
+    private static OAuth2AuthorizedClient authorizedClient(String token) {
+        return new OAuth2AuthorizedClient(
+                STRAVA,
+                "2523456",
+                new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, token, ISSUED_AT, ISSUED_AT.plus(6, ChronoUnit.HOURS), Set.of("read", "activity:read_all")),
+                new OAuth2RefreshToken("refresh", ISSUED_AT));
+    }
+}
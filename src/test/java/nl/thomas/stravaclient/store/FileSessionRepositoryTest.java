@@ -0,0 +1,228 @@
+package nl.thomas.stravaclient.store;
+
+import nl.thomas.stravaclient.MutableClock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.core.oidc.user.DefaultOidcUser;
+import org.springframework.security.oauth2.core.oidc.user.OidcUserAuthority;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.io.File;
+import java.io.InvalidClassException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FileSessionRepositoryTest {
+
+    private static final Duration TIMEOUT = Duration.ofMinutes(30);
+    private static final Duration TOUCH_INTERVAL = Duration.ofMinutes(1);
+    private static final Duration CLEANUP_INTERVAL = Duration.ofMinutes(10);
+
+    @TempDir
+    Path directory;
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2025-05-17T12:00:00Z"));
+    private final VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+    private FileSessionRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        repository = repository();
+    }
+
+    @AfterEach
+    void close() {
+        repository.close();
+    }
+
+    private FileSessionRepository repository() {
+        return new FileSessionRepository(directory, TIMEOUT, TOUCH_INTERVAL, CLEANUP_INTERVAL, clock, scheduler);
+    }
+
+    @Test
+    void savedSession_foundByOtherNodeSharingDirectory() {
+        FileSessionRepository.FileSession session = repository.createSession();
+        session.setAttribute("athlete", "2523456");
+        repository.save(session);
+
+        try (FileSessionRepository otherNode = repository()) {
+            FileSessionRepository.FileSession found = otherNode.findById(session.getId());
+
+            assertThat(found.<String>getAttribute("athlete")).isEqualTo("2523456");
+            assertThat(found.getCreationTime()).isEqualTo(clock.instant());
+        }
+    }
+
+    @Test
+    void securityContext_foundByOtherNodeSharingDirectory() {
+        OidcIdToken idToken = OidcIdToken.withTokenValue("id-token").subject("2523456").issuedAt(clock.instant()).build();
+        DefaultOidcUser user = new DefaultOidcUser(List.of(new OidcUserAuthority(idToken)), idToken);
+        FileSessionRepository.FileSession session = repository.createSession();
+        session.setAttribute("SPRING_SECURITY_CONTEXT", new SecurityContextImpl(new OAuth2AuthenticationToken(user, user.getAuthorities(), "strava")));
+        repository.save(session);
+
+        try (FileSessionRepository otherNode = repository()) {
+            SecurityContext found = otherNode.findById(session.getId()).getAttribute("SPRING_SECURITY_CONTEXT");
+
+            assertThat(found.getAuthentication().getName()).isEqualTo("2523456");
+        }
+    }
+
+    @Test
+    void sessionWithOtherClass_notRead() {
+        FileSessionRepository.FileSession session = repository.createSession();
+        session.setAttribute("file", new File("/etc/passwd"));
+        repository.save(session);
+
+        try (FileSessionRepository otherNode = repository()) {
+            assertThatThrownBy(() -> otherNode.findById(session.getId()))
+                    .isInstanceOf(UncheckedIOException.class)
+                    .hasRootCauseInstanceOf(InvalidClassException.class);
+        }
+    }
+
+    @Test
+    void attributeChangedOnOtherNode_seenOnNextLoad() {
+        FileSessionRepository.FileSession session = repository.createSession();
+        session.setAttribute("athlete", "2523456");
+        repository.save(session);
+        repository.findById(session.getId());
+
+        try (FileSessionRepository otherNode = repository()) {
+            FileSessionRepository.FileSession onOtherNode = otherNode.findById(session.getId());
+            onOtherNode.setAttribute("athlete", "5646321");
+            otherNode.save(onOtherNode);
+        }
+        touchFile(session.getId(), clock.instant().plusSeconds(1));
+
+        assertThat(repository.findById(session.getId()).<String>getAttribute("athlete")).isEqualTo("5646321");
+    }
+
+    @Test
+    void onlyAccessed_writtenOncePerTouchInterval() throws Exception {
+        FileSessionRepository.FileSession session = repository.createSession();
+        repository.save(session);
+        touchFile(session.getId(), clock.instant().minusSeconds(5));
+
+        FileSessionRepository.FileSession accessed = repository.findById(session.getId());
+        accessed.setLastAccessedTime(clock.instant().plusSeconds(30));
+        repository.save(accessed);
+        assertThat(Files.getLastModifiedTime(file(session.getId())).toInstant()).isEqualTo(clock.instant().minusSeconds(5));
+
+        accessed.setLastAccessedTime(clock.instant().plus(TOUCH_INTERVAL));
+        repository.save(accessed);
+        assertThat(Files.getLastModifiedTime(file(session.getId())).toInstant()).isNotEqualTo(clock.instant().minusSeconds(5));
+    }
+
+    @Test
+    void changedSessionId_oldFileRemoved() {
+        FileSessionRepository.FileSession session = repository.createSession();
+        repository.save(session);
+        String oldId = session.getId();
+
+        FileSessionRepository.FileSession found = repository.findById(oldId);
+        found.changeSessionId();
+        repository.save(found);
+
+        assertThat(repository.findById(oldId)).isNull();
+        assertThat(repository.findById(found.getId())).isNotNull();
+    }
+
+    @Test
+    void expiredSession_notFoundAndDeleted() {
+        FileSessionRepository.FileSession session = repository.createSession();
+        repository.save(session);
+
+        clock.advance(TIMEOUT);
+
+        assertThat(repository.findById(session.getId())).isNull();
+        assertThat(file(session.getId())).doesNotExist();
+    }
+
+    @Test
+    void cleanup_expiredSessionFilesDeleted() {
+        FileSessionRepository.FileSession session = repository.createSession();
+        repository.save(session);
+        clock.advance(TIMEOUT.minus(CLEANUP_INTERVAL));
+        FileSessionRepository.FileSession recent = repository.createSession();
+        repository.save(recent);
+        clock.advance(CLEANUP_INTERVAL);
+
+        scheduler.advanceTimeBy(CLEANUP_INTERVAL);
+
+        assertThat(file(session.getId())).doesNotExist();
+        assertThat(file(recent.getId())).exists();
+    }
+
+    @Test
+    void cleanup_sessionWithLongerTimeoutKept() {
+        FileSessionRepository.FileSession session = repository.createSession();
+        session.setMaxInactiveInterval(TIMEOUT.multipliedBy(2));
+        repository.save(session);
+        clock.advance(TIMEOUT);
+
+        scheduler.advanceTimeBy(CLEANUP_INTERVAL);
+        assertThat(file(session.getId())).exists();
+        clock.advance(TIMEOUT);
+        scheduler.advanceTimeBy(CLEANUP_INTERVAL);
+
+        assertThat(file(session.getId())).doesNotExist();
+    }
+
+    @Test
+    void failedCleanup_nextCleanupStillRuns() {
+        FileSessionRepository.FileSession session = repository.createSession();
+        repository.save(session);
+        AtomicBoolean failing = new AtomicBoolean(true);
+        repository.close();
+        repository = new FileSessionRepository(directory, TIMEOUT, TOUCH_INTERVAL, CLEANUP_INTERVAL, new MutableClock(clock.instant().plus(TIMEOUT)) {
+            @Override
+            public Instant instant() {
+                if (failing.get()) {
+                    throw new IllegalStateException("Clock failed");
+                }
+                return super.instant();
+            }
+        }, scheduler);
+
+        scheduler.advanceTimeBy(CLEANUP_INTERVAL);
+        assertThat(file(session.getId())).exists();
+        failing.set(false);
+        scheduler.advanceTimeBy(CLEANUP_INTERVAL);
+
+        assertThat(file(session.getId())).doesNotExist();
+    }
+
+    @Test
+    void invalidSessionId_notFound() {
+        assertThat(repository.findById("../authorized-clients/strava-2523456")).isNull();
+        assertThat(repository.findById(null)).isNull();
+    }
+
+    private Path file(String id) {
+        return directory.resolve(id + ".session");
+    }
+
+    private void touchFile(String id, Instant instant) {
+        try {
+            Files.setLastModifiedTime(file(id), FileTime.from(instant));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package nl.thomas.stravaclient.summary;
+
+import nl.thomas.strava.model.DetailedActivity;
+import nl.thomas.strava.model.SportType;
+import nl.thomas.stravaclient.store.ActivityStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TrainingSummaryEngineTest {
+
+    private static final ZoneId AMSTERDAM = ZoneId.of("Europe/Amsterdam");
+    private static final ZoneId UTC = ZoneId.of("UTC");
+    private static final ZonedDateTime MAY_1 = ZonedDateTime.of(2025, 5, 1, 0, 0, 0, 0, AMSTERDAM);
+    private static final ZonedDateTime JUNE_1 = ZonedDateTime.of(2025, 6, 1, 0, 0, 0, 0, AMSTERDAM);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void activitiesPerWeek_summedPerSportTypeInTimeZone() {
+        ActivityStore activityStore = activityStore();
+        TrainingSummaryEngine engine = new TrainingSummaryEngine(activityStore);
+        activityStore.save("2523456", activity(1L, "2025-05-05T17:00:00Z", SportType.RUN, 10000f, 12f, 2700));
+        activityStore.save("2523456", activity(2L, "2025-05-07T17:00:00Z", SportType.RUN, 5000f, 3f, 1500));
+        activityStore.save("2523456", activity(3L, "2025-05-08T06:00:00Z", SportType.RIDE, 40000f, 150f, 4800));
+        // Sunday 23:30 in UTC is Monday 01:30 in Amsterdam, so this run is in the next week
+        activityStore.save("2523456", activity(4L, "2025-05-11T23:30:00Z", SportType.RUN, 8000f, 5f, 2400));
+
+        assertThat(engine.summarize("2523456", MAY_1, JUNE_1, SummaryBucket.WEEK)).containsExactly(
+                new TrainingSummary(LocalDate.parse("2025-05-05"), SportType.RIDE, 1, 40000, 150, 4800),
+                new TrainingSummary(LocalDate.parse("2025-05-05"), SportType.RUN, 2, 15000, 15, 4200),
+                new TrainingSummary(LocalDate.parse("2025-05-12"), SportType.RUN, 1, 8000, 5, 2400));
+        assertThat(engine.summarize("2523456", MAY_1.withZoneSameLocal(UTC), JUNE_1.withZoneSameLocal(UTC), SummaryBucket.WEEK)).containsExactly(
+                new TrainingSummary(LocalDate.parse("2025-05-05"), SportType.RIDE, 1, 40000, 150, 4800),
+                new TrainingSummary(LocalDate.parse("2025-05-05"), SportType.RUN, 3, 23000, 20, 6600));
+        assertThat(engine.summarize("2523456", MAY_1, JUNE_1, SummaryBucket.MONTH)).containsExactly(
+                new TrainingSummary(LocalDate.parse("2025-05-01"), SportType.RIDE, 1, 40000, 150, 4800),
+                new TrainingSummary(LocalDate.parse("2025-05-01"), SportType.RUN, 3, 23000, 20, 6600));
+    }
+
+    @Test
+    void activitiesWithoutStore_summedPerSportType() {
+        TrainingSummaryEngine engine = new TrainingSummaryEngine(activityStore());
+        Flux<DetailedActivity> activities = Flux.just(
+                activity(1L, "2025-05-05T17:00:00Z", SportType.RUN, 10000f, 12f, 2700),
+                activity(2L, "2025-05-07T17:00:00Z", SportType.RUN, 5000f, 3f, 1500),
+                activity(3L, "2025-05-08T06:00:00Z", SportType.RIDE, 40000f, 150f, 4800));
+
+        StepVerifier.create(engine.summarize(activities, MAY_1, JUNE_1, SummaryBucket.MONTH))
+                .expectNext(List.of(
+                        new TrainingSummary(LocalDate.parse("2025-05-01"), SportType.RIDE, 1, 40000, 150, 4800),
+                        new TrainingSummary(LocalDate.parse("2025-05-01"), SportType.RUN, 2, 15000, 15, 4200)))
+                .verifyComplete();
+        // Nothing is kept for the next summary
+        StepVerifier.create(engine.summarize(Flux.empty(), MAY_1, JUNE_1, SummaryBucket.MONTH))
+                .expectNext(List.of())
+                .verifyComplete();
+    }
+
+    @Test
+    void updatedActivity_replacedInTotals() {
+        ActivityStore activityStore = activityStore();
+        TrainingSummaryEngine engine = new TrainingSummaryEngine(activityStore);
+        activityStore.save("2523456", activity(1L, "2025-05-05T17:00:00Z", SportType.RUN, 10000f, 12f, 2700));
+        activityStore.save("2523456", activity(1L, "2025-05-05T17:00:00Z", SportType.TRAIL_RUN, 10500f, 80f, 3000));
+
+        assertThat(engine.summarize("2523456", MAY_1, JUNE_1, SummaryBucket.YEAR)).containsExactly(
+                new TrainingSummary(LocalDate.parse("2025-01-01"), SportType.TRAIL_RUN, 1, 10500, 80, 3000));
+    }
+
+    @Test
+    void restart_totalsLoadedFromStoreOnce() {
+        ActivityStore activityStore = activityStore();
+        activityStore.save("2523456", activity(1L, "2025-05-05T17:00:00Z", SportType.RUN, 10000f, 12f, 2700));
+
+        TrainingSummaryEngine engine = new TrainingSummaryEngine(activityStore());
+
+        assertThat(engine.summarize("2523456", MAY_1, JUNE_1, SummaryBucket.DAY)).containsExactly(
+                new TrainingSummary(LocalDate.parse("2025-05-05"), SportType.RUN, 1, 10000, 12, 2700));
+        assertThat(engine.summarize("other", MAY_1, JUNE_1, SummaryBucket.DAY)).isEmpty();
+    }
+
+    @Test
+    void beforeIsAfter_exception() {
+        TrainingSummaryEngine engine = new TrainingSummaryEngine(activityStore());
+
+        assertThatThrownBy(() -> engine.summarize("2523456", JUNE_1, MAY_1, SummaryBucket.WEEK))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private ActivityStore activityStore() {
+        return new ActivityStore(Jackson2ObjectMapperBuilder.json().build(), directory);
+    }
+
+    private static DetailedActivity activity(long id, String startDate, SportType sportType, float distance, float elevationGain, int movingTime) {
+        return new DetailedActivity()
+                .id(id)
+                .startDate(OffsetDateTime.parse(startDate))
+                .sportType(sportType)
+                .distance(distance)
+                .totalElevationGain(elevationGain)
+                .movingTime(movingTime);
+    }
+}
@@ -0,0 +1,198 @@
+package nl.thomas.stravaclient.webhook;
+
+import nl.thomas.strava.model.DetailedActivity;
+import nl.thomas.strava.model.DetailedAthlete;
+import nl.thomas.stravaclient.client.RequestPriority;
+import nl.thomas.stravaclient.client.StravaClient;
+import nl.thomas.stravaclient.client.TokenService;
+import nl.thomas.stravaclient.store.ActivitySyncService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.oauth2.client.ClientAuthorizationException;
+import org.springframework.security.oauth2.core.OAuth2Error;
+import org.springframework.security.oauth2.core.OAuth2ErrorCodes;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class WebhookEventPipelineTest {
+
+    private static final Duration BATCH_WINDOW = Duration.ofSeconds(5);
+
+    @Mock
+    ActivitySyncService activitySyncService;
+    @Mock
+    StravaClient stravaClient;
+    @Mock
+    TokenService tokenService;
+
+    private final VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+    private WebhookEventPipeline pipeline;
+
+    @AfterEach
+    void stop() {
+        pipeline.stop();
+    }
+
+    private WebhookEventPipeline pipeline(int batchSize) {
+        pipeline = new WebhookEventPipeline(activitySyncService, stravaClient, tokenService, batchSize, BATCH_WINDOW, 16, 1, scheduler);
+        return pipeline;
+    }
+
+    @Test
+    void burstOfUpdates_activityFetchedOnceInBackground() {
+        List<RequestPriority> priorities = new ArrayList<>();
+        List<String> athletes = new ArrayList<>();
+        when(activitySyncService.refreshActivity(any(), eq(1155632529L))).thenAnswer(invocation -> Mono.deferContextual(context -> {
+            priorities.add(context.get(RequestPriority.class));
+            athletes.add(invocation.<OAuth2User>getArgument(0).getName());
+            return Mono.just(new DetailedActivity().id(1155632529L));
+        }));
+        pipeline(100);
+
+        pipeline.submit(event(StravaEvent.ObjectType.ACTIVITY, 1155632529L, StravaEvent.AspectType.CREATE, Map.of()));
+        pipeline.submit(event(StravaEvent.ObjectType.ACTIVITY, 1155632529L, StravaEvent.AspectType.UPDATE, Map.of("title", "Ochtendloop")));
+        pipeline.submit(event(StravaEvent.ObjectType.ACTIVITY, 1155632529L, StravaEvent.AspectType.UPDATE, Map.of("type", "Run")));
+        verify(activitySyncService, never()).refreshActivity(any(), anyLong());
+        scheduler.advanceTimeBy(BATCH_WINDOW);
+
+        assertThat(priorities).containsExactly(RequestPriority.BACKGROUND);
+        assertThat(athletes).containsExactly("2523456");
+        assertThat(pipeline.getReceivedCount()).isEqualTo(3);
+        assertThat(pipeline.getCollapsedCount()).isEqualTo(2);
+    }
+
+    @Test
+    void deleteInBurst_onlyDeleted() {
+        when(stravaClient.getDetailedActivity(any(), eq(1155632529L))).thenReturn(Mono.error(status(404)));
+        pipeline(100);
+
+        pipeline.submit(event(StravaEvent.ObjectType.ACTIVITY, 1155632529L, StravaEvent.AspectType.CREATE, Map.of()));
+        pipeline.submit(event(StravaEvent.ObjectType.ACTIVITY, 1155632529L, StravaEvent.AspectType.DELETE, Map.of()));
+        pipeline.submit(event(StravaEvent.ObjectType.ACTIVITY, 1155632529L, StravaEvent.AspectType.UPDATE, Map.of("private", "true")));
+        scheduler.advanceTimeBy(BATCH_WINDOW);
+
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(() ->
+                verify(activitySyncService).deleteActivity("2523456", 1155632529L));
+        verify(activitySyncService, never()).refreshActivity(any(), anyLong());
+    }
+
+    @Test
+    void deleteOfActivityStravaStillHas_ignored() {
+        when(stravaClient.getDetailedActivity(any(), eq(1155632529L))).thenReturn(Mono.just(new DetailedActivity().id(1155632529L)));
+        pipeline(100);
+
+        pipeline.submit(event(StravaEvent.ObjectType.ACTIVITY, 1155632529L, StravaEvent.AspectType.DELETE, Map.of()));
+        scheduler.advanceTimeBy(BATCH_WINDOW);
+
+        verify(stravaClient).getDetailedActivity(any(), eq(1155632529L));
+        verify(activitySyncService, never()).deleteActivity(any(), anyLong());
+    }
+
+    @Test
+    void deauthorization_athleteForgotten() {
+        when(stravaClient.getDetailedAthlete(any())).thenReturn(Mono.error(status(401)));
+        pipeline(100);
+
+        pipeline.submit(event(StravaEvent.ObjectType.ATHLETE, 2523456L, StravaEvent.AspectType.UPDATE, Map.of("authorized", "false")));
+        scheduler.advanceTimeBy(BATCH_WINDOW);
+
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(() ->
+                verify(tokenService).forget("2523456"));
+    }
+
+    @Test
+    void deauthorizationWithRefreshTokenRefused_athleteForgotten() {
+        when(stravaClient.getDetailedAthlete(any())).thenReturn(Mono.error(
+                new ClientAuthorizationException(new OAuth2Error(OAuth2ErrorCodes.INVALID_GRANT), "strava")));
+        pipeline(100);
+
+        pipeline.submit(event(StravaEvent.ObjectType.ATHLETE, 2523456L, StravaEvent.AspectType.UPDATE, Map.of("authorized", "false")));
+        scheduler.advanceTimeBy(BATCH_WINDOW);
+
+        await().atMost(Duration.ofSeconds(5)).untilAsserted(() ->
+                verify(tokenService).forget("2523456"));
+    }
+
+    @Test
+    void deauthorizationWhileTokenStillAccepted_ignored() {
+        when(stravaClient.getDetailedAthlete(any())).thenReturn(Mono.just(new DetailedAthlete()));
+        pipeline(100);
+
+        pipeline.submit(event(StravaEvent.ObjectType.ATHLETE, 2523456L, StravaEvent.AspectType.UPDATE, Map.of("authorized", "false")));
+        scheduler.advanceTimeBy(BATCH_WINDOW);
+
+        verify(stravaClient).getDetailedAthlete(any());
+        verify(tokenService, never()).forget(any());
+    }
+
+    @Test
+    void failedFetch_nextEventsStillProcessed() {
+        when(activitySyncService.refreshActivity(any(), eq(1L))).thenReturn(Mono.error(new IllegalStateException("Foutje")));
+        when(activitySyncService.refreshActivity(any(), eq(2L))).thenReturn(Mono.just(new DetailedActivity().id(2L)));
+        pipeline(100);
+
+        pipeline.submit(event(StravaEvent.ObjectType.ACTIVITY, 1L, StravaEvent.AspectType.CREATE, Map.of()));
+        scheduler.advanceTimeBy(BATCH_WINDOW);
+        pipeline.submit(event(StravaEvent.ObjectType.ACTIVITY, 2L, StravaEvent.AspectType.CREATE, Map.of()));
+        scheduler.advanceTimeBy(BATCH_WINDOW);
+
+        verify(activitySyncService).refreshActivity(any(), eq(2L));
+    }
+
+    @Test
+    void pipelineFailed_startedAgain() {
+        when(activitySyncService.refreshActivity(any(), eq(1L))).thenThrow(new IllegalStateException("Foutje"));
+        when(activitySyncService.refreshActivity(any(), eq(2L))).thenReturn(Mono.just(new DetailedActivity().id(2L)));
+        pipeline(100);
+
+        pipeline.submit(event(StravaEvent.ObjectType.ACTIVITY, 1L, StravaEvent.AspectType.CREATE, Map.of()));
+        scheduler.advanceTimeBy(BATCH_WINDOW);
+        assertThat(pipeline.submit(event(StravaEvent.ObjectType.ACTIVITY, 2L, StravaEvent.AspectType.CREATE, Map.of()))).isTrue();
+        scheduler.advanceTimeBy(BATCH_WINDOW);
+
+        verify(activitySyncService).refreshActivity(any(), eq(2L));
+    }
+
+    @Test
+    void stuckFetch_queueFillsUpAndEventsRejected() {
+        when(activitySyncService.refreshActivity(any(), anyLong())).thenReturn(Mono.never());
+        pipeline(1);
+
+        List<Boolean> accepted = new ArrayList<>();
+        for (long i = 0; i < 200; i++) {
+            accepted.add(pipeline.submit(event(StravaEvent.ObjectType.ACTIVITY, i, StravaEvent.AspectType.CREATE, Map.of())));
+        }
+
+        assertThat(accepted).startsWith(true).endsWith(false);
+        assertThat(pipeline.getReceivedCount()).isEqualTo(accepted.stream().filter(Boolean::booleanValue).count());
+    }
+
+    private static WebClientResponseException status(int status) {
+        return WebClientResponseException.create(status, "", HttpHeaders.EMPTY, new byte[0], null);
+    }
+
+    static StravaEvent event(StravaEvent.ObjectType objectType, long objectId, StravaEvent.AspectType aspectType, Map<String, String> updates) {
+        return new StravaEvent(objectType, objectId, aspectType, updates, 2523456L, 120475L, 1516126040L);
+    }
+}
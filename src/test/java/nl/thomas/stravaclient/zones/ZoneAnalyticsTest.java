@@ -0,0 +1,186 @@
+package nl.thomas.stravaclient.zones;
+
+import nl.thomas.stravaclient.client.ActivityStreams;
+import nl.thomas.stravaclient.client.AthleteZones;
+import nl.thomas.stravaclient.client.StravaClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ZoneAnalyticsTest {
+
+    private static final AthleteZones ZONES = new AthleteZones(
+            new AthleteZones.ZoneRanges(false, List.of(
+                    new AthleteZones.ZoneRange(0, 120),
+                    new AthleteZones.ZoneRange(120, 140),
+                    new AthleteZones.ZoneRange(140, 160),
+                    new AthleteZones.ZoneRange(160, 180),
+                    new AthleteZones.ZoneRange(180, -1))),
+            new AthleteZones.ZoneRanges(null, List.of(
+                    new AthleteZones.ZoneRange(0, 150),
+                    new AthleteZones.ZoneRange(150, 250),
+                    new AthleteZones.ZoneRange(250, -1))));
+
+    @Mock
+    StravaClient stravaClient;
+
+    private ZoneAnalytics zoneAnalytics(ZoneKernel kernel) {
+        return new ZoneAnalytics(stravaClient, 4, 2, kernel);
+    }
+
+    private static ActivityStreams streams(long activityId, int[] time, int[] heartrate, int[] watts, boolean[] moving) {
+        int size = time.length;
+        return new ActivityStreams(activityId, size, size, time, null, null, null, null, null, heartrate, null, watts, null, moving, null);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void heartRate_timeInZonesAndTrimp(boolean vectorized) {
+        ActivityStreams activity = streams(
+                1155632529L,
+                new int[]{0, 10, 20, 30, 40, 50},
+                new int[]{100, 130, 150, 170, 190, 190},
+                null,
+                null);
+
+        ActivityLoad load = zoneAnalytics(vectorized ? new VectorZoneKernel() : new ScalarZoneKernel()).analyze(activity, ZONES);
+
+        assertThat(load.heartRateZoneSeconds()).containsExactly(10, 10, 10, 10, 10);
+        // (10 + 20 + 30 + 40 + 50) seconds
+        assertThat(load.trimp()).isCloseTo(2.5, within(1e-9));
+        assertThat(load.powerZoneSeconds()).isNull();
+        assertThat(load.normalizedPower()).isNull();
+    }
+
+    @Test
+    void stopsAndLongGaps_noTimeInZones() {
+        ActivityStreams activity = streams(
+                1155632529L,
+                new int[]{0, 5, 10, 600, 605},
+                new int[]{130, 130, 130, 130, 130},
+                null,
+                new boolean[]{true, false, true, true, true});
+
+        ActivityLoad load = zoneAnalytics(new ScalarZoneKernel()).analyze(activity, ZONES);
+
+        // 5 seconds until the stop, none of the stop, 10 of the 590 second gap and 5 until the last point
+        assertThat(load.heartRateZoneSeconds()).containsExactly(0, 20, 0, 0, 0);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void steadyPower_normalizedPowerIsAveragePower(boolean vectorized) {
+        int[] time = IntStream.range(0, 3600).toArray();
+        int[] watts = new int[time.length];
+        Arrays.fill(watts, 200);
+
+        ActivityLoad load = zoneAnalytics(vectorized ? new VectorZoneKernel() : new ScalarZoneKernel())
+                .analyze(streams(1155632529L, time, null, watts, null), ZONES);
+
+        assertThat(load.normalizedPower()).isCloseTo(200, within(1e-9));
+        assertThat(load.powerZoneSeconds()).containsExactly(0, 3599, 0);
+        assertThat(load.heartRateZoneSeconds()).isNull();
+    }
+
+    @Test
+    void intervals_normalizedPowerAboveAveragePower() {
+        // Ten minutes at 300 W and ten at 100 W: 200 W on average
+        int[] time = IntStream.range(0, 1200).toArray();
+        int[] watts = IntStream.range(0, 1200).map(second -> second < 600 ? 300 : 100).toArray();
+
+        ActivityLoad load = zoneAnalytics(new ScalarZoneKernel()).analyze(streams(1155632529L, time, null, watts, null), ZONES);
+
+        // The hard part weighs more: (300^4 / 2 + 100^4 / 2)^(1/4) is about 253 W
+        assertThat(load.normalizedPower()).isCloseTo(253, within(2.0));
+    }
+
+    @Test
+    void everyOtherSecondRecorded_sameAsEverySecond() {
+        int[] time = IntStream.range(0, 600).map(i -> i * 2).toArray();
+        int[] watts = new int[time.length];
+        Arrays.fill(watts, 250);
+
+        ActivityLoad load = zoneAnalytics(new ScalarZoneKernel()).analyze(streams(1155632529L, time, null, watts, null), ZONES);
+
+        assertThat(load.normalizedPower()).isCloseTo(250, within(1e-9));
+    }
+
+    @Test
+    void randomRides_vectorizedSameAsScalar() {
+        Random random = new Random(42);
+        List<ActivityStreams> activities = IntStream.range(0, 20)
+                .mapToObj(activity -> {
+                    // Sizes that are not a multiple of any vector length
+                    int size = 1000 + random.nextInt(5000);
+                    int[] time = new int[size];
+                    for (int i = 1; i < size; i++) {
+                        time[i] = time[i - 1] + 1 + (random.nextInt(20) == 0 ? random.nextInt(30) : 0);
+                    }
+                    int[] heartrate = random.ints(size, 90, 200).toArray();
+                    int[] watts = random.ints(size, 0, 600).toArray();
+                    boolean[] moving = new boolean[size];
+                    for (int i = 0; i < size; i++) {
+                        moving[i] = random.nextInt(50) != 0;
+                    }
+                    return streams(activity, time, heartrate, watts, moving);
+                })
+                .toList();
+
+        List<ActivityLoad> scalar = zoneAnalytics(new ScalarZoneKernel()).analyze(activities, ZONES);
+        List<ActivityLoad> vectorized = zoneAnalytics(new VectorZoneKernel()).analyze(activities, ZONES);
+
+        for (int i = 0; i < activities.size(); i++) {
+            assertThat(vectorized.get(i).heartRateZoneSeconds()).containsExactly(scalar.get(i).heartRateZoneSeconds());
+            assertThat(vectorized.get(i).powerZoneSeconds()).containsExactly(scalar.get(i).powerZoneSeconds());
+            assertThat(vectorized.get(i).trimp()).isEqualTo(scalar.get(i).trimp());
+            assertThat(vectorized.get(i).normalizedPower()).isCloseTo(scalar.get(i).normalizedPower(), within(1e-6));
+        }
+    }
+
+    @Test
+    void streamsOfOneActivityFail_othersAnalysed() {
+        OAuth2User oAuth2User = mock(OAuth2User.class);
+        when(stravaClient.getAthleteZones(oAuth2User)).thenReturn(Mono.just(ZONES));
+        int[] time = IntStream.range(0, 60).toArray();
+        int[] heartrate = new int[time.length];
+        Arrays.fill(heartrate, 150);
+        for (long activityId : new long[]{1L, 2L, 4L}) {
+            when(stravaClient.getActivityStreams(eq(oAuth2User), eq(activityId), any(), eq(null)))
+                    .thenReturn(Mono.just(streams(activityId, time, heartrate, null, null)));
+        }
+        when(stravaClient.getActivityStreams(eq(oAuth2User), eq(3L), any(), eq(null)))
+                .thenReturn(Mono.error(new IllegalStateException("Strava is down")));
+
+        List<ActivityLoad> loads = zoneAnalytics(new ScalarZoneKernel()).getActivityLoads(oAuth2User, List.of(1L, 2L, 3L, 4L))
+                .collectList()
+                .block();
+
+        assertThat(loads).extracting(ActivityLoad::activityId).containsExactlyInAnyOrder(1L, 2L, 4L);
+        assertThat(loads).allSatisfy(load -> assertThat(load.heartRateZoneSeconds()).containsExactly(0, 0, 59, 0, 0));
+    }
+
+    @Test
+    void moduleOnModulePath_vectorized() {
+        // The build starts the tests with --add-modules=jdk.incubator.vector
+        assertThat(new ZoneAnalytics(stravaClient, 4, 32, true).isVectorized()).isTrue();
+        assertThat(new ZoneAnalytics(stravaClient, 4, 32, false).isVectorized()).isFalse();
+    }
+}